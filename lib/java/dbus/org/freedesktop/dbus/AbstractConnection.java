@@ -12,8 +12,10 @@ package org.freedesktop.dbus;
 
 import static org.freedesktop.dbus.Gettext._;
 
+import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.lang.reflect.Type;
 
 import java.io.File;
@@ -22,13 +24,15 @@ import java.io.IOException;
 import java.text.MessageFormat;
 import java.text.ParseException;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Vector;
 
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import org.freedesktop.DBus;
@@ -97,14 +101,7 @@ public abstract class AbstractConnection
                      if (Debug.debug) Debug.print(Debug.VERBOSE, "Got Incoming Message: "+m);
                      synchronized (this) { notifyAll(); }
 
-                     if (m instanceof DBusSignal)
-                        handleMessage((DBusSignal) m);
-                     else if (m instanceof MethodCall)
-                        handleMessage((MethodCall) m);
-                     else if (m instanceof MethodReturn)
-                        handleMessage((MethodReturn) m);
-                     else if (m instanceof Error)
-                        handleMessage((Error) m);
+                     handleIncoming(m);
 
                      m = null;
                   }
@@ -149,25 +146,246 @@ public abstract class AbstractConnection
                "\"http://www.freedesktop.org/standards/dbus/1.0/introspect.dtd\">\n"+intro;
       }
    }
-   protected class _workerthread extends Thread
+   /**
+    * A snapshot of the work queued for the worker threads of a connection.
+    */
+   public static class DispatchStats
+   {
+      /** Tasks waiting to run. */
+      public final int queued;
+      /** The most tasks ever waiting at once. */
+      public final int peakQueued;
+      /** Objects with signals waiting or being handled. */
+      public final int lanes;
+      /** The most objects ever waiting at once. */
+      public final int peakLanes;
+      /** Worker threads running a task. */
+      public final int busyThreads;
+      /** Tasks run so far. */
+      public final long completed;
+      /** Tasks run so far, indexed by priority, see DBusPriority. */
+      public final long[] completedByPriority;
+      /** Signals dropped because a later one for the same property replaced them while waiting. */
+      public final long coalesced;
+      DispatchStats(int queued, int peakQueued, int lanes, int peakLanes, int busyThreads, long[] completedByPriority, long coalesced)
+      {
+         this.queued = queued;
+         this.peakQueued = peakQueued;
+         this.lanes = lanes;
+         this.peakLanes = peakLanes;
+         this.busyThreads = busyThreads;
+         this.completedByPriority = completedByPriority;
+         this.coalesced = coalesced;
+         long c = 0;
+         for (long n: completedByPriority) c += n;
+         this.completed = c;
+      }
+      public String toString()
+      {
+         StringBuilder sb = new StringBuilder("queued="+queued+" (peak "+peakQueued+") lanes="+lanes+" (peak "+peakLanes+") busy="+busyThreads+" completed="+completed+" (");
+         for (int p = 0; p < completedByPriority.length; p++) {
+            if (0 != p) sb.append(' ');
+            sb.append(OutgoingQueue.NAMES[p]+"="+completedByPriority[p]);
+         }
+         return sb.append(") coalesced="+coalesced).toString();
+      }
+   }
+   /**
+    * A snapshot of the method calls awaiting replies on a connection.
+    */
+   public static class PendingCallStats
+   {
+      /** Calls awaiting a reply. */
+      public final int pending;
+      /** The most calls ever awaiting a reply at once. */
+      public final int peakPending;
+      /** Slots in the table of pending calls. */
+      public final int capacity;
+      /** Calls which had no reply within their timeout. */
+      public final long expired;
+      PendingCallStats(int pending, int peakPending, int capacity, long expired)
+      {
+         this.pending = pending;
+         this.peakPending = peakPending;
+         this.capacity = capacity;
+         this.expired = expired;
+      }
+      public String toString()
+      {
+         return "pending="+pending+" (peak "+peakPending+") capacity="+capacity+" expired="+expired;
+      }
+   }
+   /**
+    * A snapshot of the messages waiting to be sent on a connection.
+    * Each array is indexed by priority, see DBusPriority.
+    */
+   public static class OutgoingStats
+   {
+      /** Messages waiting to be sent. */
+      public final int[] queued;
+      /** The most messages ever waiting at once. */
+      public final int[] peakQueued;
+      /** The most messages which may wait, or 0 for no limit. */
+      public final int[] bound;
+      /** Messages sent so far. */
+      public final long[] sent;
+      /** The mean and longest time in us messages sent waited in the queue. */
+      public final long[] meanWait;
+      public final long[] maxWait;
+      /** How many times callers waited for room, and the total ms they waited. */
+      public final long[] blocked;
+      public final long[] blockedTime;
+      OutgoingStats(int[] queued, int[] peakQueued, int[] bound, long[] sent, long[] meanWait, long[] maxWait, long[] blocked, long[] blockedTime)
+      {
+         this.queued = queued;
+         this.peakQueued = peakQueued;
+         this.bound = bound;
+         this.sent = sent;
+         this.meanWait = meanWait;
+         this.maxWait = maxWait;
+         this.blocked = blocked;
+         this.blockedTime = blockedTime;
+      }
+      public String toString()
+      {
+         StringBuilder sb = new StringBuilder();
+         for (int p = 0; p < queued.length; p++) {
+            if (p > 0) sb.append('\n');
+            sb.append(OutgoingQueue.NAMES[p]).append(": queued=").append(queued[p])
+               .append(" (peak ").append(peakQueued[p]).append(", bound ").append(bound[p])
+               .append(") sent=").append(sent[p])
+               .append(" wait us mean=").append(meanWait[p]).append(" max=").append(maxWait[p])
+               .append(" blocked=").append(blocked[p]).append(" (").append(blockedTime[p]).append("ms)");
+         }
+         return sb.toString();
+      }
+   }
+   /**
+    * A snapshot of the latencies of a connection, by interface.member.
+    * Each histogram counts times in us in fixed buckets.
+    */
+   public static class LatencyStats
+   {
+      /** A histogram of times in us. */
+      public static class Histogram
+      {
+         /** Counts by bucket, see LatencyStats.bounds. */
+         public final long[] counts;
+         public final long count;
+         /** The total and longest time in us. */
+         public final long sum;
+         public final long max;
+         Histogram(long[] counts, long sum, long max)
+         {
+            this.counts = counts;
+            long c = 0;
+            for (long n: counts) c += n;
+            this.count = c;
+            this.sum = sum;
+            this.max = max;
+         }
+         /**
+          * Returns the bound in us of the bucket holding the given
+          * fraction of the times, or the longest time if that is less.
+          */
+         public long percentile(double fraction)
+         {
+            long want = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length - 1; i++) {
+               seen += counts[i];
+               if (seen >= want) return Math.min(Latencies.BOUNDS[i], max);
+            }
+            return max;
+         }
+         public String toString()
+         {
+            if (0 == count) return "n=0";
+            return "n="+count+" mean="+sum/count+" p50<="+percentile(0.5)+" p90<="+percentile(0.9)+" p99<="+percentile(0.99)+" max="+max;
+         }
+      }
+      /** The latencies of one interface and member. */
+      public static class Member
+      {
+         /** Time calls and signals waited in the outgoing queue. */
+         public final Histogram queued;
+         /** Time from writing a call to its reply or error arriving. */
+         public final Histogram wire;
+         /** Time in the handler of a call or signal received. */
+         public final Histogram handler;
+         /** Signals received. */
+         public final long signals;
+         Member(Histogram queued, Histogram wire, Histogram handler, long signals)
+         {
+            this.queued = queued;
+            this.wire = wire;
+            this.handler = handler;
+            this.signals = signals;
+         }
+         public String toString()
+         {
+            StringBuilder sb = new StringBuilder();
+            if (0 != queued.count) sb.append(" queued us ").append(queued);
+            if (0 != wire.count) sb.append(" wire us ").append(wire);
+            if (0 != handler.count) sb.append(" handler us ").append(handler);
+            if (0 != signals) sb.append(" signals=").append(signals);
+            return sb.toString();
+         }
+      }
+      /** Upper bounds in us of the buckets; the last bucket has none. */
+      public final long[] bounds;
+      /** By interface.member, in order. */
+      public final Map<String, Member> members;
+      LatencyStats(long[] bounds, Map<String, Member> members)
+      {
+         this.bounds = bounds;
+         this.members = members;
+      }
+      /** One line per interface.member. */
+      public String toString()
+      {
+         StringBuilder sb = new StringBuilder();
+         for (Map.Entry<String, Member> e: members.entrySet()) {
+            if (0 != sb.length()) sb.append('\n');
+            sb.append(e.getKey()).append(':').append(e.getValue());
+         }
+         return sb.toString();
+      }
+   }
+   /**
+    * Replies with NoReply to the method calls whose timeouts have passed.
+    */
+   private class _timeouts extends Thread
    {
-      private boolean _run = true;
-      public void halt()
+      public _timeouts()
       {
-         _run = false;
+         setName("DBus reply timeouts");
+         setDaemon(true);
       }
       public void run()
       {
-        while (_run) {
-           Runnable r = null;
-           synchronized (runnables) {
-              while (runnables.size() == 0 && _run) 
-                 try { runnables.wait(); } catch (InterruptedException Ie) {}
-              if (runnables.size() > 0)
-                 r = runnables.removeFirst();
-           }
-           if (null != r) r.run();
-        }
+         List<MethodCall> expired = new ArrayList<MethodCall>();
+         while (_run) {
+            PendingCalls p = pendingCalls;
+            if (null == p) break;
+            synchronized (p) {
+               try {
+                  // nothing can expire until a call is added
+                  if (0 == p.size()) p.wait();
+                  else p.wait(PendingCalls.TICK);
+               } catch (InterruptedException Ie) {}
+               p.expire(PendingCalls.now(), expired);
+            }
+            for (MethodCall m: expired) {
+               if (Debug.debug) Debug.print(Debug.VERBOSE, "Timed out waiting for a reply to "+m);
+               try {
+                  handleError(m, new Error("org.freedesktop.DBus.Local", "org.freedesktop.DBus.Error.NoReply", m.getSerial(), "s", new Object[] { _("No reply within specified time") }));
+               } catch (DBusException DBe) {
+                  if (EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, DBe);
+               }
+            }
+            expired.clear();
+         }
       }
    }
    private class _sender extends Thread
@@ -178,37 +396,40 @@ public abstract class AbstractConnection
       }
       public void run()
       {
-         Message m = null;
+         Message[] batch = new Message[sendbatch];
+         int n = 0;
 
          if (Debug.debug) Debug.print(Debug.INFO, "Monitoring outbound queue");
-         // block on the outbound queue and send from it
+         // block on the outbound queue and send everything queued in one write
          while (_run) {
             if (null != outgoing) synchronized (outgoing) {
                if (Debug.debug) Debug.print(Debug.VERBOSE, "Blocking");
                while (outgoing.size() == 0 && _run) 
                   try { outgoing.wait(); } catch (InterruptedException Ie) {}
                if (Debug.debug) Debug.print(Debug.VERBOSE, "Notified");
-               if (outgoing.size() > 0)
-                  m = outgoing.remove();
-               if (Debug.debug) Debug.print(Debug.DEBUG, "Got message: "+m);
+               if (batch.length != sendbatch) batch = new Message[sendbatch];
+               n = outgoing.remove(batch, 0, batch.length);
+               // wait for the batch to fill, up to the latency cap
+               if (n > 0 && n < batch.length && sendlatency > 0) {
+                  long deadline = System.currentTimeMillis() + sendlatency;
+                  long left;
+                  while (n < batch.length && _run && (left = deadline - System.currentTimeMillis()) > 0) {
+                     try { outgoing.wait(left); } catch (InterruptedException Ie) {}
+                     n += outgoing.remove(batch, n, batch.length - n);
+                  }
+               }
+               if (Debug.debug) Debug.print(Debug.DEBUG, "Got "+n+" messages");
+            }
+            for (int i = 0; i < n; i++) {
+               sendMessage(batch[i], false);
+               batch[i] = null;
             }
-            if (null != m) 
-               sendMessage(m);
-            m = null;
+            if (n > 0) flushOutgoing();
+            n = 0;
          }
 
          if (Debug.debug) Debug.print(Debug.INFO, "Flushing outbound queue and quitting");
-         // flush the outbound queue before disconnect.
-         if (null != outgoing) do {
-				EfficientQueue ogq = outgoing;
-            synchronized (ogq) {
-					outgoing = null;
-				}
-				if (!ogq.isEmpty())
-					m = ogq.remove(); 
-				else m = null;
-				sendMessage(m);
-         } while (null != m);
+         closeOutgoing();
 
          // close the underlying streams
       }
@@ -217,6 +438,8 @@ public abstract class AbstractConnection
     * Timeout in us on checking the BUS for incoming messages and sending outgoing messages
     */
    protected static final int TIMEOUT = 100000;
+   /** Default maximum number of messages sent in one write */
+   private static final int DEFAULT_SEND_BATCH = 32;
    /** Initial size of the pending calls map */
    private static final int PENDING_MAP_INITIAL_SIZE = 10;
    static final String BUSNAME_REGEX = "^[-_a-zA-Z][-_a-zA-Z0-9]*(\\.[-_a-zA-Z][-_a-zA-Z0-9]*)*$";
@@ -228,27 +451,33 @@ public abstract class AbstractConnection
    protected Map<String,ExportedObject> exportedObjects;
    private ObjectTree objectTree;
    private _globalhandler _globalhandlerreference;
-   protected Map<DBusInterface,RemoteObject> importedObjects;
-   protected Map<SignalTuple,Vector<DBusSigHandler<? extends DBusSignal>>> handledSignals;
-   protected EfficientMap pendingCalls;
+   protected ProxyCache importedObjects;
+   protected SignalIndex handledSignals;
+   protected PendingCalls pendingCalls;
    protected Map<MethodCall, CallbackHandler<? extends Object>> pendingCallbacks;
    protected Map<MethodCall, DBusAsyncReply<? extends Object>> pendingCallbackReplys;
-   protected LinkedList<Runnable> runnables;
-   protected LinkedList<_workerthread> workers;
+   protected Dispatcher dispatcher;
    protected FallbackContainer fallbackcontainer;
    protected boolean _run;
-   EfficientQueue outgoing;
+   OutgoingQueue outgoing;
+   final Latencies latencies = new Latencies();
    LinkedList<Error> pendingErrors;
-   private static final Map<Thread,DBusCallInfo> infomap = new HashMap<Thread,DBusCallInfo>();
+   private static final ThreadLocal<DBusCallInfo> callinfo = new ThreadLocal<DBusCallInfo>();
    protected _thread thread;
    protected _sender sender;
    protected Transport transport;
    protected String addr;
    protected boolean weakreferences = false;
    static final Pattern dollar_pattern = Pattern.compile("[$]");
+   static final Pattern busname_pattern = Pattern.compile(BUSNAME_REGEX);
+   static final Pattern connid_pattern = Pattern.compile(CONNID_REGEX);
    public static final boolean EXCEPTION_DEBUG;
    static final boolean FLOAT_SUPPORT;
 	protected boolean connected = false;
+   private volatile int sendbatch = DEFAULT_SEND_BATCH;
+   private volatile long sendlatency = 0;
+   /** The batch sendQueued() sends from. */
+   private Message[] sendq;
    static {
       FLOAT_SUPPORT = (null != System.getenv("DBUS_JAVA_FLOATS"));
       EXCEPTION_DEBUG = (null != System.getenv("DBUS_JAVA_EXCEPTION_DEBUG"));
@@ -275,28 +504,20 @@ public abstract class AbstractConnection
    protected AbstractConnection(String address) throws DBusException
    {
       exportedObjects = new HashMap<String,ExportedObject>();
-      importedObjects = new HashMap<DBusInterface,RemoteObject>();
+      importedObjects = new ProxyCache(ProxyCache.DEFAULT_SIZE);
       _globalhandlerreference = new _globalhandler();
       synchronized (exportedObjects) {
          exportedObjects.put(null, new ExportedObject(_globalhandlerreference, weakreferences));
       }
-      handledSignals = new HashMap<SignalTuple,Vector<DBusSigHandler<? extends DBusSignal>>>();
-      pendingCalls = new EfficientMap(PENDING_MAP_INITIAL_SIZE);
-      outgoing = new EfficientQueue(PENDING_MAP_INITIAL_SIZE);
+      handledSignals = new SignalIndex();
+      pendingCalls = new PendingCalls(PENDING_MAP_INITIAL_SIZE);
+      outgoing = new OutgoingQueue(PENDING_MAP_INITIAL_SIZE, latencies);
       pendingCallbacks = new HashMap<MethodCall, CallbackHandler<? extends Object>>();
       pendingCallbackReplys = new HashMap<MethodCall, DBusAsyncReply<? extends Object>>();
       pendingErrors = new LinkedList<Error>();
-      runnables = new LinkedList<Runnable>();
-      workers = new LinkedList<_workerthread>();
+      dispatcher = new Dispatcher(THREADCOUNT);
       objectTree = new ObjectTree();
       fallbackcontainer = new FallbackContainer();
-      synchronized (workers) {
-         for (int i = 0; i < THREADCOUNT; i++) {
-            _workerthread t = new _workerthread();
-            t.start();
-            workers.add(t);
-         }
-      }
       _run = true;
       addr = address;
    }
@@ -304,12 +525,32 @@ public abstract class AbstractConnection
    protected void listen()
    {
       // start listening
-      thread = new _thread();
-      thread.start();
-      sender = new _sender();
-      sender.start();
+      if (transport instanceof NioTransport)
+         // the NIO selector thread reads and sends for this connection
+         ((NioTransport) transport).start(this);
+      else {
+         thread = new _thread();
+         thread.start();
+         sender = new _sender();
+         sender.start();
+      }
+      new _timeouts().start();
    }
 
+   /**
+    * Change how outgoing messages are coalesced into one write.
+    * Default is up to 32 messages, sending whatever is queued without waiting.
+    * @param maxmessages The most messages to send in one write.
+    * @param maxlatency How long in ms the sender may wait for a batch to fill
+    * once a message is queued. 0 never waits. Over NIO transports this is
+    * not used, and whatever is queued is sent on each turn of the selector.
+    */
+   public void setSendBatching(int maxmessages, long maxlatency)
+   {
+      if (maxmessages < 1 || maxlatency < 0) throw new IllegalArgumentException(_("Invalid send batching parameters"));
+      sendbatch = maxmessages;
+      sendlatency = maxlatency;
+   }
    /**
     * Change the number of worker threads to receive method calls and handle signals.
     * Default is 4 threads
@@ -317,29 +558,75 @@ public abstract class AbstractConnection
     */
    public void changeThreadCount(byte newcount)
    {
-      synchronized (workers) {
-         if (workers.size() > newcount) {
-            int n = workers.size() - newcount;
-            for (int i = 0; i < n; i++) {
-               _workerthread t = workers.removeFirst();
-               t.halt();
-            }
-         } else if (workers.size() < newcount) {
-            int n = newcount-workers.size();
-            for (int i = 0; i < n; i++) {
-               _workerthread t = new _workerthread();
-               t.start();
-               workers.add(t);
-            }
-         }
+      dispatcher.setThreadCount(newcount);
+   }
+   /**
+    * Returns statistics on the work queued for the worker threads.
+    */
+   public DispatchStats getDispatchStats()
+   {
+      return dispatcher.stats();
+   }
+   /**
+    * Returns statistics on the messages waiting to be sent, by priority,
+    * or null once disconnected.
+    */
+   public OutgoingStats getOutgoingStats()
+   {
+      OutgoingQueue q = outgoing;
+      return null == q ? null : q.stats();
+   }
+   /**
+    * Change how many messages of a priority may wait to be sent before
+    * callers sending more wait for room. Messages queued from the threads
+    * which read and send for the connection never wait.
+    * @param priority One of the priorities in DBusPriority.
+    * @param max The most messages which may wait, or 0 for no limit.
+    */
+   public void setOutgoingBound(int priority, int max)
+   {
+      if (priority < 0 || priority >= DBusPriority.COUNT || max < 0) throw new IllegalArgumentException(_("Invalid outgoing bound"));
+      OutgoingQueue q = outgoing;
+      if (null != q) q.setBound(priority, max);
+   }
+   /**
+    * Returns the latencies of the calls and signals sent and received,
+    * and counts of the signals received, by interface and member.
+    */
+   public LatencyStats getLatencyStats()
+   {
+      return latencies.snapshot();
+   }
+   /**
+    * Returns statistics on the method calls awaiting replies,
+    * or null once disconnected.
+    */
+   public PendingCallStats getPendingCallStats()
+   {
+      PendingCalls p = pendingCalls;
+      if (null == p) return null;
+      synchronized (p) {
+         return new PendingCallStats(p.size(), p.peak(), p.capacity(), p.expired());
       }
    }
-   private void addRunnable(Runnable r)
+   /**
+    * Changes how long to wait for the reply to a call, counted from now.
+    * @param timeout The timeout in ms, or a negative number for none.
+    */
+   void setTimeout(MethodCall m, long timeout)
    {
-      synchronized(runnables) {
-         runnables.add(r);
-         runnables.notifyAll();
+      PendingCalls p = pendingCalls;
+      if (null == p) {
+         m.timeout = timeout;
+         return;
       }
+      synchronized (p) {
+         p.setTimeout(m, timeout);
+      }
+   }
+   private void addRunnable(int priority, Runnable r)
+   {
+      dispatcher.execute(priority, r);
    }
 
    String getExportedObject(DBusInterface i) throws DBusException
@@ -350,25 +637,65 @@ public abstract class AbstractConnection
                return s;
       }
 
-      String s = importedObjects.get(i).objectpath;
-      if (null != s) return s;
+      RemoteObject ro = remoteObject(i);
+      if (null != ro) return ro.objectpath;
 
       throw new DBusException("Not an object exported or imported by this connection"); 
    }
 
    abstract DBusInterface getExportedObject(String source, String path) throws DBusException;
 
+   /**
+    * Whether a string is an object path, as matched by OBJECT_REGEX.
+    */
+   static boolean isObjectPath(String path)
+   {
+      int n = path.length();
+      if (0 == n || '/' != path.charAt(0)) return false;
+      boolean slash = true;
+      for (int i = 1; i < n; i++) {
+         char c = path.charAt(i);
+         if ('/' == c) {
+            if (slash) return false;
+            slash = true;
+         } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || '_' == c || '-' == c)
+            slash = false;
+         else
+            return false;
+      }
+      // only the root path may end with a slash
+      return !slash || 1 == n;
+   }
+   /**
+    * Returns the remote object a proxy or stub refers to, or null if it is neither.
+    */
+   static RemoteObject remoteObject(DBusInterface i)
+   {
+      if (i instanceof RemoteStub) return ((RemoteStub) i).remote;
+      if (null == i || !Proxy.isProxyClass(i.getClass())) return null;
+      InvocationHandler h = Proxy.getInvocationHandler(i);
+      return h instanceof RemoteInvocationHandler ? ((RemoteInvocationHandler) h).remote : null;
+   }
+   /**
+    * Forget the references to a remote object, and to any objects below it,
+    * once it has gone away.
+    * Getting the object again will return a new reference; references
+    * already handed out are not affected.
+    * @param busname The bus name the objects were got from, or null for any.
+    * @param objectpath The path of the object.
+    */
+   public void releaseRemoteObjects(String busname, String objectpath)
+   {
+      importedObjects.remove(busname, objectpath);
+   }
+
    /**
     * Returns a structure with information on the current method call.
     * @return the DBusCallInfo for this method call, or null if we are not in a method call.
     */
    public static DBusCallInfo getCallInfo() 
    {
-      DBusCallInfo info;
-      synchronized (infomap) {
-         info = infomap.get(Thread.currentThread());
-      }
-      return info;
+      return callinfo.get();
    }
 
    /**
@@ -395,7 +722,7 @@ public abstract class AbstractConnection
    {
       if (null == objectpath || "".equals(objectpath)) 
          throw new DBusException(_("Must Specify an Object Path"));
-      if (!objectpath.matches(OBJECT_REGEX)||objectpath.length() > MAX_NAME_LENGTH) 
+      if (!isObjectPath(objectpath)||objectpath.length() > MAX_NAME_LENGTH) 
          throw new DBusException(_("Invalid object path: ")+objectpath);
       synchronized (exportedObjects) {
          if (null != exportedObjects.get(objectpath)) 
@@ -418,7 +745,7 @@ public abstract class AbstractConnection
    {
       if (null == objectprefix || "".equals(objectprefix)) 
          throw new DBusException(_("Must Specify an Object Path"));
-      if (!objectprefix.matches(OBJECT_REGEX)||objectprefix.length() > MAX_NAME_LENGTH) 
+      if (!isObjectPath(objectprefix)||objectprefix.length() > MAX_NAME_LENGTH) 
          throw new DBusException(_("Invalid object path: ")+objectprefix);
          ExportedObject eo = new ExportedObject(object, weakreferences);
          fallbackcontainer.add(objectprefix, eo);
@@ -464,14 +791,58 @@ public abstract class AbstractConnection
    {
       queueOutgoing(signal);
    }
+   /**
+    * Queues a message to be sent. Unless called on a thread reading or
+    * sending for this connection, this waits while the priority of the
+    * message is full.
+    */
    void queueOutgoing(Message m)
    {
-      synchronized (outgoing) {
-			if (null == outgoing) return;
-         outgoing.add(m); 
-         if (Debug.debug) Debug.print(Debug.DEBUG, "Notifying outgoing thread");
-         outgoing.notifyAll();
+      OutgoingQueue q = outgoing;
+      if (null == q) return;
+      Thread c = Thread.currentThread();
+      if (!q.add(m, c != thread && c != sender && !NioTransport.isLoop(c))) {
+         if (m instanceof MethodCall)
+            try {
+               ((MethodCall) m).setReply(new Error("org.freedesktop.DBus.Local", "org.freedesktop.DBus.Local.Disconnected", 0, "s", new Object[] { _("Disconnected") }));
+            } catch (DBusException DBe) {}
+         return;
+      }
+      if (Debug.debug) Debug.print(Debug.DEBUG, "Notified outgoing thread");
+      Transport t = transport;
+      if (t instanceof NioTransport) ((NioTransport) t).wake();
+   }
+   /**
+    * Sends up to one batch of the queued messages without waiting,
+    * for transports that have no sender thread.
+    * @return true if the batch was full, so more may be queued.
+    */
+   boolean sendQueued()
+   {
+      OutgoingQueue q = outgoing;
+      if (null == q) return false;
+      Message[] batch = sendq;
+      if (null == batch || batch.length != sendbatch) sendq = batch = new Message[sendbatch];
+      int n = q.remove(batch, 0, batch.length);
+      for (int i = 0; i < n; i++) {
+         sendMessage(batch[i], false);
+         batch[i] = null;
       }
+      if (n > 0) flushOutgoing();
+      return n == batch.length;
+   }
+   /**
+    * Stops queueing messages, and flushes the outbound queue before disconnect.
+    */
+   void closeOutgoing()
+   {
+      OutgoingQueue ogq = outgoing;
+      if (null == ogq) return;
+      outgoing = null;
+      ogq.close();
+      Message m;
+      while (null != (m = ogq.remove()))
+         sendMessage(m);
    }
    /** 
     * Remove a Signal Handler.
@@ -496,8 +867,8 @@ public abstract class AbstractConnection
    public <T extends DBusSignal> void removeSigHandler(Class<T> type, DBusInterface object,  DBusSigHandler<T> handler) throws DBusException
    {
       if (!DBusSignal.class.isAssignableFrom(type)) throw new ClassCastException(_("Not A DBus Signal"));
-      String objectpath = importedObjects.get(object).objectpath;
-      if (!objectpath.matches(OBJECT_REGEX)||objectpath.length() > MAX_NAME_LENGTH)
+      String objectpath = remoteObject(object).objectpath;
+      if (!isObjectPath(objectpath)||objectpath.length() > MAX_NAME_LENGTH)
          throw new DBusException(_("Invalid object path: ")+objectpath);
       removeSigHandler(new DBusMatchRule(type, null, objectpath), handler);
    }
@@ -530,27 +901,40 @@ public abstract class AbstractConnection
    public <T extends DBusSignal> void addSigHandler(Class<T> type, DBusInterface object, DBusSigHandler<T> handler) throws DBusException
    {
       if (!DBusSignal.class.isAssignableFrom(type)) throw new ClassCastException(_("Not A DBus Signal"));
-      String objectpath = importedObjects.get(object).objectpath;
-      if (!objectpath.matches(OBJECT_REGEX)||objectpath.length() > MAX_NAME_LENGTH)
+      String objectpath = remoteObject(object).objectpath;
+      if (!isObjectPath(objectpath)||objectpath.length() > MAX_NAME_LENGTH)
          throw new DBusException(_("Invalid object path: ")+objectpath);
       addSigHandler(new DBusMatchRule(type, null, objectpath), (DBusSigHandler<? extends DBusSignal>) handler);
    }
 
    protected abstract <T extends DBusSignal> void addSigHandler(DBusMatchRule rule, DBusSigHandler<T> handler) throws DBusException;
 
+   /**
+    * Set whether signals of a type are coalesced. A signal of a coalesced
+    * type which only carries the latest value of a property, such as
+    * PropertyChanged, replaces one for the same property, interface and
+    * handler still waiting behind earlier signals of the same object,
+    * which is then never handled. It is queued after all the signals
+    * already waiting, as if the one replaced had not been. Signals are
+    * only coalesced while such a backlog exists, and signals of other
+    * types never are. Waiting signals of a coalesced type may also be
+    * overtaken by more urgent signals of other interfaces of the object,
+    * see DBusPriority.
+    * @param type The signal, which must have a property name and value, signature sv.
+    * @param coalesce Whether to coalesce it.
+    * @throws DBusException If the signal does not have signature sv.
+    */
+   public void setSignalCoalescing(Class<? extends DBusSignal> type, boolean coalesce) throws DBusException
+   {
+      SignalRegistry.Entry e = SignalRegistry.get(type);
+      if (!"sv".equals(e.sig())) throw new DBusException(_("Only signals with a property name and value can be coalesced: ")+type);
+      handledSignals.coalesce(e.iface, e.member, coalesce);
+   }
+
    protected <T extends DBusSignal> void addSigHandlerWithoutMatch(Class<? extends DBusSignal> signal, DBusSigHandler<T> handler) throws DBusException
    {
       DBusMatchRule rule = new DBusMatchRule(signal);
-      SignalTuple key = new SignalTuple(rule.getInterface(), rule.getMember(), rule.getObject(), rule.getSource());
-      synchronized (handledSignals) {
-         Vector<DBusSigHandler<? extends DBusSignal>> v = handledSignals.get(key);
-         if (null == v) {
-            v = new Vector<DBusSigHandler<? extends DBusSignal>>();
-            v.add(handler);
-            handledSignals.put(key, v);
-         } else
-            v.add(handler);
-      }
+      handledSignals.add(rule.getInterface(), rule.getMember(), rule.getObject(), rule.getSource(), handler);
    }
 
    /** 
@@ -567,18 +951,22 @@ public abstract class AbstractConnection
 		}
 
       if (Debug.debug) Debug.print(Debug.INFO, "Disconnecting Abstract Connection");
-      // run all pending tasks.
-      while (runnables.size() > 0)
-         synchronized (runnables) {
-            runnables.notifyAll();
-         }
+      // run all pending tasks, then stop the workers.
+      dispatcher.shutdown();
 
       // stop the main thread
       _run = false;
 
       // unblock the sending thread.
-      synchronized (outgoing) {
-         outgoing.notifyAll();
+      OutgoingQueue q = outgoing;
+      if (null != q) synchronized (q) {
+         q.notifyAll();
+      }
+
+      // and the timeout thread.
+      PendingCalls p = pendingCalls;
+      if (null != p) synchronized (p) {
+         p.notifyAll();
       }
 
       // disconnect from the trasport layer
@@ -591,16 +979,6 @@ public abstract class AbstractConnection
          if (EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, IOe);            
       }
 
-      // stop all the workers
-      synchronized(workers) {
-         for (_workerthread t: workers)
-            t.halt();
-      }
-
-      // make sure none are blocking on the runnables queue still
-      synchronized (runnables) {
-         runnables.notifyAll();
-      }
    }
 
    public void finalize()
@@ -635,14 +1013,14 @@ public abstract class AbstractConnection
       Class[] types = new Class[parameters.length];
       for (int i = 0; i < parameters.length; i++) 
          types[i] = parameters[i].getClass();
-      RemoteObject ro = importedObjects.get(object);
+      RemoteObject ro = remoteObject(object);
 
       try {
          Method me;
          if (null == ro.iface)
-            me = object.getClass().getMethod(m, types);
+            me = RemoteMethod.lookup(object.getClass(), m, types);
          else
-            me = ro.iface.getMethod(m, types);
+            me = RemoteMethod.lookup(ro.iface, m, types);
          RemoteInvocationHandler.executeRemoteMethod(ro, me, this, RemoteInvocationHandler.CALL_TYPE_CALLBACK, callback, parameters);
       } catch (DBusExecutionException DBEe) {
          if (EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, DBEe);
@@ -666,14 +1044,14 @@ public abstract class AbstractConnection
       Class<?>[] types = new Class[parameters.length];
       for (int i = 0; i < parameters.length; i++) 
          types[i] = parameters[i].getClass();
-      RemoteObject ro = importedObjects.get(object);
+      RemoteObject ro = remoteObject(object);
 
       try {
          Method me;
          if (null == ro.iface)
-            me = object.getClass().getMethod(m, types);
+            me = RemoteMethod.lookup(object.getClass(), m, types);
          else
-            me = ro.iface.getMethod(m, types);
+            me = RemoteMethod.lookup(ro.iface, m, types);
          return (DBusAsyncReply) RemoteInvocationHandler.executeRemoteMethod(ro, me, this, RemoteInvocationHandler.CALL_TYPE_ASYNC, null, parameters);
       } catch (DBusExecutionException DBEe) {
          if (EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, DBEe);
@@ -684,6 +1062,36 @@ public abstract class AbstractConnection
       }
    }
    
+   /**
+    * Call a method asynchronously and get a handle to which callbacks can be added.
+    * The handle is completed by the thread reading from the connection, without
+    * any thread waiting for the reply.
+    * @param object The remote object on which to call the method.
+    * @param m The name of the method on the interface to call.
+    * @param parameters The parameters to call the method with.
+    * @return A handle to the result of the call.
+    */
+   @SuppressWarnings("unchecked")
+   public <A> DBusFuture<A> callAsync(DBusInterface object, String m, Object... parameters)
+   {
+      Class<?>[] types = new Class[parameters.length];
+      for (int i = 0; i < parameters.length; i++) 
+         types[i] = null == parameters[i] ? null : parameters[i].getClass();
+      RemoteObject ro = remoteObject(object);
+      if (null == ro) throw new DBusExecutionException(_("Not an imported remote object: ")+object);
+
+      try {
+         Method me = RemoteMethod.lookup(null == ro.iface ? object.getClass() : ro.iface, m, types);
+         return (DBusFuture<A>) RemoteInvocationHandler.executeRemoteMethod(ro, me, this, RemoteInvocationHandler.CALL_TYPE_FUTURE, null, parameters);
+      } catch (DBusExecutionException DBEe) {
+         if (EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, DBEe);
+         throw DBEe;
+      } catch (Exception e) {
+         if (EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, e);
+         throw new DBusExecutionException(e.getMessage());
+      }
+   }
+
    private void handleMessage(final MethodCall m) throws DBusException
    {
       if (Debug.debug) Debug.print(Debug.DEBUG, "Handling incoming method call: "+m);
@@ -755,7 +1163,7 @@ public abstract class AbstractConnection
       final DBusCallInfo info = new DBusCallInfo(m);
       final AbstractConnection conn = this;
       if (Debug.debug) Debug.print(Debug.VERBOSE, "Adding Runnable for method "+meth);
-      addRunnable(new Runnable() 
+      addRunnable(OutgoingQueue.priority(m), new Runnable() 
       { 
          private boolean run = false;
          public synchronized void run() 
@@ -765,7 +1173,7 @@ public abstract class AbstractConnection
             if (Debug.debug) Debug.print(Debug.DEBUG, "Running method "+me+" for remote call");
             try {
                Type[] ts = me.getGenericParameterTypes();
-               m.setArgs(Marshalling.deSerializeParameters(m.getParameters(), ts, conn));
+               m.setArgs(Marshalling.deSerializeParameters(m.getParameters(), ts, m.getSig(), conn));
                if (Debug.debug) Debug.print(Debug.VERBOSE, "Deserialised "+Arrays.deepToString(m.getParameters())+" to types "+Arrays.deepToString(ts));
             } catch (Exception e) {
                if (EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, e);
@@ -776,19 +1184,21 @@ public abstract class AbstractConnection
             }
 
             try { 
-               synchronized (infomap) {
-                  infomap.put(Thread.currentThread(), info);
-               }
+               callinfo.set(info);
                Object result;
                try {
                   if (Debug.debug) Debug.print(Debug.VERBOSE, "Invoking Method: "+me+" on "+ob+" with parameters "+Arrays.deepToString(m.getParameters()));
-                  result = me.invoke(ob, m.getParameters());
+                  long t = System.nanoTime();
+                  try {
+                     result = me.invoke(ob, m.getParameters());
+                  } finally {
+                     latencies.record(m.getInterface(), m.getName(), Latencies.HANDLER, System.nanoTime() - t);
+                  }
                } catch (InvocationTargetException ITe) {
                   if (EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, ITe.getCause());
                   throw ITe.getCause();
-               }
-               synchronized (infomap) {
-                  infomap.remove(Thread.currentThread());
+               } finally {
+                  callinfo.remove();
                }
                if (!noreply) {
                   MethodReturn reply;
@@ -822,44 +1232,96 @@ public abstract class AbstractConnection
    private void handleMessage(final DBusSignal s)
    {
       if (Debug.debug) Debug.print(Debug.DEBUG, "Handling incoming signal: "+s);
-      Vector<DBusSigHandler<? extends DBusSignal>> v = new Vector<DBusSigHandler<? extends DBusSignal>>();
-      synchronized(handledSignals) {
-         Vector<DBusSigHandler<? extends DBusSignal>> t;
-         t = handledSignals.get(new SignalTuple(s.getInterface(), s.getName(), null, null));
-         if (null != t) v.addAll(t);
-         t = handledSignals.get(new SignalTuple(s.getInterface(), s.getName(), s.getPath(), null));
-         if (null != t) v.addAll(t);
-         t = handledSignals.get(new SignalTuple(s.getInterface(), s.getName(), null, s.getSource()));
-         if (null != t) v.addAll(t);
-         t = handledSignals.get(new SignalTuple(s.getInterface(), s.getName(), s.getPath(), s.getSource()));
-         if (null != t) v.addAll(t);
+      latencies.signal(s.getInterface(), s.getName());
+      SignalIndex.Route r = handledSignals.get(s.getInterface(), s.getName());
+      if (null == r) {
+         s.releaseWireData();
+         return;
+      }
+      String path = s.getPath();
+      String source = s.getSource();
+      // local signals have no source
+      DBusSigHandler<?>[] any = r.any;
+      DBusSigHandler<?>[] bypath = null == path ? null : r.get(path, null);
+      DBusSigHandler<?>[] bysource = null == source ? null : r.get(null, source);
+      DBusSigHandler<?>[] byboth = null == path || null == source ? null : r.get(path, source);
+      int count = (null == any ? 0 : any.length)
+         + (null == bypath ? 0 : bypath.length)
+         + (null == bysource ? 0 : bysource.length)
+         + (null == byboth ? 0 : byboth.length);
+      if (0 == count) {
+         s.releaseWireData();
+         return;
+      }
+      // decoded before any handler may release the wire data
+      String property = r.coalesce ? propertyName(s) : null;
+      // the last handler to decode the signal releases its wire data
+      AtomicInteger decoding = new AtomicInteger(count);
+      if (null != any) for (DBusSigHandler<?> h: any) queueSignal(s, h, decoding, property);
+      if (null != bypath) for (DBusSigHandler<?> h: bypath) queueSignal(s, h, decoding, property);
+      if (null != bysource) for (DBusSigHandler<?> h: bysource) queueSignal(s, h, decoding, property);
+      if (null != byboth) for (DBusSigHandler<?> h: byboth) queueSignal(s, h, decoding, property);
+   }
+   /**
+    * Returns the property a coalesced signal is for, or null if it is not
+    * a property name and value.
+    */
+   private static String propertyName(DBusSignal s)
+   {
+      if (!"sv".equals(s.getSig())) return null;
+      try {
+         return (String) s.getParameters()[0];
+      } catch (DBusException DBe) {
+         if (EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, DBe);
+         return null;
       }
-      if (0 == v.size()) return;
+   }
+   @SuppressWarnings("unchecked")
+   private void queueSignal(final DBusSignal s, final DBusSigHandler<?> h, final AtomicInteger decoding, final String property)
+   {
       final AbstractConnection conn = this;
-      for (final DBusSigHandler<? extends DBusSignal> h: v) {
-         if (Debug.debug) Debug.print(Debug.VERBOSE, "Adding Runnable for signal "+s+" with handler "+h);
-         addRunnable(new Runnable() { 
-            private boolean run = false;
-            public synchronized void run() 
-            {
-               if (run) return;
-               run = true;
-               try {
-                  DBusSignal rs;
-                  if (s instanceof DBusSignal.internalsig || s.getClass().equals(DBusSignal.class))
+      if (Debug.debug) Debug.print(Debug.VERBOSE, "Adding Runnable for signal "+s+" with handler "+h);
+      // handlers see the signals of each object in order
+      dispatcher.execute(s.getSource(), s.getPath(), s.getInterface(), OutgoingQueue.priority(s), new Dispatcher.Replaceable() { 
+         public Object key()
+         {
+            return null == property ? null : Arrays.asList(h, s.getInterface(), s.getName(), property);
+         }
+         public void replaced()
+         {
+            if (Debug.debug) Debug.print(Debug.VERBOSE, "Coalesced signal "+s+" for handler "+h);
+            if (s instanceof DBusSignal.internalsig || s.getClass().equals(DBusSignal.class))
+               if (0 == decoding.decrementAndGet()) s.releaseWireData();
+         }
+         private boolean run = false;
+         public synchronized void run() 
+         {
+            if (run) return;
+            run = true;
+            try {
+               DBusSignal rs;
+               if (s instanceof DBusSignal.internalsig || s.getClass().equals(DBusSignal.class)) {
+                  try {
                      rs = s.createReal(conn);
-                  else
-                     rs = s;
+                  } finally {
+                     if (0 == decoding.decrementAndGet()) s.releaseWireData();
+                  }
+               } else
+                  rs = s;
+               long t = System.nanoTime();
+               try {
                   ((DBusSigHandler<DBusSignal>)h).handle(rs); 
-               } catch (DBusException DBe) {
-                  if (EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, DBe);
-                  try {
-                     conn.queueOutgoing(new Error(s, new DBusExecutionException("Error handling signal "+s.getInterface()+"."+s.getName()+": "+DBe.getMessage()))); 
-                  } catch (DBusException DBe2) {}
+               } finally {
+                  latencies.record(s.getInterface(), s.getName(), Latencies.HANDLER, System.nanoTime() - t);
                }
+            } catch (DBusException DBe) {
+               if (EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, DBe);
+               try {
+                  conn.queueOutgoing(new Error(s, new DBusExecutionException("Error handling signal "+s.getInterface()+"."+s.getName()+": "+DBe.getMessage()))); 
+               } catch (DBusException DBe2) {}
             }
-         });
-      }
+         }
+      });
    }
    private void handleMessage(final Error err)
    {
@@ -867,51 +1329,53 @@ public abstract class AbstractConnection
       MethodCall m = null;
       if (null == pendingCalls) return;
       synchronized (pendingCalls) {
-         if (pendingCalls.contains(err.getReplySerial()))
-            m = pendingCalls.remove(err.getReplySerial());
+         m = pendingCalls.remove(err.getReplySerial());
       }
       if (null != m) {
-         m.setReply(err);
-         CallbackHandler cbh = null;
-         DBusAsyncReply asr = null;
-         synchronized (pendingCallbacks) {
-            cbh = pendingCallbacks.remove(m);
-            if (Debug.debug) Debug.print(Debug.VERBOSE, cbh+" = pendingCallbacks.remove("+m+")");
-            asr = pendingCallbackReplys.remove(m);
-         }
-         // queue callback for execution
-         if (null != cbh) {
-            final CallbackHandler fcbh = cbh;
-            if (Debug.debug) Debug.print(Debug.VERBOSE, "Adding Error Runnable with callback handler "+fcbh);
-            addRunnable(new Runnable() { 
-               private boolean run = false;
-               public synchronized void run() 
-               {
-                  if (run) return;
-                  run = true;
+         latencies.record(m.getInterface(), m.getName(), Latencies.WIRE, System.nanoTime() - m.sent);
+         handleError(m, err);
+      } else
+         synchronized (pendingErrors) {
+            pendingErrors.addLast(err); }
+   }
+   /**
+    * Completes a call, removed from the pending calls, with an error.
+    */
+   private void handleError(MethodCall m, final Error err)
+   {
+      m.setReply(err);
+      CallbackHandler cbh = null;
+      DBusAsyncReply asr = null;
+      synchronized (pendingCallbacks) {
+         cbh = pendingCallbacks.remove(m);
+         if (Debug.debug) Debug.print(Debug.VERBOSE, cbh+" = pendingCallbacks.remove("+m+")");
+         asr = pendingCallbackReplys.remove(m);
+      }
+      // queue callback for execution
+      if (null != cbh) {
+         final CallbackHandler fcbh = cbh;
+         if (Debug.debug) Debug.print(Debug.VERBOSE, "Adding Error Runnable with callback handler "+fcbh);
+         addRunnable(OutgoingQueue.priority(m), new Runnable() { 
+            private boolean run = false;
+            public synchronized void run() 
+            {
+               if (run) return;
+               run = true;
+               try {
+                  if (Debug.debug) Debug.print(Debug.VERBOSE, "Running Error Callback for "+err);
+                  callinfo.set(new DBusCallInfo(err));
                   try {
-                     if (Debug.debug) Debug.print(Debug.VERBOSE, "Running Error Callback for "+err);
-                     DBusCallInfo info = new DBusCallInfo(err);
-                     synchronized (infomap) {
-                        infomap.put(Thread.currentThread(), info);
-                     }
-
                      fcbh.handleError(err.getException());
-                     synchronized (infomap) {
-                        infomap.remove(Thread.currentThread());
-                     }
-
-                  } catch (Exception e) {
-                     if (EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, e);
+                  } finally {
+                     callinfo.remove();
                   }
+
+               } catch (Exception e) {
+                  if (EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, e);
                }
-            });
-         }
- 
-		}
-      else
-         synchronized (pendingErrors) {
-            pendingErrors.addLast(err); }
+            }
+         });
+      }
    }
    @SuppressWarnings("unchecked")
    private void handleMessage(final MethodReturn mr)
@@ -920,10 +1384,10 @@ public abstract class AbstractConnection
       MethodCall m = null;
       if (null == pendingCalls) return;
       synchronized (pendingCalls) {
-         if (pendingCalls.contains(mr.getReplySerial()))
-            m = pendingCalls.remove(mr.getReplySerial());
+         m = pendingCalls.remove(mr.getReplySerial());
       }
       if (null != m) {
+         latencies.record(m.getInterface(), m.getName(), Latencies.WIRE, System.nanoTime() - m.sent);
          m.setReply(mr);
          mr.setCall(m);
          CallbackHandler cbh = null;
@@ -938,7 +1402,7 @@ public abstract class AbstractConnection
             final CallbackHandler fcbh = cbh;
             final DBusAsyncReply fasr = asr;
             if (Debug.debug) Debug.print(Debug.VERBOSE, "Adding Runnable for method "+fasr.getMethod()+" with callback handler "+fcbh);
-            addRunnable(new Runnable() { 
+            addRunnable(OutgoingQueue.priority(m), new Runnable() { 
                private boolean run = false;
                public synchronized void run() 
                {
@@ -946,14 +1410,11 @@ public abstract class AbstractConnection
                   run = true;
                   try {
                      if (Debug.debug) Debug.print(Debug.VERBOSE, "Running Callback for "+mr);
-                     DBusCallInfo info = new DBusCallInfo(mr);
-                     synchronized (infomap) {
-                        infomap.put(Thread.currentThread(), info);
-                     }
-
-                     fcbh.handle(RemoteInvocationHandler.convertRV(mr.getSig(), mr.getParameters(), fasr.getMethod(), fasr.getConnection()));
-                     synchronized (infomap) {
-                        infomap.remove(Thread.currentThread());
+                     callinfo.set(new DBusCallInfo(mr));
+                     try {
+                        fcbh.handle(RemoteInvocationHandler.convertRV(mr.getSig(), mr.getParameters(), fasr.getMethod(), fasr.getConnection()));
+                     } finally {
+                        callinfo.remove();
                      }
 
                   } catch (Exception e) {
@@ -969,6 +1430,14 @@ public abstract class AbstractConnection
          } catch (DBusException DBe) {}
    }
    protected void sendMessage(Message m)
+   {
+      sendMessage(m, true);
+   }
+   /**
+    * Sends a message, leaving it buffered unless flush is set.
+    * Buffered messages are written by flushOutgoing().
+    */
+   private void sendMessage(Message m, boolean flush)
    {
       try {
 			if (!connected) throw new NotConnected(_("Disconnected"));
@@ -976,6 +1445,7 @@ public abstract class AbstractConnection
             ((DBusSignal) m).appendbody(this);
 
          if (m instanceof MethodCall) {
+            m.sent = System.nanoTime();
             if (0 == (m.getFlags() & Message.Flags.NO_REPLY_EXPECTED))
                if (null == pendingCalls) 
                   ((MethodCall) m).setReply(new Error("org.freedesktop.DBus.Local", "org.freedesktop.DBus.Local.Disconnected", 0, "s", new Object[] { _("Disconnected") }));
@@ -984,7 +1454,7 @@ public abstract class AbstractConnection
                }
          }
 
-         transport.mout.writeMessage(m);
+         transport.mout.writeMessage(m, flush);
          
       } catch (Exception e) {
          if (EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, e);
@@ -1012,6 +1482,29 @@ public abstract class AbstractConnection
          if (e instanceof IOException) disconnect();
       }
    }
+   private void flushOutgoing()
+   {
+      try {
+         if (null != transport) transport.mout.flush();
+      } catch (IOException IOe) {
+         if (EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, IOe);
+         disconnect();
+      }
+   }
+   /**
+    * Handles a message read from the transport.
+    */
+   void handleIncoming(Message m) throws DBusException
+   {
+      if (m instanceof DBusSignal)
+         handleMessage((DBusSignal) m);
+      else if (m instanceof MethodCall)
+         handleMessage((MethodCall) m);
+      else if (m instanceof MethodReturn)
+         handleMessage((MethodReturn) m);
+      else if (m instanceof Error)
+         handleMessage((Error) m);
+   }
    private Message readIncoming() throws DBusException 
    {
       if (!connected) throw new NotConnected(_("No transport present"));
@@ -16,15 +16,16 @@ import java.lang.reflect.Array;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Hashtable;
+import java.util.HashMap;
 import java.util.List;
 
 import cx.ath.matthew.debug.Debug;
 
 class ArrayFrob
 {
-   static Hashtable<Class<? extends Object>, Class<? extends Object>> primitiveToWrapper = new Hashtable<Class<? extends Object>, Class<? extends Object>>();
-   static Hashtable<Class<? extends Object>, Class<? extends Object>> wrapperToPrimitive = new Hashtable<Class<? extends Object>, Class<? extends Object>>();
+   /* Filled once here and only read after, so no locking is needed */
+   static final HashMap<Class<? extends Object>, Class<? extends Object>> primitiveToWrapper = new HashMap<Class<? extends Object>, Class<? extends Object>>();
+   static final HashMap<Class<? extends Object>, Class<? extends Object>> wrapperToPrimitive = new HashMap<Class<? extends Object>, Class<? extends Object>>();
    static {
       primitiveToWrapper.put( Boolean.TYPE, Boolean.class );
       primitiveToWrapper.put( Byte.TYPE, Byte.class );
@@ -0,0 +1,90 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus;
+
+import cx.ath.matthew.debug.Debug;
+
+/**
+ * Keeps a bounded number of wire buffers for re-use, in power of two
+ * size classes. Buffers handed out may be larger than requested.
+ */
+public class BufferPool
+{
+   /** The smallest size class, as a power of two. */
+   private static final int MIN_SHIFT = 9;
+   /** The largest size class, as a power of two. Larger buffers are not pooled. */
+   private static final int MAX_SHIFT = 16;
+   /** The most free buffers kept in each size class. */
+   private static final int MAX_FREE = 8;
+
+   private static final byte[][][] free = new byte[MAX_SHIFT-MIN_SHIFT+1][MAX_FREE][];
+   private static final int[] count = new int[MAX_SHIFT-MIN_SHIFT+1];
+   private static long hits = 0;
+   private static long misses = 0;
+   private static long released = 0;
+   private static long dropped = 0;
+
+   private BufferPool() {}
+
+   private static int sizeClass(int size)
+   {
+      int shift = MIN_SHIFT;
+      while ((1 << shift) < size) shift++;
+      return shift - MIN_SHIFT;
+   }
+   /**
+    * Returns a buffer of at least size bytes.
+    */
+   static byte[] get(int size)
+   {
+      if (size > (1 << MAX_SHIFT)) {
+         synchronized (free) { misses++; }
+         return new byte[size];
+      }
+      int c = sizeClass(size);
+      synchronized (free) {
+         if (count[c] > 0) {
+            hits++;
+            byte[] buf = free[c][--count[c]];
+            free[c][count[c]] = null;
+            return buf;
+         }
+         misses++;
+      }
+      if (Debug.debug) Debug.print(Debug.VERBOSE, "Allocating buffer of "+(1 << (c+MIN_SHIFT))+" for "+size);
+      return new byte[1 << (c+MIN_SHIFT)];
+   }
+   /**
+    * Returns a buffer to the pool. It must not be used by the caller afterwards.
+    * Buffers not from the pool, or in excess of the pool size, are dropped.
+    */
+   static void release(byte[] buf)
+   {
+      if (null == buf) return;
+      int c = buf.length > (1 << MAX_SHIFT) ? -1 : sizeClass(buf.length);
+      synchronized (free) {
+         if (-1 == c || buf.length != (1 << (c+MIN_SHIFT)) || count[c] == MAX_FREE) {
+            dropped++;
+            return;
+         }
+         released++;
+         free[c][count[c]++] = buf;
+      }
+   }
+   /** Number of requests served from a pooled buffer. */
+   public static long getHits() { synchronized (free) { return hits; } }
+   /** Number of requests which needed a new buffer. */
+   public static long getMisses() { synchronized (free) { return misses; } }
+   /** Number of buffers returned to the pool. */
+   public static long getReleased() { synchronized (free) { return released; } }
+   /** Number of buffers released but dropped because the pool was full or they were not pooled. */
+   public static long getDropped() { synchronized (free) { return dropped; } }
+}
@@ -0,0 +1,640 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus;
+
+import static org.freedesktop.dbus.Gettext._;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Type;
+import java.text.MessageFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+
+import cx.ath.matthew.debug.Debug;
+
+import org.freedesktop.dbus.Message.ArgumentType;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.MarshallingException;
+import org.freedesktop.dbus.exceptions.UnknownTypeCodeException;
+
+/**
+ * Marshalls and demarshalls values of one complete D-Bus type.
+ * Codecs are compiled once from a signature and cached; containers hold
+ * the codecs of their contents, so the signature is not parsed again
+ * for each value.
+ *
+ * The wire format and the Java objects produced are the same as
+ * those of the signature interpreter in Message.
+ */
+abstract class Codec
+{
+   /** Signatures beyond this many are compiled but not cached. */
+   private static final int MAX_CACHED = 256;
+   private static final ConcurrentHashMap<String, Codec[]> cache = new ConcurrentHashMap<String, Codec[]>();
+
+   static final Codec SIGNATURE = new SignatureCodec();
+
+   /** The type code. */
+   final byte type;
+   /** The alignment of the type on the wire. */
+   final int align;
+   /** The converters of values of this type to Java types, by the type. */
+   private final ConcurrentHashMap<Type, Converter> converters = new ConcurrentHashMap<Type, Converter>();
+
+   Codec(byte type)
+   {
+      this.type = type;
+      this.align = Message.getAlignment(type);
+   }
+
+   /**
+    * Returns the codecs for each complete type in a signature.
+    */
+   static Codec[] forSignature(String sig) throws DBusException
+   {
+      Codec[] cs = cache.get(sig);
+      if (null != cs) return cs;
+      byte[] sigb = sig.getBytes();
+      Vector<Codec> v = new Vector<Codec>();
+      int[] i = new int[] { 0 };
+      try {
+         while (i[0] < sigb.length)
+            v.add(compile(sigb, i));
+      } catch (ArrayIndexOutOfBoundsException AIOOBe) {
+         if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, AIOOBe);
+         throw new DBusException(_("Failed to parse DBus type signature: ")+sig);
+      }
+      cs = v.toArray(new Codec[0]);
+      if (Debug.debug) Debug.print(Debug.VERBOSE, "Compiled codecs for "+sig);
+      if (cache.size() < MAX_CACHED) cache.putIfAbsent(sig, cs);
+      return cs;
+   }
+   /**
+    * Compiles the complete type starting at i[0], leaving i[0] after it.
+    */
+   private static Codec compile(byte[] sigb, int[] i) throws DBusException
+   {
+      byte t = sigb[i[0]++];
+      switch (t) {
+         case ArgumentType.BYTE:
+         case ArgumentType.BOOLEAN:
+         case ArgumentType.INT16:
+         case ArgumentType.UINT16:
+         case ArgumentType.INT32:
+         case ArgumentType.UINT32:
+         case ArgumentType.INT64:
+         case ArgumentType.UINT64:
+         case ArgumentType.DOUBLE:
+         case ArgumentType.FLOAT:
+            return new BasicCodec(t);
+         case ArgumentType.STRING:
+         case ArgumentType.OBJECT_PATH:
+            return new StringCodec(t);
+         case ArgumentType.SIGNATURE:
+            return SIGNATURE;
+         case ArgumentType.VARIANT:
+            return new VariantCodec();
+         case ArgumentType.ARRAY:
+            return new ArrayCodec(compile(sigb, i));
+         case ArgumentType.STRUCT1:
+            Vector<Codec> members = new Vector<Codec>();
+            while (sigb[i[0]] != ArgumentType.STRUCT2)
+               members.add(compile(sigb, i));
+            i[0]++;
+            return new StructCodec(members.toArray(new Codec[0]));
+         case ArgumentType.DICT_ENTRY1:
+            Codec key = compile(sigb, i);
+            Codec value = compile(sigb, i);
+            if (sigb[i[0]++] != ArgumentType.DICT_ENTRY2)
+               throw new DBusException(_("Failed to parse DBus type signature: ")+new String(sigb));
+            return new DictEntryCodec(key, value);
+         default:
+            throw new UnknownTypeCodeException(t);
+      }
+   }
+   /**
+    * Returns the converter of values of this type to a Java type.
+    */
+   Converter converter(Type t)
+   {
+      Converter v = converters.get(t);
+      if (null == v) {
+         v = Converter.compile(this, t);
+         Converter old = converters.putIfAbsent(t, v);
+         if (null != old) v = old;
+      }
+      return v;
+   }
+   static int align(int ofs, int a)
+   {
+      int b = ofs % a;
+      return 0 == b ? ofs : ofs + a - b;
+   }
+
+   /**
+    * Appends a value to a message, padding to the alignment of this type first.
+    */
+   final void append(Message m, Object data) throws DBusException
+   {
+      m.pad(type);
+      try {
+         encode(m, data);
+      } catch (ClassCastException CCe) {
+         if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, CCe);
+         throw new MarshallingException(MessageFormat.format(_("Trying to marshall to unconvertable type (from {0} to {1})."), new Object[] { data.getClass().getName(), type }));
+      }
+   }
+   /**
+    * Marshalls a value to a message, which is already aligned.
+    */
+   abstract void encode(Message m, Object data) throws DBusException;
+   /**
+    * Demarshalls a value from a buffer.
+    * @param ofs ofs[1] is the offset into the buffer, updated past the value.
+    * @param contained converts nested arrays to Lists
+    */
+   abstract Object decode(Message m, byte[] buf, int[] ofs, boolean contained) throws DBusException;
+   /**
+    * Advances past a value in a buffer without demarshalling it.
+    * @param ofs ofs[1] is the offset into the buffer, updated past the value.
+    */
+   abstract void skip(Message m, byte[] buf, int[] ofs) throws DBusException;
+
+   static class BasicCodec extends Codec
+   {
+      BasicCodec(byte type) { super(type); }
+      void encode(Message m, Object data) throws DBusException
+      {
+         switch (type) {
+            case ArgumentType.BYTE:
+               m.appendByte(((Number) data).byteValue());
+               break;
+            case ArgumentType.BOOLEAN:
+               m.appendint(((Boolean) data).booleanValue() ? 1 : 0, 4);
+               break;
+            case ArgumentType.DOUBLE:
+               m.appendint(Double.doubleToLongBits(((Number) data).doubleValue()), 8);
+               break;
+            case ArgumentType.FLOAT:
+               m.appendint(Float.floatToIntBits(((Number) data).floatValue()), 4);
+               break;
+            case ArgumentType.UINT32:
+               m.appendint(((Number) data).longValue(), 4);
+               break;
+            case ArgumentType.INT64:
+               m.appendint(((Number) data).longValue(), 8);
+               break;
+            case ArgumentType.UINT64:
+               if (m.big) {
+                  m.appendint(((UInt64) data).top(), 4);
+                  m.appendint(((UInt64) data).bottom(), 4);
+               } else {
+                  m.appendint(((UInt64) data).bottom(), 4);
+                  m.appendint(((UInt64) data).top(), 4);
+               }
+               break;
+            case ArgumentType.INT32:
+               m.appendint(((Number) data).intValue(), 4);
+               break;
+            case ArgumentType.UINT16:
+               m.appendint(((Number) data).intValue(), 2);
+               break;
+            case ArgumentType.INT16:
+               m.appendint(((Number) data).shortValue(), 2);
+               break;
+         }
+      }
+      Object decode(Message m, byte[] buf, int[] ofs, boolean contained) throws DBusException
+      {
+         int o = align(ofs[1], align);
+         Object rv;
+         switch (type) {
+            case ArgumentType.BYTE:
+               rv = buf[o];
+               break;
+            case ArgumentType.UINT32:
+               rv = new UInt32(m.demarshallint(buf, o, 4));
+               break;
+            case ArgumentType.INT32:
+               rv = (int) m.demarshallint(buf, o, 4);
+               break;
+            case ArgumentType.INT16:
+               rv = (short) m.demarshallint(buf, o, 2);
+               break;
+            case ArgumentType.UINT16:
+               rv = new UInt16((int) m.demarshallint(buf, o, 2));
+               break;
+            case ArgumentType.INT64:
+               rv = m.demarshallint(buf, o, 8);
+               break;
+            case ArgumentType.UINT64:
+               if (m.big)
+                  rv = new UInt64(m.demarshallint(buf, o, 4), m.demarshallint(buf, o+4, 4));
+               else
+                  rv = new UInt64(m.demarshallint(buf, o+4, 4), m.demarshallint(buf, o, 4));
+               break;
+            case ArgumentType.DOUBLE:
+               rv = Double.longBitsToDouble(m.demarshallint(buf, o, 8));
+               break;
+            case ArgumentType.FLOAT:
+               rv = Float.intBitsToFloat((int) m.demarshallint(buf, o, 4));
+               break;
+            case ArgumentType.BOOLEAN:
+               rv = (1 == m.demarshallint(buf, o, 4)) ? Boolean.TRUE : Boolean.FALSE;
+               break;
+            default:
+               throw new UnknownTypeCodeException(type);
+         }
+         // every basic type is as wide as its alignment
+         ofs[1] = o + align;
+         return rv;
+      }
+      void skip(Message m, byte[] buf, int[] ofs)
+      {
+         ofs[1] = align(ofs[1], align) + align;
+      }
+   }
+
+   static class StringCodec extends Codec
+   {
+      StringCodec(byte type) { super(type); }
+      void encode(Message m, Object data) throws DBusException
+      {
+         // Strings are marshalled as a UInt32 with the length,
+         // followed by the String, followed by a null byte.
+         byte[] payloadbytes = null;
+         try {
+            payloadbytes = data.toString().getBytes("UTF-8");
+         } catch (UnsupportedEncodingException UEe) {
+            if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(UEe);
+            throw new DBusException(_("System does not support UTF-8 encoding"));
+         }
+         m.appendint(payloadbytes.length, 4);
+         m.appendBytes(payloadbytes);
+         m.appendBytes(Message.padding[1]);
+      }
+      Object decode(Message m, byte[] buf, int[] ofs, boolean contained) throws DBusException
+      {
+         int o = align(ofs[1], 4);
+         int length = (int) m.demarshallint(buf, o, 4);
+         o += 4;
+         Object rv;
+         if (ArgumentType.OBJECT_PATH == type)
+            rv = StringCache.path(m.getSource(), buf, o, length);
+         else if (null == (rv = StringCache.string(buf, o, length))) try {
+            rv = new String(buf, o, length, "UTF-8");
+         } catch (UnsupportedEncodingException UEe) {
+            if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(UEe);
+            throw new DBusException(_("System does not support UTF-8 encoding"));
+         }
+         ofs[1] = o + length + 1;
+         return rv;
+      }
+      void skip(Message m, byte[] buf, int[] ofs)
+      {
+         int o = align(ofs[1], 4);
+         ofs[1] = o + 4 + (int) m.demarshallint(buf, o, 4) + 1;
+      }
+   }
+
+   static class SignatureCodec extends Codec
+   {
+      /** The one character signatures, shared rather than read afresh. */
+      private static final String[] BASIC_SIGS = new String[128];
+      static {
+         for (int i = 0; i < BASIC_SIGS.length; i++)
+            BASIC_SIGS[i] = String.valueOf((char) i).intern();
+      }
+      SignatureCodec() { super(ArgumentType.SIGNATURE); }
+      void encode(Message m, Object data) throws DBusException
+      {
+         // Signatures are marshalled as a byte with the length,
+         // followed by the String, followed by a null byte.
+         String payload;
+         if (data instanceof Type[])
+            payload = Marshalling.getDBusType((Type[]) data);
+         else
+            payload = (String) data;
+         byte[] pbytes = payload.getBytes();
+         m.preallocate(2+pbytes.length);
+         m.appendByte((byte) pbytes.length);
+         m.appendBytes(pbytes);
+         m.appendByte((byte) 0);
+      }
+      Object decode(Message m, byte[] buf, int[] ofs, boolean contained)
+      {
+         int length = buf[ofs[1]] & 0xFF;
+         String rv;
+         if (1 == length && buf[ofs[1]+1] >= 0)
+            rv = BASIC_SIGS[buf[ofs[1]+1]];
+         else if (null == (rv = StringCache.string(buf, ofs[1]+1, length)))
+            rv = new String(buf, ofs[1]+1, length);
+         ofs[1] += length + 2;
+         return rv;
+      }
+      void skip(Message m, byte[] buf, int[] ofs)
+      {
+         ofs[1] += (buf[ofs[1]] & 0xFF) + 2;
+      }
+   }
+
+   static class ArrayCodec extends Codec
+   {
+      final Codec element;
+      ArrayCodec(Codec element)
+      {
+         super(ArgumentType.ARRAY);
+         this.element = element;
+      }
+      @SuppressWarnings("unchecked")
+      void encode(Message m, Object data) throws DBusException
+      {
+         // Arrays are given as a UInt32 for the length in bytes,
+         // padding to the element alignment, then elements in
+         // order. The length is the length from the end of the
+         // initial padding to the end of the last element.
+         int alen = (int) m.bytecounter;
+         m.appendint(0, 4);
+         m.pad(element.type);
+         long c = m.bytecounter;
+
+         // optimise primatives
+         if (data.getClass().isArray() &&
+               data.getClass().getComponentType().isPrimitive()) {
+            int algn = element.align;
+            int len = Array.getLength(data);
+            if (ArgumentType.BYTE == element.type) {
+               m.appendBytes((byte[]) data);
+               len = 0;
+            }
+            // marshalled straight into the message buffer
+            m.preallocate(len*algn);
+            byte[] primbuf = m.wiredata[0];
+            int ofs = (int) m.bytecounter;
+            switch (element.type) {
+               case ArgumentType.BYTE:
+                  break;
+               case ArgumentType.INT16:
+               case ArgumentType.INT32:
+               case ArgumentType.INT64:
+                  for (int j = 0, k = ofs; j < len; j++, k += algn)
+                     m.marshallint(Array.getLong(data, j), primbuf, k, algn);
+                  break;
+               case ArgumentType.BOOLEAN:
+                  for (int j = 0, k = ofs; j < len; j++, k += algn)
+                     m.marshallint(Array.getBoolean(data, j)?1:0, primbuf, k, algn);
+                  break;
+               case ArgumentType.DOUBLE:
+                  if (data instanceof float[])
+                     for (int j = 0, k = ofs; j < len; j++, k += algn)
+                        m.marshallint(Double.doubleToRawLongBits(((float[])data)[j]),
+                              primbuf, k, algn);
+                  else
+                     for (int j = 0, k = ofs; j < len; j++, k += algn)
+                        m.marshallint(Double.doubleToRawLongBits(((double[])data)[j]),
+                              primbuf, k, algn);
+                  break;
+               case ArgumentType.FLOAT:
+                  for (int j = 0, k = ofs; j < len; j++, k += algn)
+                     m.marshallint(
+                           Float.floatToRawIntBits(((float[])data)[j]),
+                           primbuf, k, algn);
+                  break;
+               default:
+                  throw new MarshallingException(_("Primative array being sent as non-primative array."));
+            }
+            m.bytecounter += len*algn;
+         } else if (data instanceof List) {
+            Object[] contents = ((List) data).toArray();
+            for (Object o: contents)
+               element.append(m, o);
+         } else if (data instanceof Map) {
+            for (Map.Entry<Object,Object> o: ((Map<Object,Object>) data).entrySet())
+               element.append(m, o);
+         } else {
+            Object[] contents = (Object[]) data;
+            for (Object o: contents)
+               element.append(m, o);
+         }
+         m.setint(m.bytecounter-c, alen, 4);
+      }
+      Object decode(Message m, byte[] buf, int[] ofs, boolean contained) throws DBusException
+      {
+         int o = align(ofs[1], 4);
+         long size = m.demarshallint(buf, o, 4);
+         int algn = element.align;
+         o = align(o+4, algn);
+         int length = (int) (size / algn);
+         if (length > DBusConnection.MAX_ARRAY_LENGTH)
+            throw new MarshallingException(_("Arrays must not exceed ")+DBusConnection.MAX_ARRAY_LENGTH);
+         Object rv;
+         // optimise primatives
+         switch (element.type) {
+            case ArgumentType.BYTE:
+               rv = new byte[length];
+               System.arraycopy(buf, o, rv, 0, length);
+               o += size;
+               break;
+            case ArgumentType.INT16:
+               short[] ns = new short[length];
+               for (int j = 0; j < length; j++, o += algn)
+                  ns[j] = (short) m.demarshallint(buf, o, algn);
+               rv = ns;
+               break;
+            case ArgumentType.INT32:
+               int[] is = new int[length];
+               for (int j = 0; j < length; j++, o += algn)
+                  is[j] = (int) m.demarshallint(buf, o, algn);
+               rv = is;
+               break;
+            case ArgumentType.INT64:
+               long[] xs = new long[length];
+               for (int j = 0; j < length; j++, o += algn)
+                  xs[j] = m.demarshallint(buf, o, algn);
+               rv = xs;
+               break;
+            case ArgumentType.BOOLEAN:
+               boolean[] bs = new boolean[length];
+               for (int j = 0; j < length; j++, o += algn)
+                  bs[j] = (1 == m.demarshallint(buf, o, algn));
+               rv = bs;
+               break;
+            case ArgumentType.FLOAT:
+               float[] fs = new float[length];
+               for (int j = 0; j < length; j++, o += algn)
+                  fs[j] = Float.intBitsToFloat((int) m.demarshallint(buf, o, algn));
+               rv = fs;
+               break;
+            case ArgumentType.DOUBLE:
+               double[] ds = new double[length];
+               for (int j = 0; j < length; j++, o += algn)
+                  ds[j] = Double.longBitsToDouble(m.demarshallint(buf, o, algn));
+               rv = ds;
+               break;
+            case ArgumentType.DICT_ENTRY1:
+               long end = o+size;
+               ofs[1] = o;
+               Vector<Object[]> entries = new Vector<Object[]>();
+               while (ofs[1] < end)
+                  entries.add((Object[]) element.decode(m, buf, ofs, true));
+               o = ofs[1];
+               rv = new DBusMap<Object, Object>(entries.toArray(new Object[0][]));
+               break;
+            default:
+               end = o+size;
+               ofs[1] = o;
+               Vector<Object> contents = new Vector<Object>();
+               while (ofs[1] < end)
+                  contents.add(element.decode(m, buf, ofs, true));
+               o = ofs[1];
+               rv = contents;
+         }
+         ofs[1] = o;
+         if (contained && !(rv instanceof List) && !(rv instanceof Map))
+            rv = ArrayFrob.listify(rv);
+         return rv;
+      }
+      void skip(Message m, byte[] buf, int[] ofs)
+      {
+         int o = align(ofs[1], 4);
+         long size = m.demarshallint(buf, o, 4);
+         ofs[1] = align(o+4, element.align) + (int) size;
+      }
+   }
+
+   static class StructCodec extends Codec
+   {
+      final Codec[] members;
+      StructCodec(Codec[] members)
+      {
+         super(ArgumentType.STRUCT1);
+         this.members = members;
+      }
+      void encode(Message m, Object data) throws DBusException
+      {
+         // Structs are aligned to 8 bytes
+         // and simply contain each element marshalled in order
+         Object[] contents;
+         if (data instanceof Container)
+            contents = ((Container) data).getParameters();
+         else
+            contents = (Object[]) data;
+         for (int j = 0; j < members.length; j++)
+            members[j].append(m, contents[j]);
+      }
+      Object decode(Message m, byte[] buf, int[] ofs, boolean contained) throws DBusException
+      {
+         ofs[1] = align(ofs[1], 8);
+         Object[] rv = new Object[members.length];
+         for (int j = 0; j < members.length; j++)
+            rv[j] = members[j].decode(m, buf, ofs, true);
+         return rv;
+      }
+      void skip(Message m, byte[] buf, int[] ofs) throws DBusException
+      {
+         ofs[1] = align(ofs[1], 8);
+         for (Codec c: members)
+            c.skip(m, buf, ofs);
+      }
+   }
+
+   static class DictEntryCodec extends Codec
+   {
+      final Codec key;
+      final Codec value;
+      DictEntryCodec(Codec key, Codec value)
+      {
+         super(ArgumentType.DICT_ENTRY1);
+         this.key = key;
+         this.value = value;
+      }
+      @SuppressWarnings("unchecked")
+      void encode(Message m, Object data) throws DBusException
+      {
+         // Dict entries are the same as structs.
+         if (data instanceof Map.Entry) {
+            key.append(m, ((Map.Entry) data).getKey());
+            value.append(m, ((Map.Entry) data).getValue());
+         } else {
+            Object[] contents = (Object[]) data;
+            key.append(m, contents[0]);
+            value.append(m, contents[1]);
+         }
+      }
+      Object decode(Message m, byte[] buf, int[] ofs, boolean contained) throws DBusException
+      {
+         ofs[1] = align(ofs[1], 8);
+         Object[] rv = new Object[2];
+         rv[0] = key.decode(m, buf, ofs, true);
+         rv[1] = value.decode(m, buf, ofs, true);
+         return rv;
+      }
+      void skip(Message m, byte[] buf, int[] ofs) throws DBusException
+      {
+         ofs[1] = align(ofs[1], 8);
+         key.skip(m, buf, ofs);
+         value.skip(m, buf, ofs);
+      }
+   }
+
+   static class VariantCodec extends Codec
+   {
+      VariantCodec() { super(ArgumentType.VARIANT); }
+      void encode(Message m, Object data) throws DBusException
+      {
+         // Variants are marshalled as a signature
+         // followed by the value.
+         String sig;
+         Object value;
+         if (data instanceof Variant) {
+            sig = ((Variant) data).getSig();
+            value = ((Variant) data).getValue();
+         } else if (data instanceof Object[]) {
+            sig = (String) ((Object[]) data)[0];
+            value = ((Object[]) data)[1];
+         } else {
+            sig = Marshalling.getDBusType(data.getClass())[0];
+            value = data;
+         }
+         SIGNATURE.append(m, sig);
+         forSignature(sig)[0].append(m, value);
+      }
+      Object decode(Message m, byte[] buf, int[] ofs, boolean contained) throws DBusException
+      {
+         String sig = (String) SIGNATURE.decode(m, buf, ofs, false);
+         Codec[] cs = forSignature(sig);
+         // basic values are as cheap to decode as to skip, and
+         // decoding them leaves the buffer free for reuse
+         if (m.lazyvariants && !(1 == cs.length && cs[0] instanceof BasicCodec)) {
+            int start = ofs[1];
+            for (Codec c: cs)
+               c.skip(m, buf, ofs);
+            return m.lazyVariant(sig, buf, start, ofs[1]);
+         }
+         Object value = null;
+         for (int j = 0; j < cs.length; j++) {
+            Object o = cs[j].decode(m, buf, ofs, false);
+            if (0 == j) value = o;
+         }
+         if (1 == cs.length) return Variant.valueOf(value, sig);
+         return new Variant<Object>(value, sig);
+      }
+      void skip(Message m, byte[] buf, int[] ofs) throws DBusException
+      {
+         String sig = (String) SIGNATURE.decode(m, buf, ofs, false);
+         for (Codec c: forSignature(sig))
+            c.skip(m, buf, ofs);
+      }
+   }
+}
@@ -11,8 +11,7 @@
 package org.freedesktop.dbus;
 
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.lang.reflect.Field;
 import java.lang.reflect.Type;
 
@@ -22,7 +21,7 @@ import java.lang.reflect.Type;
  */
 abstract class Container
 {
-   private static Map<Type,Type[]> typecache = new HashMap<Type,Type[]>();
+   private static final ConcurrentHashMap<Type,Type[]> typecache = new ConcurrentHashMap<Type,Type[]>();
    static void putTypeCache(Type k, Type[] v)
    {
       typecache.put(k, v);
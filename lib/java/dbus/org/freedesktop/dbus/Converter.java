@@ -0,0 +1,344 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus;
+
+import static org.freedesktop.dbus.Gettext._;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+
+import cx.ath.matthew.debug.Debug;
+
+import org.freedesktop.dbus.Message.ArgumentType;
+import org.freedesktop.dbus.exceptions.DBusException;
+
+/**
+ * Converts the values of one parameter between their demarshalled form
+ * and the Java type it is declared as.
+ *
+ * Everything which depends only on the type, such as the fields and
+ * constructor of a Struct, the class arrays are converted to or the types
+ * of the keys and values of a Map, is worked out once when the converter
+ * is compiled, rather than by reflection for every value. Converters are
+ * kept by the Codec of the values they convert, so those of the contents
+ * of containers are found without looking them up, and those of values
+ * which need no conversion, such as strings and numbers, do nothing.
+ */
+abstract class Converter
+{
+   /** Types beyond this many are compiled but not cached. */
+   private static final int MAX_CACHED = 256;
+   /** The converters for values whose signature is not known, by type. */
+   private static final ConcurrentHashMap<Type, Converter> cache = new ConcurrentHashMap<Type, Converter>();
+
+   /** Leaves values as they are. */
+   static final Converter IDENTITY = new Converter()
+   {
+      Object convert(Object parameter, AbstractConnection conn) { return parameter; }
+   };
+
+   /**
+    * Returns the converter to a type for values demarshalled by a codec,
+    * or for any values if the codec is null.
+    */
+   static Converter get(Codec c, Type type)
+   {
+      if (null != c) return c.converter(type);
+      Converter v = cache.get(type);
+      if (null != v) return v;
+      v = compile(null, type);
+      if (cache.size() < MAX_CACHED) cache.putIfAbsent(type, v);
+      return v;
+   }
+   static Converter compile(Codec c, Type type)
+   {
+      // numbers and strings are demarshalled as they are declared,
+      // except for floats and signatures given as types
+      if ((c instanceof Codec.BasicCodec || Codec.SIGNATURE == c
+               || (c instanceof Codec.StringCodec && ArgumentType.STRING == c.type))
+            && !Float.class.equals(type) && !Float.TYPE.equals(type) && !Type[].class.equals(type))
+         return IDENTITY;
+      return new TypeConverter(c, type);
+   }
+
+   /**
+    * Converts a demarshalled value to the type.
+    */
+   abstract Object convert(Object parameter, AbstractConnection conn) throws Exception;
+   /**
+    * Converts a value of the type to be marshalled.
+    */
+   Object export(Object parameter, AbstractConnection conn) throws DBusException
+   {
+      if (parameter instanceof DBusInterface)
+         return conn.getExportedObject((DBusInterface) parameter);
+      return parameter;
+   }
+
+   static class TypeConverter extends Converter
+   {
+      private final Codec codec;
+      private final Type type;
+      /** Whether the type is a variable, to be given the value of a variant. */
+      private final boolean variable;
+      /** Whether the type is Type[], to be given a signature. */
+      private final boolean signature;
+      /** Whether the type is an interface, to be given a proxy for an object path. */
+      private final boolean proxy;
+      private final boolean floats;
+      /** Whether the type is float[], to be given a double[] as one. */
+      private final boolean floatArray;
+      /** The class arrays and lists are converted to, or null. */
+      private final Class<?> array;
+      /** The type of the elements of a list, or null. */
+      private final Type element;
+      /** The type arguments, or null if the type is not parameterized. */
+      private final Type[] arguments;
+      /** The Struct class, or null. */
+      private final Class<?> struct;
+      /** The types of the fields of the Struct, by position. */
+      private final Type[] fields;
+      /** Whether the fields can be converted one by one. */
+      private final boolean plain;
+      private volatile Constructor<?> con;
+      private volatile Converter[] members;
+      private volatile Converter elements;
+      private volatile Converter keys;
+      private volatile Converter values;
+
+      TypeConverter(Codec codec, Type type)
+      {
+         this.codec = codec;
+         this.type = type;
+         variable = type instanceof TypeVariable;
+         signature = Type[].class.equals(type);
+         proxy = type instanceof Class && DBusInterface.class.isAssignableFrom((Class<?>) type);
+         floats = Float.class.equals(type) || Float.TYPE.equals(type);
+         arguments = type instanceof ParameterizedType ? ((ParameterizedType) type).getActualTypeArguments() : null;
+
+         if (null != arguments) {
+            element = arguments[0];
+            array = (Class<?>) ((ParameterizedType) type).getRawType();
+         } else if (type instanceof GenericArrayType) {
+            element = ((GenericArrayType) type).getGenericComponentType();
+            Class<?> cc = null;
+            if (element instanceof Class)
+               cc = (Class<?>) element;
+            if (element instanceof ParameterizedType)
+               cc = (Class<?>) ((ParameterizedType) element).getRawType();
+            array = null == cc ? null : Array.newInstance(cc, 0).getClass();
+         } else if (type instanceof Class && ((Class<?>) type).isArray()) {
+            element = ((Class<?>) type).getComponentType();
+            array = (Class<?>) type;
+         } else {
+            element = null;
+            array = null;
+         }
+         floatArray = float[].class.equals(array) || Float[].class.equals(array);
+
+         if (type instanceof Class && Struct.class.isAssignableFrom((Class<?>) type)) {
+            struct = (Class<?>) type;
+            Type[] ts = Container.getTypeCache(type);
+            if (null == ts) {
+               Field[] fs = struct.getDeclaredFields();
+               ts = new Type[fs.length];
+               for (Field f : fs) {
+                  Position p = f.getAnnotation(Position.class);
+                  if (null == p) continue;
+                  ts[p.value()] = f.getGenericType();
+               }
+               Container.putTypeCache(type, ts);
+            }
+            fields = ts;
+            boolean p = !(1 == ts.length && ts[0] instanceof ParameterizedType
+                  && Tuple.class.isAssignableFrom((Class<?>) ((ParameterizedType) ts[0]).getRawType()));
+            for (Type t: ts)
+               if (Marshalling.isSerializable(t)) p = false;
+            plain = p;
+         } else {
+            struct = null;
+            fields = null;
+            plain = false;
+         }
+      }
+
+      @SuppressWarnings("unchecked")
+      Object convert(Object parameter, AbstractConnection conn) throws Exception
+      {
+         if (null == parameter) return null;
+         if (Debug.debug) Debug.print(Debug.VERBOSE, "Deserializing from "+parameter.getClass()+" to "+type);
+
+         // its a wrapped variant, unwrap it
+         if (variable && parameter instanceof Variant)
+            parameter = ((Variant<?>) parameter).getValue();
+
+         // Turn a signature into a Type[]
+         if (signature && parameter instanceof String) {
+            Vector<Type> rv = new Vector<Type>();
+            Marshalling.getJavaType((String) parameter, rv, -1);
+            parameter = rv.toArray(new Type[0]);
+         }
+
+         // its an object path, get/create the proxy
+         if (parameter instanceof ObjectPath) {
+            if (proxy)
+               parameter = conn.getExportedObject(
+                     ((ObjectPath) parameter).source,
+                     ((ObjectPath) parameter).path);
+            else
+               parameter = new Path(((ObjectPath) parameter).path);
+         }
+
+         // it should be a struct. create it
+         if (null != struct && parameter instanceof Object[])
+            parameter = construct((Object[]) parameter, conn);
+
+         // recurse over arrays
+         if (parameter instanceof Object[]) {
+            Type[] ts = new Type[((Object[]) parameter).length];
+            Arrays.fill(ts, parameter.getClass().getComponentType());
+            Codec[] cs = codec instanceof Codec.StructCodec ? ((Codec.StructCodec) codec).members : null;
+            parameter = Marshalling.deSerializeParameters((Object[]) parameter, ts, cs, conn);
+         }
+         if (parameter instanceof List && null != element) {
+            List<Object> l = (List<Object>) parameter;
+            Converter e = elements();
+            for (int i = 0; i < l.size(); i++)
+               if (null != l.get(i))
+                  l.set(i, e.convert(l.get(i), conn));
+         }
+
+         // correct floats if appropriate
+         if (floats && !(parameter instanceof Float))
+            parameter = ((Number) parameter).floatValue();
+
+         // make sure arrays are in the correct format
+         if (null != array && (parameter instanceof Object[] ||
+               parameter instanceof List ||
+               parameter.getClass().isArray())) {
+            if (floatArray && parameter instanceof double[]) {
+               double[] tmp1 = (double[]) parameter;
+               float[] tmp2 = new float[tmp1.length];
+               for (int i = 0; i < tmp1.length; i++)
+                  tmp2[i] = (float) tmp1[i];
+               parameter = tmp2;
+            }
+            parameter = ArrayFrob.convert(parameter, (Class<? extends Object>) array);
+         }
+         if (parameter instanceof DBusMap) {
+            if (Debug.debug) Debug.print(Debug.VERBOSE, "Deserializing a Map");
+            DBusMap<?,?> dmap = (DBusMap<?,?>) parameter;
+            Converter k = keys();
+            Converter v = values();
+            for (int i = 0; i < dmap.entries.length; i++) {
+               dmap.entries[i][0] = k.convert(dmap.entries[i][0], conn);
+               dmap.entries[i][1] = v.convert(dmap.entries[i][1], conn);
+            }
+         }
+         return parameter;
+      }
+      Object export(Object parameter, AbstractConnection conn) throws DBusException
+      {
+         // its an unwrapped variant, wrap it
+         if (variable && !(parameter instanceof Variant))
+            return new Variant<Object>(parameter);
+         return super.export(parameter, conn);
+      }
+      /**
+       * Returns the types of the values of a Tuple of this type.
+       */
+      Type[] arguments()
+      {
+         return null == arguments ? ((ParameterizedType) type).getActualTypeArguments() : arguments;
+      }
+
+      /**
+       * Converts the fields of a Struct and creates it, with the first
+       * constructor which accepts them, or returns the fields if none does.
+       */
+      private Object construct(Object[] parameter, AbstractConnection conn) throws Exception
+      {
+         if (Debug.debug) Debug.print(Debug.VERBOSE, "Creating Struct "+type+" from "+parameter);
+         if (plain) {
+            if (parameter.length > fields.length)
+               throw new DBusException(_("Error deserializing message: number of parameters didn't match receiving signature"));
+            Converter[] cs = members();
+            for (int j = 0; j < parameter.length; j++)
+               parameter[j] = cs[j].convert(parameter[j], conn);
+         } else
+            parameter = Marshalling.deSerializeParameters(parameter, fields, conn);
+         Constructor<?> c = con;
+         if (null != c) {
+            try {
+               return c.newInstance(parameter);
+            } catch (IllegalArgumentException IAe) {}
+         }
+         for (Constructor<?> d: struct.getDeclaredConstructors()) {
+            try {
+               Object o = d.newInstance(parameter);
+               con = d;
+               return o;
+            } catch (IllegalArgumentException IAe) {}
+         }
+         return parameter;
+      }
+      private Converter[] members()
+      {
+         Converter[] cs = members;
+         if (null == cs) {
+            Codec[] mc = codec instanceof Codec.StructCodec ? ((Codec.StructCodec) codec).members : null;
+            if (null != mc && mc.length != fields.length) mc = null;
+            cs = new Converter[fields.length];
+            for (int j = 0; j < cs.length; j++)
+               cs[j] = get(null == mc ? null : mc[j], fields[j]);
+            members = cs;
+         }
+         return cs;
+      }
+      private Codec elementCodec()
+      {
+         return codec instanceof Codec.ArrayCodec ? ((Codec.ArrayCodec) codec).element : null;
+      }
+      private Converter elements()
+      {
+         Converter e = elements;
+         if (null == e) elements = e = get(elementCodec(), element);
+         return e;
+      }
+      private Converter keys()
+      {
+         Converter k = keys;
+         if (null == k) {
+            Codec ec = elementCodec();
+            keys = k = get(ec instanceof Codec.DictEntryCodec ? ((Codec.DictEntryCodec) ec).key : null, arguments()[0]);
+         }
+         return k;
+      }
+      private Converter values()
+      {
+         Converter v = values;
+         if (null == v) {
+            Codec ec = elementCodec();
+            values = v = get(ec instanceof Codec.DictEntryCodec ? ((Codec.DictEntryCodec) ec).value : null, arguments()[1]);
+         }
+         return v;
+      }
+   }
+}
@@ -165,12 +165,8 @@ public class DBusConnection extends AbstractConnection
                Error err = new Error(
                      "org.freedesktop.DBus.Local" , "org.freedesktop.DBus.Local.Disconnected", 0, "s", new Object[] { _("Disconnected") });
                if (null != pendingCalls) synchronized (pendingCalls) {
-                  long[] set = pendingCalls.getKeys();
-                  for (long l: set) if (-1 != l) {
-                     MethodCall m = pendingCalls.remove(l);
-                     if (null != m)
-                        m.setReply(err);
-                  }
+                  for (MethodCall m: pendingCalls.removeAll())
+                     m.setReply(err);
                }
                synchronized (pendingErrors) {
                   pendingErrors.add(err);
@@ -296,7 +292,7 @@ public class DBusConnection extends AbstractConnection
       }
    
       try {
-         transport = new Transport(addr, AbstractConnection.TIMEOUT);
+         transport = Transport.open(addr, AbstractConnection.TIMEOUT);
 			connected = true;
       } catch (IOException IOe) {
          if (EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, IOe);            
@@ -368,7 +364,6 @@ public class DBusConnection extends AbstractConnection
             Proxy.newProxyInstance(ifcs.get(0).getClassLoader(), 
                                    ifcs.toArray(new Class[0]), 
                                    new RemoteInvocationHandler(this, ro));
-         importedObjects.put(newi, ro);
          return newi;
       } catch (Exception e) {
          if (EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, e);
@@ -399,7 +394,7 @@ public class DBusConnection extends AbstractConnection
     */
    public void releaseBusName(String busname) throws DBusException
    {
-      if (!busname.matches(BUSNAME_REGEX)||busname.length() > MAX_NAME_LENGTH)
+      if (!busname_pattern.matcher(busname).matches()||busname.length() > MAX_NAME_LENGTH)
          throw new DBusException(_("Invalid bus name"));
       synchronized (this.busnames) {
          UInt32 rv;
@@ -421,7 +416,7 @@ public class DBusConnection extends AbstractConnection
     */
    public void requestBusName(String busname) throws DBusException
    {
-      if (!busname.matches(BUSNAME_REGEX)||busname.length() > MAX_NAME_LENGTH)
+      if (!busname_pattern.matcher(busname).matches()||busname.length() > MAX_NAME_LENGTH)
          throw new DBusException(_("Invalid bus name"));
       synchronized (this.busnames) {
          UInt32 rv;
@@ -488,7 +483,7 @@ public class DBusConnection extends AbstractConnection
    {
       if (null == busname) throw new DBusException(_("Invalid bus name: null"));
       
-      if ((!busname.matches(BUSNAME_REGEX) && !busname.matches(CONNID_REGEX))
+      if ((!busname_pattern.matcher(busname).matches() && !connid_pattern.matcher(busname).matches())
             || busname.length() > MAX_NAME_LENGTH) 
          throw new DBusException(_("Invalid bus name: ")+busname);
       
@@ -522,11 +517,11 @@ public class DBusConnection extends AbstractConnection
       if (null == busname) throw new DBusException(_("Invalid bus name: null"));
       if (null == objectpath) throw new DBusException(_("Invalid object path: null"));
       
-      if ((!busname.matches(BUSNAME_REGEX) && !busname.matches(CONNID_REGEX))
+      if ((!busname_pattern.matcher(busname).matches() && !connid_pattern.matcher(busname).matches())
          || busname.length() > MAX_NAME_LENGTH)
          throw new DBusException(_("Invalid bus name: ")+busname);
       
-      if (!objectpath.matches(OBJECT_REGEX) || objectpath.length() > MAX_NAME_LENGTH) 
+      if (!isObjectPath(objectpath) || objectpath.length() > MAX_NAME_LENGTH) 
          throw new DBusException(_("Invalid object path: ")+objectpath);
       
       return dynamicProxy(busname, objectpath);
@@ -554,7 +549,7 @@ public class DBusConnection extends AbstractConnection
    {
       if (null == busname) throw new DBusException(_("Invalid bus name: null"));
       
-      if ((!busname.matches(BUSNAME_REGEX) && !busname.matches(CONNID_REGEX))
+      if ((!busname_pattern.matcher(busname).matches() && !connid_pattern.matcher(busname).matches())
             || busname.length() > MAX_NAME_LENGTH) 
          throw new DBusException(_("Invalid bus name: ")+busname);
       
@@ -604,12 +599,16 @@ public class DBusConnection extends AbstractConnection
       if (null == busname) throw new DBusException(_("Invalid bus name: null"));
       if (null == objectpath) throw new DBusException(_("Invalid object path: null"));
       if (null == type) throw new ClassCastException(_("Not A DBus Interface"));
+
+      // only references which passed the checks below are cached
+      I i = (I) importedObjects.get(busname, objectpath, type, autostart);
+      if (null != i) return i;
       
-      if ((!busname.matches(BUSNAME_REGEX) && !busname.matches(CONNID_REGEX))
+      if ((!busname_pattern.matcher(busname).matches() && !connid_pattern.matcher(busname).matches())
          || busname.length() > MAX_NAME_LENGTH)
          throw new DBusException(_("Invalid bus name: ")+busname);
       
-      if (!objectpath.matches(OBJECT_REGEX) || objectpath.length() > MAX_NAME_LENGTH) 
+      if (!isObjectPath(objectpath) || objectpath.length() > MAX_NAME_LENGTH) 
          throw new DBusException(_("Invalid object path: ")+objectpath);
       
       if (!DBusInterface.class.isAssignableFrom(type)) throw new ClassCastException(_("Not A DBus Interface"));
@@ -620,8 +619,10 @@ public class DBusConnection extends AbstractConnection
          throw new DBusException(_("DBusInterfaces cannot be declared outside a package"));
       
       RemoteObject ro = new RemoteObject(busname, objectpath, type, autostart);
-      I i =  (I) Proxy.newProxyInstance(type.getClassLoader(), 
-            new Class[] { type }, new RemoteInvocationHandler(this, ro));
+      i = RemoteStub.create(this, ro);
+      if (null == i)
+         i = (I) Proxy.newProxyInstance(type.getClassLoader(), 
+               new Class[] { type }, new RemoteInvocationHandler(this, ro));
       importedObjects.put(i, ro);
       return i;
    }
@@ -636,8 +637,8 @@ public class DBusConnection extends AbstractConnection
    public <T extends DBusSignal> void removeSigHandler(Class<T> type, String source, DBusSigHandler<T> handler) throws DBusException
    {
       if (!DBusSignal.class.isAssignableFrom(type)) throw new ClassCastException(_("Not A DBus Signal"));
-      if (source.matches(BUSNAME_REGEX)) throw new DBusException(_("Cannot watch for signals based on well known bus name as source, only unique names."));
-      if (!source.matches(CONNID_REGEX)||source.length() > MAX_NAME_LENGTH)
+      if (busname_pattern.matcher(source).matches()) throw new DBusException(_("Cannot watch for signals based on well known bus name as source, only unique names."));
+      if (!connid_pattern.matcher(source).matches()||source.length() > MAX_NAME_LENGTH)
          throw new DBusException(_("Invalid bus name: ")+source);
       removeSigHandler(new DBusMatchRule(type, source, null), handler);
    }
@@ -653,34 +654,28 @@ public class DBusConnection extends AbstractConnection
    public <T extends DBusSignal> void removeSigHandler(Class<T> type, String source, DBusInterface object,  DBusSigHandler<T> handler) throws DBusException
    {
       if (!DBusSignal.class.isAssignableFrom(type)) throw new ClassCastException(_("Not A DBus Signal"));
-      if (source.matches(BUSNAME_REGEX)) throw new DBusException(_("Cannot watch for signals based on well known bus name as source, only unique names."));
-      if (!source.matches(CONNID_REGEX)||source.length() > MAX_NAME_LENGTH) 
+      if (busname_pattern.matcher(source).matches()) throw new DBusException(_("Cannot watch for signals based on well known bus name as source, only unique names."));
+      if (!connid_pattern.matcher(source).matches()||source.length() > MAX_NAME_LENGTH) 
          throw new DBusException(_("Invalid bus name: ")+source);
-      String objectpath = importedObjects.get(object).objectpath;
-      if (!objectpath.matches(OBJECT_REGEX)||objectpath.length() > MAX_NAME_LENGTH) 
+      String objectpath = remoteObject(object).objectpath;
+      if (!isObjectPath(objectpath)||objectpath.length() > MAX_NAME_LENGTH) 
          throw new DBusException(_("Invalid object path: ")+objectpath);
       removeSigHandler(new DBusMatchRule(type, source, objectpath), handler);
    }
    protected <T extends DBusSignal> void removeSigHandler(DBusMatchRule rule, DBusSigHandler<T> handler) throws DBusException
    {
       
-      SignalTuple key = new SignalTuple(rule.getInterface(), rule.getMember(), rule.getObject(), rule.getSource());
       synchronized (handledSignals) {
-         Vector<DBusSigHandler<? extends DBusSignal>> v = handledSignals.get(key);
-         if (null != v) {
-            v.remove(handler);
-            if (0 == v.size()) {
-               handledSignals.remove(key);
-               try {
-                  _dbus.RemoveMatch(rule.toString());
-               } catch (NotConnected NC) {
-                  if (EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, NC);
-               } catch (DBusExecutionException DBEe) {
-                  if (EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, DBEe);
-						throw new DBusException(DBEe.getMessage());
-               }
+         if (handledSignals.remove(rule.getInterface(), rule.getMember(), rule.getObject(), rule.getSource(), handler)) {
+            try {
+               _dbus.RemoveMatch(rule.toString());
+            } catch (NotConnected NC) {
+               if (EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, NC);
+            } catch (DBusExecutionException DBEe) {
+               if (EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, DBEe);
+               throw new DBusException(DBEe.getMessage());
             }
-         } 
+         }
       }
    }
    /** 
@@ -696,8 +691,8 @@ public class DBusConnection extends AbstractConnection
    public <T extends DBusSignal> void addSigHandler(Class<T> type, String source, DBusSigHandler<T> handler) throws DBusException
    {
       if (!DBusSignal.class.isAssignableFrom(type)) throw new ClassCastException(_("Not A DBus Signal"));
-      if (source.matches(BUSNAME_REGEX)) throw new DBusException(_("Cannot watch for signals based on well known bus name as source, only unique names."));
-      if (!source.matches(CONNID_REGEX)||source.length() > MAX_NAME_LENGTH) 
+      if (busname_pattern.matcher(source).matches()) throw new DBusException(_("Cannot watch for signals based on well known bus name as source, only unique names."));
+      if (!connid_pattern.matcher(source).matches()||source.length() > MAX_NAME_LENGTH) 
          throw new DBusException(_("Invalid bus name: ")+source);
       addSigHandler(new DBusMatchRule(type, source, null), (DBusSigHandler<? extends DBusSignal>) handler);
    }
@@ -715,11 +710,11 @@ public class DBusConnection extends AbstractConnection
    public <T extends DBusSignal> void addSigHandler(Class<T> type, String source, DBusInterface object,  DBusSigHandler<T> handler) throws DBusException
    {
       if (!DBusSignal.class.isAssignableFrom(type)) throw new ClassCastException(_("Not A DBus Signal"));
-      if (source.matches(BUSNAME_REGEX)) throw new DBusException(_("Cannot watch for signals based on well known bus name as source, only unique names."));
-      if (!source.matches(CONNID_REGEX)||source.length() > MAX_NAME_LENGTH)
+      if (busname_pattern.matcher(source).matches()) throw new DBusException(_("Cannot watch for signals based on well known bus name as source, only unique names."));
+      if (!connid_pattern.matcher(source).matches()||source.length() > MAX_NAME_LENGTH)
          throw new DBusException(_("Invalid bus name: ")+source);
-      String objectpath = importedObjects.get(object).objectpath;
-      if (!objectpath.matches(OBJECT_REGEX)||objectpath.length() > MAX_NAME_LENGTH)
+      String objectpath = remoteObject(object).objectpath;
+      if (!isObjectPath(objectpath)||objectpath.length() > MAX_NAME_LENGTH)
          throw new DBusException(_("Invalid object path: ")+objectpath);
       addSigHandler(new DBusMatchRule(type, source, objectpath), (DBusSigHandler<? extends DBusSignal>) handler);
    }
@@ -731,15 +726,59 @@ public class DBusConnection extends AbstractConnection
          if (EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, DBEe);
          throw new DBusException(DBEe.getMessage());
       }
-      SignalTuple key = new SignalTuple(rule.getInterface(), rule.getMember(), rule.getObject(), rule.getSource());
+      handledSignals.add(rule.getInterface(), rule.getMember(), rule.getObject(), rule.getSource(), handler);
+   }
+   /**
+    * Add a Signal Handler for several signals sent by one name.
+    * Adds a single match rule for all signals from the sender, rather than
+    * one per signal, so subscribing takes one round trip to the bus.
+    * Signals are passed to the handler by type, as with addSigHandler(Class, DBusSigHandler);
+    * signals from the sender of other types are dropped.
+    * @param sender The name sending the signals. This may be a well known name.
+    * @param types The signals to watch for.
+    * @param handler The handler to call when a signal is received.
+    * @throws DBusException If listening for the signals on the bus failed.
+    * @throws ClassCastException If a type is not a sub-type of DBusSignal.
+    */
+   @SuppressWarnings("unchecked")
+   public void addSigHandlers(String sender, Class<?>[] types, DBusSigHandler<? extends DBusSignal> handler) throws DBusException
+   {
+      if ((!busname_pattern.matcher(sender).matches() && !connid_pattern.matcher(sender).matches()) || sender.length() > MAX_NAME_LENGTH)
+         throw new DBusException(_("Invalid bus name: ")+sender);
+      for (Class<?> type: types)
+         if (!DBusSignal.class.isAssignableFrom(type)) throw new ClassCastException(_("Not A DBus Signal"));
+      try {
+         _dbus.AddMatch("type='signal',sender='"+sender+"'");
+      } catch (DBusExecutionException DBEe) {
+         if (EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, DBEe);
+         throw new DBusException(DBEe.getMessage());
+      }
+      for (Class<?> type: types)
+         addSigHandlerWithoutMatch((Class<? extends DBusSignal>) type, handler);
+   }
+   /**
+    * Remove a Signal Handler added with addSigHandlers.
+    * @param sender The name sending the signals.
+    * @param types The signals to stop watching for.
+    * @param handler The handler.
+    * @throws DBusException If removing the match rule on the bus failed.
+    */
+   @SuppressWarnings("unchecked")
+   public void removeSigHandlers(String sender, Class<?>[] types, DBusSigHandler<? extends DBusSignal> handler) throws DBusException
+   {
       synchronized (handledSignals) {
-         Vector<DBusSigHandler<? extends DBusSignal>> v = handledSignals.get(key);
-         if (null == v) {
-            v = new Vector<DBusSigHandler<? extends DBusSignal>>();
-            v.add(handler);
-            handledSignals.put(key, v);
-         } else
-            v.add(handler);
+         for (Class<?> type: types) {
+            DBusMatchRule rule = new DBusMatchRule((Class<? extends DBusSignal>) type);
+            handledSignals.remove(rule.getInterface(), rule.getMember(), rule.getObject(), rule.getSource(), handler);
+         }
+         try {
+            _dbus.RemoveMatch("type='signal',sender='"+sender+"'");
+         } catch (NotConnected NC) {
+            if (EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, NC);
+         } catch (DBusExecutionException DBEe) {
+            if (EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, DBEe);
+            throw new DBusException(DBEe.getMessage());
+         }
       }
    }
    /** 
@@ -758,12 +797,9 @@ public class DBusConnection extends AbstractConnection
                   Error err = new Error(
                         "org.freedesktop.DBus.Local" , "org.freedesktop.DBus.Local.Disconnected", 0, "s", new Object[] { _("Disconnected") });
                   synchronized (pendingCalls) {
-                     long[] set = pendingCalls.getKeys();
-                     for (long l: set) if (-1 != l) {
-                        MethodCall m = pendingCalls.remove(l);
-                        if (null != m)
-                           m.setReply(err);
-                     }
+                     for (MethodCall m: pendingCalls.removeAll())
+                        m.setReply(err);
+                     pendingCalls.notifyAll();
                      pendingCalls = null; 
                   }
                   synchronized (pendingErrors) {
@@ -0,0 +1,286 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus;
+
+import static org.freedesktop.dbus.Gettext._;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.freedesktop.DBus.Error.NoReply;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+
+import cx.ath.matthew.debug.Debug;
+
+/**
+ * A handle to the result of an asynchronous method call.
+ * The handle is completed on the thread which reads the reply, which
+ * also runs the callbacks added before completion; callbacks must not
+ * block, or they hold up every other reply and signal on the connection.
+ * Callbacks added after completion run on the thread adding them.
+ *
+ * Calls which have no reply within their timeout complete with a
+ * NoReply error.
+ */
+public class DBusFuture<ReturnType> implements Future<ReturnType>
+{
+   /**
+    * A step in a chain of calls, applied to the result of the previous one.
+    */
+   public interface Continuation<A, B>
+   {
+      public B apply(A r) throws DBusExecutionException;
+   }
+
+   private MethodCall mc;
+   private RemoteMethod rm;
+   private AbstractConnection conn;
+   private boolean done = false;
+   private boolean cancelled = false;
+   private ReturnType rval = null;
+   private DBusExecutionException error = null;
+   private List<CallbackHandler<? super ReturnType>> callbacks = null;
+
+   /** A handle completed by its own code rather than by a reply. */
+   DBusFuture() {}
+   DBusFuture(MethodCall mc, RemoteMethod rm, AbstractConnection conn)
+   {
+      this.mc = mc;
+      this.rm = rm;
+      this.conn = conn;
+   }
+
+   /**
+    * Sets the time to wait for a reply, counted from now, in place of
+    * the timeout of the method.
+    * @param ms The timeout in ms, or 0 to wait forever.
+    * @return This handle.
+    */
+   public DBusFuture<ReturnType> setTimeout(long ms)
+   {
+      MethodCall call;
+      AbstractConnection c;
+      synchronized (this) {
+         if (done || null == mc) return this;
+         call = mc;
+         c = conn;
+      }
+      c.setTimeout(call, ms <= 0 ? -1 : ms);
+      return this;
+   }
+
+   /**
+    * Completes this handle from the reply to its call.
+    */
+   @SuppressWarnings("unchecked")
+   void complete(Message reply)
+   {
+      if (reply instanceof Error) {
+         fail(((Error) reply).getException());
+         return;
+      }
+      try {
+         Object[] rp = reply.getParameters();
+         reply.releaseWireData();
+         succeed((ReturnType) rm.convertReply(rp, reply.getSig(), conn));
+      } catch (DBusExecutionException DBEe) {
+         fail(DBEe);
+      } catch (DBusException DBe) {
+         if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, DBe);
+         fail(new DBusExecutionException(DBe.getMessage()));
+      }
+   }
+   void succeed(ReturnType r)
+   {
+      List<CallbackHandler<? super ReturnType>> cbs;
+      synchronized (this) {
+         if (done) return;
+         rval = r;
+         cbs = finish();
+      }
+      if (null != cbs)
+         for (CallbackHandler<? super ReturnType> cb: cbs)
+            handle(cb);
+   }
+   void fail(DBusExecutionException e)
+   {
+      List<CallbackHandler<? super ReturnType>> cbs;
+      synchronized (this) {
+         if (done) return;
+         error = e;
+         cbs = finish();
+      }
+      if (null != cbs)
+         for (CallbackHandler<? super ReturnType> cb: cbs)
+            handle(cb);
+   }
+   /** Marks this handle done and returns the callbacks to run. Holds the lock. */
+   private List<CallbackHandler<? super ReturnType>> finish()
+   {
+      done = true;
+      mc = null;
+      rm = null;
+      conn = null;
+      notifyAll();
+      List<CallbackHandler<? super ReturnType>> cbs = callbacks;
+      callbacks = null;
+      return cbs;
+   }
+   private void handle(CallbackHandler<? super ReturnType> cb)
+   {
+      try {
+         if (null == error) cb.handle(rval);
+         else cb.handleError(error);
+      } catch (Exception e) {
+         if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, e);
+      }
+   }
+   /**
+    * Adds a callback to run when this handle completes.
+    * @return This handle.
+    */
+   public DBusFuture<ReturnType> addCallback(CallbackHandler<? super ReturnType> callback)
+   {
+      synchronized (this) {
+         if (!done) {
+            if (null == callbacks) callbacks = new ArrayList<CallbackHandler<? super ReturnType>>(1);
+            callbacks.add(callback);
+            return this;
+         }
+      }
+      handle(callback);
+      return this;
+   }
+   /**
+    * Returns a handle to the result of applying a function to the result of this call.
+    * Errors from this call, or thrown by the function, complete the new handle.
+    */
+   public <T> DBusFuture<T> then(final Continuation<? super ReturnType, T> next)
+   {
+      final DBusFuture<T> f = new DBusFuture<T>();
+      addCallback(new CallbackHandler<ReturnType>() {
+         public void handle(ReturnType r)
+         {
+            T t;
+            try {
+               t = next.apply(r);
+            } catch (DBusExecutionException DBEe) {
+               f.fail(DBEe);
+               return;
+            } catch (RuntimeException Re) {
+               f.fail(new DBusExecutionException(Re.toString()));
+               return;
+            }
+            f.succeed(t);
+         }
+         public void handleError(DBusExecutionException e) { f.fail(e); }
+      });
+      return f;
+   }
+   /**
+    * Returns a handle to the result of a further call, made with the result of this call.
+    */
+   public <T> DBusFuture<T> thenCall(final Continuation<? super ReturnType, DBusFuture<T>> next)
+   {
+      final DBusFuture<T> f = new DBusFuture<T>();
+      addCallback(new CallbackHandler<ReturnType>() {
+         public void handle(ReturnType r)
+         {
+            DBusFuture<T> n;
+            try {
+               n = next.apply(r);
+            } catch (DBusExecutionException DBEe) {
+               f.fail(DBEe);
+               return;
+            } catch (RuntimeException Re) {
+               f.fail(new DBusExecutionException(Re.toString()));
+               return;
+            }
+            n.addCallback(new CallbackHandler<T>() {
+               public void handle(T t) { f.succeed(t); }
+               public void handleError(DBusExecutionException e) { f.fail(e); }
+            });
+         }
+         public void handleError(DBusExecutionException e) { f.fail(e); }
+      });
+      return f;
+   }
+
+   /**
+    * Stops waiting for the reply, and completes this handle with an error.
+    * The call itself may still be carried out.
+    */
+   public boolean cancel(boolean mayInterruptIfRunning)
+   {
+      synchronized (this) {
+         if (done) return false;
+         cancelled = true;
+      }
+      fail(new DBusExecutionException(_("Call cancelled")));
+      return true;
+   }
+   public synchronized boolean isCancelled() { return cancelled; }
+   public synchronized boolean isDone() { return done; }
+
+   /**
+    * Waits for the reply and returns the return value from the method.
+    * @throws ExecutionException wrapping a DBusExecutionException if the reply was an error.
+    */
+   public synchronized ReturnType get() throws InterruptedException, ExecutionException
+   {
+      while (!done) wait();
+      return result();
+   }
+   public synchronized ReturnType get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+   {
+      long end = System.nanoTime() + unit.toNanos(timeout);
+      while (!done) {
+         long left = end - System.nanoTime();
+         if (left <= 0) throw new TimeoutException();
+         TimeUnit.NANOSECONDS.timedWait(this, left);
+      }
+      return result();
+   }
+   /**
+    * Waits for the reply and returns the return value from the method.
+    * @throws DBusExecutionException if the reply was an error or there was none in time.
+    */
+   public ReturnType getReply() throws DBusExecutionException
+   {
+      synchronized (this) {
+         try {
+            while (!done) wait();
+         } catch (InterruptedException Ie) {
+            throw new NoReply(_("Interrupted while waiting for a reply"));
+         }
+         if (null != error) throw error;
+         return rval;
+      }
+   }
+   private ReturnType result() throws ExecutionException
+   {
+      if (cancelled) throw new CancellationException();
+      if (null != error) throw new ExecutionException(error);
+      return rval;
+   }
+
+   public synchronized String toString()
+   {
+      if (!done) return _("Waiting for: ")+mc;
+      return null == error ? String.valueOf(rval) : error.toString();
+   }
+}
@@ -0,0 +1,54 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * How urgently calls to this method, replies to them and this signal
+ * are sent when messages are waiting, and handled when they are received.
+ * On an interface it applies to all its methods and signals which do not
+ * have their own.
+ *
+ * Each priority is queued separately and the most urgent is always sent
+ * first. The less urgent ones are bounded, see
+ * AbstractConnection.setOutgoingBound(). Messages without a priority
+ * are sent as DEFAULT. Received calls and signals waiting for a worker
+ * thread also start most urgent first. Signals from one sender on one
+ * path are handled in order, except that a signal of a type which is
+ * coalesced, see AbstractConnection.setSignalCoalescing(), may be
+ * overtaken by a more urgent signal of another interface. So a coalesced
+ * signal which the handling of more urgent ones depends on should be as
+ * urgent as them.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface DBusPriority
+{
+   /** Placing, answering and ending calls. */
+   int CALL_CONTROL = 0;
+   /** Sending and receiving messages. */
+   int MESSAGING = 1;
+   /** The modem, the SIM and network registration. */
+   int REGISTRATION = 2;
+   /** Anything without a priority. */
+   int DEFAULT = 3;
+   /** Traffic which can wait, such as data contexts. */
+   int BACKGROUND = 4;
+   /** The number of priorities. */
+   int COUNT = 5;
+
+   /** One of the priorities above. */
+   int value();
+}
@@ -12,14 +12,10 @@ package org.freedesktop.dbus;
 
 import static org.freedesktop.dbus.Gettext._;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.GenericDeclaration;
 import java.lang.reflect.Type;
-import java.lang.reflect.TypeVariable;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.freedesktop.dbus.exceptions.DBusException;
 import org.freedesktop.dbus.exceptions.MessageFormatException;
@@ -28,16 +24,20 @@ import cx.ath.matthew.debug.Debug;
 
 public class DBusSignal extends Message
 {
-   DBusSignal() { }
+   DBusSignal() 
+   { 
+      // signals are often dropped unread, so only decode variants on demand
+      lazyvariants = true; 
+   }
    public DBusSignal(String source, String path, String iface, String member, String sig, Object... args) throws DBusException
    {
       super(Message.Endian.BIG, Message.MessageType.SIGNAL, (byte) 0);
 
       if (null == path || null == member || null == iface)
          throw new MessageFormatException(_("Must specify object path, interface and signal name to Signals."));
-      headers.put(Message.HeaderField.PATH,path);
-      headers.put(Message.HeaderField.MEMBER,member);
-      headers.put(Message.HeaderField.INTERFACE,iface);
+      this.path = path;
+      this.member = member;
+      this.iface = iface;
 
       Vector<Object> hargs = new Vector<Object>();
       hargs.add(new Object[] { Message.HeaderField.PATH, new Object[] { ArgumentType.OBJECT_PATH_STRING, path } });
@@ -45,24 +45,24 @@ public class DBusSignal extends Message
       hargs.add(new Object[] { Message.HeaderField.MEMBER, new Object[] { ArgumentType.STRING_STRING, member } });
       
       if (null != source) {
-         headers.put(Message.HeaderField.SENDER,source);
+         this.source = source;
          hargs.add(new Object[] { Message.HeaderField.SENDER, new Object[] { ArgumentType.STRING_STRING, source } });
       }
  
       if (null != sig) {
          hargs.add(new Object[] { Message.HeaderField.SIGNATURE, new Object[] { ArgumentType.SIGNATURE_STRING, sig } });
-         headers.put(Message.HeaderField.SIGNATURE,sig);
+         signature = sig;
          setArgs(args);
       }
 
-      blen = new byte[4];
-      appendBytes(blen);
+      blen = (int) bytecounter;
+      appendint(0, 4);
       append("ua(yv)", ++serial, hargs.toArray());
       pad((byte)8);
 
       long c = bytecounter;
       if (null != sig) append(sig, args);
-      marshallint(bytecounter-c, blen, 0, 4);
+      setint(bytecounter-c, blen, 4);
       bodydone = true;
    }
    static class internalsig extends DBusSignal
@@ -72,14 +72,12 @@ public class DBusSignal extends Message
          super(source, objectpath, type, name, sig, parameters, serial);
       }
    }
-   private static Map<Class<? extends DBusSignal>, Type[]> typeCache = new HashMap<Class<? extends DBusSignal>, Type[]>();
-   private static Map<String, Class<? extends DBusSignal>> classCache = new HashMap<String, Class<? extends DBusSignal>>();
-   private static Map<Class<? extends DBusSignal>, Constructor<? extends DBusSignal>> conCache = new HashMap<Class<? extends DBusSignal>, Constructor<? extends DBusSignal>>();
-   private static Map<String, String> signames = new HashMap<String, String>();
-   private static Map<String, String> intnames = new HashMap<String, String>();
+   private static final Map<String, String> signames = new ConcurrentHashMap<String, String>();
+   private static final Map<String, String> intnames = new ConcurrentHashMap<String, String>();
    private Class<? extends DBusSignal> c;
    private boolean bodydone = false;
-   private byte[] blen;
+   /** The offset of the body length, set once the body is appended. */
+   private int blen;
 
    static void addInterfaceMap(String java, String dbus)
    {
@@ -105,69 +103,48 @@ public class DBusSignal extends Message
       s.c = c;
       return s;
    }
+   /**
+    * Finds the class of a signal which was not registered, by trying each
+    * '.' from the end of its name as the separator of an enclosing class.
+    */
    @SuppressWarnings("unchecked")
    private static Class<? extends DBusSignal> createSignalClass(String intname, String signame) throws DBusException
    {
-		String name = intname+'$'+signame;
-      Class<? extends DBusSignal> c = classCache.get(name);
-		if (null == c) c = DBusMatchRule.getCachedSignalType(name);
-		if (null != c) return c;
-      do {
+      String name = intname+'$'+signame;
+      while (true) {
          try {
-            c = (Class<? extends DBusSignal>) Class.forName(name);
+            return (Class<? extends DBusSignal>) Class.forName(name);
          } catch (ClassNotFoundException CNFe) {}
-         name = name.replaceAll("\\.([^\\.]*)$", "\\$$1");
-      } while (null == c && name.matches(".*\\..*"));
-		if (null == c) 
-			throw new DBusException(_("Could not create class from signal ")+intname+'.'+signame);
-		classCache.put(name, c);
-      return c;
+         int i = name.lastIndexOf('.');
+         if (-1 == i) break;
+         name = name.substring(0, i)+'$'+name.substring(i+1);
+      }
+      throw new DBusException(_("Could not create class from signal ")+intname+'.'+signame);
    }
-   @SuppressWarnings("unchecked")
    DBusSignal createReal(AbstractConnection conn) throws DBusException
    {
-      String intname = intnames.get(getInterface());
-      String signame = signames.get(getName());
-      if (null == intname) intname = getInterface();
-      if (null == signame) signame = getName();
-      if (null == c) 
-         c = createSignalClass(intname,signame);
-      if (Debug.debug) Debug.print(Debug.DEBUG, "Converting signal to type: "+c);
-      Type[] types = typeCache.get(c);
-      Constructor<? extends DBusSignal> con = conCache.get(c);
-      if (null == types) {
-         con = (Constructor<? extends DBusSignal>) c.getDeclaredConstructors()[0];
-         conCache.put(c, con);
-         Type[] ts = con.getGenericParameterTypes();
-         types = new Type[ts.length-1];
-         for (int i = 1; i < ts.length; i++)
-            if (ts[i] instanceof TypeVariable)
-               for (Type b: ((TypeVariable<GenericDeclaration>) ts[i]).getBounds())
-                  types[i-1] = b;
-            else
-               types[i-1] = ts[i];
-         typeCache.put(c, types);
+      SignalRegistry.Entry e = null == c
+         ? SignalRegistry.get(getInterface(), getName())
+         : SignalRegistry.get(c);
+      if (null == e) {
+         String intname = intnames.get(getInterface());
+         String signame = signames.get(getName());
+         if (null == intname) intname = getInterface();
+         if (null == signame) signame = getName();
+         e = SignalRegistry.register(createSignalClass(intname, signame), getInterface(), getName());
       }
+      if (Debug.debug) Debug.print(Debug.DEBUG, "Converting signal to type: "+e.type);
 
       try {
-         DBusSignal s;
-         Object[] args = Marshalling.deSerializeParameters(getParameters(), types, conn);
-         if (null == args) s = (DBusSignal) con.newInstance(getPath());
-         else {
-            Object[] params = new Object[args.length + 1];
-            params[0] = getPath();
-            System.arraycopy(args, 0, params, 1, args.length);
-
-            if (Debug.debug) Debug.print(Debug.DEBUG, "Creating signal of type "+c+" with parameters "+Arrays.deepToString(params));
-            s = (DBusSignal) con.newInstance(params);
-         }
-         s.headers = headers;
-         s.wiredata = wiredata;
-         s.bytecounter = wiredata.length;
+         DBusSignal s = e.decode(getPath(), getParameters(), getSig(), conn);
+         // the typed signal keeps the headers, but not the wire data it was decoded from
+         s.copyHeaders(this);
+         // it is never sent, so give back the buffer its headers were marshalled into
+         s.seal();
          return s;
-      } catch (Exception e) { 
-         if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, e);
-         throw new DBusException(e.getMessage());
+      } catch (Exception ex) { 
+         if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, ex);
+         throw new DBusException(ex.getMessage());
       }
    }
    /** 
@@ -177,34 +154,19 @@ public class DBusSignal extends Message
     * @param args The parameters of the signal.
     * @throws DBusException This is thrown if the subclass is incorrectly defined.
     */
-   @SuppressWarnings("unchecked")
    protected DBusSignal(String objectpath, Object... args) throws DBusException
    {
       super(Message.Endian.BIG, Message.MessageType.SIGNAL, (byte) 0);
 
-      if (!objectpath.matches(AbstractConnection.OBJECT_REGEX)) throw new DBusException(_("Invalid object path: ")+objectpath);
+      if (!AbstractConnection.isObjectPath(objectpath)) throw new DBusException(_("Invalid object path: ")+objectpath);
 
-      Class<? extends DBusSignal> tc = getClass();
-      String member;
-      if (tc.isAnnotationPresent(DBusMemberName.class))
-         member = tc.getAnnotation(DBusMemberName.class).value();
-      else
-         member = tc.getSimpleName();
-      String iface = null;
-      Class<? extends Object> enc = tc.getEnclosingClass();
-      if (null == enc ||
-            !DBusInterface.class.isAssignableFrom(enc) ||
-            enc.getName().equals(enc.getSimpleName()))
-         throw new DBusException(_("Signals must be declared as a member of a class implementing DBusInterface which is the member of a package."));
-      else
-         if (null != enc.getAnnotation(DBusInterfaceName.class))
-            iface = enc.getAnnotation(DBusInterfaceName.class).value();
-         else
-            iface = AbstractConnection.dollar_pattern.matcher(enc.getName()).replaceAll(".");
+      SignalRegistry.Entry e = SignalRegistry.get(getClass());
+      String member = e.member;
+      String iface = e.iface;
 
-      headers.put(Message.HeaderField.PATH,objectpath);
-      headers.put(Message.HeaderField.MEMBER,member);
-      headers.put(Message.HeaderField.INTERFACE,iface);
+      path = objectpath;
+      this.member = member;
+      this.iface = iface;
 
       Vector<Object> hargs = new Vector<Object>();
       hargs.add(new Object[] { Message.HeaderField.PATH, new Object[] { ArgumentType.OBJECT_PATH_STRING, objectpath } });
@@ -214,31 +176,18 @@ public class DBusSignal extends Message
       String sig = null;
       if (0 < args.length) {
          try {
-            Type[] types = typeCache.get(tc);
-            if (null == types) {
-               Constructor<? extends DBusSignal> con = (Constructor<? extends DBusSignal>) tc.getDeclaredConstructors()[0];
-               conCache.put(tc, con);
-               Type[] ts = con.getGenericParameterTypes();
-               types = new Type[ts.length-1];
-               for (int i = 1; i <= types.length; i++) 
-                  if (ts[i] instanceof TypeVariable)
-                     types[i-1] = ((TypeVariable<GenericDeclaration>) ts[i]).getBounds()[0];
-                  else
-                     types[i-1] = ts[i];
-               typeCache.put(tc, types);
-            }
-            sig = Marshalling.getDBusType(types);
+            sig = e.sig();
             hargs.add(new Object[] { Message.HeaderField.SIGNATURE, new Object[] { ArgumentType.SIGNATURE_STRING, sig } });
-            headers.put(Message.HeaderField.SIGNATURE,sig);
+            signature = sig;
             setArgs(args);
-         } catch (Exception e) {
-            if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, e);
-            throw new DBusException(_("Failed to add signal parameters: ")+e.getMessage());
+         } catch (Exception ex) {
+            if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, ex);
+            throw new DBusException(_("Failed to add signal parameters: ")+ex.getMessage());
          }
       }
 
-      blen = new byte[4];
-      appendBytes(blen);
+      blen = (int) bytecounter;
+      appendint(0, 4);
       append("ua(yv)", ++serial, hargs.toArray());
       pad((byte)8);
    }
@@ -246,14 +195,14 @@ public class DBusSignal extends Message
    {
       if (bodydone) return;
 
-      Type[] types = typeCache.get(getClass());
+      Type[] types = SignalRegistry.get(getClass()).types;
       Object[] args = Marshalling.convertParameters(getParameters(), types, conn);
       setArgs(args);
       String sig = getSig();
 
       long c = bytecounter;
       if (null != args && 0 < args.length) append(sig, args);
-      marshallint(bytecounter-c, blen, 0, 4);
+      setint(bytecounter-c, blen, 4);
       bodydone = true;
    }
 }
@@ -42,7 +42,7 @@ public class DirectConnection extends AbstractConnection
       super(address);
 
       try {
-         transport = new Transport(addr, AbstractConnection.TIMEOUT);
+         transport = Transport.open(addr, AbstractConnection.TIMEOUT);
 			connected = true;
       } catch (IOException IOe) {
          if (EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, IOe);            
@@ -135,7 +135,6 @@ public class DirectConnection extends AbstractConnection
             Proxy.newProxyInstance(ifcs.get(0).getClassLoader(), 
                                    ifcs.toArray(new Class[0]),
                                    new RemoteInvocationHandler(this, ro));
-         importedObjects.put(newi, ro);
          return newi;
       } catch (Exception e) {
          if (EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, e);
@@ -179,7 +178,7 @@ public class DirectConnection extends AbstractConnection
    {
       if (null == objectpath) throw new DBusException(_("Invalid object path: null"));
       
-      if (!objectpath.matches(OBJECT_REGEX) || objectpath.length() > MAX_NAME_LENGTH) 
+      if (!isObjectPath(objectpath) || objectpath.length() > MAX_NAME_LENGTH) 
          throw new DBusException(_("Invalid object path: ")+objectpath);
       
       return dynamicProxy(objectpath);
@@ -201,8 +200,12 @@ public class DirectConnection extends AbstractConnection
    {
       if (null == objectpath) throw new DBusException(_("Invalid object path: null"));
       if (null == type) throw new ClassCastException(_("Not A DBus Interface"));
+
+      // only references which passed the checks below are cached
+      DBusInterface i = importedObjects.get(null, objectpath, type, false);
+      if (null != i) return i;
       
-      if (!objectpath.matches(OBJECT_REGEX) || objectpath.length() > MAX_NAME_LENGTH) 
+      if (!isObjectPath(objectpath) || objectpath.length() > MAX_NAME_LENGTH) 
          throw new DBusException(_("Invalid object path: ")+objectpath);
       
       if (!DBusInterface.class.isAssignableFrom(type)) throw new ClassCastException(_("Not A DBus Interface"));
@@ -213,36 +216,20 @@ public class DirectConnection extends AbstractConnection
          throw new DBusException(_("DBusInterfaces cannot be declared outside a package"));
       
       RemoteObject ro = new RemoteObject(null, objectpath, type, false);
-      DBusInterface i =  (DBusInterface) Proxy.newProxyInstance(type.getClassLoader(), 
-            new Class[] { type }, new RemoteInvocationHandler(this, ro));
+      i = RemoteStub.create(this, ro);
+      if (null == i)
+         i = (DBusInterface) Proxy.newProxyInstance(type.getClassLoader(), 
+               new Class[] { type }, new RemoteInvocationHandler(this, ro));
       importedObjects.put(i, ro);
       return i;
    }
    protected <T extends DBusSignal> void removeSigHandler(DBusMatchRule rule, DBusSigHandler<T> handler) throws DBusException
    {
-      SignalTuple key = new SignalTuple(rule.getInterface(), rule.getMember(), rule.getObject(), rule.getSource());
-      synchronized (handledSignals) {
-         Vector<DBusSigHandler<? extends DBusSignal>> v = handledSignals.get(key);
-         if (null != v) {
-            v.remove(handler);
-            if (0 == v.size()) {
-               handledSignals.remove(key);
-            }
-         } 
-      }
+      handledSignals.remove(rule.getInterface(), rule.getMember(), rule.getObject(), rule.getSource(), handler);
    }
    protected <T extends DBusSignal> void addSigHandler(DBusMatchRule rule, DBusSigHandler<T> handler) throws DBusException
    {
-      SignalTuple key = new SignalTuple(rule.getInterface(), rule.getMember(), rule.getObject(), rule.getSource());
-      synchronized (handledSignals) {
-         Vector<DBusSigHandler<? extends DBusSignal>> v = handledSignals.get(key);
-         if (null == v) {
-            v = new Vector<DBusSigHandler<? extends DBusSignal>>();
-            v.add(handler);
-            handledSignals.put(key, v);
-         } else
-            v.add(handler);
-      }
+      handledSignals.add(rule.getInterface(), rule.getMember(), rule.getObject(), rule.getSource(), handler);
    }
    DBusInterface getExportedObject(String source, String path) throws DBusException
    {
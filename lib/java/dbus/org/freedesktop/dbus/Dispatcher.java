@@ -0,0 +1,381 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import cx.ath.matthew.debug.Debug;
+
+/**
+ * Runs the work of a connection, such as signal handlers and exported
+ * methods, on a bounded pool of threads.
+ *
+ * Each task has a priority, see DBusPriority, and waiting tasks start most
+ * urgent first, so a call or message signal overtakes a storm of signal
+ * strength updates. Tasks queued for the same sender and object path run
+ * one at a time in the order they were queued, so handlers see the signals
+ * of an object in the order it sent them. The priority of its next task
+ * decides when the object gets a thread. The only task which may start
+ * before one queued ahead of it on the same object is a more urgent one
+ * of another interface, and only past tasks which a later one may replace.
+ * Different objects are handled in parallel. Tasks queued without a path
+ * may run in any order.
+ *
+ * While tasks of an object wait, a later task may replace an earlier one
+ * it makes redundant, see Replaceable.
+ */
+final class Dispatcher
+{
+   /** How many tasks of one object run before other objects get a turn. */
+   private static final int LANE_BATCH = 16;
+
+   /** Something to run in the pool, started most urgent first, then in the order queued. */
+   private abstract static class Entry implements Runnable
+   {
+      /** Only changed while out of the pool's queue. */
+      int priority;
+      /** When last put in the pool's queue; only changed while out of it. */
+      long seq;
+      Entry(int priority)
+      {
+         this.priority = priority;
+      }
+   }
+   private static final Comparator<Runnable> ORDER = new Comparator<Runnable>() {
+      public int compare(Runnable a, Runnable b)
+      {
+         Entry x = (Entry) a;
+         Entry y = (Entry) b;
+         if (x.priority != y.priority) return x.priority < y.priority ? -1 : 1;
+         return x.seq < y.seq ? -1 : x.seq == y.seq ? 0 : 1;
+      }
+   };
+
+   /**
+    * The queued tasks of one sender and path. It is in the pool's queue,
+    * at the priority of its next task, or running, exactly when it is in
+    * the lanes map.
+    */
+   private final class Lane extends Entry
+   {
+      final String sender;
+      final String path;
+      final ArrayDeque<Slot> tasks = new ArrayDeque<Slot>();
+      /** The waiting tasks which may be replaced, by key. */
+      final Map<Object, Slot> keyed = new HashMap<Object, Slot>();
+      /** Whether it is in the pool's queue rather than running. */
+      boolean waiting;
+      Lane(String sender, String path, int priority)
+      {
+         super(priority);
+         this.sender = sender;
+         this.path = path;
+      }
+      public void run()
+      {
+         for (int i = 0; i < LANE_BATCH; i++) {
+            Slot s;
+            synchronized (Dispatcher.this) {
+               waiting = false;
+               s = next();
+               if (null == s) {
+                  close(this);
+                  return;
+               }
+               // let more urgent work go first
+               if (0 != i && urgent(s.priority)) break;
+               take(s);
+            }
+            runTask(s.task, s.priority);
+         }
+         synchronized (Dispatcher.this) {
+            Slot s = next();
+            if (null == s) {
+               close(this);
+               return;
+            }
+            priority = s.priority;
+            try {
+               submit(this);
+               return;
+            } catch (RejectedExecutionException REe) {}
+         }
+         // shutting down: finish this object's tasks here
+         for (Slot s = poll(); null != s; s = poll())
+            runTask(s.task, s.priority);
+      }
+      private Slot poll()
+      {
+         synchronized (Dispatcher.this) {
+            Slot s = next();
+            if (null == s) close(this);
+            else take(s);
+            return s;
+         }
+      }
+      /**
+       * Returns the task to run next: the most urgent which may start before
+       * all those queued ahead of it, or null if there are none. Holds the lock.
+       */
+      Slot next()
+      {
+         Slot best = null;
+         for (Slot s: tasks) {
+            if (null == best) best = s;
+            else if (s.priority < best.priority && overtakes(s)) best = s;
+            // nothing starts before a task which may not be replaced
+            if (null == s.key) break;
+         }
+         return best;
+      }
+      /** Whether a task may start before each task queued ahead of it. Holds the lock. */
+      private boolean overtakes(Slot s)
+      {
+         for (Slot w: tasks) {
+            if (w == s) return true;
+            if (null == w.key || w.priority <= s.priority
+                  || null == s.iface || s.iface.equals(w.iface))
+               return false;
+         }
+         return true;
+      }
+      /** Removes a task returned by next(). Holds the lock. */
+      private void take(Slot s)
+      {
+         if (s == tasks.peek()) tasks.poll();
+         else tasks.remove(s);
+         if (null != s.key && keyed.get(s.key) == s) keyed.remove(s.key);
+      }
+      /**
+       * Queues a task. If it has the key of a waiting task, that one is
+       * removed and the new one queued after everything else waiting.
+       * Holds the lock.
+       * @return The task replaced, or null.
+       */
+      Runnable add(Runnable r, int priority, String iface)
+      {
+         Object key = r instanceof Replaceable ? ((Replaceable) r).key() : null;
+         Slot old = null == key ? null : keyed.get(key);
+         if (null != old) tasks.remove(old);
+         Slot s = new Slot(r, priority, iface, key);
+         if (null != key) keyed.put(key, s);
+         tasks.add(s);
+         return null == old ? null : old.task;
+      }
+   }
+   /** A queued task of a lane. */
+   private static final class Slot
+   {
+      final Runnable task;
+      final int priority;
+      final String iface;
+      /** What a later task must match to replace this one, or null. */
+      final Object key;
+      Slot(Runnable task, int priority, String iface, Object key)
+      {
+         this.task = task;
+         this.priority = priority;
+         this.iface = iface;
+         this.key = key;
+      }
+   }
+   /**
+    * A task which a later one may replace while it waits behind other
+    * work of its sender and path, such as a signal of which only the
+    * latest value matters. More urgent tasks of other interfaces of the
+    * same object may also start before it.
+    */
+   interface Replaceable extends Runnable
+   {
+      /**
+       * Returns what a later task must match to replace this one, or null
+       * if it may not be replaced.
+       */
+      Object key();
+      /** Called instead of running when a later task has replaced this one. */
+      void replaced();
+   }
+
+   private final ThreadPoolExecutor pool;
+   /** By sender, then path. Guarded by this. */
+   private final Map<String, Map<String, Lane>> lanes = new HashMap<String, Map<String, Lane>>();
+   private final AtomicLong seq = new AtomicLong();
+   private int active = 0;
+   private int peaklanes = 0;
+   private final AtomicInteger queued = new AtomicInteger();
+   private final AtomicInteger peak = new AtomicInteger();
+   private final AtomicLongArray completed = new AtomicLongArray(DBusPriority.COUNT);
+   private final AtomicLong replaced = new AtomicLong();
+
+   Dispatcher(int threads)
+   {
+      final AtomicInteger count = new AtomicInteger();
+      pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<Runnable>(64, ORDER), new ThreadFactory() {
+         public Thread newThread(Runnable r)
+         {
+            return new Thread(r, "DBus worker "+count.incrementAndGet());
+         }
+      });
+   }
+
+   /**
+    * Queues a task which may run in parallel with any other.
+    */
+   void execute(final int priority, final Runnable r)
+   {
+      queued(1);
+      try {
+         submit(new Entry(priority) {
+            public void run() { runTask(r, priority); }
+         });
+      } catch (RejectedExecutionException REe) {
+         queued.decrementAndGet();
+         if (Debug.debug) Debug.print(Debug.INFO, "Dropping task after disconnection: "+r);
+      }
+   }
+   /**
+    * Queues a task to run after those already queued for the same sender
+    * and path. A Replaceable task queued behind others replaces a waiting
+    * one with the same key, which is told so and never runs.
+    * @param iface The interface of the task, which more urgent tasks of
+    * other interfaces may overtake if it is Replaceable.
+    */
+   void execute(String sender, String path, String iface, int priority, Runnable r)
+   {
+      Runnable old;
+      synchronized (this) {
+         Map<String, Lane> paths = lanes.get(sender);
+         if (null == paths) {
+            paths = new HashMap<String, Lane>();
+            lanes.put(sender, paths);
+         }
+         Lane l = paths.get(path);
+         if (null == l) {
+            // only tasks waiting behind others are replaced
+            l = new Lane(sender, path, priority);
+            l.tasks.add(new Slot(r, priority, iface, r instanceof Replaceable ? ((Replaceable) r).key() : null));
+            paths.put(path, l);
+            if (++active > peaklanes) peaklanes = active;
+            queued(1);
+            try {
+               submit(l);
+            } catch (RejectedExecutionException REe) {
+               close(l);
+               queued.decrementAndGet();
+               if (Debug.debug) Debug.print(Debug.INFO, "Dropping task after disconnection: "+r);
+            }
+            return;
+         }
+         old = l.add(r, priority, iface);
+         if (null == old) queued(1);
+         // a lane waiting for a thread moves up if a more urgent task may go first
+         if (l.waiting && l.next().priority < l.priority && pool.remove(l)) {
+            l.priority = l.next().priority;
+            try {
+               submit(l);
+            } catch (RejectedExecutionException REe) {
+               queued.addAndGet(-l.tasks.size());
+               close(l);
+               if (Debug.debug) Debug.print(Debug.INFO, "Dropping tasks after disconnection: "+l.path);
+            }
+         }
+      }
+      if (null != old) {
+         replaced.incrementAndGet();
+         ((Replaceable) old).replaced();
+      }
+   }
+   private void submit(Entry e)
+   {
+      if (e instanceof Lane) ((Lane) e).waiting = true;
+      e.seq = seq.getAndIncrement();
+      pool.execute(e);
+   }
+   /** Whether work more urgent than the given priority is waiting to start. */
+   private boolean urgent(int priority)
+   {
+      Runnable next = pool.getQueue().peek();
+      return null != next && ((Entry) next).priority < priority;
+   }
+   /** Removes an empty lane. Holds the lock. */
+   private void close(Lane l)
+   {
+      Map<String, Lane> paths = lanes.get(l.sender);
+      if (null == paths || paths.get(l.path) != l) return;
+      paths.remove(l.path);
+      if (paths.isEmpty()) lanes.remove(l.sender);
+      active--;
+   }
+   private void queued(int n)
+   {
+      int q = queued.addAndGet(n);
+      int p;
+      while (q > (p = peak.get()) && !peak.compareAndSet(p, q));
+   }
+   private void runTask(Runnable r, int priority)
+   {
+      queued.decrementAndGet();
+      try {
+         r.run();
+      } catch (Throwable t) {
+         if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, t);
+      } finally {
+         completed.incrementAndGet(priority);
+      }
+   }
+
+   void setThreadCount(int threads)
+   {
+      if (threads < 1) threads = 1;
+      synchronized (pool) {
+         if (threads > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(threads);
+            pool.setCorePoolSize(threads);
+         } else {
+            pool.setCorePoolSize(threads);
+            pool.setMaximumPoolSize(threads);
+         }
+      }
+   }
+   /**
+    * Runs the tasks already queued and stops the threads once they are done.
+    */
+   void shutdown()
+   {
+      pool.shutdown();
+   }
+
+   AbstractConnection.DispatchStats stats()
+   {
+      int lanecount, lanepeak;
+      synchronized (this) {
+         lanecount = active;
+         lanepeak = peaklanes;
+      }
+      long[] done = new long[completed.length()];
+      for (int p = 0; p < done.length; p++)
+         done[p] = completed.get(p);
+      return new AbstractConnection.DispatchStats(queued.get(), peak.get(), lanecount, lanepeak,
+            pool.getActiveCount(), done, replaced.get());
+   }
+}
@@ -36,9 +36,7 @@ class EfficientQueue
       // copy start->length to the start of the new vector
       System.arraycopy(oldmv,start,mv,0,oldmv.length-start);
       // copy 0->end to the next part of the new vector
-      if (end != (oldmv.length-1)) {
-         System.arraycopy(oldmv,0,mv,oldmv.length-start,end+1);
-      }
+      System.arraycopy(oldmv,0,mv,oldmv.length-start,end);
       // reposition pointers
       start = 0;
       end = oldmv.length;
@@ -92,6 +90,22 @@ class EfficientQueue
       if (Debug.debug) Debug.print(Debug.DEBUG, "Dequeueing "+m);
       return m;
    }
+   /**
+    * Removes up to max messages into the given array, starting at ofs.
+    * @return The number of messages removed.
+    */
+   public int remove(Message[] into, int ofs, int max)
+   {
+      int n = 0;
+      while (n < max && start != end) {
+         into[ofs+n] = mv[start];
+         mv[start] = null;
+         if (start == (mv.length-1)) start = 0; else start++;
+         n++;
+      }
+      if (Debug.debug) Debug.print(Debug.DEBUG, "Dequeueing "+n+" messages");
+      return n;
+   }
    public boolean isEmpty()
    {
       // check if find succeeds
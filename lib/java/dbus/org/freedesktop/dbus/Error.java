@@ -37,45 +37,47 @@ public class Error extends Message
 
       if (null == errorName)
          throw new MessageFormatException(_("Must specify error name to Errors."));
-      headers.put(Message.HeaderField.REPLY_SERIAL,replyserial);
-      headers.put(Message.HeaderField.ERROR_NAME,errorName);
+      this.replyserial = replyserial;
+      errorname = errorName;
       
       Vector<Object> hargs = new Vector<Object>();
       hargs.add(new Object[] { Message.HeaderField.ERROR_NAME, new Object[] { ArgumentType.STRING_STRING, errorName } });
       hargs.add(new Object[] { Message.HeaderField.REPLY_SERIAL, new Object[] { ArgumentType.UINT32_STRING, replyserial } });
             
       if (null != source) {
-         headers.put(Message.HeaderField.SENDER,source);
+         this.source = source;
          hargs.add(new Object[] { Message.HeaderField.SENDER, new Object[] { ArgumentType.STRING_STRING, source } });
       }
  
       if (null != dest) {
-         headers.put(Message.HeaderField.DESTINATION,dest);
+         destination = dest;
          hargs.add(new Object[] { Message.HeaderField.DESTINATION, new Object[] { ArgumentType.STRING_STRING, dest } });
       }
 
       if (null != sig) {
          hargs.add(new Object[] { Message.HeaderField.SIGNATURE, new Object[] { ArgumentType.SIGNATURE_STRING, sig } });
-         headers.put(Message.HeaderField.SIGNATURE,sig);
+         signature = sig;
          setArgs(args);
       }
       
-      byte[] blen = new byte[4];
-      appendBytes(blen);
+      int blen = (int) bytecounter;
+      appendint(0, 4);
       append("ua(yv)", serial, hargs.toArray());
       pad((byte)8);
 
       long c = bytecounter;
       if (null != sig) append(sig, args);
-      marshallint(bytecounter-c, blen, 0, 4);
+      setint(bytecounter-c, blen, 4);
    }
    public Error(String source, Message m, Throwable e)  throws DBusException
    {
       this(source, m.getSource(), AbstractConnection.dollar_pattern.matcher(e.getClass().getName()).replaceAll("."), m.getSerial(), "s", e.getMessage());
+      priority = OutgoingQueue.priority(m.getInterface(), m.getName());
    }
    public Error(Message m, Throwable e)  throws DBusException
    {
       this(m.getSource(), AbstractConnection.dollar_pattern.matcher(e.getClass().getName()).replaceAll("."), m.getSerial(), "s", e.getMessage());
+      priority = OutgoingQueue.priority(m.getInterface(), m.getName());
    }
    @SuppressWarnings("unchecked")
    private static Class<? extends DBusExecutionException> createExceptionClass(String name)
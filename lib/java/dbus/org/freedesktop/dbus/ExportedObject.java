@@ -72,6 +72,7 @@ class ExportedObject
                   introspectiondata += " <interface name=\""+AbstractConnection.dollar_pattern.matcher(c.getName()).replaceAll(".")+"\">\n";
             }
             introspectiondata += getAnnotations(c);
+            OutgoingQueue.register(c);
             for (Method meth: c.getDeclaredMethods()) 
                if (Modifier.isPublic(meth.getModifiers())) {
                   String ms = "";
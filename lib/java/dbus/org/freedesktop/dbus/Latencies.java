@@ -0,0 +1,121 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms and signal counts of a connection, by interface and
+ * member. Recording takes no lock and allocates nothing once a member has
+ * been seen: the histograms have fixed buckets of atomic counters.
+ */
+final class Latencies
+{
+   /** Upper bounds of the buckets in us; a last bucket holds anything longer. */
+   static final long[] BOUNDS = { 50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000,
+      100000, 250000, 500000, 1000000, 2500000, 5000000, 10000000 };
+
+   /** Time a message waited in the outgoing queue. */
+   static final int QUEUED = 0;
+   /** Time from writing a call to its reply arriving. */
+   static final int WIRE = 1;
+   /** Time in a method or signal handler. */
+   static final int HANDLER = 2;
+   static final int KINDS = 3;
+
+   static final class Histogram
+   {
+      final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+      final AtomicLong sum = new AtomicLong();
+      final AtomicLong max = new AtomicLong();
+      void record(long ns)
+      {
+         long us = ns / 1000;
+         int i = 0;
+         while (i < BOUNDS.length && us > BOUNDS[i]) i++;
+         counts.incrementAndGet(i);
+         sum.addAndGet(us);
+         long m;
+         while (us > (m = max.get()) && !max.compareAndSet(m, us));
+      }
+      AbstractConnection.LatencyStats.Histogram snapshot()
+      {
+         long[] c = new long[counts.length()];
+         for (int i = 0; i < c.length; i++)
+            c[i] = counts.get(i);
+         return new AbstractConnection.LatencyStats.Histogram(c, sum.get(), max.get());
+      }
+   }
+   static final class Member
+   {
+      final Histogram[] histograms = new Histogram[KINDS];
+      final AtomicLong signals = new AtomicLong();
+      Member()
+      {
+         for (int i = 0; i < KINDS; i++)
+            histograms[i] = new Histogram();
+      }
+   }
+
+   /** By interface, "" for none, then member. */
+   private final ConcurrentHashMap<String, ConcurrentHashMap<String, Member>> members = new ConcurrentHashMap<String, ConcurrentHashMap<String, Member>>();
+
+   private Member get(String iface, String member)
+   {
+      if (null == iface) iface = "";
+      ConcurrentHashMap<String, Member> ms = members.get(iface);
+      if (null == ms) {
+         ms = new ConcurrentHashMap<String, Member>();
+         ConcurrentHashMap<String, Member> old = members.putIfAbsent(iface, ms);
+         if (null != old) ms = old;
+      }
+      Member m = ms.get(member);
+      if (null == m) {
+         m = new Member();
+         Member old = ms.putIfAbsent(member, m);
+         if (null != old) m = old;
+      }
+      return m;
+   }
+   /**
+    * Records a latency of the given kind, unless the message has no member.
+    */
+   void record(String iface, String member, int kind, long ns)
+   {
+      if (null == member) return;
+      get(iface, member).histograms[kind].record(ns);
+   }
+   /**
+    * Counts a signal received.
+    */
+   void signal(String iface, String member)
+   {
+      if (null == member) return;
+      get(iface, member).signals.incrementAndGet();
+   }
+
+   AbstractConnection.LatencyStats snapshot()
+   {
+      Map<String, AbstractConnection.LatencyStats.Member> s = new TreeMap<String, AbstractConnection.LatencyStats.Member>();
+      for (Map.Entry<String, ConcurrentHashMap<String, Member>> i: members.entrySet())
+         for (Map.Entry<String, Member> e: i.getValue().entrySet()) {
+            Member m = e.getValue();
+            s.put(0 == i.getKey().length() ? e.getKey() : i.getKey()+"."+e.getKey(),
+                  new AbstractConnection.LatencyStats.Member(m.histograms[QUEUED].snapshot(),
+                     m.histograms[WIRE].snapshot(), m.histograms[HANDLER].snapshot(), m.signals.get()));
+         }
+      return new AbstractConnection.LatencyStats(BOUNDS.clone(), s);
+   }
+}
@@ -12,8 +12,6 @@ package org.freedesktop.dbus;
 
 import static org.freedesktop.dbus.Gettext._;
 
-import java.lang.reflect.Array;
-import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.GenericArrayType;
 import java.lang.reflect.Method;
@@ -26,6 +24,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.freedesktop.dbus.exceptions.DBusException;
 import org.freedesktop.dbus.types.DBusListType;
@@ -39,7 +38,8 @@ import cx.ath.matthew.debug.Debug;
  */
 public class Marshalling
 {
-   private static Map<Type, String[]> typeCache = new HashMap<Type, String[]>();
+   private static final ConcurrentHashMap<Type, String[]> typeCache = new ConcurrentHashMap<Type, String[]>();
+   private static final ConcurrentHashMap<Class<?>, Method[]> deserializers = new ConcurrentHashMap<Class<?>, Method[]>();
    /**
     * Will return the DBus type corresponding to the given Java type.
     * Note, container type should have their ParameterizedType not their
@@ -69,7 +69,7 @@ public class Marshalling
       String[] cached = typeCache.get(c);
       if (null != cached) return cached;
       cached = getDBusType(c, false);
-      typeCache.put(c, cached);
+      typeCache.putIfAbsent(c, cached);
       return cached;
    }
    /**
@@ -85,17 +85,24 @@ public class Marshalling
    {
       return recursiveGetDBusType(c, basic, 0);
    }
-   private static StringBuffer[] out = new StringBuffer[10];
+   /** Each thread's buffers for the levels of recursiveGetDBusType. */
+   private static final ThreadLocal<StringBuilder[]> scratch = new ThreadLocal<StringBuilder[]>() {
+      protected StringBuilder[] initialValue()
+      {
+         return new StringBuilder[10];
+      }
+   };
    @SuppressWarnings("unchecked")
    public static String[] recursiveGetDBusType(Type c, boolean basic, int level) throws DBusException
    {
+      StringBuilder[] out = scratch.get();
       if (out.length <= level) {
-         StringBuffer[] newout = new StringBuffer[out.length];
+         StringBuilder[] newout = new StringBuilder[Math.max(level+1, out.length*2)];
          System.arraycopy(out, 0, newout, 0, out.length);
-         out = newout;
+         scratch.set(out = newout);
       }
-      if (null == out[level]) out[level] = new StringBuffer();
-      else out[level].delete(0, out[level].length());      
+      if (null == out[level]) out[level] = new StringBuilder();
+      else out[level].setLength(0);
 
       if (basic && !(c instanceof Class))
          throw new DBusException(c+_(" is not a basic type"));
@@ -358,25 +365,25 @@ public class Marshalling
          if (Debug.debug) Debug.print(Debug.VERBOSE,"Converting "+i+" from "+parameters[i]+" to "+types[i]);
          if (null == parameters[i]) continue;
 
+         Converter v = Converter.get(null, types[i]);
          if (parameters[i] instanceof DBusSerializable) {
-            for (Method m: parameters[i].getClass().getDeclaredMethods()) 
-               if (m.getName().equals("deserialize")) {
-                  Type[] newtypes = m.getParameterTypes();
-                  Type[] expand = new Type[types.length + newtypes.length - 1];
-                  System.arraycopy(types, 0, expand, 0, i); 
-                  System.arraycopy(newtypes, 0, expand, i, newtypes.length); 
-                  System.arraycopy(types, i+1, expand, i+newtypes.length, types.length-i-1); 
-                  types = expand;
-                  Object[] newparams = ((DBusSerializable) parameters[i]).serialize();
-                  Object[] exparams = new Object[parameters.length + newparams.length - 1];
-                  System.arraycopy(parameters, 0, exparams, 0, i);
-                  System.arraycopy(newparams, 0, exparams, i, newparams.length);
-                  System.arraycopy(parameters, i+1, exparams, i+newparams.length, parameters.length-i-1);
-                  parameters = exparams;
-               }
+            for (Method m: deserializers(parameters[i].getClass())) {
+               Type[] newtypes = m.getParameterTypes();
+               Type[] expand = new Type[types.length + newtypes.length - 1];
+               System.arraycopy(types, 0, expand, 0, i); 
+               System.arraycopy(newtypes, 0, expand, i, newtypes.length); 
+               System.arraycopy(types, i+1, expand, i+newtypes.length, types.length-i-1); 
+               types = expand;
+               Object[] newparams = ((DBusSerializable) parameters[i]).serialize();
+               Object[] exparams = new Object[parameters.length + newparams.length - 1];
+               System.arraycopy(parameters, 0, exparams, 0, i);
+               System.arraycopy(newparams, 0, exparams, i, newparams.length);
+               System.arraycopy(parameters, i+1, exparams, i+newparams.length, parameters.length-i-1);
+               parameters = exparams;
+            }
             i--;
          } else if (parameters[i] instanceof Tuple) {
-            Type[] newtypes = ((ParameterizedType) types[i]).getActualTypeArguments();
+            Type[] newtypes = ((Converter.TypeConverter) v).arguments();
             Type[] expand = new Type[types.length + newtypes.length - 1];
             System.arraycopy(types, 0, expand, 0, i);
             System.arraycopy(newtypes, 0, expand, i, newtypes.length);
@@ -390,182 +397,48 @@ public class Marshalling
             parameters = exparams;
             if (Debug.debug) Debug.print(Debug.VERBOSE, "New params: "+Arrays.deepToString(parameters)+" new types: "+Arrays.deepToString(types));
             i--;
-         } else if (types[i] instanceof TypeVariable &&
-               !(parameters[i] instanceof Variant)) 
-            // its an unwrapped variant, wrap it
-            parameters[i] = new Variant<Object>(parameters[i]);
-         else if (parameters[i] instanceof DBusInterface)
-            parameters[i] = conn.getExportedObject((DBusInterface) parameters[i]);
+         } else
+            parameters[i] = v.export(parameters[i], conn);
       }
       return parameters;
    }
-   @SuppressWarnings("unchecked")
-   static Object deSerializeParameter(Object parameter, Type type, AbstractConnection conn) throws Exception
+   /**
+    * Returns the deserialize methods of a DBusSerializable class.
+    */
+   static Method[] deserializers(Class<?> c)
    {
-      if (Debug.debug) Debug.print(Debug.VERBOSE, "Deserializing from "+parameter.getClass()+" to "+type.getClass());
-      if (null == parameter) 
-         return null;
-
-      // its a wrapped variant, unwrap it
-      if (type instanceof TypeVariable 
-            && parameter instanceof Variant) {
-         parameter = ((Variant)parameter).getValue();
-      }
-
-      // Turn a signature into a Type[]
-      if (type instanceof Class
-            && ((Class) type).isArray()
-            && ((Class) type).getComponentType().equals(Type.class)
-            && parameter instanceof String) {
-         Vector<Type> rv = new Vector<Type>();
-         getJavaType((String) parameter, rv, -1);
-         parameter = rv.toArray(new Type[0]);
-      }
-
-      // its an object path, get/create the proxy
-      if (parameter instanceof ObjectPath) {
-         if (type instanceof Class && DBusInterface.class.isAssignableFrom((Class) type))
-            parameter = conn.getExportedObject(
-                  ((ObjectPath) parameter).source,
-                  ((ObjectPath) parameter).path);
-         else
-            parameter = new Path(((ObjectPath) parameter).path);
-      }
-      
-      // it should be a struct. create it
-      if (parameter instanceof Object[] && 
-            type instanceof Class &&
-            Struct.class.isAssignableFrom((Class) type)) {
-         if (Debug.debug) Debug.print(Debug.VERBOSE, "Creating Struct "+type+" from "+parameter);
-         Type[] ts = Container.getTypeCache(type);
-         if (null == ts) {
-            Field[] fs = ((Class) type).getDeclaredFields();
-            ts = new Type[fs.length];
-            for (Field f : fs) {
-               Position p = f.getAnnotation(Position.class);
-               if (null == p) continue;
-               ts[p.value()] = f.getGenericType();
-           }
-            Container.putTypeCache(type, ts);
-         }
-
-         // recurse over struct contents
-         parameter = deSerializeParameters((Object[]) parameter, ts, conn);
-         for (Constructor con: ((Class) type).getDeclaredConstructors()) {
-            try {
-               parameter = con.newInstance((Object[]) parameter);
-               break;
-            } catch (IllegalArgumentException IAe) {}
-         }
-      }
-
-      // recurse over arrays
-      if (parameter instanceof Object[]) {
-         Type[] ts = new Type[((Object[]) parameter).length];
-         Arrays.fill(ts, parameter.getClass().getComponentType());
-         parameter = deSerializeParameters((Object[]) parameter,
-               ts, conn);
+      Method[] ms = deserializers.get(c);
+      if (null == ms) {
+         Vector<Method> v = new Vector<Method>();
+         for (Method m: c.getDeclaredMethods())
+            if (m.getName().equals("deserialize")) v.add(m);
+         ms = v.toArray(new Method[0]);
+         deserializers.putIfAbsent(c, ms);
       }
-      if (parameter instanceof List) {
-         Type type2;
-         if (type instanceof ParameterizedType)
-            type2 = ((ParameterizedType) type).getActualTypeArguments()[0];
-         else if (type instanceof GenericArrayType)
-            type2 = ((GenericArrayType) type).getGenericComponentType();
-         else if (type instanceof Class && ((Class) type).isArray())
-            type2 = ((Class) type).getComponentType();
-         else
-            type2 = null;
-         if (null != type2)
-            parameter = deSerializeParameters((List) parameter, type2, conn);
-      }
-
-      // correct floats if appropriate
-      if (type.equals(Float.class) || type.equals(Float.TYPE)) 
-         if (!(parameter instanceof Float))
-            parameter = ((Number) parameter).floatValue();
-
-      // make sure arrays are in the correct format
-      if (parameter instanceof Object[] ||
-            parameter instanceof List ||
-            parameter.getClass().isArray()) {
-         if (type instanceof ParameterizedType)
-            parameter = ArrayFrob.convert(parameter,
-                  (Class<? extends Object>) ((ParameterizedType) type).getRawType());
-         else if (type instanceof GenericArrayType) {
-            Type ct = ((GenericArrayType) type).getGenericComponentType();
-            Class cc = null;
-            if (ct instanceof Class)
-               cc = (Class) ct;
-            if (ct instanceof ParameterizedType)
-               cc = (Class) ((ParameterizedType) ct).getRawType();
-            Object o = Array.newInstance(cc, 0);
-            parameter = ArrayFrob.convert(parameter,
-                  o.getClass());
-         } else if (type instanceof Class &&
-               ((Class) type).isArray()) {
-            Class cc = ((Class) type).getComponentType();
-            if ((cc.equals(Float.class) || cc.equals(Float.TYPE))
-                  && (parameter instanceof double[])) {
-               double[] tmp1 = (double[]) parameter;
-               float[] tmp2 = new float[tmp1.length];
-               for (int i = 0; i < tmp1.length; i++)
-                  tmp2[i] = (float) tmp1[i];
-               parameter = tmp2;
-            }
-            Object o = Array.newInstance(cc, 0);
-            parameter = ArrayFrob.convert(parameter,
-                  o.getClass());
-         }
-      }
-      if (parameter instanceof DBusMap) {
-			if (Debug.debug) Debug.print(Debug.VERBOSE, "Deserializing a Map");
-			DBusMap dmap = (DBusMap) parameter;
-			Type[] maptypes = ((ParameterizedType) type).getActualTypeArguments();
-			for (int i = 0; i < dmap.entries.length; i++) {
-				dmap.entries[i][0] = deSerializeParameter(dmap.entries[i][0], maptypes[0], conn);
-				dmap.entries[i][1] = deSerializeParameter(dmap.entries[i][1], maptypes[1], conn);
-			}
-      }
-      return parameter;
+      return ms;
    }
-   static List<Object> deSerializeParameters(List<Object> parameters, Type type, AbstractConnection conn) throws Exception
+   /**
+    * Whether values of a type are DBusSerializable, and so take several parameters.
+    */
+   static boolean isSerializable(Type t)
    {
-      if (Debug.debug) Debug.print(Debug.VERBOSE, "Deserializing from "+parameters+" to "+type);
-      if (null == parameters) return null;
-      for (int i = 0; i < parameters.size(); i++) {
-         if (null == parameters.get(i)) continue;
-
-         /* DO NOT DO THIS! IT'S REALLY NOT SUPPORTED! 
-          * if (type instanceof Class &&
-               DBusSerializable.class.isAssignableFrom((Class) types[i])) {
-            for (Method m: ((Class) types[i]).getDeclaredMethods()) 
-               if (m.getName().equals("deserialize")) {
-                  Type[] newtypes = m.getGenericParameterTypes();
-                  try {
-                     Object[] sub = new Object[newtypes.length];
-                     System.arraycopy(parameters, i, sub, 0, newtypes.length); 
-                     sub = deSerializeParameters(sub, newtypes, conn);
-                     DBusSerializable sz = (DBusSerializable) ((Class) types[i]).newInstance();
-                     m.invoke(sz, sub);
-                     Object[] compress = new Object[parameters.length - newtypes.length + 1];
-                     System.arraycopy(parameters, 0, compress, 0, i);
-                     compress[i] = sz;
-                     System.arraycopy(parameters, i + newtypes.length, compress, i+1, parameters.length - i - newtypes.length);
-                     parameters = compress;
-                  } catch (ArrayIndexOutOfBoundsException AIOOBe) {
-                     if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, AIOOBe);
-                     throw new DBusException("Not enough elements to create custom object from serialized data ("+(parameters.size()-i)+" < "+(newtypes.length)+")");
-                  }
-               }
-         } else*/
-            parameters.set(i, deSerializeParameter(parameters.get(i), type, conn));
-      }
-      return parameters;
+      if (t instanceof ParameterizedType) t = ((ParameterizedType) t).getRawType();
+      return t instanceof Class && DBusSerializable.class.isAssignableFrom((Class<?>) t);
    }
-
-   @SuppressWarnings("unchecked")
    static Object[] deSerializeParameters(Object[] parameters, Type[] types, AbstractConnection conn) throws Exception
+   {
+      return deSerializeParameters(parameters, types, (Codec[]) null, conn);
+   }
+   /**
+    * Converts demarshalled parameters to the types they are declared as.
+    * @param sig The signature they were demarshalled with, or null if it is not known.
+    */
+   static Object[] deSerializeParameters(Object[] parameters, Type[] types, String sig, AbstractConnection conn) throws Exception
+   {
+      return deSerializeParameters(parameters, types, null == sig ? null : Codec.forSignature(sig), conn);
+   }
+   @SuppressWarnings("unchecked")
+   static Object[] deSerializeParameters(Object[] parameters, Type[] types, Codec[] codecs, AbstractConnection conn) throws Exception
    {
       if (Debug.debug) Debug.print(Debug.VERBOSE, "Deserializing from "+Arrays.deepToString(parameters)+" to "+Arrays.deepToString(types));
       if (null == parameters) return null;
@@ -574,6 +447,9 @@ public class Marshalling
             && Tuple.class.isAssignableFrom((Class) ((ParameterizedType) types[0]).getRawType())) {
          types = ((ParameterizedType) types[0]).getActualTypeArguments();
       }
+      if (null != codecs && codecs.length != parameters.length) codecs = null;
+      // the number of parameters before i taken by custom objects
+      int taken = 0;
 
       for (int i = 0; i < parameters.length; i++) {
          // CHECK IF ARRAYS HAVE THE SAME LENGTH <-- has to happen after expanding parameters
@@ -587,37 +463,34 @@ public class Marshalling
          }
          if (null == parameters[i]) continue;
 
-         if ((types[i] instanceof Class &&
-               DBusSerializable.class.isAssignableFrom((Class<? extends Object>) types[i])) ||
-               (types[i] instanceof ParameterizedType &&
-               DBusSerializable.class.isAssignableFrom((Class<? extends Object>) ((ParameterizedType) types[i]).getRawType()))) {
+         if (isSerializable(types[i])) {
             Class<? extends DBusSerializable> dsc;
             if (types[i] instanceof Class)
                dsc = (Class<? extends DBusSerializable>) types[i];
             else
                dsc = (Class<? extends DBusSerializable>) ((ParameterizedType) types[i]).getRawType();
-            for (Method m: dsc.getDeclaredMethods()) 
-               if (m.getName().equals("deserialize")) {
-                  Type[] newtypes = m.getGenericParameterTypes();
-                  try {
-                     Object[] sub = new Object[newtypes.length];
-                     System.arraycopy(parameters, i, sub, 0, newtypes.length); 
-                     sub = deSerializeParameters(sub, newtypes, conn);
-                     DBusSerializable sz = dsc.newInstance();
-                     m.invoke(sz, sub);
-                     Object[] compress = new Object[parameters.length - newtypes.length + 1];
-                     System.arraycopy(parameters, 0, compress, 0, i);
-                     compress[i] = sz;
-                     System.arraycopy(parameters, i + newtypes.length, compress, i+1, parameters.length - i - newtypes.length);
-                     parameters = compress;
-                  } catch (ArrayIndexOutOfBoundsException AIOOBe) {
-                     if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, AIOOBe);
-                     throw new DBusException(MessageFormat.format(_("Not enough elements to create custom object from serialized data ({0} < {1})."), 
-                                 new Object[] { parameters.length-i, newtypes.length }));
-                  }
+            for (Method m: deserializers(dsc)) {
+               Type[] newtypes = m.getGenericParameterTypes();
+               try {
+                  Object[] sub = new Object[newtypes.length];
+                  System.arraycopy(parameters, i, sub, 0, newtypes.length); 
+                  sub = deSerializeParameters(sub, newtypes, conn);
+                  DBusSerializable sz = dsc.newInstance();
+                  m.invoke(sz, sub);
+                  Object[] compress = new Object[parameters.length - newtypes.length + 1];
+                  System.arraycopy(parameters, 0, compress, 0, i);
+                  compress[i] = sz;
+                  System.arraycopy(parameters, i + newtypes.length, compress, i+1, parameters.length - i - newtypes.length);
+                  parameters = compress;
+                  taken += newtypes.length - 1;
+               } catch (ArrayIndexOutOfBoundsException AIOOBe) {
+                  if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, AIOOBe);
+                  throw new DBusException(MessageFormat.format(_("Not enough elements to create custom object from serialized data ({0} < {1})."), 
+                              new Object[] { parameters.length-i, newtypes.length }));
                }
+            }
          } else
-            parameters[i] = deSerializeParameter(parameters[i], types[i], conn);
+            parameters[i] = Converter.get(null == codecs ? null : codecs[i+taken], types[i]).convert(parameters[i], conn);
       }
       return parameters;
    }
@@ -16,11 +16,12 @@ import java.lang.reflect.Array;
 import java.lang.reflect.Type;
 import java.io.UnsupportedEncodingException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
 
 import cx.ath.matthew.debug.Debug;
 import cx.ath.matthew.utils.Hexdump;
@@ -115,7 +116,7 @@ public class Message
       public static final byte DICT_ENTRY2='}';
    }
    /** Keep a static reference to each size of padding array to prevent allocation. */
-   private static byte[][] padding;
+   static byte[][] padding;
    static {
       padding = new byte[][] {
          null,
@@ -127,25 +128,42 @@ public class Message
             new byte[6],
             new byte[7] };
    }
-   /** Steps to increment the buffer array. */
-   private static final int BUFFERINCREMENT = 20;
+   /** The size of the buffer taken from the pool to marshall a message into. */
+   private static final int INITIAL_BUFFER = 512;
 
-   private boolean big;
+   boolean big;
    protected byte[][] wiredata;
    protected long bytecounter;
-   protected Map<Byte, Object> headers;
-   protected static long globalserial = 0;
+   /* The header fields, null or 0 if unset */
+   String path;
+   String iface;
+   String member;
+   String errorname;
+   long replyserial;
+   String destination;
+   String source;
+   String signature;
+   private static final AtomicLong globalserial = new AtomicLong();
    protected long serial;
    protected byte type;
    protected byte flags;
    protected byte protover;
    private Object[] args;
    private byte[] body;
+   private int bodyofs = 0;
    private long bodylen = 0;
-   private int preallocated = 0;
-   private int paofs = 0;
-   private byte[] pabuf;
-   private int bufferuse = 0;
+   /** Whether wiredata[0] is from the BufferPool, being marshalled into. */
+   private boolean pooled = false;
+   /** Whether variants read from the wire are only decoded when their value is accessed. */
+   boolean lazyvariants = false;
+   /** When the message was queued to be sent, in ns. */
+   long queued;
+   /** When a call was written, in ns. */
+   long sent;
+   /** The priority to send the message at, or -1 for that of its interface and member. */
+   int priority = -1;
+   /** Whether values are marshalled by compiled codecs rather than by interpreting their signature. */
+   private static boolean compiled = true;
 
    /**
     * Returns the name of the given header field.
@@ -165,6 +183,19 @@ public class Message
       }
    }
 
+   /**
+    * Returns the signature of the value of the given header field.
+    */
+   static String getHeaderFieldType(byte field)
+   {
+      switch (field) {
+         case HeaderField.PATH: return ArgumentType.OBJECT_PATH_STRING;
+         case HeaderField.REPLY_SERIAL: return ArgumentType.UINT32_STRING;
+         case HeaderField.SIGNATURE: return ArgumentType.SIGNATURE_STRING;
+         default: return ArgumentType.STRING_STRING;
+      }
+   }
+
    /**
     * Create a message; only to be called by sub-classes.
     * @param endian The endianness to create the message.
@@ -173,13 +204,10 @@ public class Message
     */
    protected Message(byte endian, byte type, byte flags) throws DBusException
    {
-      wiredata = new byte[BUFFERINCREMENT][];
-      headers = new HashMap<Byte, Object>();
+      wiredata = new byte[1][];
       big = (Endian.BIG == endian);
       bytecounter = 0;
-      synchronized (Message.class) {
-         serial = ++globalserial;
-      }
+      serial = globalserial.incrementAndGet();
       if (Debug.debug) Debug.print(Debug.DEBUG, "Creating message with serial "+serial);
       this.type = type;
       this.flags = flags;
@@ -191,106 +219,170 @@ public class Message
     */
    protected Message()
    {
-      wiredata = new byte[BUFFERINCREMENT][];
-      headers = new HashMap<Byte, Object>();
+      wiredata = new byte[1][];
       bytecounter = 0;
    }
    /**
     * Create a message from wire-format data.
-    * @param msg D-Bus serialized data of type yyyuu
-    * @param headers D-Bus serialized data of type a(yv)
-    * @param body D-Bus serialized data of the signature defined in headers.
+    * @param buf The whole message as read from the wire: the fixed header (yyyuu),
+    *            the header fields (a(yv)), padding and the body. It may be longer than the message.
+    * @param len The length of the message within buf.
+    * @param bodyofs The offset of the body within buf.
     */
-   @SuppressWarnings("unchecked")
-   void populate(byte[] msg, byte[] headers, byte[] body) throws DBusException
+   void populate(byte[] buf, int len, int bodyofs) throws DBusException
    {
-      big = (msg[0] == Endian.BIG);
-      type = msg[1];
-      flags = msg[2];
-      protover = msg[3];
-      wiredata[0] = msg;
-      wiredata[1] = headers;
-      wiredata[2] = body;
-      this.body = body;
-      bufferuse = 3;
-      bodylen = ((Number) extract(Message.ArgumentType.UINT32_STRING, msg, 4)[0]).longValue();
-      serial = ((Number) extract(Message.ArgumentType.UINT32_STRING, msg, 8)[0]).longValue();
-      bytecounter = msg.length+headers.length+body.length;
-      if (Debug.debug) Debug.print(Debug.VERBOSE, headers);
-      Object[] hs = extract("a(yv)", headers, 0);
-      if (Debug.debug) Debug.print(Debug.VERBOSE, Arrays.deepToString(hs));
-      for (Object o: (Vector<Object>) hs[0]) {
-         this.headers.put((Byte) ((Object[])o)[0], ((Variant<Object>)((Object[])o)[1]).getValue());
+      big = (buf[0] == Endian.BIG);
+      type = buf[1];
+      flags = buf[2];
+      protover = buf[3];
+      wiredata[0] = buf;
+      bytecounter = len;
+      this.body = buf;
+      this.bodyofs = bodyofs;
+      bodylen = demarshallint(buf, 4, 4);
+      serial = demarshallint(buf, 8, 4);
+      if (Debug.debug) Debug.print(Debug.VERBOSE, Hexdump.toHex(buf, 12, bodyofs-12));
+      extractHeaders(buf);
+   }
+   /**
+    * Parses the header fields in place into their slots, without building
+    * the intermediate a(yv) structures. Unusual variant types fall back
+    * to extract().
+    */
+   private void extractHeaders(byte[] buf) throws DBusException
+   {
+      int end = 16 + (int) demarshallint(buf, 12, 4);
+      int o = 16;
+      while (o < end) {
+         o = align(o, ArgumentType.STRUCT1);
+         byte field = buf[o++];
+         int siglen = buf[o++] & 0xFF;
+         byte sig = buf[o];
+         int length;
+         if (1 == siglen && (ArgumentType.STRING == sig || ArgumentType.OBJECT_PATH == sig)) {
+            o = align(o + 2, ArgumentType.UINT32);
+            length = (int) demarshallint(buf, o, 4);
+            o += 4;
+            setHeader(field, decodeString(buf, o, length));
+            o += length + 1;
+         } else if (1 == siglen && ArgumentType.SIGNATURE == sig) {
+            o += 2;
+            length = buf[o++] & 0xFF;
+            setHeader(field, decodeString(buf, o, length));
+            o += length + 1;
+         } else if (1 == siglen && ArgumentType.UINT32 == sig && HeaderField.REPLY_SERIAL == field) {
+            o = align(o + 2, ArgumentType.UINT32);
+            replyserial = demarshallint(buf, o, 4);
+            o += 4;
+         } else {
+            int[] ofs = new int[] { 0, o + siglen + 1 };
+            setHeader(field, extract(new String(buf, o, siglen), buf, ofs)[0]);
+            o = ofs[1];
+         }
       }
    }
    /**
-    * Create a buffer of num bytes.
-    * Data is copied to this rather than added to the buffer list.
+    * Sets a header field from its value. Fields this implementation does
+    * not know are ignored, as the specification requires.
     */
-   private void preallocate(int num)
+   void setHeader(byte field, Object value)
    {
-      preallocated = 0;
-      pabuf = new byte[num];
-      appendBytes(pabuf);
-      preallocated = num;
-      paofs = 0;
+      switch (field) {
+         case HeaderField.PATH: path = value.toString(); break;
+         case HeaderField.INTERFACE: iface = value.toString(); break;
+         case HeaderField.MEMBER: member = value.toString(); break;
+         case HeaderField.ERROR_NAME: errorname = value.toString(); break;
+         case HeaderField.REPLY_SERIAL: if (value instanceof Number) replyserial = ((Number) value).longValue(); break;
+         case HeaderField.DESTINATION: destination = value.toString(); break;
+         case HeaderField.SENDER: source = value.toString(); break;
+         case HeaderField.SIGNATURE: signature = value.toString(); break;
+         default:
+            if (Debug.debug) Debug.print(Debug.VERBOSE, "Ignoring header field "+field+": "+value);
+      }
    }
    /**
-    * Ensures there are enough free buffers.
-    * @param num number of free buffers to create.
+    * Copies the header fields of another message.
     */
-   private void ensureBuffers(int num)
+   void copyHeaders(Message m)
    {
-      int increase = num - wiredata.length + bufferuse;
-      if (increase > 0) {
-         if (increase < BUFFERINCREMENT) increase = BUFFERINCREMENT;
-         if (Debug.debug) Debug.print(Debug.VERBOSE, "Resizing "+bufferuse);
-         byte[][] temp = new byte[wiredata.length+increase][];
-         System.arraycopy(wiredata, 0, temp, 0, wiredata.length);
-         wiredata = temp;
+      path = m.path;
+      iface = m.iface;
+      member = m.member;
+      errorname = m.errorname;
+      replyserial = m.replyserial;
+      destination = m.destination;
+      source = m.source;
+      signature = m.signature;
+   }
+   /**
+    * Decodes len bytes of UTF-8 at ofs in buf, shared through the string cache if it can be.
+    */
+   private static String decodeString(byte[] buf, int ofs, int len) throws DBusException
+   {
+      String s = StringCache.string(buf, ofs, len);
+      if (null != s) return s;
+      try {
+         return new String(buf, ofs, len, "UTF-8");
+      } catch (UnsupportedEncodingException UEe) {
+         if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(UEe);
+         throw new DBusException(_("System does not support UTF-8 encoding"));
+      }
+   }
+   /**
+    * Makes room for num more bytes in the buffer being marshalled into,
+    * taking a larger one from the pool if it is full.
+    */
+   void preallocate(int num)
+   {
+      byte[] buf = wiredata[0];
+      long need = bytecounter + num;
+      if (null != buf && pooled && need <= buf.length) return;
+      int size = (int) Math.max(need, null == buf ? INITIAL_BUFFER : 2L * buf.length);
+      byte[] grown = BufferPool.get(size);
+      if (null != buf) {
+         System.arraycopy(buf, 0, grown, 0, (int) bytecounter);
+         if (pooled) BufferPool.release(buf);
       }
+      wiredata[0] = grown;
+      pooled = true;
+   }
+   /**
+    * Keeps a copy of exactly the marshalled message, and returns the buffer
+    * it was marshalled into to the pool. The copy may be written any number
+    * of times, to any number of connections, from any thread.
+    */
+   synchronized void seal()
+   {
+      if (!pooled) return;
+      byte[] buf = wiredata[0];
+      wiredata[0] = Arrays.copyOf(buf, (int) bytecounter);
+      pooled = false;
+      BufferPool.release(buf);
    }
    /**
-    * Appends a buffer to the buffer list.
+    * Appends a buffer to the message.
     */
    protected void appendBytes(byte[] buf) 
    {
       if (null == buf) return;
-      if (preallocated > 0) {
-         if (paofs+buf.length > pabuf.length)
-            throw new ArrayIndexOutOfBoundsException(MessageFormat.format(_("Array index out of bounds, paofs={0}, pabuf.length={1}, buf.length={2}."), new Object[] { paofs, pabuf.length, buf.length }));
-         System.arraycopy(buf, 0, pabuf, paofs, buf.length);
-         paofs += buf.length;
-         preallocated -= buf.length;
-      } else {
-         if (bufferuse == wiredata.length) {
-            if (Debug.debug) Debug.print(Debug.VERBOSE, "Resizing "+bufferuse);
-            byte[][] temp = new byte[wiredata.length+BUFFERINCREMENT][];
-            System.arraycopy(wiredata, 0, temp, 0, wiredata.length);
-            wiredata = temp;
-         }
-         wiredata[bufferuse++] = buf;
-         bytecounter += buf.length; 
-      }
+      appendBytes(buf, 0, buf.length);
    }
    /**
-    * Appends a byte to the buffer list.
+    * Appends len bytes of a buffer, from ofs, to the message.
+    */
+   void appendBytes(byte[] buf, int ofs, int len)
+   {
+      preallocate(len);
+      System.arraycopy(buf, ofs, wiredata[0], (int) bytecounter, len);
+      bytecounter += len;
+   }
+   /**
+    * Appends a byte to the message.
     */
    protected void appendByte(byte b) 
    {
-      if (preallocated > 0) {
-         pabuf[paofs++] = b;
-         preallocated--;
-      } else {
-         if (bufferuse == wiredata.length) {
-            if (Debug.debug) Debug.print(Debug.VERBOSE, "Resizing "+bufferuse);
-            byte[][] temp = new byte[wiredata.length+BUFFERINCREMENT][];
-            System.arraycopy(wiredata, 0, temp, 0, wiredata.length);
-            wiredata = temp;
-         }
-         wiredata[bufferuse++] = new byte[] { b };
-         bytecounter++; 
-      }
+      preallocate(1);
+      wiredata[0][(int) bytecounter++] = b;
    }
    /**
     * Demarshalls an integer of a given width from a buffer.
@@ -348,9 +440,18 @@ public class Message
     */
    public void appendint(long l, int width)
    { 
-      byte[] buf = new byte[width];
-      marshallint(l, buf, 0, width);
-      appendBytes(buf);
+      preallocate(width);
+      marshallint(l, wiredata[0], (int) bytecounter, width);
+      bytecounter += width;
+   }
+   /**
+    * Marshalls an integer over one already appended, such as a length
+    * only known once what follows it is appended.
+    * @param ofs The offset of the integer in the message.
+    */
+   void setint(long l, int ofs, int width)
+   {
+      marshallint(l, wiredata[0], ofs, width);
    }
    /**
     * Marshalls an integer of a given width into a buffer.
@@ -395,6 +496,7 @@ public class Message
    }
    public byte[][] getWireData()
    {
+      seal();
       return wiredata;
    }
    /**
@@ -412,17 +514,21 @@ public class Message
       sb.append (' ');
       sb.append ('{');
       sb.append(' ');
-      if (headers.size() == 0)
+      boolean none = true;
+      for (byte field = HeaderField.PATH; field <= HeaderField.SIGNATURE; field++) {
+         Object value = getHeader(field);
+         if (null == value) continue;
+         sb.append(getHeaderFieldName(field));
+         sb.append('=');
+         sb.append('>');
+         sb.append(value.toString());
+         sb.append(',');
+         sb.append(' ');
+         none = false;
+      }
+      if (none)
          sb.append('}');
       else {
-         for (Byte field: headers.keySet()) {
-            sb.append(getHeaderFieldName(field));
-            sb.append('=');
-            sb.append('>');
-            sb.append(headers.get(field).toString());
-            sb.append(',');
-            sb.append(' ');
-         }
          sb.setCharAt(sb.length()-2,' ');
          sb.setCharAt(sb.length()-1,'}');
       }
@@ -470,7 +576,20 @@ public class Message
     * @param type The field to return.
     * @return The value of the field or null if unset.
     */
-   public Object getHeader(byte type) { return headers.get(type); }
+   public Object getHeader(byte type)
+   {
+      switch (type) {
+         case HeaderField.PATH: return null == path ? null : new ObjectPath(source, path);
+         case HeaderField.INTERFACE: return iface;
+         case HeaderField.MEMBER: return member;
+         case HeaderField.ERROR_NAME: return errorname;
+         case HeaderField.REPLY_SERIAL: return 0 == replyserial ? null : new UInt32(replyserial);
+         case HeaderField.DESTINATION: return destination;
+         case HeaderField.SENDER: return source;
+         case HeaderField.SIGNATURE: return signature;
+         default: return null;
+      }
+   }
    /**
     * Appends a value to the message.
     * The type of the value is read from a D-Bus signature and used to marshall 
@@ -572,47 +691,49 @@ public class Message
                      Debug.print(Debug.VERBOSE, "Appending array: "+Arrays.deepToString((Object[])data));
                }
 
-               byte[] alen = new byte[4];
-               appendBytes(alen);
+               int alen = (int) bytecounter;
+               appendint(0, 4);
                pad(sigb[++i]);
                long c = bytecounter;
 
                // optimise primatives
                if (data.getClass().isArray() && 
                      data.getClass().getComponentType().isPrimitive()) {
-                  byte[] primbuf;
                   int algn = getAlignment(sigb[i]);
                   int len = Array.getLength(data);
+                  if (ArgumentType.BYTE == sigb[i]) {
+                     appendBytes((byte[]) data);
+                     len = 0;
+                  }
+                  // marshalled straight into the message buffer
+                  preallocate(len*algn);
+                  byte[] primbuf = wiredata[0];
+                  int ofs = (int) bytecounter;
                   switch (sigb[i]) {
                      case ArgumentType.BYTE:
-                        primbuf = (byte[]) data;
                         break;
                      case ArgumentType.INT16:
                      case ArgumentType.INT32:
                      case ArgumentType.INT64:
-                        primbuf = new byte[len*algn];
-                        for (int j = 0, k = 0; j < len; j++, k += algn)
+                        for (int j = 0, k = ofs; j < len; j++, k += algn)
                            marshallint(Array.getLong(data, j), primbuf, k, algn);
                         break;
                      case ArgumentType.BOOLEAN:
-                        primbuf = new byte[len*algn];
-                        for (int j = 0, k = 0; j < len; j++, k += algn)
+                        for (int j = 0, k = ofs; j < len; j++, k += algn)
                            marshallint(Array.getBoolean(data, j)?1:0, primbuf, k, algn);
                         break;
                      case ArgumentType.DOUBLE:
-                        primbuf = new byte[len*algn];
                         if (data instanceof float[])
-                           for (int j = 0, k = 0; j < len; j++, k += algn)
+                           for (int j = 0, k = ofs; j < len; j++, k += algn)
                               marshallint(Double.doubleToRawLongBits(((float[])data)[j]),
                                     primbuf, k, algn);
                         else
-                           for (int j = 0, k = 0; j < len; j++, k += algn)
+                           for (int j = 0, k = ofs; j < len; j++, k += algn)
                               marshallint(Double.doubleToRawLongBits(((double[])data)[j]),
                                     primbuf, k, algn);
                         break;
                      case ArgumentType.FLOAT:
-                        primbuf = new byte[len*algn];
-                        for (int j = 0, k = 0; j < len; j++, k += algn)
+                        for (int j = 0, k = ofs; j < len; j++, k += algn)
                            marshallint(
                                  Float.floatToRawIntBits(((float[])data)[j]),
                                  primbuf, k, algn);
@@ -620,17 +741,15 @@ public class Message
                      default:
                         throw new MarshallingException(_("Primative array being sent as non-primative array."));
                   }
-                  appendBytes(primbuf);
+                  bytecounter += len*algn;
                } else if (data instanceof List) {
                   Object[] contents = ((List) data).toArray();
                   int diff = i;
-                  ensureBuffers(contents.length*4);
                   for (Object o: contents) 
                      diff = appendone(sigb, i, o);
                   i = diff;
                } else if (data instanceof Map) {
                   int diff = i;
-                  ensureBuffers(((Map) data).size()*6);
                   for (Map.Entry<Object,Object> o: ((Map<Object,Object>) data).entrySet())
                      diff = appendone(sigb, i, o);
                   if (i == diff) {
@@ -645,14 +764,13 @@ public class Message
                   i = diff;
                } else {
                   Object[] contents = (Object[]) data;
-                  ensureBuffers(contents.length*4);
                   int diff = i;
                   for (Object o: contents) 
                      diff = appendone(sigb, i, o);
                   i = diff;
                }
                if (Debug.debug) Debug.print(Debug.VERBOSE, "start: "+c+" end: "+bytecounter+" length: "+(bytecounter-c));
-               marshallint(bytecounter-c, alen, 0, 4);
+               setint(bytecounter-c, alen, 4);
                break;
             case ArgumentType.STRUCT1:
                // Structs are aligned to 8 bytes
@@ -662,7 +780,6 @@ public class Message
                   contents = ((Container) data).getParameters();
                else
                   contents = (Object[]) data;
-               ensureBuffers(contents.length*4);
                int j = 0;
                for (i++; sigb[i] != ArgumentType.STRUCT2; i++)
                   i = appendone(sigb, i, contents[j++]);
@@ -713,16 +830,12 @@ public class Message
    {
       if (Debug.debug) Debug.print(Debug.VERBOSE, "padding for "+(char)type);
       int a = getAlignment(type);
-      if (Debug.debug) Debug.print(Debug.VERBOSE, preallocated+" "+paofs+" "+bytecounter+" "+a);
-      int b = (int) ((bytecounter-preallocated)%a);
+      int b = (int) (bytecounter%a);
       if (0 == b) return;
       a = (a-b);
-      if (preallocated > 0) {
-         paofs += a;
-         preallocated -= a;
-      } else
-         appendBytes(padding[a]);
-      if (Debug.debug) Debug.print(Debug.VERBOSE, preallocated+" "+paofs+" "+bytecounter+" "+a);
+      // pooled buffers are not cleared, so write the padding
+      appendBytes(padding[a]);
+      if (Debug.debug) Debug.print(Debug.VERBOSE, bytecounter+" "+a);
    }
    /**
     * Return the alignment for a given type.
@@ -770,6 +883,12 @@ public class Message
    public void append(String sig, Object... data) throws DBusException
    {
       if (Debug.debug) Debug.print(Debug.DEBUG, "Appending sig: "+sig+" data: "+Arrays.deepToString(data));
+      if (compiled) {
+         Codec[] cs = Codec.forSignature(sig);
+         for (int i = 0; i < cs.length; i++)
+            cs[i].append(this, data[i]);
+         return;
+      }
       byte[] sigb = sig.getBytes();
       int j = 0;
       for (int i = 0; i < sigb.length; i++) {
@@ -972,29 +1091,32 @@ public class Message
             int[] newofs = new int[] { 0, ofs[1] };
             String sig = (String) extract(ArgumentType.SIGNATURE_STRING, buf, newofs)[0];
             newofs[0] = 0;
-            rv = new Variant<Object>(extract(sig, buf, newofs)[0] , sig);
+            if (lazyvariants) {
+               int start = newofs[1];
+               byte[] vsigb = sig.getBytes();
+               for (; newofs[0] < vsigb.length; newofs[0]++)
+                  skipone(vsigb, buf, newofs);
+               rv = lazyVariant(sig, buf, start, newofs[1]);
+            } else
+               rv = new Variant<Object>(extract(sig, buf, newofs)[0] , sig);
             ofs[1] = newofs[1];
             break;
          case ArgumentType.STRING:
             length = (int) demarshallint(buf, ofs[1], 4);
             ofs[1] += 4;
-            try {
-               rv = new String(buf, ofs[1], length, "UTF-8");
-            } catch (UnsupportedEncodingException UEe) {
-               if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(UEe);
-               throw new DBusException(_("System does not support UTF-8 encoding"));
-            }
+            rv = decodeString(buf, ofs[1], length);
             ofs[1] += length + 1;
             break;
          case ArgumentType.OBJECT_PATH:
             length = (int) demarshallint(buf, ofs[1], 4);
             ofs[1] += 4;
-            rv = new ObjectPath(getSource(), new String(buf, ofs[1], length));
+            rv = StringCache.path(getSource(), buf, ofs[1], length);
             ofs[1] += length + 1;
             break;
          case ArgumentType.SIGNATURE:
             length = (buf[ofs[1]++] & 0xFF);
-            rv = new String(buf, ofs[1], length);
+            rv = StringCache.string(buf, ofs[1], length);
+            if (null == rv) rv = new String(buf, ofs[1], length);
             ofs[1] += length + 1;
             break;
          default: 
@@ -1006,6 +1128,87 @@ public class Message
          Debug.print(Debug.VERBOSE, "Extracted: "+rv+" (now at "+ofs[1]+")");
       return rv;
    }
+   /**
+    * Returns the offset in the signature of the last byte of the type starting at i.
+    */
+   private static int typeEnd(byte[] sigb, int i)
+   {
+      switch (sigb[i]) {
+         case ArgumentType.ARRAY:
+            return typeEnd(sigb, i+1);
+         case ArgumentType.STRUCT1:
+         case ArgumentType.DICT_ENTRY1:
+            for (i++; sigb[i] != ArgumentType.STRUCT2 && sigb[i] != ArgumentType.DICT_ENTRY2; i++)
+               i = typeEnd(sigb, i);
+            return i;
+         default:
+            return i;
+      }
+   }
+   /**
+    * Advance past one value in a buffer without demarshalling it.
+    * @param sigb A buffer of the D-Bus signature.
+    * @param buf The buffer to skip through.
+    * @param ofs An array of two ints, the offset into the signature buffer 
+    *            and the offset into the data buffer. These are updated
+    *            in the same way as by extractone.
+    */
+   private void skipone(byte[] sigb, byte[] buf, int[] ofs) throws DBusException
+   {
+      ofs[1] = align(ofs[1], sigb[ofs[0]]);
+      switch (sigb[ofs[0]]) {
+         case ArgumentType.BYTE:
+            ofs[1]++;
+            break;
+         case ArgumentType.INT16:
+         case ArgumentType.UINT16:
+            ofs[1] += 2;
+            break;
+         case ArgumentType.BOOLEAN:
+         case ArgumentType.INT32:
+         case ArgumentType.UINT32:
+         case ArgumentType.FLOAT:
+            ofs[1] += 4;
+            break;
+         case ArgumentType.INT64:
+         case ArgumentType.UINT64:
+         case ArgumentType.DOUBLE:
+            ofs[1] += 8;
+            break;
+         case ArgumentType.STRING:
+         case ArgumentType.OBJECT_PATH:
+            ofs[1] += 4 + (int) demarshallint(buf, ofs[1], 4) + 1;
+            break;
+         case ArgumentType.SIGNATURE:
+            ofs[1] += 1 + (buf[ofs[1]] & 0xFF) + 1;
+            break;
+         case ArgumentType.ARRAY:
+            long size = demarshallint(buf, ofs[1], 4);
+            ofs[1] += 4;
+            ofs[1] = align(ofs[1], sigb[++ofs[0]]);
+            ofs[1] += size;
+            ofs[0] = typeEnd(sigb, ofs[0]);
+            break;
+         case ArgumentType.STRUCT1:
+            while (sigb[++ofs[0]] != ArgumentType.STRUCT2)
+               skipone(sigb, buf, ofs);
+            break;
+         case ArgumentType.DICT_ENTRY1:
+            while (sigb[++ofs[0]] != ArgumentType.DICT_ENTRY2)
+               skipone(sigb, buf, ofs);
+            break;
+         case ArgumentType.VARIANT:
+            // the signature is in the buffer, so skip using that
+            int siglen = buf[ofs[1]] & 0xFF;
+            int[] newofs = new int[] { ofs[1]+1, ofs[1]+siglen+2 };
+            for (; newofs[0] < ofs[1]+1+siglen; newofs[0]++)
+               skipone(buf, buf, newofs);
+            ofs[1] = newofs[1];
+            break;
+         default: 
+            throw new UnknownTypeCodeException(sigb[ofs[0]]);
+      }
+   }
    /** 
     * Demarshall values from a buffer.
     * @param sig The D-Bus signature(s) of the value(s).
@@ -1029,6 +1232,14 @@ public class Message
    public Object[] extract(String sig, byte[] buf, int[] ofs) throws DBusException
    {
       if (Debug.debug) Debug.print(Debug.VERBOSE, "extract("+sig+",#"+buf.length+", {"+ofs[0]+","+ofs[1]+"}");
+      if (compiled && 0 == ofs[0]) {
+         Codec[] cs = Codec.forSignature(sig);
+         Object[] rv = new Object[cs.length];
+         for (int i = 0; i < cs.length; i++)
+            rv[i] = cs[i].decode(this, buf, ofs, false);
+         ofs[0] = sig.length();
+         return rv;
+      }
       Vector<Object> rv = new Vector<Object>();
       byte[] sigb = sig.getBytes();
       for (int[] i = ofs; i[0] < sigb.length; i[0]++) {
@@ -1036,41 +1247,36 @@ public class Message
       }
       return rv.toArray();
    }
+   /**
+    * Selects whether values are marshalled by compiled, cached codecs
+    * (the default) or by interpreting their signature for every value.
+    * The interpreter is kept as the reference for testing the codecs.
+    */
+   public static void setCompiledCodecs(boolean enabled) { compiled = enabled; }
    /**
     * Returns the Bus ID that sent the message.
     */
-   public String getSource() { return (String) headers.get(HeaderField.SENDER); }
+   public String getSource() { return source; }
    /**
     * Returns the destination of the message.
     */
-   public String getDestination() { return (String) headers.get(HeaderField.DESTINATION); }
+   public String getDestination() { return destination; }
    /**
     * Returns the interface of the message.
     */
-   public String getInterface() { return  (String) headers.get(HeaderField.INTERFACE); }
+   public String getInterface() { return iface; }
    /**
     * Returns the object path of the message.
     */
-   public String getPath()
-   { 
-      Object o = headers.get(HeaderField.PATH);
-      if (null == o) return null;
-      return o.toString();
-   }
+   public String getPath() { return path; }
    /**
     * Returns the member name or error name this message represents.
     */
-   public String getName() 
-   { 
-      if (this instanceof Error)
-         return (String) headers.get(HeaderField.ERROR_NAME); 
-      else
-         return (String) headers.get(HeaderField.MEMBER); 
-   }
+   public String getName() { return MessageType.ERROR == type ? errorname : member; }
    /**
     * Returns the dbus signature of the parameters.
     */
-   public String getSig() { return (String) headers.get(HeaderField.SIGNATURE); }
+   public String getSig() { return signature; }
    /**
     * Returns the message flags.
     */
@@ -1084,49 +1290,75 @@ public class Message
     * If this is a reply to a message, this returns its serial.
     * @return The reply serial, or 0 if it is not a reply.
     */
-   public long getReplySerial() 
-   { 
-      Number l = (Number) headers.get(HeaderField.REPLY_SERIAL); 
-      if (null == l) return 0;
-      return l.longValue();
-   }
+   public long getReplySerial() { return replyserial; }
    /**
     * Parses and returns the parameters to this message as an Object array.
     */
    public Object[] getParameters() throws DBusException 
    { 
       if (null == args && null != body) {
-         String sig = (String) headers.get(HeaderField.SIGNATURE);
-         if (null != sig && 0 != body.length) {
-            args = extract(sig, body, 0);
+         if (null != signature && 0 != bodylen) {
+            args = extract(signature, body, bodyofs);
          } else args = new Object[0];
       }
       return args; 
    }
    protected void setArgs(Object[] args) { this.args = args; }
+   /**
+    * Returns a variant of the value between start and end in buf, decoded
+    * when it is first accessed from a copy of its bytes, so that it does
+    * not keep the buffer.
+    */
+   Variant<Object> lazyVariant(String sig, byte[] buf, int start, int end)
+   {
+      // copied from the last 8 byte boundary, so the value stays aligned
+      int from = start & ~7;
+      byte[] copy = new byte[end - from];
+      System.arraycopy(buf, from, copy, 0, copy.length);
+      return new Variant<Object>(sig, this, copy, start - from);
+   }
+   /**
+    * Drops the wire data of a message read from the wire, returning its buffer
+    * to the pool. The parameters are decoded first, so remain available.
+    * The message cannot be forwarded afterwards.
+    */
+   void releaseWireData() 
+   {
+      if (null == body) return;
+      try {
+         getParameters();
+      } catch (DBusException DBe) {
+         if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, DBe);
+      }
+      byte[] buf = body;
+      body = null;
+      if (wiredata[0] == buf) {
+         wiredata[0] = null;
+         bytecounter = 0;
+      }
+      BufferPool.release(buf);
+   }
    /**
     * Warning, do not use this method unless you really know what you are doing.
     */
    public void setSource(String source) throws DBusException
    {
       if (null != body) {
-         wiredata = new byte[BUFFERINCREMENT][];
-         bufferuse = 0;
+         // marshalled afresh into a buffer of its own; the body stays in the old one
+         wiredata = new byte[1][];
+         pooled = false;
          bytecounter = 0;
-         preallocate(12);
          append("yyyyuu", big ? Endian.BIG : Endian.LITTLE, type, flags, protover, bodylen, serial);
-         headers.put(HeaderField.SENDER, source);
-         Object[][] newhead = new Object[headers.size()][];
-         int i = 0;
-         for (Byte b: headers.keySet()) {
-            newhead[i] = new Object[2];
-            newhead[i][0] = b;
-            newhead[i][1] = headers.get(b);
-            i++;
+         this.source = source;
+         List<Object[]> newhead = new ArrayList<Object[]>();
+         for (byte field = HeaderField.PATH; field <= HeaderField.SIGNATURE; field++) {
+            Object value = HeaderField.REPLY_SERIAL == field ? replyserial : getHeader(field);
+            if (null == value || (HeaderField.REPLY_SERIAL == field && 0 == replyserial)) continue;
+            newhead.add(new Object[] { field, new Object[] { getHeaderFieldType(field), value } });
          }
-         append("a(yv)", (Object) newhead);
+         append("a(yv)", (Object) newhead.toArray(new Object[0][]));
          pad((byte) 8);
-         appendBytes(body);
+         appendBytes(body, bodyofs, (int) bodylen);
       }
    }
 }
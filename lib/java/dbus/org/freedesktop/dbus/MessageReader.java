@@ -12,7 +12,6 @@ package org.freedesktop.dbus;
 
 import static org.freedesktop.dbus.Gettext._;
 
-import java.io.BufferedInputStream;
 import java.io.EOFException;
 import java.io.InputStream;
 import java.io.IOException;
@@ -28,98 +27,117 @@ import org.freedesktop.dbus.exceptions.MessageProtocolVersionException;
 
 public class MessageReader
 {
+   /** Size of the reusable read buffer. */
+   private static final int BUFFER_SIZE = 8192;
    private InputStream in;
-   private byte[] buf = null;
-   private byte[] tbuf = null;
-   private byte[] header = null;
-   private byte[] body = null;
-   private int[] len = new int[4];
+   private byte[] rbuf = new byte[BUFFER_SIZE];
+   private int rpos = 0;
+   private int rlim = 0;
+   private byte[] msg = null;
+   private int msglen = 0;
+   private int msgfill = 0;
+   private int bodyofs = 0;
    public MessageReader(InputStream in)
    {
-      this.in = new BufferedInputStream(in);
+      this.in = in;
    }
-   public Message readMessage() throws IOException, DBusException
+   /**
+    * Ensures at least need bytes are available in the read buffer.
+    * @return false if the read timed out, or a non-blocking read found no data, first.
+    */
+   private boolean fill(int need) throws IOException
    {
-      int rv;
-      /* Read the 12 byte fixed header, retrying as neccessary */
-      if (null == buf) { buf = new byte[12]; len[0] = 0; }
-      if (len[0] < 12) {
-         try { rv = in.read(buf, len[0], 12-len[0]); }
-         catch (SocketTimeoutException STe) { return null; }
-         if (-1 == rv) throw new EOFException(_("Underlying transport returned EOF"));
-         len[0] += rv;
-      }
-      if (len[0] == 0) return null;
-      if (len[0] < 12) {
-         if (Debug.debug) Debug.print(Debug.DEBUG, "Only got "+len[0]+" of 12 bytes of header");
-         return null;
-      }
-
-      /* Parse the details from the header */
-      byte endian = buf[0];
-      byte type = buf[1];
-      byte protover = buf[3];
-      if (protover > Message.PROTOCOL) {
-         buf = null;
-         throw new MessageProtocolVersionException(MessageFormat.format(_("Protocol version {0} is unsupported"), new Object[] { protover }));
+      if (rlim - rpos >= need) return true;
+      if (rpos > 0) {
+         System.arraycopy(rbuf, rpos, rbuf, 0, rlim - rpos);
+         rlim -= rpos;
+         rpos = 0;
       }
-
-      /* Read the length of the variable header */
-      if (null == tbuf) { tbuf = new byte[4]; len[1] = 0; }
-      if (len[1] < 4) {
-         try { rv = in.read(tbuf, len[1], 4-len[1]); }
-         catch (SocketTimeoutException STe) { return null; }
+      while (rlim < need) {
+         int rv;
+         try { rv = in.read(rbuf, rlim, rbuf.length - rlim); }
+         catch (SocketTimeoutException STe) { return false; }
          if (-1 == rv) throw new EOFException(_("Underlying transport returned EOF"));
-         len[1] += rv;
-      }
-      if (len[1] < 4) {
-         if (Debug.debug) Debug.print(Debug.DEBUG, "Only got "+len[1]+" of 4 bytes of header");
-         return null;
+         if (0 == rv) return false;
+         rlim += rv;
       }
+      return true;
+   }
+   /**
+    * Copies as much of the current message as is available from the read buffer.
+    */
+   private void drain()
+   {
+      int n = Math.min(rlim - rpos, msglen - msgfill);
+      System.arraycopy(rbuf, rpos, msg, msgfill, n);
+      rpos += n;
+      msgfill += n;
+   }
+   /**
+    * Reads the next message.
+    * @return The message, or null if it has not all arrived yet. What
+    * has arrived is kept, and the next call carries on from there.
+    */
+   public Message readMessage() throws IOException, DBusException
+   {
+      if (null == msg) {
+         /* Read the 12 byte fixed header and the header array length, retrying as neccessary */
+         if (!fill(16)) {
+            if (Debug.debug && rlim > rpos) Debug.print(Debug.DEBUG, "Only got "+(rlim-rpos)+" of 16 bytes of header");
+            return null;
+         }
 
-      /* Parse the variable header length */
-      int headerlen = 0;
-      if (null == header) {
-         headerlen = (int) Message.demarshallint(tbuf, 0, endian, 4);
+         /* Parse the details from the header in place */
+         byte endian = rbuf[rpos];
+         byte protover = rbuf[rpos+3];
+         if (protover > Message.PROTOCOL) {
+            rpos += 12;
+            throw new MessageProtocolVersionException(MessageFormat.format(_("Protocol version {0} is unsupported"), new Object[] { protover }));
+         }
+         int bodylen = (int) Message.demarshallint(rbuf, rpos+4, endian, 4);
+         int headerlen = (int) Message.demarshallint(rbuf, rpos+12, endian, 4);
          if (0 != headerlen % 8)
             headerlen += 8-(headerlen%8);
-      } else
-         headerlen = header.length-8;
 
-      /* Read the variable header */
-      if (null == header) {
-         header = new byte[headerlen+8]; 
-         System.arraycopy(tbuf, 0, header, 0, 4);
-         len[2] = 0; 
-      }
-      if (len[2] < headerlen) {
-         try { rv = in.read(header, 8+len[2], headerlen-len[2]); }
-         catch (SocketTimeoutException STe) { return null; }
-         if (-1 == rv) throw new EOFException(_("Underlying transport returned EOF"));
-         len[2] += rv;
-      }
-      if (len[2] < headerlen) {
-         if (Debug.debug) Debug.print(Debug.DEBUG, "Only got "+len[2]+" of "+headerlen+" bytes of header");
-         return null;
+         /* The message owns its buffer until it releases it back to the pool */
+         bodyofs = 16+headerlen;
+         msglen = bodyofs+bodylen;
+         msg = BufferPool.get(msglen);
+         msgfill = 0;
       }
 
-      /* Read the body */
-      int bodylen = 0;
-      if (null == body) bodylen = (int) Message.demarshallint(buf, 4, endian, 4);
-      if (null == body) { body=new byte[bodylen]; len[3] = 0; }
-      if (len[3] < body.length) {
-         try { rv = in.read(body, len[3], body.length-len[3]); }
-         catch (SocketTimeoutException STe) { return null; }
-         if (-1 == rv) throw new EOFException(_("Underlying transport returned EOF"));
-         len[3] += rv;
+      /* Read the rest of the message, straight into it if it is large */
+      drain();
+      while (msgfill < msglen) {
+         int rv;
+         try {
+            if (msglen - msgfill >= rbuf.length) {
+               rv = in.read(msg, msgfill, msglen - msgfill);
+               if (-1 == rv) throw new EOFException(_("Underlying transport returned EOF"));
+               if (0 == rv) break;
+               msgfill += rv;
+            } else {
+               rpos = 0;
+               rlim = 0;
+               rv = in.read(rbuf, 0, rbuf.length);
+               if (-1 == rv) throw new EOFException(_("Underlying transport returned EOF"));
+               if (0 == rv) break;
+               rlim = rv;
+               drain();
+            }
+         } catch (SocketTimeoutException STe) {
+            break;
+         }
       }
-      if (len[3] < body.length) {
-         if (Debug.debug) Debug.print(Debug.DEBUG, "Only got "+len[3]+" of "+body.length+" bytes of body");
+      if (msgfill < msglen) {
+         if (Debug.debug) Debug.print(Debug.DEBUG, "Only got "+msgfill+" of "+msglen+" bytes of message");
          return null;
       }
 
+      byte[] buf = msg;
+      msg = null;
       Message m;
-      switch (type) {
+      switch (buf[1]) {
          case Message.MessageType.METHOD_CALL:
             m = new MethodCall();
             break;
@@ -133,38 +151,26 @@ public class MessageReader
             m = new Error();
             break;
          default:
-            throw new MessageTypeException(MessageFormat.format(_("Message type {0} unsupported"), new Object[] {type}));
+            BufferPool.release(buf);
+            throw new MessageTypeException(MessageFormat.format(_("Message type {0} unsupported"), new Object[] {buf[1]}));
       }
       if (Debug.debug) {
-         Debug.print(Debug.VERBOSE, Hexdump.format(buf));
-         Debug.print(Debug.VERBOSE, Hexdump.format(tbuf));
-         Debug.print(Debug.VERBOSE, Hexdump.format(header));
-         Debug.print(Debug.VERBOSE, Hexdump.format(body));
+         Debug.print(Debug.VERBOSE, Hexdump.toHex(buf, 0, msglen));
       }
       try {
-         m.populate(buf, header, body);
+         m.populate(buf, msglen, bodyofs);
       } catch (DBusException DBe) {
          if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, DBe);
-         buf = null;
-         tbuf = null;
-         body = null;
-         header = null;
+         BufferPool.release(buf);
          throw DBe;
       } catch (RuntimeException Re) {
          if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, Re);
-         buf = null;
-         tbuf = null;
-         body = null;
-         header = null;
+         BufferPool.release(buf);
          throw Re;
       }
       if (Debug.debug) {
          Debug.print(Debug.INFO, "=> "+m);
       }
-      buf = null;
-      tbuf = null;
-      body = null;
-      header = null;
       return m;
    }
    public void close() throws IOException
@@ -25,7 +25,22 @@ public class MessageWriter
 		this.out = out;
 		this.out = new BufferedOutputStream(this.out);
    }
+   /**
+    * @param buffered False if out already collects what is written until flushed.
+    */
+   MessageWriter(OutputStream out, boolean buffered)
+   {
+      this.out = buffered ? new BufferedOutputStream(out) : out;
+   }
    public void writeMessage(Message m) throws IOException
+   {
+      writeMessage(m, true);
+   }
+   /**
+    * Write a message, optionally leaving it buffered so that
+    * several messages go out in one write when flush() is called.
+    */
+   public void writeMessage(Message m, boolean flush) throws IOException
    {
       if (Debug.debug) {
          Debug.print(Debug.INFO, "<= "+m);
@@ -35,12 +50,20 @@ public class MessageWriter
          if (Debug.debug) Debug.print(Debug.WARN, "Message "+m+" wire-data was null!");
          return;
       }
+      // buffers read from the wire may be longer than the message
+      long left = m.bytecounter;
       for (byte[] buf: m.getWireData()) {
          if (Debug.debug)
             Debug.print(Debug.VERBOSE, "("+buf+"):"+ (null==buf? "": Hexdump.format(buf)));
-         if (null == buf) break;
-         out.write(buf);
+         if (null == buf || left <= 0) break;
+         int len = (int) Math.min(buf.length, left);
+         out.write(buf, 0, len);
+         left -= len;
       }
+      if (flush) out.flush();
+   }
+   public void flush() throws IOException
+   {
       out.flush();
    }
    public void close() throws IOException
@@ -16,7 +16,6 @@ import java.util.Vector;
 import org.freedesktop.dbus.exceptions.DBusException;
 import org.freedesktop.dbus.exceptions.MessageFormatException;
 import cx.ath.matthew.debug.Debug;
-import cx.ath.matthew.utils.Hexdump;
 
 public class MethodCall extends Message
 {
@@ -31,26 +30,26 @@ public class MethodCall extends Message
 
       if (null == member || null == path)
          throw new MessageFormatException(_("Must specify destination, path and function name to MethodCalls."));
-      headers.put(Message.HeaderField.PATH,path);
-      headers.put(Message.HeaderField.MEMBER,member);
+      this.path = path;
+      this.member = member;
 
       Vector<Object> hargs = new Vector<Object>();
 
       hargs.add(new Object[] { Message.HeaderField.PATH, new Object[] { ArgumentType.OBJECT_PATH_STRING, path } });
       
       if (null != source) {
-         headers.put(Message.HeaderField.SENDER,source);
+         this.source = source;
          hargs.add(new Object[] { Message.HeaderField.SENDER, new Object[] { ArgumentType.STRING_STRING, source } });
       }
       
       if (null != dest) {
-         headers.put(Message.HeaderField.DESTINATION,dest);
+         destination = dest;
          hargs.add(new Object[] { Message.HeaderField.DESTINATION, new Object[] { ArgumentType.STRING_STRING, dest } });
       }
       
       if (null != iface) {
          hargs.add(new Object[] { Message.HeaderField.INTERFACE, new Object[] { ArgumentType.STRING_STRING, iface } });
-         headers.put(Message.HeaderField.INTERFACE,iface);
+         this.iface = iface;
       }
       
       hargs.add(new Object[] { Message.HeaderField.MEMBER, new Object[] { ArgumentType. STRING_STRING, member } });
@@ -58,20 +57,19 @@ public class MethodCall extends Message
       if (null != sig) {
          if (Debug.debug) Debug.print(Debug.DEBUG, "Appending arguments with signature: "+sig);
          hargs.add(new Object[] { Message.HeaderField.SIGNATURE, new Object[] { ArgumentType.SIGNATURE_STRING, sig } });
-         headers.put(Message.HeaderField.SIGNATURE,sig);
+         signature = sig;
          setArgs(args);
       }
 
-      byte[] blen = new byte[4];
-      appendBytes(blen);
+      int blen = (int) bytecounter;
+      appendint(0, 4);
       append("ua(yv)", serial, hargs.toArray());
       pad((byte)8);
 
       long c = bytecounter;
       if (null != sig) append(sig, args);
       if (Debug.debug) Debug.print(Debug.DEBUG, "Appended body, type: "+sig+" start: "+c+" end: "+bytecounter+" size: "+(bytecounter-c));
-      marshallint(bytecounter-c, blen, 0, 4);
-      if (Debug.debug) Debug.print("marshalled size ("+blen+"): "+Hexdump.format(blen));
+      setint(bytecounter-c, blen, 4);
    }
    private static long REPLY_WAIT_TIMEOUT = 20000;
    /**
@@ -83,7 +81,29 @@ public class MethodCall extends Message
    {
       REPLY_WAIT_TIMEOUT = timeout;
    }
+   static long getDefaultTimeout()
+   {
+      return REPLY_WAIT_TIMEOUT;
+   }
+   /**
+    * How long to wait for the reply in ms: 0 for the default timeout,
+    * or negative for no timeout.
+    */
+   long timeout = 0;
+   /** Position in the timing wheel of PendingCalls, guarded by its lock. */
+   long deadline;
+   int wheelslot = -1;
+   MethodCall wheelnext, wheelprev;
+   /**
+    * How long to wait for the reply in ms, or a negative number for no timeout.
+    */
+   long getTimeout()
+   {
+      return 0 == timeout ? REPLY_WAIT_TIMEOUT : timeout;
+   }
    Message reply = null;
+   /** Completed with the reply, for calls made with AbstractConnection.callAsync. */
+   DBusFuture<?> future = null;
    public synchronized boolean hasReply()
    {
       return null != reply;
@@ -105,22 +125,31 @@ public class MethodCall extends Message
    /**
     * Block (if neccessary) for a reply.
     * Default timeout is 20s, or can be configured with setDefaultTimeout()
+    * or per method with the DBusTimeout annotation.
     * @return The reply to this MethodCall, or null if a timeout happens.
     */
    public synchronized Message getReply()
    {
       if (Debug.debug) Debug.print(Debug.VERBOSE, "Blocking on "+this);
       if (null != reply) return reply;
+      long t = getTimeout();
       try {
-         wait(REPLY_WAIT_TIMEOUT);
+         // the connection replies with NoReply at the deadline; this is a backstop
+         wait(t < 0 ? 0 : t + 2 * PendingCalls.TICK);
          return reply;
       } catch (InterruptedException Ie) { return reply; }
    }
-   protected synchronized void setReply(Message reply)
+   protected void setReply(Message reply)
    {
-      if (Debug.debug) Debug.print(Debug.VERBOSE, "Setting reply to "+this+" to "+reply);
-      this.reply = reply;
-      notifyAll();
+      DBusFuture<?> f;
+      synchronized (this) {
+         if (Debug.debug) Debug.print(Debug.VERBOSE, "Setting reply to "+this+" to "+reply);
+         this.reply = reply;
+         notifyAll();
+         f = future;
+         future = null;
+      }
+      if (null != f) f.complete(reply);
    }
 
 }
@@ -24,35 +24,35 @@ public class MethodReturn extends Message
    {
       super(Message.Endian.BIG, Message.MessageType.METHOD_RETURN, (byte) 0);
 
-      headers.put(Message.HeaderField.REPLY_SERIAL,replyserial);
+      this.replyserial = replyserial;
 
       Vector<Object> hargs = new Vector<Object>();
       hargs.add(new Object[] { Message.HeaderField.REPLY_SERIAL, new Object[] { ArgumentType.UINT32_STRING, replyserial } });
       
       if (null != source) {
-         headers.put(Message.HeaderField.SENDER,source);
+         this.source = source;
          hargs.add(new Object[] { Message.HeaderField.SENDER, new Object[] { ArgumentType.STRING_STRING, source } });
       }
  
       if (null != dest) {
-         headers.put(Message.HeaderField.DESTINATION,dest);
+         destination = dest;
          hargs.add(new Object[] { Message.HeaderField.DESTINATION, new Object[] { ArgumentType.STRING_STRING, dest } });
       }
 
       if (null != sig) {
          hargs.add(new Object[] { Message.HeaderField.SIGNATURE, new Object[] { ArgumentType.SIGNATURE_STRING, sig } });
-         headers.put(Message.HeaderField.SIGNATURE,sig);
+         signature = sig;
          setArgs(args);
       }
 
-      byte[] blen = new byte[4];
-      appendBytes(blen);
+      int blen = (int) bytecounter;
+      appendint(0, 4);
       append("ua(yv)", serial, hargs.toArray());
       pad((byte)8);
 
       long c = bytecounter;
       if (null != sig) append(sig, args);
-      marshallint(bytecounter-c, blen, 0, 4);
+      setint(bytecounter-c, blen, 4);
    }
    public MethodReturn(MethodCall mc, String sig, Object... args) throws DBusException
    {
@@ -62,6 +62,7 @@ public class MethodReturn extends Message
    {
       this(source, mc.getSource(), mc.getSerial(), sig, args);
       this.call = mc;
+      priority = OutgoingQueue.priority(mc.getInterface(), mc.getName());
    }
    MethodCall call;
    public MethodCall getCall() { return call; }
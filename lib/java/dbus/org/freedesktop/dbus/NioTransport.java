@@ -0,0 +1,439 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus;
+
+import static org.freedesktop.dbus.Gettext._;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import cx.ath.matthew.debug.Debug;
+
+/**
+ * A transport over non-blocking NIO channels, for addresses of type
+ * nio-tcp (which may listen, as tcp does) and nio-unix.
+ *
+ * Once authenticated, the channel is served by one selector thread
+ * shared by every NIO connection in the process, so a connection needs
+ * no reader or sender thread of its own. When a channel is readable the
+ * loop reads it until it would block, into the reader's reused buffers,
+ * and hands each message to the connection. When messages are queued it
+ * writes them, leaving what the socket will not take until it is writable,
+ * and stops taking more from the queue while too much is unwritten.
+ *
+ * nio-unix needs UNIX domain socket channels (Java 16). Where there are
+ * none, as on Android, or for abstract socket names, Transport.open()
+ * uses the stream transport for the address instead.
+ */
+class NioTransport extends Transport
+{
+   static final String PREFIX = "nio-";
+   /** Initial size of the output buffer, and the most kept once it is empty. */
+   private static final int BUFFER_SIZE = 8192;
+   /** Unwritten bytes beyond which no more queued messages are written. */
+   private static final int WRITE_HIGH_WATER = 65536;
+   /** How long in ms disconnect() waits for the loop to close the channel. */
+   private static final long CLOSE_WAIT = 1000;
+
+   private static final ProtocolFamily UNIX;
+   private static final Method UNIX_OPEN;
+   private static final Method UNIX_ADDRESS;
+   static {
+      ProtocolFamily f = null;
+      Method open = null;
+      Method address = null;
+      try {
+         address = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+         open = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+         f = StandardProtocolFamily.valueOf("UNIX");
+      } catch (Throwable t) {
+         if (Debug.debug) Debug.print(Debug.INFO, "No UNIX domain socket channels: "+t);
+         f = null;
+      }
+      UNIX = f;
+      UNIX_OPEN = open;
+      UNIX_ADDRESS = address;
+   }
+
+   private static Loop loop;
+
+   private final SocketChannel channel;
+   private final ChannelInput input;
+   private final ChannelOutput output;
+   private final Loop thread;
+   private final AtomicBoolean woken = new AtomicBoolean();
+   private final CountDownLatch closed = new CountDownLatch(1);
+   private volatile AbstractConnection conn;
+   private volatile boolean closing;
+   /** Only used on the loop thread. */
+   private SelectionKey key;
+
+   /**
+    * Returns true if an address of a type with the nio- prefix can
+    * be served by this transport here.
+    */
+   static boolean supports(BusAddress address)
+   {
+      if ("nio-unix".equals(address.getType()))
+         return null != UNIX && null != address.getParameter("path");
+      return true;
+   }
+
+   NioTransport(BusAddress address) throws IOException
+   {
+      if (Debug.debug) Debug.print(Debug.INFO, "Connecting to "+address);
+      SocketChannel ch;
+      int mode;
+      int types;
+      if ("nio-tcp".equals(address.getType())) {
+         types = SASL.AUTH_SHA;
+         InetSocketAddress isa = new InetSocketAddress(address.getParameter("host"), Integer.parseInt(address.getParameter("port")));
+         if (null != address.getParameter("listen")) {
+            mode = SASL.MODE_SERVER;
+            ServerSocketChannel ss = ServerSocketChannel.open();
+            try {
+               ss.socket().bind(isa);
+               ch = ss.accept();
+            } finally {
+               ss.close();
+            }
+         } else {
+            mode = SASL.MODE_CLIENT;
+            ch = SocketChannel.open(isa);
+         }
+      } else if ("nio-unix".equals(address.getType()) && supports(address)) {
+         types = SASL.AUTH_EXTERNAL;
+         if (null != address.getParameter("listen"))
+            throw new RuntimeException("server mode not implemented");
+         mode = SASL.MODE_CLIENT;
+         try {
+            SocketAddress sa = (SocketAddress) UNIX_ADDRESS.invoke(null, address.getParameter("path"));
+            ch = (SocketChannel) UNIX_OPEN.invoke(null, UNIX);
+            ch.connect(sa);
+         } catch (IOException IOe) {
+            throw IOe;
+         } catch (Exception e) {
+            if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, e);
+            throw new IOException(_("Failed to connect to ")+address.getParameter("path"));
+         }
+      } else {
+         throw new IOException(_("unknown address type ")+address.getType());
+      }
+
+      // authentication is a short exchange of lines, done blocking
+      try {
+         if (!(new SASL()).auth(mode, types, address.getParameter("guid"), Channels.newOutputStream(ch), Channels.newInputStream(ch)))
+            throw new IOException(_("Failed to auth"));
+         ch.configureBlocking(false);
+         thread = loop();
+      } catch (IOException IOe) {
+         ch.close();
+         throw IOe;
+      }
+      channel = ch;
+      input = new ChannelInput();
+      output = new ChannelOutput();
+      min = new MessageReader(input);
+      mout = new MessageWriter(output, false);
+   }
+
+   private static synchronized Loop loop() throws IOException
+   {
+      if (null == loop) {
+         loop = new Loop();
+         loop.start();
+      }
+      return loop;
+   }
+
+   /**
+    * Returns true if t is the selector thread.
+    */
+   static boolean isLoop(Thread t)
+   {
+      return t instanceof Loop;
+   }
+   /**
+    * Starts serving a connection from the selector thread.
+    */
+   void start(AbstractConnection conn)
+   {
+      this.conn = conn;
+      thread.wake(this);
+   }
+   /**
+    * Tells the selector thread there are messages queued to send.
+    */
+   void wake()
+   {
+      if (null != conn) thread.wake(this);
+   }
+   /**
+    * Closes the channel once the selector thread has failed or sent
+    * what is left queued, as the sender thread does for streams.
+    */
+   public void disconnect() throws IOException
+   {
+      if (Debug.debug) Debug.print(Debug.INFO, "Disconnecting Transport");
+      closing = true;
+      if (null == conn || Thread.currentThread() == thread)
+         close();
+      else {
+         thread.wake(this);
+         try {
+            closed.await(CLOSE_WAIT, TimeUnit.MILLISECONDS);
+         } catch (InterruptedException Ie) {}
+      }
+   }
+
+   /**
+    * Registers, sends what is queued, or closes. Called on the loop thread when woken.
+    */
+   private void service() throws IOException
+   {
+      if (closing) {
+         close();
+         return;
+      }
+      if (null == key)
+         key = channel.register(thread.selector, SelectionKey.OP_READ, this);
+      send();
+   }
+   /**
+    * Handles a ready channel. Called on the loop thread.
+    */
+   private void ready()
+   {
+      try {
+         if (key.isReadable()) receive();
+         if (key.isValid() && key.isWritable()) {
+            output.flush();
+            send();
+         }
+      } catch (IOException IOe) {
+         if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, IOe);
+         fail();
+      }
+   }
+   /**
+    * Reads until the channel has nothing more.
+    */
+   private void receive() throws IOException
+   {
+      AbstractConnection c = conn;
+      Message m;
+      input.drained = false;
+      while (!closing) {
+         try {
+            m = min.readMessage();
+            if (null == m) break;
+            if (Debug.debug) Debug.print(Debug.VERBOSE, "Got Incoming Message: "+m);
+            c.handleIncoming(m);
+         } catch (IOException IOe) {
+            throw IOe;
+         } catch (Exception e) {
+            // as the reader thread does, carry on after a bad message
+            if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, e);
+         }
+      }
+   }
+   /**
+    * Writes queued messages until the queue is empty or too much is unwritten.
+    */
+   private void send()
+   {
+      AbstractConnection c = conn;
+      while (!closing && output.pending() < WRITE_HIGH_WATER && c.sendQueued());
+   }
+   private void fail()
+   {
+      AbstractConnection c = conn;
+      if (null != c && !closing) c.disconnect();
+      close();
+   }
+   private void close()
+   {
+      if (0 == closed.getCount()) return;
+      closing = true;
+      AbstractConnection c = conn;
+      if (null != c) c.closeOutgoing();
+      if (channel.isOpen() && 0 < output.pending())
+         try {
+            output.flush();
+         } catch (IOException IOe) {
+            if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, IOe);
+         }
+      if (null != key) key.cancel();
+      try {
+         channel.close();
+      } catch (IOException IOe) {
+         if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, IOe);
+      }
+      closed.countDown();
+   }
+
+   /**
+    * Reads from the channel without blocking, returning 0 when there is nothing to read.
+    */
+   private class ChannelInput extends InputStream
+   {
+      /**
+       * Set once a read gets less than asked for, so the channel is taken
+       * to be empty until the selector says otherwise, saving a read.
+       */
+      boolean drained;
+      private byte[] array;
+      private ByteBuffer wrap;
+      private final byte[] one = new byte[1];
+      public int read() throws IOException
+      {
+         int rv = read(one, 0, 1);
+         return 1 == rv ? one[0] & 0xFF : rv;
+      }
+      public int read(byte[] b, int off, int len) throws IOException
+      {
+         if (drained) return 0;
+         if (b != array) {
+            array = b;
+            wrap = ByteBuffer.wrap(b);
+         }
+         wrap.clear();
+         wrap.limit(off+len);
+         wrap.position(off);
+         int rv = channel.read(wrap);
+         if (rv < len) drained = true;
+         return rv;
+      }
+      public void close() throws IOException
+      {
+         channel.close();
+      }
+   }
+
+   /**
+    * Collects messages, and writes them when flushed as far as the channel
+    * will take without blocking. The rest is written when it is writable.
+    */
+   private class ChannelOutput extends OutputStream
+   {
+      private ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      private void reserve(int n)
+      {
+         if (buf.remaining() >= n) return;
+         ByteBuffer b = ByteBuffer.allocateDirect(Math.max(buf.capacity()*2, buf.position()+n));
+         buf.flip();
+         b.put(buf);
+         buf = b;
+      }
+      public void write(int b)
+      {
+         reserve(1);
+         buf.put((byte) b);
+      }
+      public void write(byte[] b, int off, int len)
+      {
+         reserve(len);
+         buf.put(b, off, len);
+      }
+      int pending()
+      {
+         return buf.position();
+      }
+      public void flush() throws IOException
+      {
+         buf.flip();
+         try {
+            if (null == key) {
+               // not served by the loop, so write it all now
+               while (buf.hasRemaining())
+                  if (0 == channel.write(buf)) Thread.yield();
+            } else
+               while (buf.hasRemaining() && 0 < channel.write(buf));
+         } finally {
+            buf.compact();
+         }
+         if (0 == buf.position() && buf.capacity() > BUFFER_SIZE)
+            buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+         if (null != key && key.isValid())
+            key.interestOps(0 == buf.position() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+      }
+      public void close() throws IOException
+      {
+         channel.close();
+      }
+   }
+
+   /**
+    * The selector thread shared by every NIO transport.
+    */
+   private static final class Loop extends Thread
+   {
+      final Selector selector;
+      /** Transports to register, send for, or close. */
+      private final ConcurrentLinkedQueue<NioTransport> pending = new ConcurrentLinkedQueue<NioTransport>();
+      Loop() throws IOException
+      {
+         setName("DBus NIO");
+         setDaemon(true);
+         selector = Selector.open();
+      }
+      void wake(NioTransport t)
+      {
+         if (t.woken.compareAndSet(false, true)) {
+            pending.add(t);
+            selector.wakeup();
+         }
+      }
+      public void run()
+      {
+         while (true) {
+            try {
+               selector.select();
+               NioTransport t;
+               while (null != (t = pending.poll())) {
+                  t.woken.set(false);
+                  try {
+                     t.service();
+                  } catch (IOException IOe) {
+                     if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, IOe);
+                     t.fail();
+                  }
+               }
+               Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+               while (keys.hasNext()) {
+                  SelectionKey k = keys.next();
+                  keys.remove();
+                  if (k.isValid()) ((NioTransport) k.attachment()).ready();
+               }
+            } catch (Exception e) {
+               if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, e);
+            }
+         }
+      }
+   }
+}
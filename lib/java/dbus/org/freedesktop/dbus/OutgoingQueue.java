@@ -0,0 +1,207 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import cx.ath.matthew.debug.Debug;
+
+/**
+ * The messages waiting to be sent on a connection, queued by priority.
+ * Messages are removed most urgent priority first, and in the order they
+ * were added within a priority. A bounded priority makes callers adding
+ * to it wait while it is full, unless they may not wait.
+ *
+ * Callers synchronize on the queue to wait for messages, as with
+ * EfficientQueue; it notifies when a message is added or room is made.
+ */
+class OutgoingQueue
+{
+   static final String[] NAMES = { "call-control", "messaging", "registration", "default", "background" };
+   /** Default bounds by priority, 0 for none. */
+   static final int[] BOUNDS = { 0, 0, 256, 1024, 64 };
+
+   /** Priorities by interface name and member, with "" for the interface itself. */
+   private static final ConcurrentHashMap<String, Map<String, Integer>> priorities = new ConcurrentHashMap<String, Map<String, Integer>>();
+   private static final ConcurrentHashMap<Class<?>, Boolean> scanned = new ConcurrentHashMap<Class<?>, Boolean>();
+
+   /**
+    * Reads the DBusPriority annotations of an interface, its methods and
+    * its signals, once for each interface.
+    */
+   static void register(Class<?> iface)
+   {
+      if (null != scanned.putIfAbsent(iface, Boolean.TRUE)) return;
+      Map<String, Integer> ps = new HashMap<String, Integer>();
+      put(ps, "", iface.getAnnotation(DBusPriority.class));
+      for (Method m: iface.getDeclaredMethods()) {
+         DBusMemberName n = m.getAnnotation(DBusMemberName.class);
+         put(ps, null == n ? m.getName() : n.value(), m.getAnnotation(DBusPriority.class));
+      }
+      for (Class<?> c: iface.getClasses())
+         if (DBusSignal.class.isAssignableFrom(c)) {
+            DBusMemberName n = c.getAnnotation(DBusMemberName.class);
+            put(ps, null == n ? c.getSimpleName() : n.value(), c.getAnnotation(DBusPriority.class));
+         }
+      if (!ps.isEmpty()) {
+         if (Debug.debug) Debug.print(Debug.VERBOSE, "Priorities for "+iface+": "+ps);
+         priorities.put(RemoteMethod.interfaceName(iface), ps);
+      }
+   }
+   private static void put(Map<String, Integer> ps, String member, DBusPriority p)
+   {
+      if (null != p) ps.put(member, Math.max(0, Math.min(DBusPriority.COUNT-1, p.value())));
+   }
+   /**
+    * Returns the priority of a member of an interface.
+    */
+   static int priority(String iface, String member)
+   {
+      if (null == iface) return DBusPriority.DEFAULT;
+      Map<String, Integer> ps = priorities.get(iface);
+      if (null == ps) return DBusPriority.DEFAULT;
+      Integer p = null == member ? null : ps.get(member);
+      if (null == p) p = ps.get("");
+      return null == p ? DBusPriority.DEFAULT : p;
+   }
+   /**
+    * Returns the priority of a message, which for a reply is that of its call.
+    */
+   static int priority(Message m)
+   {
+      if (m.priority >= 0) return m.priority;
+      return priority(m.getInterface(), m.getName());
+   }
+
+   private final EfficientQueue[] queues = new EfficientQueue[DBusPriority.COUNT];
+   private final int[] bounds = BOUNDS.clone();
+   private final int[] peak = new int[DBusPriority.COUNT];
+   private final long[] sent = new long[DBusPriority.COUNT];
+   private final long[] waited = new long[DBusPriority.COUNT];
+   private final long[] maxwait = new long[DBusPriority.COUNT];
+   private final long[] blocked = new long[DBusPriority.COUNT];
+   private final long[] blockedtime = new long[DBusPriority.COUNT];
+   private int size = 0;
+   private boolean closed = false;
+   private final Latencies latencies;
+
+   OutgoingQueue(int initial_size, Latencies latencies)
+   {
+      this.latencies = latencies;
+      for (int i = 0; i < queues.length; i++)
+         queues[i] = new EfficientQueue(initial_size);
+   }
+   /**
+    * Sets the most messages of a priority which may wait, or 0 for no limit.
+    */
+   synchronized void setBound(int priority, int max)
+   {
+      bounds[priority] = max;
+      notifyAll();
+   }
+   /**
+    * Adds a message, first waiting while its priority is full if wait is set.
+    * @return false if the queue has been closed.
+    */
+   synchronized boolean add(Message m, boolean wait)
+   {
+      int p = priority(m);
+      EfficientQueue q = queues[p];
+      if (wait && !closed && bounds[p] > 0 && q.size() >= bounds[p]) {
+         if (Debug.debug) Debug.print(Debug.DEBUG, "Waiting for room to queue "+m);
+         long t = System.nanoTime();
+         blocked[p]++;
+         while (!closed && bounds[p] > 0 && q.size() >= bounds[p])
+            try { wait(); } catch (InterruptedException Ie) {}
+         blockedtime[p] += System.nanoTime() - t;
+      }
+      if (closed) return false;
+      m.queued = System.nanoTime();
+      q.add(m);
+      size++;
+      if (q.size() > peak[p]) peak[p] = q.size();
+      notifyAll();
+      return true;
+   }
+   /**
+    * Removes up to max messages into the given array, starting at ofs,
+    * the most urgent first.
+    * @return The number of messages removed.
+    */
+   synchronized int remove(Message[] into, int ofs, int max)
+   {
+      int n = 0;
+      boolean full = false;
+      long now = System.nanoTime();
+      for (int p = 0; p < queues.length && n < max; p++) {
+         EfficientQueue q = queues[p];
+         if (q.isEmpty()) continue;
+         full |= bounds[p] > 0 && q.size() >= bounds[p];
+         int got = q.remove(into, ofs+n, max-n);
+         for (int i = ofs+n; i < ofs+n+got; i++) {
+            long w = now - into[i].queued;
+            waited[p] += w;
+            if (w > maxwait[p]) maxwait[p] = w;
+            // only calls and signals have a member
+            if (!(into[i] instanceof MethodReturn || into[i] instanceof Error))
+               latencies.record(into[i].getInterface(), into[i].getName(), Latencies.QUEUED, w);
+         }
+         sent[p] += got;
+         n += got;
+      }
+      size -= n;
+      // wake callers waiting for room
+      if (full) notifyAll();
+      return n;
+   }
+   /**
+    * Removes the most urgent message, or returns null if there are none.
+    */
+   synchronized Message remove()
+   {
+      Message[] m = new Message[1];
+      return 0 == remove(m, 0, 1) ? null : m[0];
+   }
+   synchronized int size()
+   {
+      return size;
+   }
+   synchronized boolean isEmpty()
+   {
+      return 0 == size;
+   }
+   /**
+    * Refuses any more messages, and wakes callers waiting for room.
+    */
+   synchronized void close()
+   {
+      closed = true;
+      notifyAll();
+   }
+   synchronized AbstractConnection.OutgoingStats stats()
+   {
+      int[] queued = new int[queues.length];
+      long[] meanwait = new long[queues.length];
+      long[] maxwaitus = new long[queues.length];
+      long[] blockedms = new long[queues.length];
+      for (int p = 0; p < queues.length; p++) {
+         queued[p] = queues[p].size();
+         meanwait[p] = 0 == sent[p] ? 0 : waited[p] / sent[p] / 1000;
+         maxwaitus[p] = maxwait[p] / 1000;
+         blockedms[p] = blockedtime[p] / 1000000;
+      }
+      return new AbstractConnection.OutgoingStats(queued, peak.clone(), bounds.clone(), sent.clone(),
+            meanwait, maxwaitus, blocked.clone(), blockedms);
+   }
+}
@@ -0,0 +1,226 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus;
+
+import java.util.List;
+
+/**
+ * The method calls awaiting replies on a connection, by serial, with the
+ * time by which each must have had a reply.
+ *
+ * Serials are kept in an open addressing table with linear probing, so
+ * lookups and removals allocate nothing. Deadlines are kept in a hashed
+ * timing wheel: each call is linked into the slot of the tick its deadline
+ * falls in, and expire() visits only the slots of the ticks that have
+ * passed.
+ *
+ * Not thread safe; callers hold the lock on the table. put() notifies
+ * the table when it is no longer empty.
+ */
+final class PendingCalls
+{
+   /** Resolution of the deadlines, in ms. */
+   static final long TICK = 100;
+   /** Number of slots in the wheel; a power of 2. */
+   private static final int SLOTS = 512;
+   private static final int MIN_CAPACITY = 16;
+
+   private long[] keys;
+   private MethodCall[] calls;
+   private int size = 0;
+   private int peak = 0;
+   private long expired = 0;
+
+   private final MethodCall[] wheel = new MethodCall[SLOTS];
+   /** The last tick expire() has dealt with. */
+   private long tick;
+
+   PendingCalls(int capacity)
+   {
+      int c = MIN_CAPACITY;
+      while (c < capacity * 2) c <<= 1;
+      keys = new long[c];
+      calls = new MethodCall[c];
+      tick = now() / TICK;
+   }
+
+   static long now()
+   {
+      return System.nanoTime() / 1000000;
+   }
+
+   private int find(long serial)
+   {
+      int mask = keys.length - 1;
+      int i = hash(serial) & mask;
+      while (null != calls[i]) {
+         if (keys[i] == serial) return i;
+         i = (i + 1) & mask;
+      }
+      return -1;
+   }
+   private static int hash(long serial)
+   {
+      int h = (int) (serial ^ (serial >>> 32));
+      return h * 0x9E3779B9;
+   }
+
+   int size() { return size; }
+   int capacity() { return keys.length; }
+   int peak() { return peak; }
+   long expired() { return expired; }
+
+   boolean contains(long serial)
+   {
+      return -1 != find(serial);
+   }
+   /**
+    * Adds a call, due to have a reply within its timeout from now.
+    */
+   void put(long serial, MethodCall m)
+   {
+      if ((size + 1) * 2 > keys.length) resize(keys.length * 2);
+      int mask = keys.length - 1;
+      int i = hash(serial) & mask;
+      while (null != calls[i]) {
+         if (keys[i] == serial) {
+            unschedule(calls[i]);
+            size--;
+            break;
+         }
+         i = (i + 1) & mask;
+      }
+      keys[i] = serial;
+      calls[i] = m;
+      if (++size > peak) peak = size;
+      long timeout = m.getTimeout();
+      if (timeout > 0) schedule(m, now() + timeout);
+      if (1 == size) notifyAll();
+   }
+   MethodCall remove(long serial)
+   {
+      int i = find(serial);
+      if (-1 == i) return null;
+      MethodCall m = calls[i];
+      delete(i);
+      unschedule(m);
+      return m;
+   }
+   /**
+    * Removes all the calls.
+    */
+   MethodCall[] removeAll()
+   {
+      MethodCall[] all = new MethodCall[size];
+      int n = 0;
+      for (int i = 0; i < calls.length; i++)
+         if (null != calls[i]) {
+            unschedule(calls[i]);
+            all[n++] = calls[i];
+            calls[i] = null;
+         }
+      size = 0;
+      return all;
+   }
+   /**
+    * Changes the deadline of a call to a timeout from now.
+    * A call not yet in the table gets the timeout when it is added.
+    * @param timeout The timeout in ms, or a negative number for none.
+    */
+   void setTimeout(MethodCall m, long timeout)
+   {
+      m.timeout = timeout;
+      int i = find(m.getSerial());
+      if (-1 == i || calls[i] != m) return;
+      unschedule(m);
+      if (timeout > 0) schedule(m, now() + timeout);
+   }
+   /**
+    * Removes the calls whose deadlines have passed.
+    * @param out Receives the calls removed.
+    */
+   void expire(long now, List<MethodCall> out)
+   {
+      long last = now / TICK;
+      long from = last - tick >= SLOTS ? last - SLOTS + 1 : tick;
+      for (long t = from; t <= last; t++) {
+         MethodCall m = wheel[(int) t & (SLOTS - 1)];
+         while (null != m) {
+            MethodCall next = m.wheelnext;
+            if (m.deadline <= now) {
+               remove(m.getSerial());
+               expired++;
+               out.add(m);
+            }
+            m = next;
+         }
+      }
+      tick = last;
+   }
+
+   /** Removes slot i, moving later entries of its probe sequence back into the gap. */
+   private void delete(int i)
+   {
+      int mask = keys.length - 1;
+      calls[i] = null;
+      size--;
+      int j = i;
+      while (true) {
+         j = (j + 1) & mask;
+         if (null == calls[j]) return;
+         int h = hash(keys[j]) & mask;
+         // move j to i unless its home slot lies cyclically in (i, j]
+         if (i <= j ? (i < h && h <= j) : (i < h || h <= j)) continue;
+         keys[i] = keys[j];
+         calls[i] = calls[j];
+         calls[j] = null;
+         i = j;
+      }
+   }
+   private void resize(int capacity)
+   {
+      long[] oldkeys = keys;
+      MethodCall[] oldcalls = calls;
+      keys = new long[capacity];
+      calls = new MethodCall[capacity];
+      int mask = capacity - 1;
+      for (int i = 0; i < oldcalls.length; i++)
+         if (null != oldcalls[i]) {
+            int j = hash(oldkeys[i]) & mask;
+            while (null != calls[j]) j = (j + 1) & mask;
+            keys[j] = oldkeys[i];
+            calls[j] = oldcalls[i];
+         }
+   }
+
+   private void schedule(MethodCall m, long deadline)
+   {
+      m.deadline = deadline;
+      // a deadline in a tick already dealt with goes in the next one
+      long t = Math.max(deadline / TICK, tick + 1);
+      int slot = (int) t & (SLOTS - 1);
+      m.wheelslot = slot;
+      m.wheelprev = null;
+      m.wheelnext = wheel[slot];
+      if (null != m.wheelnext) m.wheelnext.wheelprev = m;
+      wheel[slot] = m;
+   }
+   private void unschedule(MethodCall m)
+   {
+      if (-1 == m.wheelslot) return;
+      if (null == m.wheelprev) wheel[m.wheelslot] = m.wheelnext;
+      else m.wheelprev.wheelnext = m.wheelnext;
+      if (null != m.wheelnext) m.wheelnext.wheelprev = m.wheelprev;
+      m.wheelslot = -1;
+      m.wheelnext = null;
+      m.wheelprev = null;
+   }
+}
@@ -0,0 +1,86 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The proxies and stubs a connection has handed out, by bus name, object
+ * path and interface, so asking for the same remote object again returns
+ * the same reference.
+ *
+ * The cache holds at most a fixed number of objects, dropping the least
+ * recently used; references already handed out keep working after they
+ * are dropped. Lookups allocate nothing.
+ */
+final class ProxyCache
+{
+   static final int DEFAULT_SIZE = 256;
+
+   private final int size;
+   private final LinkedHashMap<RemoteObject, DBusInterface> objects;
+   /** Reused as the key for lookups. Guarded by this. */
+   private final RemoteObject probe = new RemoteObject(null, "", null, true);
+
+   ProxyCache(int size)
+   {
+      this.size = size;
+      @SuppressWarnings("serial")
+      LinkedHashMap<RemoteObject, DBusInterface> lru = new LinkedHashMap<RemoteObject, DBusInterface>(16, 0.75f, true) {
+         protected boolean removeEldestEntry(Map.Entry<RemoteObject, DBusInterface> eldest)
+         {
+            return size() > ProxyCache.this.size;
+         }
+      };
+      objects = lru;
+   }
+
+   /**
+    * Returns the reference to an object, or null if there is none cached
+    * with the same auto-start setting.
+    */
+   synchronized DBusInterface get(String busname, String objectpath, Class<? extends DBusInterface> iface, boolean autostart)
+   {
+      probe.busname = busname;
+      probe.objectpath = objectpath;
+      probe.iface = iface;
+      DBusInterface i = objects.get(probe);
+      probe.busname = null;
+      probe.iface = null;
+      if (null == i || AbstractConnection.remoteObject(i).autostart != autostart) return null;
+      return i;
+   }
+   synchronized void put(DBusInterface i, RemoteObject ro)
+   {
+      objects.put(ro, i);
+   }
+   /**
+    * Drops the references to the object at a path, and to any objects below it.
+    * @param busname The bus name, or null for any.
+    */
+   synchronized void remove(String busname, String objectpath)
+   {
+      String prefix = "/".equals(objectpath) ? objectpath : objectpath+"/";
+      Iterator<RemoteObject> it = objects.keySet().iterator();
+      while (it.hasNext()) {
+         RemoteObject ro = it.next();
+         if (null != busname && !busname.equals(ro.busname)) continue;
+         if (ro.objectpath.equals(objectpath) || ro.objectpath.startsWith(prefix))
+            it.remove();
+      }
+   }
+   synchronized int size()
+   {
+      return objects.size();
+   }
+}
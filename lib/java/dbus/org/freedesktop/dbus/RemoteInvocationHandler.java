@@ -12,13 +12,9 @@ package org.freedesktop.dbus;
 
 import static org.freedesktop.dbus.Gettext._;
 
-import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
-import java.lang.reflect.Type;
-import java.text.MessageFormat;
-import java.util.Arrays;
 
 import org.freedesktop.DBus;
 import org.freedesktop.dbus.exceptions.DBusException;
@@ -33,87 +29,46 @@ class RemoteInvocationHandler implements InvocationHandler
    public static final int CALL_TYPE_SYNC = 0;
    public static final int CALL_TYPE_ASYNC = 1;
    public static final int CALL_TYPE_CALLBACK = 2;
+   public static final int CALL_TYPE_FUTURE = 3;
    public static Object convertRV(String sig, Object[] rp, Method m, AbstractConnection conn) throws DBusException
    {
-      Class<? extends Object> c = m.getReturnType();
-
-      if (null == rp) { 
-         if(null == c || Void.TYPE.equals(c)) return null;
-         else throw new DBusExecutionException(_("Wrong return type (got void, expected a value)"));
-      } else {
-         try { 
-            if (Debug.debug) Debug.print(Debug.VERBOSE, "Converting return parameters from "+Arrays.deepToString(rp)+" to type "+m.getGenericReturnType());
-            rp = Marshalling.deSerializeParameters(rp, 
-                  new Type[] { m.getGenericReturnType() }, conn);
-         }
-         catch (Exception e) { 
-            if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, e);
-            throw new DBusExecutionException(MessageFormat.format(_("Wrong return type (failed to de-serialize correct types: {0} )"), new Object[] { e.getMessage() }));
-         }
-      }
-
-      switch (rp.length) {
-         case 0:
-            if (null == c || Void.TYPE.equals(c))
-               return null;
-            else throw new DBusExecutionException(_("Wrong return type (got void, expected a value)"));
-         case 1:
-            return rp[0];
-         default:
-
-            // check we are meant to return multiple values
-            if (!Tuple.class.isAssignableFrom(c))
-               throw new DBusExecutionException(_("Wrong return type (not expecting Tuple)"));
-            
-            Constructor<? extends Object> cons = c.getConstructors()[0];
-            try {
-               return cons.newInstance(rp);
-            } catch (Exception e) {
-               if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, e);
-               throw new DBusException(e.getMessage());
-            }
-      }
+      return RemoteMethod.get(m).convertReply(rp, sig, conn);
    }
    @SuppressWarnings("unchecked")
    public static Object executeRemoteMethod(RemoteObject ro, Method m, AbstractConnection conn, int syncmethod, CallbackHandler callback, Object... args) throws DBusExecutionException
    {
-      Type[] ts = m.getGenericParameterTypes();
-      String sig = null;
-      if (ts.length > 0) try {
-         sig = Marshalling.getDBusType(ts);
-         args = Marshalling.convertParameters(args, ts, conn);
+      RemoteMethod rm = RemoteMethod.get(m);
+      if (rm.convert) try {
+         args = Marshalling.convertParameters(args, rm.types, conn);
       } catch (DBusException DBe) {
          throw new DBusExecutionException(_("Failed to construct D-Bus type: ")+DBe.getMessage());
       }
       MethodCall call;
-      byte flags = 0;
+      byte flags = rm.flags;
       if (!ro.autostart) flags |= Message.Flags.NO_AUTO_START;
-      if (syncmethod == CALL_TYPE_ASYNC) flags |= Message.Flags.ASYNC;
-      if (m.isAnnotationPresent(DBus.Method.NoReply.class)) flags |= Message.Flags.NO_REPLY_EXPECTED;
+      if (syncmethod == CALL_TYPE_ASYNC || syncmethod == CALL_TYPE_FUTURE) flags |= Message.Flags.ASYNC;
       try {
-         String name;
-         if (m.isAnnotationPresent(DBusMemberName.class))
-            name = m.getAnnotation(DBusMemberName.class).value();
-         else
-            name = m.getName();
-         if (null == ro.iface) 
-            call = new MethodCall(ro.busname, ro.objectpath, null, name,flags, sig, args);
-         else {
-            if (null != ro.iface.getAnnotation(DBusInterfaceName.class)) {
-               call = new MethodCall(ro.busname, ro.objectpath, ro.iface.getAnnotation(DBusInterfaceName.class).value(), name, flags, sig, args);
-            } else
-               call = new MethodCall(ro.busname, ro.objectpath, AbstractConnection.dollar_pattern.matcher(ro.iface.getName()).replaceAll("."), name, flags, sig, args);
-         }
+         String iface = null == ro.iface ? null : RemoteMethod.interfaceName(ro.iface);
+         call = new MethodCall(ro.busname, ro.objectpath, iface, rm.name, flags, rm.sig, args);
       } catch (DBusException DBe) {
          if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, DBe);
          throw new DBusExecutionException(_("Failed to construct outgoing method call: ")+DBe.getMessage());
       }
+      call.timeout = rm.timeout;
       if (null == conn.outgoing) throw new NotConnected(_("Not Connected"));
 
       switch (syncmethod) {
          case CALL_TYPE_ASYNC: 
             conn.queueOutgoing(call);
             return new DBusAsyncReply(call, m, conn);
+         case CALL_TYPE_FUTURE:
+            DBusFuture<Object> future = new DBusFuture<Object>(call, rm, conn);
+            if (rm.noreply)
+               future.succeed(null);
+            else
+               call.future = future;
+            conn.queueOutgoing(call);
+            return future;
          case CALL_TYPE_CALLBACK:
              synchronized (conn.pendingCallbacks) {
                 if (Debug.debug) Debug.print(Debug.VERBOSE, "Queueing Callback "+callback+" for "+call);
@@ -128,8 +83,25 @@ class RemoteInvocationHandler implements InvocationHandler
       }
 
       // get reply
-      if (m.isAnnotationPresent(DBus.Method.NoReply.class)) return null;
+      if (rm.noreply) return null;
+
+      Message reply = awaitReply(call);
+      try {
+         Object[] rp = reply.getParameters();
+         reply.releaseWireData();
+         return rm.convertReply(rp, reply.getSig(), conn);
+      } catch (DBusException e) {
+         if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, e);
+         throw new DBusExecutionException(e.getMessage());
+      }
+   }
 
+   /**
+    * Blocks until the reply to a call arrives.
+    * @throws DBusExecutionException If there is no reply in time or the reply is an error.
+    */
+   static Message awaitReply(MethodCall call) throws DBusExecutionException
+   {
       // the IO is actually done on the queue thread, but we're blocking on it, so it's basically the same
       BlockGuard.getThreadPolicy().onNetwork();
 
@@ -138,13 +110,7 @@ class RemoteInvocationHandler implements InvocationHandler
                
       if (reply instanceof Error)
          ((Error) reply).throwException();
-
-      try {
-         return convertRV(reply.getSig(), reply.getParameters(), m, conn);
-      } catch (DBusException e) {
-         if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, e);
-         throw new DBusExecutionException(e.getMessage());
-      }
+      return reply;
    }
 
    AbstractConnection conn;
@@ -156,6 +122,10 @@ class RemoteInvocationHandler implements InvocationHandler
    }
    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
    {
+      Class<?> decl = method.getDeclaringClass();
+      if (Object.class != decl && DBusInterface.class != decl)
+         return executeRemoteMethod(remote, method, conn, CALL_TYPE_SYNC, null, args);
+
       if (method.getName().equals("isRemote")) return true;
       else if (method.getName().equals("clone")) return null;
       else if (method.getName().equals("equals")) {
@@ -0,0 +1,220 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus;
+
+import static org.freedesktop.dbus.Gettext._;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.freedesktop.DBus;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+
+import cx.ath.matthew.debug.Debug;
+
+/**
+ * Everything about a method of a remote interface needed to call it,
+ * worked out from its declaration once and then shared by all calls.
+ */
+final class RemoteMethod
+{
+   private static final ConcurrentMap<Method, RemoteMethod> methods = new ConcurrentHashMap<Method, RemoteMethod>();
+   private static final ConcurrentMap<Class<?>, String> interfaces = new ConcurrentHashMap<Class<?>, String>();
+   private static final ConcurrentMap<Object, Method> lookups = new ConcurrentHashMap<Object, Method>();
+
+   /**
+    * Returns the descriptor of a method.
+    * @throws DBusExecutionException If the parameters have no D-Bus type.
+    */
+   static RemoteMethod get(Method m) throws DBusExecutionException
+   {
+      RemoteMethod rm = methods.get(m);
+      if (null == rm) {
+         rm = new RemoteMethod(m);
+         RemoteMethod old = methods.putIfAbsent(m, rm);
+         if (null != old) rm = old;
+      }
+      return rm;
+   }
+   /**
+    * Returns the D-Bus name of an interface.
+    */
+   static String interfaceName(Class<?> iface)
+   {
+      String name = interfaces.get(iface);
+      if (null == name) {
+         DBusInterfaceName n = iface.getAnnotation(DBusInterfaceName.class);
+         if (null != n)
+            name = n.value();
+         else
+            name = AbstractConnection.dollar_pattern.matcher(iface.getName()).replaceAll(".");
+         interfaces.put(iface, name);
+      }
+      return name;
+   }
+   /**
+    * Finds the public method of c with the given name which takes arguments
+    * of the given classes. Parameters may be declared as primitives or
+    * supertypes of the classes; a null class matches any reference type.
+    */
+   static Method lookup(Class<?> c, String name, Class<?>[] types) throws NoSuchMethodException
+   {
+      Object[] key = new Object[types.length + 2];
+      key[0] = c;
+      key[1] = name;
+      System.arraycopy(types, 0, key, 2, types.length);
+      Object k = Arrays.asList(key);
+      Method m = lookups.get(k);
+      if (null == m) {
+         try {
+            m = c.getMethod(name, types);
+         } catch (NoSuchMethodException NSMe) {
+            for (Method cand: c.getMethods())
+               if (cand.getName().equals(name) && accepts(cand.getParameterTypes(), types)) {
+                  m = cand;
+                  break;
+               }
+            if (null == m) throw NSMe;
+         }
+         lookups.put(k, m);
+      }
+      return m;
+   }
+   private static boolean accepts(Class<?>[] params, Class<?>[] types)
+   {
+      if (params.length != types.length) return false;
+      for (int i = 0; i < params.length; i++) {
+         Class<?> p = params[i];
+         if (p.isPrimitive()) p = boxed(p);
+         if (null == types[i] ? params[i].isPrimitive() : !p.isAssignableFrom(types[i]))
+            return false;
+      }
+      return true;
+   }
+   private static Class<?> boxed(Class<?> p)
+   {
+      if (Boolean.TYPE.equals(p)) return Boolean.class;
+      if (Byte.TYPE.equals(p)) return Byte.class;
+      if (Short.TYPE.equals(p)) return Short.class;
+      if (Character.TYPE.equals(p)) return Character.class;
+      if (Integer.TYPE.equals(p)) return Integer.class;
+      if (Long.TYPE.equals(p)) return Long.class;
+      if (Float.TYPE.equals(p)) return Float.class;
+      if (Double.TYPE.equals(p)) return Double.class;
+      return p;
+   }
+
+   final Method method;
+   /** The generic parameter types, for converting arguments. */
+   final Type[] types;
+   /** The D-Bus signature of the parameters, or null if there are none. */
+   final String sig;
+   /** Whether any argument may need converting before it is sent. */
+   final boolean convert;
+   /** Flags set on every call to this method. */
+   final byte flags;
+   final boolean noreply;
+   /** The time to wait for a reply in ms, or 0 for the default. */
+   final long timeout;
+   /** The D-Bus member name. */
+   final String name;
+   private final Class<?> rclass;
+   private final Type[] rtype;
+   private final Constructor<?> tuple;
+
+   private RemoteMethod(Method m) throws DBusExecutionException
+   {
+      method = m;
+      OutgoingQueue.register(m.getDeclaringClass());
+      types = m.getGenericParameterTypes();
+      if (types.length > 0) try {
+         sig = Marshalling.getDBusType(types);
+      } catch (DBusException DBe) {
+         throw new DBusExecutionException(_("Failed to construct D-Bus type: ")+DBe.getMessage());
+      } else
+         sig = null;
+      boolean c = false;
+      for (Type t: types)
+         c |= needsConversion(t);
+      convert = c;
+      noreply = m.isAnnotationPresent(DBus.Method.NoReply.class);
+      flags = noreply ? Message.Flags.NO_REPLY_EXPECTED : 0;
+      DBusTimeout t = m.getAnnotation(DBusTimeout.class);
+      timeout = null == t ? 0 : t.value();
+      DBusMemberName n = m.getAnnotation(DBusMemberName.class);
+      name = null == n ? m.getName() : n.value();
+      rclass = m.getReturnType();
+      rtype = new Type[] { m.getGenericReturnType() };
+      tuple = Tuple.class.isAssignableFrom(rclass) && rclass.getConstructors().length > 0
+         ? rclass.getConstructors()[0] : null;
+   }
+   /**
+    * Whether an argument declared as t may be converted by Marshalling.convertParameters.
+    */
+   private static boolean needsConversion(Type t)
+   {
+      if (t instanceof TypeVariable) return true;
+      if (t instanceof ParameterizedType) t = ((ParameterizedType) t).getRawType();
+      if (!(t instanceof Class)) return false;
+      Class<?> c = (Class<?>) t;
+      return DBusInterface.class.isAssignableFrom(c)
+         || DBusSerializable.class.isAssignableFrom(c)
+         || Tuple.class.isAssignableFrom(c);
+   }
+
+   /**
+    * Converts the values in a reply to the return type of the method.
+    * @param sig The signature of the reply.
+    */
+   Object convertReply(Object[] rp, String sig, AbstractConnection conn) throws DBusException
+   {
+      if (null == rp) {
+         if (Void.TYPE.equals(rclass)) return null;
+         else throw new DBusExecutionException(_("Wrong return type (got void, expected a value)"));
+      } else {
+         try {
+            if (Debug.debug) Debug.print(Debug.VERBOSE, "Converting return parameters from "+Arrays.deepToString(rp)+" to type "+rtype[0]);
+            rp = Marshalling.deSerializeParameters(rp, rtype, sig, conn);
+         }
+         catch (Exception e) {
+            if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, e);
+            throw new DBusExecutionException(MessageFormat.format(_("Wrong return type (failed to de-serialize correct types: {0} )"), new Object[] { e.getMessage() }));
+         }
+      }
+
+      switch (rp.length) {
+         case 0:
+            if (Void.TYPE.equals(rclass))
+               return null;
+            else throw new DBusExecutionException(_("Wrong return type (got void, expected a value)"));
+         case 1:
+            return rp[0];
+         default:
+            // check we are meant to return multiple values
+            if (null == tuple)
+               throw new DBusExecutionException(_("Wrong return type (not expecting Tuple)"));
+            try {
+               return tuple.newInstance(rp);
+            } catch (Exception e) {
+               if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, e);
+               throw new DBusException(e.getMessage());
+            }
+      }
+   }
+}
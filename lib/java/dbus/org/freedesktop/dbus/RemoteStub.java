@@ -0,0 +1,198 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus;
+
+import static org.freedesktop.dbus.Gettext._;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+import org.freedesktop.dbus.exceptions.NotConnected;
+
+import cx.ath.matthew.debug.Debug;
+
+/**
+ * Superclass of generated stubs for remote objects.
+ * A stub implements one D-Bus interface with the interface name, member
+ * names, signatures and reply types of its methods fixed when it was
+ * generated, so calls through it need no reflection.
+ *
+ * Stubs are generated by CreateInterface --stubs, and are named after
+ * their interface with a Stub suffix. DBusConnection.getRemoteObject
+ * returns a stub instead of a dynamic proxy when one exists.
+ */
+public abstract class RemoteStub implements DBusInterface
+{
+   private static final Map<Class<?>, Class<? extends RemoteStub>> stubs = new HashMap<Class<?>, Class<? extends RemoteStub>>();
+
+   /**
+    * Returns a new stub for the interface of a remote object, or null
+    * if no stub was generated for it.
+    */
+   @SuppressWarnings("unchecked")
+   static <I extends DBusInterface> I create(AbstractConnection conn, RemoteObject remote)
+   {
+      Class<? extends DBusInterface> type = remote.iface;
+      Class<? extends RemoteStub> c;
+      synchronized (stubs) {
+         if (stubs.containsKey(type))
+            c = stubs.get(type);
+         else {
+            c = null;
+            try {
+               Class<?> s = Class.forName(type.getName()+"Stub", true, type.getClassLoader());
+               if (RemoteStub.class.isAssignableFrom(s) && type.isAssignableFrom(s))
+                  c = (Class<? extends RemoteStub>) s;
+            } catch (ClassNotFoundException CNFe) {}
+            if (Debug.debug) Debug.print(Debug.VERBOSE, "Stub for "+type+": "+c);
+            stubs.put(type, c);
+            OutgoingQueue.register(type);
+         }
+      }
+      if (null == c) return null;
+      RemoteStub stub;
+      try {
+         stub = c.newInstance();
+      } catch (Exception e) {
+         if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, e);
+         return null;
+      }
+      stub.conn = conn;
+      stub.remote = remote;
+      return (I) stub;
+   }
+   /**
+    * Returns the method of an interface a stub implements.
+    * Stubs look these up once, for the Java types of their parameters and replies.
+    */
+   protected static Method method(Class<? extends DBusInterface> iface, String name, Class<?>... parameters)
+   {
+      try {
+         return iface.getMethod(name, parameters);
+      } catch (NoSuchMethodException NSMe) {
+         throw new NoSuchMethodError(iface.getName()+"."+name);
+      }
+   }
+
+   private AbstractConnection conn;
+   RemoteObject remote;
+
+   protected RemoteStub() {}
+
+   /**
+    * Converts arguments for serialization, for methods with parameters
+    * that are not sent as they are, such as DBusInterfaces.
+    */
+   protected final Object[] convert(Type[] types, Object... args)
+   {
+      try {
+         return Marshalling.convertParameters(args, types, conn);
+      } catch (DBusException DBe) {
+         throw new DBusExecutionException(_("Failed to construct D-Bus type: ")+DBe.getMessage());
+      }
+   }
+   /**
+    * Calls a method which does not expect a reply.
+    */
+   protected final void callNoReply(String iface, String member, String sig, Object... args)
+   {
+      send(iface, member, Message.Flags.NO_REPLY_EXPECTED, sig, args, 0);
+   }
+   /**
+    * Calls a method and returns the values in the reply.
+    */
+   protected final Object[] callRaw(String iface, String member, String sig, Object... args)
+   {
+      return callRaw(0, iface, member, sig, args);
+   }
+   /**
+    * Calls a method, waiting timeout ms for the reply, and returns the values in the reply.
+    */
+   protected final Object[] callRaw(long timeout, String iface, String member, String sig, Object... args)
+   {
+      MethodCall call = send(iface, member, (byte) 0, sig, args, timeout);
+      Message reply = RemoteInvocationHandler.awaitReply(call);
+      try {
+         Object[] rp = reply.getParameters();
+         reply.releaseWireData();
+         return rp;
+      } catch (DBusException DBe) {
+         if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, DBe);
+         throw new DBusExecutionException(DBe.getMessage());
+      }
+   }
+   /**
+    * Calls a method and returns the single value in the reply, as it was demarshalled.
+    */
+   protected final Object call(String iface, String member, String sig, Object... args)
+   {
+      return call(0, iface, member, sig, args);
+   }
+   /**
+    * Calls a method, waiting timeout ms for the reply, and returns the single value in the reply.
+    */
+   protected final Object call(long timeout, String iface, String member, String sig, Object... args)
+   {
+      Object[] rp = callRaw(timeout, iface, member, sig, args);
+      if (0 == rp.length) throw new DBusExecutionException(_("Wrong return type (got void, expected a value)"));
+      return rp[0];
+   }
+   /**
+    * Calls a method and converts the reply to the return type of m.
+    */
+   protected final Object call(Method m, String iface, String member, String sig, Object... args)
+   {
+      return call(0, m, iface, member, sig, args);
+   }
+   /**
+    * Calls a method, waiting timeout ms for the reply, and converts the reply to the return type of m.
+    */
+   protected final Object call(long timeout, Method m, String iface, String member, String sig, Object... args)
+   {
+      MethodCall call = send(iface, member, (byte) 0, sig, args, timeout);
+      Message reply = RemoteInvocationHandler.awaitReply(call);
+      try {
+         Object[] rp = reply.getParameters();
+         reply.releaseWireData();
+         return RemoteInvocationHandler.convertRV(reply.getSig(), rp, m, conn);
+      } catch (DBusException DBe) {
+         if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, DBe);
+         throw new DBusExecutionException(DBe.getMessage());
+      }
+   }
+   private MethodCall send(String iface, String member, byte flags, String sig, Object[] args, long timeout)
+   {
+      if (!remote.autostart) flags |= Message.Flags.NO_AUTO_START;
+      MethodCall call;
+      try {
+         call = new MethodCall(remote.busname, remote.objectpath, iface, member, flags, sig, args);
+      } catch (DBusException DBe) {
+         if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, DBe);
+         throw new DBusExecutionException(_("Failed to construct outgoing method call: ")+DBe.getMessage());
+      }
+      call.timeout = timeout;
+      if (null == conn.outgoing) throw new NotConnected(_("Not Connected"));
+      conn.queueOutgoing(call);
+      return call;
+   }
+
+   public boolean isRemote() { return true; }
+   public boolean equals(Object o)
+   {
+      return o instanceof RemoteStub && remote.equals(((RemoteStub) o).remote);
+   }
+   public int hashCode() { return remote.hashCode(); }
+   public String toString() { return remote.toString(); }
+}
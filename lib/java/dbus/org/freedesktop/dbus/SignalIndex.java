@@ -0,0 +1,166 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The signal handlers of a connection, by interface, member, object path
+ * and source. A null path or source in a rule matches any.
+ *
+ * Lookups take no lock and allocate nothing: every change builds new maps
+ * and handler arrays and then publishes them, so a reader sees either the
+ * index before a change or after it. Changes are made holding the lock on
+ * the index.
+ */
+final class SignalIndex
+{
+   /**
+    * The handlers for one interface and member.
+    */
+   static final class Route
+   {
+      /** By path, then by source. */
+      private final Map<String, Map<String, DBusSigHandler<?>[]>> table;
+      /** The handlers for any path and source. */
+      final DBusSigHandler<?>[] any;
+      private final boolean bypath;
+      private final boolean bysource;
+      /** Whether a waiting signal may be replaced by a later one for the same property. */
+      final boolean coalesce;
+
+      Route(Map<String, Map<String, DBusSigHandler<?>[]>> table, boolean coalesce)
+      {
+         this.table = table;
+         this.coalesce = coalesce;
+         Map<String, DBusSigHandler<?>[]> sources = table.get(null);
+         any = null == sources ? null : sources.get(null);
+         boolean s = false;
+         for (Map<String, DBusSigHandler<?>[]> m: table.values())
+            if (m.size() > (m.containsKey(null) ? 1 : 0)) s = true;
+         bysource = s;
+         bypath = table.size() > (null == sources ? 0 : 1);
+      }
+      /**
+       * Returns the handlers for exactly the given path and source, or null.
+       */
+      DBusSigHandler<?>[] get(String path, String source)
+      {
+         if (null != path && !bypath) return null;
+         if (null != source && !bysource) return null;
+         Map<String, DBusSigHandler<?>[]> sources = table.get(path);
+         return null == sources ? null : sources.get(source);
+      }
+   }
+
+   private volatile Map<String, Map<String, Route>> routes = Collections.emptyMap();
+   /** The members coalesced, by interface. */
+   private final Map<String, Set<String>> coalesced = new HashMap<String, Set<String>>();
+
+   /**
+    * Returns the handlers for an interface and member, or null if there are none.
+    */
+   Route get(String iface, String member)
+   {
+      Map<String, Route> members = routes.get(iface);
+      return null == members ? null : members.get(member);
+   }
+   synchronized void add(String iface, String member, String path, String source, DBusSigHandler<?> handler)
+   {
+      Route r = get(iface, member);
+      DBusSigHandler<?>[] old = null == r ? null : r.get(path, source);
+      DBusSigHandler<?>[] hs;
+      if (null == old)
+         hs = new DBusSigHandler<?>[] { handler };
+      else {
+         hs = new DBusSigHandler<?>[old.length + 1];
+         System.arraycopy(old, 0, hs, 0, old.length);
+         hs[old.length] = handler;
+      }
+      put(iface, member, path, source, hs);
+   }
+   /**
+    * Removes a handler.
+    * @return True if it was the last handler for its rule.
+    */
+   synchronized boolean remove(String iface, String member, String path, String source, DBusSigHandler<?> handler)
+   {
+      Route r = get(iface, member);
+      DBusSigHandler<?>[] old = null == r ? null : r.get(path, source);
+      if (null == old) return false;
+      int i = 0;
+      while (i < old.length && !old[i].equals(handler)) i++;
+      if (i == old.length) return false;
+      if (1 == old.length) {
+         put(iface, member, path, source, null);
+         return true;
+      }
+      DBusSigHandler<?>[] hs = new DBusSigHandler<?>[old.length - 1];
+      System.arraycopy(old, 0, hs, 0, i);
+      System.arraycopy(old, i+1, hs, i, hs.length - i);
+      put(iface, member, path, source, hs);
+      return false;
+   }
+   /**
+    * Sets whether signals of an interface and member are coalesced.
+    */
+   synchronized void coalesce(String iface, String member, boolean coalesce)
+   {
+      Set<String> members = coalesced.get(iface);
+      if (null == members) {
+         if (!coalesce) return;
+         members = new HashSet<String>();
+         coalesced.put(iface, members);
+      }
+      if (coalesce) members.add(member);
+      else members.remove(member);
+      if (members.isEmpty()) coalesced.remove(iface);
+      Route r = get(iface, member);
+      if (null == r || r.coalesce == coalesce) return;
+      Map<String, Map<String, Route>> top = new HashMap<String, Map<String, Route>>(routes);
+      Map<String, Route> ms = new HashMap<String, Route>(top.get(iface));
+      ms.put(member, new Route(r.table, coalesce));
+      top.put(iface, ms);
+      routes = top;
+   }
+   private boolean coalesced(String iface, String member)
+   {
+      Set<String> members = coalesced.get(iface);
+      return null != members && members.contains(member);
+   }
+   /** Publishes a new index with the handlers for one rule replaced, or removed if hs is null. */
+   private void put(String iface, String member, String path, String source, DBusSigHandler<?>[] hs)
+   {
+      Map<String, Map<String, Route>> top = new HashMap<String, Map<String, Route>>(routes);
+      Map<String, Route> members = top.get(iface);
+      members = null == members ? new HashMap<String, Route>() : new HashMap<String, Route>(members);
+      Route r = members.get(member);
+      Map<String, Map<String, DBusSigHandler<?>[]>> paths = null == r
+         ? new HashMap<String, Map<String, DBusSigHandler<?>[]>>()
+         : new HashMap<String, Map<String, DBusSigHandler<?>[]>>(r.table);
+      Map<String, DBusSigHandler<?>[]> sources = paths.get(path);
+      sources = null == sources ? new HashMap<String, DBusSigHandler<?>[]>() : new HashMap<String, DBusSigHandler<?>[]>(sources);
+
+      if (null == hs) sources.remove(source);
+      else sources.put(source, hs);
+      if (sources.isEmpty()) paths.remove(path);
+      else paths.put(path, sources);
+      if (paths.isEmpty()) members.remove(member);
+      else members.put(member, new Route(paths, coalesced(iface, member)));
+      if (members.isEmpty()) top.remove(iface);
+      else top.put(iface, members);
+      routes = top;
+   }
+}
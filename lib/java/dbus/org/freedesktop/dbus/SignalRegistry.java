@@ -0,0 +1,149 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus;
+
+import static org.freedesktop.dbus.Gettext._;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.GenericDeclaration;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.freedesktop.dbus.exceptions.DBusException;
+
+import cx.ath.matthew.debug.Debug;
+
+/**
+ * The Java classes of signals, by class and by D-Bus interface and member
+ * name, with what is needed to build and decode each.
+ *
+ * Classes are registered when a match rule is made for them, as
+ * addSigHandler does, so incoming signals find their class without
+ * searching for it by name. Safe for use from any thread.
+ */
+final class SignalRegistry
+{
+   /**
+    * A signal class.
+    */
+   static final class Entry
+   {
+      final Class<? extends DBusSignal> type;
+      final String iface;
+      final String member;
+      final Constructor<? extends DBusSignal> con;
+      /** The generic types of the constructor parameters after the object path. */
+      final Type[] types;
+      private volatile String sig;
+
+      @SuppressWarnings("unchecked")
+      private Entry(Class<? extends DBusSignal> type, String iface, String member)
+      {
+         this.type = type;
+         this.iface = iface;
+         this.member = member;
+         con = (Constructor<? extends DBusSignal>) type.getDeclaredConstructors()[0];
+         Type[] ts = con.getGenericParameterTypes();
+         types = new Type[Math.max(0, ts.length-1)];
+         for (int i = 1; i < ts.length; i++)
+            if (ts[i] instanceof TypeVariable)
+               types[i-1] = ((TypeVariable<GenericDeclaration>) ts[i]).getBounds()[0];
+            else
+               types[i-1] = ts[i];
+      }
+      /**
+       * Returns the D-Bus signature of the parameters.
+       */
+      String sig() throws DBusException
+      {
+         String s = sig;
+         if (null == s) sig = s = Marshalling.getDBusType(types);
+         return s;
+      }
+      /**
+       * Builds a signal of this type from the demarshalled parameters of a signal received.
+       * @param sig The signature of the signal received.
+       */
+      DBusSignal decode(String path, Object[] parameters, String sig, AbstractConnection conn) throws Exception
+      {
+         Object[] args = Marshalling.deSerializeParameters(parameters, types, sig, conn);
+         if (null == args) return con.newInstance(path);
+         Object[] params = new Object[args.length + 1];
+         params[0] = path;
+         System.arraycopy(args, 0, params, 1, args.length);
+         if (Debug.debug) Debug.print(Debug.DEBUG, "Creating signal of type "+type+" with parameters "+Arrays.deepToString(params));
+         return con.newInstance(params);
+      }
+   }
+
+   private static final ConcurrentHashMap<Class<?>, Entry> classes = new ConcurrentHashMap<Class<?>, Entry>();
+   /** By interface, then member. */
+   private static final ConcurrentHashMap<String, ConcurrentHashMap<String, Entry>> names = new ConcurrentHashMap<String, ConcurrentHashMap<String, Entry>>();
+
+   /**
+    * Registers a signal class under its D-Bus names, and the priorities
+    * of its interface.
+    */
+   static Entry register(Class<? extends DBusSignal> c, String iface, String member)
+   {
+      Entry e = classes.get(c);
+      if (null == e) {
+         Class<?> enc = c.getEnclosingClass();
+         if (null != enc) OutgoingQueue.register(enc);
+         e = new Entry(c, iface, member);
+         Entry old = classes.putIfAbsent(c, e);
+         if (null != old) e = old;
+      }
+      ConcurrentHashMap<String, Entry> members = names.get(iface);
+      if (null == members) {
+         members = new ConcurrentHashMap<String, Entry>();
+         ConcurrentHashMap<String, Entry> old = names.putIfAbsent(iface, members);
+         if (null != old) members = old;
+      }
+      members.putIfAbsent(member, e);
+      return e;
+   }
+   /**
+    * Returns a signal class, registering it if need be.
+    * @throws DBusException If the class is not declared inside a DBusInterface in a package.
+    */
+   static Entry get(Class<? extends DBusSignal> c) throws DBusException
+   {
+      Entry e = classes.get(c);
+      if (null != e) return e;
+      String member;
+      if (c.isAnnotationPresent(DBusMemberName.class))
+         member = c.getAnnotation(DBusMemberName.class).value();
+      else
+         member = c.getSimpleName();
+      Class<?> enc = c.getEnclosingClass();
+      if (null == enc ||
+            !DBusInterface.class.isAssignableFrom(enc) ||
+            enc.getName().equals(enc.getSimpleName()))
+         throw new DBusException(_("Signals must be declared as a member of a class implementing DBusInterface which is the member of a package."));
+      String iface;
+      if (null != enc.getAnnotation(DBusInterfaceName.class))
+         iface = enc.getAnnotation(DBusInterfaceName.class).value();
+      else
+         iface = AbstractConnection.dollar_pattern.matcher(enc.getName()).replaceAll(".");
+      return register(c, iface, member);
+   }
+   /**
+    * Returns the class registered for a signal, or null.
+    */
+   static Entry get(String iface, String member)
+   {
+      ConcurrentHashMap<String, Entry> members = names.get(iface);
+      return null == members ? null : members.get(member);
+   }
+}
@@ -0,0 +1,143 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a bounded number of demarshalled strings and object paths, by
+ * their bytes on the wire, so that the names, paths and values which come
+ * again and again are shared rather than allocated for every message.
+ *
+ * The cache is a table of SIZE slots, each holding the last string whose
+ * bytes hashed to it. Only ASCII strings of up to MAX_LENGTH bytes are
+ * kept, as those are the names and enumerated values; their decoding is
+ * the same for every charset.
+ */
+public class StringCache
+{
+   /** The number of slots, a power of two. */
+   private static final int SIZE = 1024;
+   /** The longest string kept, in bytes. */
+   private static final int MAX_LENGTH = 64;
+
+   /** A string and its bytes. Entries are replaced, not changed, but for the path. */
+   private static final class Entry
+   {
+      final byte[] bytes;
+      final String value;
+      /** The last object path with this string, for its source. */
+      volatile ObjectPath path;
+      Entry(byte[] bytes, String value)
+      {
+         this.bytes = bytes;
+         this.value = value;
+      }
+   }
+
+   private static final Entry[] table = new Entry[SIZE];
+   private static volatile boolean enabled = true;
+   private static final AtomicLong hits = new AtomicLong();
+   private static final AtomicLong misses = new AtomicLong();
+   private static final AtomicLong uncached = new AtomicLong();
+
+   private StringCache() {}
+
+   /**
+    * Returns the entry for len bytes of buf at ofs, adding it if it is not
+    * there, or null if the bytes are not to be cached.
+    */
+   private static Entry entry(byte[] buf, int ofs, int len)
+   {
+      if (!enabled) return null;
+      if (len > MAX_LENGTH) {
+         uncached.incrementAndGet();
+         return null;
+      }
+      int h = len;
+      for (int i = ofs; i < ofs+len; i++) {
+         if (buf[i] < 0) {
+            uncached.incrementAndGet();
+            return null;
+         }
+         h = 31 * h + buf[i];
+      }
+      int slot = (h ^ (h >>> 16)) & (SIZE-1);
+      // the entry is immutable, so reading it without a lock is safe
+      Entry e = table[slot];
+      if (null != e && equal(e.bytes, buf, ofs, len)) {
+         hits.incrementAndGet();
+         return e;
+      }
+      misses.incrementAndGet();
+      byte[] bytes = new byte[len];
+      System.arraycopy(buf, ofs, bytes, 0, len);
+      // all bytes are ASCII, so use the constructor without a charset lookup
+      @SuppressWarnings("deprecation")
+      String value = new String(bytes, 0, 0, len);
+      e = new Entry(bytes, value);
+      table[slot] = e;
+      return e;
+   }
+   private static boolean equal(byte[] a, byte[] buf, int ofs, int len)
+   {
+      if (a.length != len) return false;
+      for (int i = 0; i < len; i++)
+         if (a[i] != buf[ofs+i]) return false;
+      return true;
+   }
+   /**
+    * Returns the shared string for len bytes of buf at ofs, or null if
+    * they are not cached and the caller must decode them itself.
+    */
+   static String string(byte[] buf, int ofs, int len)
+   {
+      Entry e = entry(buf, ofs, len);
+      return null == e ? null : e.value;
+   }
+   /**
+    * Returns an object path for len bytes of buf at ofs, from the given
+    * source, shared with the last message from that source with the path.
+    */
+   static ObjectPath path(String source, byte[] buf, int ofs, int len)
+   {
+      Entry e = entry(buf, ofs, len);
+      if (null == e) return new ObjectPath(source, new String(buf, ofs, len));
+      ObjectPath p = e.path;
+      if (null == p || (null == source ? null != p.source : !source.equals(p.source)))
+         e.path = p = new ObjectPath(source, e.value);
+      return p;
+   }
+   /**
+    * Selects whether strings are cached (the default), or allocated for
+    * every value demarshalled. Disabling it also empties the cache.
+    */
+   public static void setEnabled(boolean enable)
+   {
+      enabled = enable;
+      if (!enable)
+         for (int i = 0; i < SIZE; i++)
+            table[i] = null;
+   }
+   /** Number of strings found in the cache. */
+   public static long getHits() { return hits.get(); }
+   /** Number of strings added to the cache, replacing any in their slot. */
+   public static long getMisses() { return misses.get(); }
+   /** Number of strings too long or not ASCII, so not cached. */
+   public static long getUncached() { return uncached.get(); }
+   /** The fraction of cacheable strings found in the cache. */
+   public static double getHitRate()
+   {
+      long h = hits.get();
+      long m = misses.get();
+      return 0 == h + m ? 0 : (double) h / (h + m);
+   }
+}
@@ -705,6 +705,21 @@ public class Transport
       String guid = Hexdump.toHex(buf);
       return guid.replaceAll(" ", "");
    }
+   /**
+    * Connects to an address, over the NIO transport for address types
+    * with the nio- prefix, such as nio-tcp and nio-unix. Where NIO cannot
+    * serve the address it is connected over streams without the prefix.
+    */
+   public static Transport open(String address, int timeout) throws IOException, ParseException
+   {
+      BusAddress a = new BusAddress(address);
+      if (a.getType().startsWith(NioTransport.PREFIX)) {
+         if (NioTransport.supports(a)) return new NioTransport(a);
+         if (Debug.debug) Debug.print(Debug.WARN, "NIO cannot serve "+a+", using streams");
+         address = address.substring(NioTransport.PREFIX.length());
+      }
+      return new Transport(address, timeout);
+   }
    public Transport(BusAddress address) throws IOException
    {
       connect(address);
@@ -14,8 +14,11 @@ import static org.freedesktop.dbus.Gettext._;
 
 import java.lang.reflect.Type;
 import java.text.MessageFormat;
+import java.util.Arrays;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
 
 import cx.ath.matthew.debug.Debug;
 
@@ -24,12 +27,121 @@ import cx.ath.matthew.debug.Debug;
  * A method on DBus can send or receive a Variant. 
  * This will wrap another value whose type is determined at runtime.
  * The Variant may be parameterized to restrict the types it may accept.
+ * Variants cannot be changed once made, so the common ones returned by
+ * the valueOf methods are shared.
  */
 public class Variant<T>
 {
-   private final T o;
-   private final Type type;
+   /** The signatures of the classes wrapped in unqualified Variants. */
+   private static final ConcurrentHashMap<Class<?>, String> classSigs = new ConcurrentHashMap<Class<?>, String>();
+   /** The Java types of Variant signatures. */
+   private static final ConcurrentHashMap<String, Type> sigTypes = new ConcurrentHashMap<String, Type>();
+
+   public static final Variant<Boolean> TRUE = new Variant<Boolean>(Boolean.TRUE);
+   public static final Variant<Boolean> FALSE = new Variant<Boolean>(Boolean.FALSE);
+   public static final Variant<String> EMPTY_STRING = new Variant<String>("");
+   public static final Variant<String[]> EMPTY_STRING_ARRAY = new Variant<String[]>(new String[0], "as");
+
+   /** Shared Variants of every byte and of small ints, made on first use. */
+   @SuppressWarnings({"unchecked", "rawtypes"})
+   private static class Small
+   {
+      static final int LOW = -128;
+      static final int HIGH = 127;
+      static final Variant<Byte>[] bytes = new Variant[HIGH - LOW + 1];
+      static final Variant<Integer>[] ints = new Variant[HIGH - LOW + 1];
+      static {
+         for (int i = LOW; i <= HIGH; i++) {
+            bytes[i - LOW] = new Variant<Byte>((byte) i);
+            ints[i - LOW] = new Variant<Integer>(i);
+         }
+      }
+   }
+
+   /** Returns the shared Variant of a boolean. */
+   public static Variant<Boolean> valueOf(boolean b)
+   {
+      return b ? TRUE : FALSE;
+   }
+   /** Returns the shared Variant of a byte. */
+   public static Variant<Byte> valueOf(byte b)
+   {
+      return Small.bytes[b - Small.LOW];
+   }
+   /** Returns a Variant of an int, shared if the int is small. */
+   public static Variant<Integer> valueOf(int i)
+   {
+      if (i >= Small.LOW && i <= Small.HIGH) return Small.ints[i - Small.LOW];
+      return new Variant<Integer>(i);
+   }
+   /** Returns a Variant of a String, shared if the String is empty. */
+   public static Variant<String> valueOf(String s)
+   {
+      if (null != s && 0 == s.length()) return EMPTY_STRING;
+      return new Variant<String>(s);
+   }
+   /** Returns a Variant of a String array, shared if the array is empty. */
+   public static Variant<String[]> valueOf(String[] ss)
+   {
+      if (null != ss && 0 == ss.length) return EMPTY_STRING_ARRAY;
+      return new Variant<String[]>(ss, "as");
+   }
+   /**
+    * Returns the Variant of a basic value read from the wire,
+    * shared where one of the valueOf methods would share it.
+    */
+   @SuppressWarnings("unchecked")
+   static Variant<Object> valueOf(Object o, String sig)
+   {
+      Variant<?> v = null;
+      if (o instanceof Boolean)
+         v = valueOf(((Boolean) o).booleanValue());
+      else if (o instanceof Byte)
+         v = valueOf(((Byte) o).byteValue());
+      else if (o instanceof Integer) {
+         int i = (Integer) o;
+         if (i >= Small.LOW && i <= Small.HIGH) v = Small.ints[i - Small.LOW];
+      } else if (o instanceof String && 0 == ((String) o).length() && "s".equals(sig))
+         v = EMPTY_STRING;
+      if (null == v) return new Variant<Object>(o, sig);
+      return (Variant<Object>) v;
+   }
+   /**
+    * Returns the signature of an unqualified Variant wrapping a class.
+    */
+   private static String sigOf(Class<?> c) throws DBusException
+   {
+      String sig = classSigs.get(c);
+      if (null != sig) return sig;
+      String[] ss = Marshalling.getDBusType(c, true);
+      if (ss.length != 1)
+         throw new IllegalArgumentException(_("Can't wrap a multi-valued type in a Variant: ")+c);
+      classSigs.putIfAbsent(c, ss[0]);
+      return ss[0];
+   }
+   /**
+    * Returns the Java type of a Variant signature.
+    */
+   private static Type typeOf(String sig) throws DBusException
+   {
+      Type t = sigTypes.get(sig);
+      if (null != t) return t;
+      Vector<Type> ts = new Vector<Type>();
+      Marshalling.getJavaType(sig, ts, 1);
+      if (ts.size() != 1)
+         throw new IllegalArgumentException(_("Can't wrap multiple or no types in a Variant: ")+sig);
+      t = ts.get(0);
+      sigTypes.putIfAbsent(sig, t);
+      return t;
+   }
+
+   private T o;
+   private Type type;
    private final String sig;
+   /* Set until a value read from the wire is decoded */
+   private volatile byte[] buf;
+   private Message m;
+   private int ofs;
    /** 
     * Create a Variant from a basic type object.
     * @param o The wrapped value.
@@ -40,10 +152,7 @@ public class Variant<T>
       if (null == o) throw new IllegalArgumentException(_("Can't wrap Null in a Variant"));
       type = o.getClass();
       try {
-         String[] ss = Marshalling.getDBusType(o.getClass(), true);
-         if (ss.length != 1)
-         throw new IllegalArgumentException(_("Can't wrap a multi-valued type in a Variant: ")+type);
-         this.sig = ss[0];
+         this.sig = sigOf(o.getClass());
       } catch (DBusException DBe) {
          if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, DBe);
          throw new IllegalArgumentException(MessageFormat.format(_("Can't wrap {0} in an unqualified Variant ({1})."), new Object[] { o.getClass(), DBe.getMessage() }));
@@ -82,31 +191,81 @@ public class Variant<T>
       if (null == o) throw new IllegalArgumentException(_("Can't wrap Null in a Variant"));
       this.sig = sig;
       try {
-         Vector<Type> ts = new Vector<Type>();
-         Marshalling.getJavaType(sig, ts,1);
-         if (ts.size() != 1)
-            throw new IllegalArgumentException(_("Can't wrap multiple or no types in a Variant: ")+sig);
-         this.type = ts.get(0);
+         this.type = typeOf(sig);
       } catch (DBusException DBe) {
          if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, DBe);
          throw new IllegalArgumentException(MessageFormat.format(_("Can't wrap {0} in an unqualified Variant ({1})."), new Object[] { sig, DBe.getMessage() }));
       }
       this.o = o;
    }
+   /**
+    * Create a Variant whose value is decoded from a message buffer
+    * the first time it is accessed.
+    * @param sig The dbus type string of the value.
+    * @param m The message the value was read from.
+    * @param buf The bytes of the value, aligned as in the message.
+    * @param ofs The offset of the value in buf.
+    */
+   Variant(String sig, Message m, byte[] buf, int ofs)
+   {
+      this.sig = sig;
+      this.m = m;
+      this.ofs = ofs;
+      this.buf = buf;
+   }
+   @SuppressWarnings("unchecked")
+   private synchronized void decode()
+   {
+      if (null == buf) return;
+      try {
+         type = typeOf(sig);
+         o = (T) m.extract(sig, buf, ofs)[0];
+      } catch (IllegalArgumentException IAe) {
+         throw new DBusExecutionException(IAe.getMessage());
+      } catch (DBusException DBe) {
+         if (AbstractConnection.EXCEPTION_DEBUG && Debug.debug) Debug.print(Debug.ERR, DBe);
+         throw new DBusExecutionException(MessageFormat.format(_("Can't wrap {0} in an unqualified Variant ({1})."), new Object[] { sig, DBe.getMessage() }));
+      }
+      m = null;
+      buf = null;
+   }
    /** Return the wrapped value. */
-   public T getValue() { return o; }
+   public T getValue() 
+   { 
+      if (null != buf) decode();
+      return o; 
+   }
    /** Return the type of the wrapped value. */
-   public Type getType() { return type; }
+   public Type getType() 
+   { 
+      if (null != buf) decode();
+      return type; 
+   }
    /** Return the dbus signature of the wrapped value. */
    public String getSig() { return sig; }
    /** Format the Variant as a string. */
-   public String toString() { return "["+o+"]"; }
-   /** Compare this Variant with another by comparing contents */
-   @SuppressWarnings("unchecked")
+   public String toString() { return "["+getValue()+"]"; }
+   /**
+    * Compare this Variant with another by comparing signatures and contents.
+    * Arrays are compared by their elements.
+    */
    public boolean equals(Object other)
    {
-      if (null == other) return false;
+      if (this == other) return true;
       if (!(other instanceof Variant)) return false;
-      return this.o.equals(((Variant<? extends Object>)other).o);
+      Variant<?> v = (Variant<?>) other;
+      if (!sig.equals(v.sig)) return false;
+      Object a = getValue();
+      Object b = v.getValue();
+      if (a.getClass().isArray())
+         return Arrays.deepEquals(new Object[] { a }, new Object[] { b });
+      return a.equals(b);
+   }
+   public int hashCode()
+   {
+      Object a = getValue();
+      if (a.getClass().isArray())
+         return 31 * sig.hashCode() + Arrays.deepHashCode(new Object[] { a });
+      return 31 * sig.hashCode() + a.hashCode();
    }
 }
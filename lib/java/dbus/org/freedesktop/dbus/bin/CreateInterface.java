@@ -23,6 +23,8 @@ import java.io.PrintStream;
 import java.io.Reader;
 import java.io.StringReader;
 import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -30,16 +32,31 @@ import java.util.TreeSet;
 import java.util.Vector;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
+import org.freedesktop.DBus;
 import org.freedesktop.DBus.Introspectable;
 import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusInterfaceName;
+import org.freedesktop.dbus.DBusMemberName;
+import org.freedesktop.dbus.DBusTimeout;
+import org.freedesktop.dbus.DBusSerializable;
 import org.freedesktop.dbus.Marshalling;
+import org.freedesktop.dbus.Tuple;
+import org.freedesktop.dbus.UInt16;
+import org.freedesktop.dbus.UInt32;
+import org.freedesktop.dbus.UInt64;
+import org.freedesktop.dbus.Variant;
 import org.freedesktop.dbus.exceptions.DBusException;
 import org.freedesktop.dbus.exceptions.DBusExecutionException;
 import org.freedesktop.dbus.types.DBusStructType;
@@ -52,6 +69,7 @@ import org.xml.sax.SAXException;
 
 /** 
  * Converts a DBus XML file into Java interface definitions.
+ * With --stubs, generates stub classes for compiled interfaces instead.
  */
 public class CreateInterface
 {
@@ -449,6 +467,218 @@ public class CreateInterface
       createExceptions(exceptions);
       createAnnotations(annotations);
    }
+   /** Java types which are demarshalled as they are returned. */
+   private static final Set<Class<?>> directReturns = new TreeSet<Class<?>>(new Comparator<Class<?>>() {
+         public int compare(Class<?> a, Class<?> b) { return a.getName().compareTo(b.getName()); }
+      });
+   static {
+      directReturns.addAll(Arrays.asList(new Class<?>[] {
+               String.class, Boolean.class, Boolean.TYPE, Byte.class, Byte.TYPE,
+               Short.class, Short.TYPE, Integer.class, Integer.TYPE, Long.class, Long.TYPE,
+               Double.class, Double.TYPE, UInt16.class, UInt32.class, UInt64.class, Variant.class,
+               boolean[].class, byte[].class, short[].class, int[].class, long[].class, double[].class }));
+   }
+   /**
+    * Whether the reply to a method returning t needs no conversion.
+    */
+   private static boolean isDirectReturn(Type t)
+   {
+      if (t instanceof Class)
+         return directReturns.contains(t);
+      if (t instanceof ParameterizedType) {
+         ParameterizedType p = (ParameterizedType) t;
+         if (Variant.class.equals(p.getRawType())) return true;
+         if (Map.class.equals(p.getRawType())) {
+            Type[] ts = p.getActualTypeArguments();
+            return isDirectReturn(ts[0]) && (isDirectReturn(ts[1]) || ts[1] instanceof WildcardType);
+         }
+      }
+      return false;
+   }
+   /**
+    * Whether a parameter of type t is sent without conversion.
+    */
+   private static boolean isDirectParameter(Type t)
+   {
+      if (t instanceof TypeVariable) return false;
+      if (t instanceof ParameterizedType) t = ((ParameterizedType) t).getRawType();
+      if (!(t instanceof Class)) return true;
+      Class<?> c = (Class<?>) t;
+      return !DBusInterface.class.isAssignableFrom(c) 
+         && !DBusSerializable.class.isAssignableFrom(c)
+         && !Tuple.class.isAssignableFrom(c);
+   }
+   /**
+    * Returns a Java type as it is written in source in the given package.
+    * Classes from other packages are added to imports, keyed by their simple
+    * name, unless that name is already taken.
+    */
+   private static String sourceName(Type t, String pack, Map<String,String> imports)
+   {
+      if (t instanceof Class) {
+         Class<?> c = (Class<?>) t;
+         if (c.isArray()) return sourceName(c.getComponentType(), pack, imports)+"[]";
+         if (c.isPrimitive()) return c.getName();
+         Class<?> top = c;
+         while (null != top.getEnclosingClass()) top = top.getEnclosingClass();
+         String p = top.getName().replaceAll("\\.?[^.]*$", "");
+         String n = c.getCanonicalName().substring("".equals(p) ? 0 : p.length()+1);
+         if (p.equals(pack) || "java.lang".equals(p)) return n;
+         String sn = top.getSimpleName();
+         if (!imports.containsKey(sn)) {
+            boolean taken;
+            try {
+               Class.forName(pack+"."+sn);
+               taken = true;
+            } catch (ClassNotFoundException CNFe) {
+               taken = false;
+            }
+            imports.put(sn, taken ? null : top.getName());
+         }
+         return top.getName().equals(imports.get(sn)) ? n : c.getCanonicalName();
+      } else if (t instanceof ParameterizedType) {
+         String s = sourceName(((ParameterizedType) t).getRawType(), pack, imports)+"<";
+         for (Type a: ((ParameterizedType) t).getActualTypeArguments())
+            s += sourceName(a, pack, imports)+",";
+         return s.replaceAll(",$", ">");
+      } else if (t instanceof GenericArrayType) {
+         return sourceName(((GenericArrayType) t).getGenericComponentType(), pack, imports)+"[]";
+      } else if (t instanceof WildcardType) {
+         WildcardType w = (WildcardType) t;
+         if (0 < w.getLowerBounds().length)
+            return "? super "+sourceName(w.getLowerBounds()[0], pack, imports);
+         if (0 < w.getUpperBounds().length && !Object.class.equals(w.getUpperBounds()[0]))
+            return "? extends "+sourceName(w.getUpperBounds()[0], pack, imports);
+         return "?";
+      } else 
+         return t.toString();
+   }
+   private static String boxed(Class<?> c)
+   {
+      if (!c.isPrimitive()) return null;
+      if (Boolean.TYPE.equals(c)) return "Boolean";
+      if (Byte.TYPE.equals(c)) return "Byte";
+      if (Short.TYPE.equals(c)) return "Short";
+      if (Integer.TYPE.equals(c)) return "Integer";
+      if (Long.TYPE.equals(c)) return "Long";
+      return "Double";
+   }
+   /**
+    * Outputs a stub implementing a compiled interface, which calls remote
+    * objects without a dynamic proxy.
+    * @param iface The interface.
+    */
+   public void createStub(Class<? extends DBusInterface> iface) throws DBusException, IOException
+   {
+      if (null != iface.getEnclosingClass() || !iface.isInterface())
+         throw new DBusException(_("Stubs can only be created for top-level interfaces: ")+iface.getName());
+      String pack = iface.getPackage().getName();
+      String name = iface.getSimpleName()+"Stub";
+      String dbusname = iface.isAnnotationPresent(DBusInterfaceName.class) 
+         ? iface.getAnnotation(DBusInterfaceName.class).value()
+         : iface.getName();
+
+      Method[] ms = iface.getMethods();
+      Arrays.sort(ms, new Comparator<Method>() {
+            public int compare(Method a, Method b)
+            {
+               int c = a.getName().compareTo(b.getName());
+               if (0 != c) return c;
+               return Arrays.toString(a.getParameterTypes()).compareTo(Arrays.toString(b.getParameterTypes()));
+            }
+         });
+
+      String constants = "";
+      String methods = "";
+      Set<String> names = new TreeSet<String>();
+      Map<String,String> imports = new HashMap<String,String>();
+      imports.put("RemoteStub", "org.freedesktop.dbus.RemoteStub");
+      for (Method m: ms) {
+         if (DBusInterface.class.equals(m.getDeclaringClass())) continue;
+         if (0 < m.getTypeParameters().length)
+            throw new DBusException(_("Stubs cannot be created for generic methods: ")+m);
+
+         String member = m.isAnnotationPresent(DBusMemberName.class) 
+            ? m.getAnnotation(DBusMemberName.class).value()
+            : m.getName();
+         Type[] ts = m.getGenericParameterTypes();
+         String sig = 0 == ts.length ? "null" : '"'+Marshalling.getDBusType(ts)+'"';
+         Type rt = m.getGenericReturnType();
+         boolean isvoid = Void.TYPE.equals(m.getReturnType());
+         boolean noreply = m.isAnnotationPresent(DBus.Method.NoReply.class);
+         if (noreply && !isvoid && m.getReturnType().isPrimitive())
+            throw new DBusException(_("NoReply methods cannot return primitive values: ")+m);
+
+         String constant = m.getName().toUpperCase();
+         for (int k = 1; names.contains(constant); k++)
+            constant = m.getName().toUpperCase()+"_"+k;
+         names.add(constant);
+
+         String lookup = "method("+iface.getSimpleName()+".class, \""+m.getName()+"\"";
+         for (Class<?> c: m.getParameterTypes())
+            lookup += ", "+sourceName(c, pack, imports)+".class";
+         lookup += ")";
+
+         String params = "";
+         String args = "";
+         boolean direct = true;
+         for (int j = 0; j < ts.length; j++) {
+            params += sourceName(ts[j], pack, imports)+" a"+j+", ";
+            args += ", a"+j;
+            direct &= isDirectParameter(ts[j]);
+         }
+         if (!direct) {
+            imports.put("Type", "java.lang.reflect.Type");
+            constants += "   private static final Type[] "+constant+"_ARGS = "+lookup+".getGenericParameterTypes();\n";
+            args = ", convert("+constant+"_ARGS"+args+")";
+         }
+         String target = "IFACE, \""+member+"\", "+sig+args;
+         String timeout = m.isAnnotationPresent(DBusTimeout.class)
+            ? m.getAnnotation(DBusTimeout.class).value()+", "
+            : "";
+
+         String rtype = isvoid ? "void" : sourceName(rt, pack, imports);
+         methods += "   public "+rtype+" "+m.getName()+"("+params.replaceAll(", $", "")+")\n";
+         methods += "   {\n";
+         if (noreply) {
+            methods += "      callNoReply("+target+");\n";
+            if (!isvoid) methods += "      return null;\n";
+         } else if (isvoid)
+            methods += "      callRaw("+timeout+target+");\n";
+         else if (isDirectReturn(rt)) {
+            String cast = m.getReturnType().isPrimitive() ? boxed(m.getReturnType()) : rtype;
+            methods += "      return ("+cast+") call("+timeout+target+");\n";
+         } else {
+            imports.put("Method", "java.lang.reflect.Method");
+            constants += "   private static final Method "+constant+" = "+lookup+";\n";
+            methods += "      return ("+rtype+") call("+timeout+constant+", "+target+");\n";
+         }
+         methods += "   }\n";
+      }
+
+      String path = pack.replaceAll("\\.", "/");
+      factory.init(name+".java", path);
+      PrintStream out = factory.createPrintStream(path, name);
+      out.println("/* Generated by CreateInterface --stubs from "+iface.getName()+". Do not edit. */");
+      out.println("package "+pack+";");
+      out.println();
+      Set<String> sorted = new TreeSet<String>();
+      for (String i: imports.values())
+         if (null != i) sorted.add(i);
+      for (String i: sorted)
+         out.println("import "+i+";");
+      out.println();
+      out.println("/** Calls "+dbusname+" on remote objects. */");
+      out.println("@SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+      out.println("public final class "+name+" extends RemoteStub implements "+iface.getSimpleName());
+      out.println("{");
+      out.println("   private static final String IFACE = \""+dbusname+"\";");
+      out.print(constants);
+      out.println();
+      out.print(methods);
+      out.println("}");
+      out.flush();
+   }
    private void createAnnotations(Set<String> annotations) throws DBusException, IOException
    {
       for (String fqn: annotations) {
@@ -588,6 +818,8 @@ public class CreateInterface
       boolean printtree = false;
       boolean fileout = false;
       boolean builtin = false;
+      boolean stubs = false;
+      Vector<String> interfaces = new Vector<String>();
    }
 
    static void printSyntax()
@@ -597,6 +829,7 @@ public class CreateInterface
    static void printSyntax(PrintStream o)
    {
       o.println("Syntax: CreateInterface <options> [file | busname object]");
+      o.println("        CreateInterface --stubs <options> interface-class...");
       o.println("        Options: --no-ignore-builtin --system -y --session -s --create-files -f --help -h --version -v");
    }
    public static void version()
@@ -619,6 +852,8 @@ public class CreateInterface
             config.fileout = true;
          else if ("--print-tree".equals(p) || "-p".equals(p)) 
             config.printtree = true;
+         else if ("--stubs".equals(p)) 
+            config.stubs = true;
          else if ("--help".equals(p) || "-h".equals(p)) {
             printSyntax(System.out);
             System.exit(0);
@@ -630,6 +865,8 @@ public class CreateInterface
             printSyntax();
             System.exit(1);
          }
+         else if (config.stubs)
+            config.interfaces.add(p);
          else {
             if (null == config.busname) config.busname = p;
             else if (null == config.object) config.object = p;
@@ -639,7 +876,12 @@ public class CreateInterface
             }
          }
       }
-      if (null == config.busname) {
+      if (config.stubs) {
+         if (0 == config.interfaces.size()) {
+            printSyntax();
+            System.exit(1);
+         }
+      } else if (null == config.busname) {
          printSyntax();
          System.exit(1);
       }
@@ -650,10 +892,29 @@ public class CreateInterface
       return config;
    }
 
+   @SuppressWarnings("unchecked")
    public static void main(String[] args) throws Exception
    {
       Config config = parseParams(args);
 
+      if (config.stubs) {
+         PrintStreamFactory factory = config.fileout  ? new FileStreamFactory() : new ConsoleStreamFactory();
+         CreateInterface createInterface = new CreateInterface(factory, config.builtin);
+         for (String name: config.interfaces) try {
+            Class<?> c = Class.forName(name);
+            if (!DBusInterface.class.isAssignableFrom(c)) 
+               throw new DBusException(_("Not A DBus Interface: ")+name);
+            createInterface.createStub((Class<? extends DBusInterface>) c);
+         } catch (ClassNotFoundException CNFe) {
+            System.err.println(_("ERROR: Could not find interface: ")+name);
+            System.exit(1);
+         } catch (DBusException DBe) {
+            System.err.println("ERROR: "+DBe.getMessage());
+            System.exit(1);
+         }
+         return;
+      }
+
       Reader introspectdata = null;
 
       if (null != config.busname) try {
@@ -0,0 +1,487 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.freedesktop.DBus.Peer;
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.Message;
+import org.freedesktop.dbus.MessageReader;
+import org.freedesktop.dbus.MessageWriter;
+import org.freedesktop.dbus.MethodCall;
+import org.freedesktop.dbus.MethodReturn;
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.UInt16;
+import org.freedesktop.dbus.UInt32;
+import org.freedesktop.dbus.Variant;
+import org.ofono.ConnectionManager;
+import org.ofono.MessageManager;
+import org.ofono.NetworkRegistration;
+import org.ofono.StructPathAndProps;
+
+/**
+ * Repeatable benchmarks of the profile scenarios and of oFono shaped
+ * payloads, written as JSON so that runs can be compared.
+ *
+ * Each benchmark is warmed up until one iteration takes ITERATION_MS,
+ * then timed over ITERATIONS iterations of the same number of operations;
+ * the score is the mean time per operation, with its spread.
+ *
+ * The inproc benchmarks marshall messages, and read and demarshall them
+ * from a byte stream, without a socket. Given a bus address, such as
+ * that of a local DBusDaemon, the bus benchmarks also make the same
+ * calls and send the same signals from one connection to another.
+ *
+ * Usage: bench_suite [-o results.json] [-f filter] [address]
+ */
+public class bench_suite
+{
+   public static final int ITERATION_MS = 200;
+   public static final int WARMUP = 5;
+   public static final int ITERATIONS = 10;
+   /** Messages written to the stream each decoding benchmark reads again and again. */
+   public static final int STREAM = 256;
+
+   /** Something to time; run performs a number of operations. */
+   abstract static class Bench
+   {
+      final String name;
+      Bench(String name)
+      {
+         this.name = name;
+      }
+      abstract void run(int ops) throws Exception;
+   }
+
+   /** The timings of one benchmark, in ns per operation. */
+   static class Result
+   {
+      final String name;
+      final int ops;
+      final double[] raw;
+      Result(String name, int ops, double[] raw)
+      {
+         this.name = name;
+         this.ops = ops;
+         this.raw = raw;
+      }
+      double mean()
+      {
+         double sum = 0;
+         for (double d: raw) sum += d;
+         return sum / raw.length;
+      }
+      double stddev()
+      {
+         double mean = mean();
+         double sum = 0;
+         for (double d: raw) sum += (d-mean)*(d-mean);
+         return Math.sqrt(sum / (raw.length-1));
+      }
+      double min()
+      {
+         double m = Double.MAX_VALUE;
+         for (double d: raw) if (d < m) m = d;
+         return m;
+      }
+      double max()
+      {
+         double m = 0;
+         for (double d: raw) if (d > m) m = d;
+         return m;
+      }
+   }
+
+   static Result measure(Bench b) throws Exception
+   {
+      // find how many operations take an iteration, then warm up on that
+      int ops = 1;
+      for (;;) {
+         long t = System.nanoTime();
+         b.run(ops);
+         t = System.nanoTime() - t;
+         if (t >= ITERATION_MS * 1000000L || ops >= (1 << 24)) break;
+         ops = t < 1000000 ? ops * 8 : (int) Math.min(1 << 24, Math.max(ops * 2L, ops * ITERATION_MS * 1000000L / t));
+      }
+      for (int i = 0; i < WARMUP; i++)
+         b.run(ops);
+      double[] raw = new double[ITERATIONS];
+      for (int i = 0; i < ITERATIONS; i++) {
+         long t = System.nanoTime();
+         b.run(ops);
+         raw[i] = (double) (System.nanoTime() - t) / ops;
+      }
+      return new Result(b.name, ops, raw);
+   }
+
+   static Map<String,Variant<?>> properties(int n)
+   {
+      Map<String,Variant<?>> props = new HashMap<String,Variant<?>>();
+      props.put("Status", new Variant<String>("registered"));
+      props.put("Mode", new Variant<String>("auto"));
+      props.put("Name", new Variant<String>("Operator"));
+      props.put("MobileCountryCode", new Variant<String>("310"));
+      props.put("MobileNetworkCode", new Variant<String>("260"));
+      props.put("Technology", new Variant<String>("lte"));
+      props.put("Strength", new Variant<Byte>((byte) 67));
+      props.put("LocationAreaCode", new Variant<UInt16>(new UInt16(4711)));
+      props.put("CellId", new Variant<UInt32>(new UInt32(123456789L)));
+      props.put("Powered", new Variant<Boolean>(true));
+      props.put("Online", new Variant<Boolean>(true));
+      props.put("Features", new Variant<String[]>(new String[] { "gprs", "sms", "net" }, "as"));
+      for (int i = props.size(); i < n; i++)
+         props.put("Property"+i, new Variant<String>("value "+i));
+      return props;
+   }
+   static List<StructPathAndProps> contexts()
+   {
+      List<StructPathAndProps> l = new Vector<StructPathAndProps>();
+      for (int i = 1; i <= 3; i++) {
+         Map<String,Variant<?>> props = new HashMap<String,Variant<?>>();
+         props.put("Active", new Variant<Boolean>(1 == i));
+         props.put("AccessPointName", new Variant<String>("internet"+i));
+         props.put("Type", new Variant<String>(1 == i ? "internet" : "mms"));
+         props.put("Username", new Variant<String>(""));
+         props.put("Password", new Variant<String>(""));
+         props.put("Protocol", new Variant<String>("ip"));
+         props.put("Name", new Variant<String>("Context "+i));
+         l.add(new StructPathAndProps(new Path("/ril_0/context"+i), props));
+      }
+      return l;
+   }
+   static Object[] contextsWire(List<StructPathAndProps> contexts)
+   {
+      List<Object[]> l = new Vector<Object[]>();
+      for (StructPathAndProps c: contexts)
+         l.add(new Object[] { c.path, c.props });
+      return new Object[] { l };
+   }
+
+   /** A message to marshall and demarshall, made afresh for each operation. */
+   interface Maker
+   {
+      Message make() throws Exception;
+   }
+
+   static void inproc(List<Bench> benches, String name, final Maker maker) throws Exception
+   {
+      benches.add(new Bench("inproc.encode."+name) {
+         void run(int ops) throws Exception
+         {
+            for (int i = 0; i < ops; i++)
+               maker.make();
+         }
+      });
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      MessageWriter out = new MessageWriter(bytes);
+      Message m = maker.make();
+      for (int i = 0; i < STREAM; i++)
+         out.writeMessage(m);
+      out.close();
+      final byte[] stream = bytes.toByteArray();
+      benches.add(new Bench("inproc.decode."+name) {
+         void run(int ops) throws Exception
+         {
+            MessageReader in = null;
+            for (int i = 0; i < ops; i++) {
+               if (0 == i % STREAM) in = new MessageReader(new ByteArrayInputStream(stream));
+               in.readMessage().getParameters();
+            }
+         }
+      });
+   }
+
+   static List<Bench> inproc() throws Exception
+   {
+      List<Bench> benches = new ArrayList<Bench>();
+      final String profiler = "org.freedesktop.dbus.test.Profiler";
+      final Random r = new Random(0);
+
+      inproc(benches, "ping", new Maker() {
+         public Message make() throws Exception
+         {
+            return new MethodCall("org.freedesktop.DBus", "/", "org.freedesktop.DBus.Peer", "Ping", (byte) 0, null);
+         }
+      });
+      inproc(benches, "signal", new Maker() {
+         public Message make() throws Exception
+         {
+            return new DBusSignal(null, "/", profiler, "ProfileSignal", null);
+         }
+      });
+      final ProfileStruct ps = new ProfileStruct("hello", new UInt32(18), 500L);
+      inproc(benches, "struct", new Maker() {
+         public Message make() throws Exception
+         {
+            return new MethodCall(":1.3", "/Profiler", profiler, "struct", (byte) 0, "(sux)", ps);
+         }
+      });
+      final Vector<String> list = new Vector<String>();
+      for (int i = 0; i < profile.LIST_LENGTH; i++)
+         list.add("hello "+i);
+      inproc(benches, "list", new Maker() {
+         public Message make() throws Exception
+         {
+            return new MethodCall(":1.3", "/Profiler", profiler, "list", (byte) 0, "as", list);
+         }
+      });
+      final HashMap<String,String> map = new HashMap<String,String>();
+      for (int i = 0; i < profile.MAP_LENGTH; i++)
+         map.put(""+i, "hello");
+      inproc(benches, "map", new Maker() {
+         public Message make() throws Exception
+         {
+            return new MethodCall(":1.3", "/Profiler", profiler, "map", (byte) 0, "a{ss}", map);
+         }
+      });
+      final int[] array = new int[profile.ARRAY_LENGTH];
+      for (int i = 0; i < array.length; i++) array[i] = r.nextInt();
+      inproc(benches, "array", new Maker() {
+         public Message make() throws Exception
+         {
+            return new MethodCall(":1.3", "/Profiler", profiler, "array", (byte) 0, "ai", array);
+         }
+      });
+      final String[] strings = new String[profile.STRING_ARRAY_LENGTH];
+      for (int i = 0; i < strings.length; i++) strings[i] = ""+r.nextInt();
+      inproc(benches, "stringarray", new Maker() {
+         public Message make() throws Exception
+         {
+            return new MethodCall(":1.3", "/Profiler", profiler, "stringarray", (byte) 0, "as", (Object) strings);
+         }
+      });
+
+      final Map<String,Variant<?>> props = properties(20);
+      inproc(benches, "ofono.GetProperties", new Maker() {
+         public Message make() throws Exception
+         {
+            return new MethodReturn(":1.3", 7, "a{sv}", props);
+         }
+      });
+      inproc(benches, "ofono.PropertyChanged", new Maker() {
+         public Message make() throws Exception
+         {
+            return new DBusSignal(null, "/ril_0", "org.ofono.NetworkRegistration", "PropertyChanged", "sv", "Strength", new Variant<Byte>((byte) 67));
+         }
+      });
+      final byte[] pdu = new byte[176];
+      r.nextBytes(pdu);
+      inproc(benches, "ofono.IncomingPdu", new Maker() {
+         public Message make() throws Exception
+         {
+            return new DBusSignal(null, "/ril_0", "org.ofono.MessageManager", "IncomingPdu", "ayy", pdu, (byte) 160);
+         }
+      });
+      final Object[] contexts = contextsWire(contexts());
+      inproc(benches, "ofono.GetContexts", new Maker() {
+         public Message make() throws Exception
+         {
+            return new MethodReturn(":1.3", 7, "a(oa{sv})", contexts);
+         }
+      });
+      return benches;
+   }
+
+   /** Counts signals received, so a sender can wait for them all. */
+   static class Counter<T extends DBusSignal> implements DBusSigHandler<T>
+   {
+      final AtomicLong count = new AtomicLong();
+      public void handle(T s)
+      {
+         synchronized (this) {
+            count.incrementAndGet();
+            notifyAll();
+         }
+      }
+      synchronized void await(long n) throws InterruptedException
+      {
+         while (count.get() < n) wait(10000);
+      }
+   }
+
+   /** Sends a signal ops times and waits for the other end to handle them all. */
+   static <T extends DBusSignal> Bench signals(String name, final DBusConnection from, DBusConnection to, Class<T> type, final T signal) throws Exception
+   {
+      final Counter<T> counter = new Counter<T>();
+      to.addSigHandler(type, counter);
+      return new Bench("bus.signal."+name) {
+         void run(int ops) throws Exception
+         {
+            long end = counter.count.get() + ops;
+            for (int i = 0; i < ops; i++)
+               from.sendSignal(signal);
+            counter.await(end);
+         }
+      };
+   }
+
+   static List<Bench> bus(String address, List<DBusConnection> conns) throws Exception
+   {
+      List<Bench> benches = new ArrayList<Bench>();
+      // a separate connection for each end
+      final DBusConnection server = DBusConnection.getConnection(address+",end=server");
+      final DBusConnection client = DBusConnection.getConnection(address+",end=client");
+      conns.add(client);
+      conns.add(server);
+      String name = server.getUniqueName();
+      final Random r = new Random(0);
+
+      server.exportObject("/Profiler", new ProfilerInstance());
+      final Peer peer = client.getRemoteObject(name, "/Profiler", Peer.class);
+      final Profiler p = client.getRemoteObject(name, "/Profiler", Profiler.class);
+      benches.add(new Bench("bus.call.ping") {
+         void run(int ops) { for (int i = 0; i < ops; i++) peer.Ping(); }
+      });
+      final ProfileStruct ps = new ProfileStruct("hello", new UInt32(18), 500L);
+      benches.add(new Bench("bus.call.struct") {
+         void run(int ops) { for (int i = 0; i < ops; i++) p.struct(ps); }
+      });
+      final Vector<String> list = new Vector<String>();
+      for (int i = 0; i < profile.LIST_LENGTH; i++)
+         list.add("hello "+i);
+      benches.add(new Bench("bus.call.list") {
+         void run(int ops) { for (int i = 0; i < ops; i++) p.list(list); }
+      });
+      final HashMap<String,String> map = new HashMap<String,String>();
+      for (int i = 0; i < profile.MAP_LENGTH; i++)
+         map.put(""+i, "hello");
+      benches.add(new Bench("bus.call.map") {
+         void run(int ops) { for (int i = 0; i < ops; i++) p.map(map); }
+      });
+      final int[] array = new int[profile.ARRAY_LENGTH];
+      for (int i = 0; i < array.length; i++) array[i] = r.nextInt();
+      benches.add(new Bench("bus.call.array") {
+         void run(int ops) { for (int i = 0; i < ops; i++) p.array(array); }
+      });
+      final String[] strings = new String[profile.STRING_ARRAY_LENGTH];
+      for (int i = 0; i < strings.length; i++) strings[i] = ""+r.nextInt();
+      benches.add(new Bench("bus.call.stringarray") {
+         void run(int ops) { for (int i = 0; i < ops; i++) p.stringarray(strings); }
+      });
+      benches.add(signals("signal", client, server, Profiler.ProfileSignal.class, new Profiler.ProfileSignal("/")));
+
+      final Map<String,Variant<?>> props = properties(20);
+      final List<StructPathAndProps> contexts = contexts();
+      server.exportObject("/ril_0", (DBusInterface) Proxy.newProxyInstance(bench_suite.class.getClassLoader(),
+            new Class<?>[] { NetworkRegistration.class, ConnectionManager.class },
+            new InvocationHandler() {
+               public Object invoke(Object proxy, Method m, Object[] a)
+               {
+                  if ("isRemote".equals(m.getName())) return false;
+                  if ("GetProperties".equals(m.getName())) return props;
+                  if ("GetContexts".equals(m.getName())) return contexts;
+                  return null;
+               }
+            }));
+      final NetworkRegistration netreg = client.getRemoteObject(name, "/ril_0", NetworkRegistration.class);
+      final ConnectionManager connman = client.getRemoteObject(name, "/ril_0", ConnectionManager.class);
+      benches.add(new Bench("bus.call.ofono.GetProperties") {
+         void run(int ops) { for (int i = 0; i < ops; i++) netreg.GetProperties(); }
+      });
+      benches.add(new Bench("bus.call.ofono.GetContexts") {
+         void run(int ops) { for (int i = 0; i < ops; i++) connman.GetContexts(); }
+      });
+      benches.add(signals("ofono.PropertyChanged", server, client, NetworkRegistration.PropertyChanged.class,
+            new NetworkRegistration.PropertyChanged("/ril_0", "Strength", new Variant<Byte>((byte) 67))));
+      byte[] pdu = new byte[176];
+      r.nextBytes(pdu);
+      benches.add(signals("ofono.IncomingPdu", server, client, MessageManager.IncomingPdu.class,
+            new MessageManager.IncomingPdu("/ril_0", pdu, (byte) 160)));
+      return benches;
+   }
+
+   static String json(String s)
+   {
+      StringBuilder sb = new StringBuilder("\"");
+      for (char c: s.toCharArray()) {
+         if ('"' == c || '\\' == c) sb.append('\\').append(c);
+         else if (c < ' ') sb.append(String.format("\\u%04x", (int) c));
+         else sb.append(c);
+      }
+      return sb.append('"').toString();
+   }
+   static void write(PrintWriter out, String address, List<Result> results)
+   {
+      out.println("{");
+      out.println("  \"java\": "+json(System.getProperty("java.version"))+",");
+      out.println("  \"timestamp\": "+System.currentTimeMillis()+",");
+      out.println("  \"address\": "+(null == address ? "null" : json(address))+",");
+      out.println("  \"iterationMs\": "+ITERATION_MS+",");
+      out.println("  \"results\": [");
+      for (int i = 0; i < results.size(); i++) {
+         Result r = results.get(i);
+         StringBuilder raw = new StringBuilder();
+         for (double d: r.raw) {
+            if (0 != raw.length()) raw.append(", ");
+            raw.append(String.format(Locale.ROOT, "%.1f", d));
+         }
+         out.println("    { \"benchmark\": "+json(r.name)+", \"mode\": \"avgt\", \"unit\": \"ns/op\", \"ops\": "+r.ops
+               +", \"iterations\": "+r.raw.length
+               +String.format(Locale.ROOT, ", \"score\": %.1f, \"stddev\": %.1f, \"min\": %.1f, \"max\": %.1f", r.mean(), r.stddev(), r.min(), r.max())
+               +", \"rawData\": ["+raw+"] }"+(i < results.size() - 1 ? "," : ""));
+      }
+      out.println("  ]");
+      out.println("}");
+      out.flush();
+   }
+
+   public static void main(String[] args) throws Exception
+   {
+      String file = null;
+      String filter = null;
+      String address = null;
+      for (int i = 0; i < args.length; i++) {
+         if ("-o".equals(args[i]) && i+1 < args.length) file = args[++i];
+         else if ("-f".equals(args[i]) && i+1 < args.length) filter = args[++i];
+         else if (null == address && !args[i].startsWith("-")) address = args[i];
+         else {
+            System.out.println("Usage: bench_suite [-o results.json] [-f filter] [address]");
+            System.exit(1);
+         }
+      }
+      List<DBusConnection> conns = new ArrayList<DBusConnection>();
+      List<Bench> benches = inproc();
+      if (null != address) benches.addAll(bus(address, conns));
+      List<Result> results = new ArrayList<Result>();
+      for (Bench b: benches) {
+         if (null != filter && !b.name.contains(filter)) continue;
+         Result r = measure(b);
+         System.err.println(String.format("%-34s %12.1f ns/op +- %.1f", b.name, r.mean(), r.stddev()));
+         results.add(r);
+      }
+      for (DBusConnection c: conns)
+         c.disconnect();
+      PrintWriter out = null == file
+         ? new PrintWriter(new OutputStreamWriter(System.out, "UTF-8"))
+         : new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+      write(out, address, results);
+      if (null != file) out.close();
+   }
+}
@@ -0,0 +1,65 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus.test;
+
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.Path;
+
+/**
+ * Measures the time taken to issue a method call, that is everything
+ * from invoking the proxy to queueing the message, without waiting for
+ * replies. Connects to the bus at the address given, or the session bus.
+ */
+public class call_bench
+{
+   public static final int CALLS = 1000;
+   public static final int ROUNDS = 50;
+
+   interface Issue { void call() throws Exception; }
+
+   /** Best time in ns to issue one call. */
+   static long time(Issue issue) throws Exception
+   {
+      long best = Long.MAX_VALUE;
+      for (int r = 0; r < ROUNDS; r++) {
+         long t = System.nanoTime();
+         for (int i = 0; i < CALLS; i++)
+            issue.call();
+         t = System.nanoTime() - t;
+         if (t < best) best = t;
+         // let the queue drain so it does not grow without bound
+         Thread.sleep(20);
+      }
+      return best / CALLS;
+   }
+
+   public static void main(String[] args) throws Exception
+   {
+      final DBusConnection conn = 0 == args.length
+         ? DBusConnection.getConnection(DBusConnection.SESSION)
+         : DBusConnection.getConnection(args[0]);
+      // nothing is exported, so calls which expect a reply get an error
+      final TestRemoteInterface remote = conn.getRemoteObject(conn.getUniqueName(), "/Test", TestRemoteInterface.class);
+      final Path path = new Path("/Test/Path");
+
+      System.out.println("call\tns per call");
+      System.out.println("proxy, no reply\t"+time(new Issue() {
+         public void call() { remote.waitawhile(); }
+      }));
+      System.out.println("async, no arguments\t"+time(new Issue() {
+         public void call() { conn.callMethodAsync(remote, "getName"); }
+      }));
+      System.out.println("async, object path\t"+time(new Issue() {
+         public void call() { conn.callMethodAsync(remote, "pathrv", path); }
+      }));
+      conn.disconnect();
+   }
+}
@@ -0,0 +1,209 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.Variant;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.ofono.MessageManager;
+import org.ofono.Modem;
+import org.ofono.NetworkRegistration;
+import org.ofono.VoiceCallManager;
+
+/**
+ * Checks that coalesced PropertyChanged signals arriving faster than they
+ * are handled still end at the latest value of each property, arrive in
+ * the order sent, and that signals which are not coalesced all arrive.
+ * Also checks that neither a call nor a message signal overtakes the
+ * modem Interfaces change queued before it on the same path, which
+ * creates its handler in the RIL, even with several worker threads, nor
+ * one sent after it is replaced by a later change.
+ *
+ * Usage: coalesce_test address
+ */
+public class coalesce_test
+{
+   public static final int UPDATES = 3000;
+   public static final String[] PROPERTIES = { "Strength", "CellId", "LocationAreaCode" };
+   /** Updates sent between calls and messages. */
+   public static final int SPACING = 100;
+
+   static int failures = 0;
+
+   static void check(boolean ok, String what)
+   {
+      if (!ok) {
+         System.out.println("FAILED: "+what);
+         failures++;
+      }
+   }
+
+   public static void main(String[] args) throws Exception
+   {
+      if (1 != args.length) {
+         System.out.println("Usage: coalesce_test address");
+         System.exit(1);
+      }
+      // a separate connection for each end
+      DBusConnection modem = DBusConnection.getConnection(args[0]+",end=modem");
+      DBusConnection ril = DBusConnection.getConnection(args[0]+",end=ril");
+      ril.changeThreadCount((byte) 1);
+
+      try {
+         ril.setSignalCoalescing(VoiceCallManager.CallAdded.class, true);
+         check(false, "CallAdded accepted for coalescing");
+      } catch (DBusException DBe) {}
+      try {
+         ril.setSignalCoalescing(MessageManager.IncomingPdu.class, true);
+         check(false, "IncomingPdu accepted for coalescing");
+      } catch (DBusException DBe) {}
+      ril.setSignalCoalescing(NetworkRegistration.PropertyChanged.class, true);
+      ril.setSignalCoalescing(Modem.PropertyChanged.class, true);
+
+      final int others = UPDATES / SPACING;
+      final Map<String, Integer> last = new HashMap<String, Integer>();
+      final AtomicInteger updates = new AtomicInteger();
+      final AtomicInteger reordered = new AtomicInteger();
+      final CountDownLatch calls = new CountDownLatch(others);
+      final CountDownLatch pdus = new CountDownLatch(others);
+      final CountDownLatch done = new CountDownLatch(1);
+      final CountDownLatch called = new CountDownLatch(1);
+      final CountDownLatch received = new CountDownLatch(1);
+      final AtomicInteger interfaces = new AtomicInteger();
+      final AtomicInteger overtaken = new AtomicInteger();
+      final List<String> seen = Collections.synchronizedList(new ArrayList<String>());
+      final CountDownLatch removal = new CountDownLatch(2);
+      ril.addSigHandler(NetworkRegistration.PropertyChanged.class, new DBusSigHandler<NetworkRegistration.PropertyChanged>() {
+         public void handle(NetworkRegistration.PropertyChanged s)
+         {
+            if ("Status".equals(s.name)) {
+               done.countDown();
+               return;
+            }
+            if ("Name".equals(s.name)) {
+               // keeps the worker busy while the signals after it queue up
+               signal_priority_bench.work(200000);
+               return;
+            }
+            int v = (Integer) s.value.getValue();
+            Integer prev = last.put(s.name, v);
+            if (null != prev && prev >= v) reordered.incrementAndGet();
+            updates.incrementAndGet();
+            signal_priority_bench.work(200);
+         }
+      });
+      ril.addSigHandler(VoiceCallManager.CallAdded.class, new DBusSigHandler<VoiceCallManager.CallAdded>() {
+         public void handle(VoiceCallManager.CallAdded s)
+         {
+            if ("/ril_0/voicecall-removed".equals(s.path.getPath())) {
+               seen.add("CallAdded");
+               removal.countDown();
+               return;
+            }
+            if (!"/ril_0/voicecall-after".equals(s.path.getPath())) {
+               calls.countDown();
+               return;
+            }
+            if (0 == interfaces.get()) overtaken.incrementAndGet();
+            called.countDown();
+         }
+      });
+      ril.addSigHandler(Modem.PropertyChanged.class, new DBusSigHandler<Modem.PropertyChanged>() {
+         public void handle(Modem.PropertyChanged s)
+         {
+            if ("Powered".equals(s.name)) {
+               // keeps the lane busy while the signals after it queue up
+               signal_priority_bench.work(200000);
+               return;
+            }
+            if (!"Interfaces".equals(s.name)) return;
+            // long enough for a signal queued after it to finish first, were it run in parallel
+            signal_priority_bench.work(200000);
+            interfaces.incrementAndGet();
+            List<?> v = (List<?>) s.value.getValue();
+            if (v.isEmpty()) {
+               seen.add("Interfaces="+v);
+               removal.countDown();
+            }
+         }
+      });
+      ril.addSigHandler(MessageManager.IncomingPdu.class, new DBusSigHandler<MessageManager.IncomingPdu>() {
+         public void handle(MessageManager.IncomingPdu s)
+         {
+            if (0 != s.tpdu_len) {
+               pdus.countDown();
+               return;
+            }
+            if (2 > interfaces.get()) overtaken.incrementAndGet();
+            received.countDown();
+         }
+      });
+
+      Map<String, Variant<?>> props = new HashMap<String, Variant<?>>();
+      for (int i = 0; i < UPDATES; i++) {
+         modem.sendSignal(new NetworkRegistration.PropertyChanged("/ril_0", PROPERTIES[i % PROPERTIES.length], new Variant<Integer>(i)));
+         if (0 == i % SPACING) {
+            modem.sendSignal(new VoiceCallManager.CallAdded("/ril_0", new Path("/ril_0/voicecall"+i), props));
+            modem.sendSignal(new MessageManager.IncomingPdu("/ril_0", new byte[] { (byte) i }, (byte) 1));
+         }
+      }
+      // sent last, so handled last
+      modem.sendSignal(new NetworkRegistration.PropertyChanged("/ril_0", "Status", new Variant<String>("registered")));
+
+      check(done.await(60, TimeUnit.SECONDS), "updates handled");
+      check(calls.await(10, TimeUnit.SECONDS), "all CallAdded handled");
+      check(pdus.await(10, TimeUnit.SECONDS), "all IncomingPdu handled");
+      for (int p = 0; p < PROPERTIES.length; p++) {
+         int expect = UPDATES - PROPERTIES.length + p;
+         check(Integer.valueOf(expect).equals(last.get(PROPERTIES[p])), PROPERTIES[p]+" ends at "+expect+", not "+last.get(PROPERTIES[p]));
+      }
+      check(0 == reordered.get(), reordered+" updates out of order");
+
+      modem.sendSignal(new NetworkRegistration.PropertyChanged("/ril_0", "Name", new Variant<String>("Operator")));
+      modem.sendSignal(new Modem.PropertyChanged("/ril_0", "Interfaces", new Variant<String[]>(new String[] { "org.ofono.VoiceCallManager" }, "as")));
+      modem.sendSignal(new VoiceCallManager.CallAdded("/ril_0", new Path("/ril_0/voicecall-after"), props));
+      // handled before the next Interfaces change, which would otherwise replace this one
+      check(called.await(10, TimeUnit.SECONDS), "CallAdded after Interfaces handled");
+      ril.changeThreadCount((byte) 4);
+      modem.sendSignal(new Modem.PropertyChanged("/ril_0", "Interfaces", new Variant<String[]>(new String[] { "org.ofono.MessageManager" }, "as")));
+      modem.sendSignal(new MessageManager.IncomingPdu("/ril_0", new byte[] { 0 }, (byte) 0));
+      check(received.await(10, TimeUnit.SECONDS), "IncomingPdu after Interfaces handled");
+      check(0 == overtaken.get(), overtaken+" of CallAdded and IncomingPdu ran before the Interfaces change queued before them");
+      long coalesced = ril.getDispatchStats().coalesced;
+      check(coalesced > 0, "updates coalesced");
+      check(updates.get() + coalesced == UPDATES, updates+" handled and "+coalesced+" coalesced of "+UPDATES);
+
+      // the last Interfaces change replaces the first, but is still handled after the call
+      modem.sendSignal(new Modem.PropertyChanged("/ril_0", "Powered", new Variant<Boolean>(true)));
+      modem.sendSignal(new Modem.PropertyChanged("/ril_0", "Interfaces", new Variant<String[]>(new String[] { "org.ofono.VoiceCallManager" }, "as")));
+      modem.sendSignal(new VoiceCallManager.CallAdded("/ril_0", new Path("/ril_0/voicecall-removed"), props));
+      modem.sendSignal(new Modem.PropertyChanged("/ril_0", "Interfaces", new Variant<String[]>(new String[0], "as")));
+      check(removal.await(10, TimeUnit.SECONDS), "CallAdded and Interfaces removal handled");
+      check(Arrays.asList("CallAdded", "Interfaces=[]").equals(seen), "handled "+seen+", not CallAdded before Interfaces=[]");
+
+      System.out.println(UPDATES+" updates: "+updates+" handled, "+coalesced+" coalesced, "+failures+" failures");
+      ril.disconnect();
+      modem.disconnect();
+      if (0 != failures) System.exit(1);
+   }
+}
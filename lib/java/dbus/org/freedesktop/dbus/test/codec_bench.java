@@ -0,0 +1,102 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.freedesktop.dbus.Message;
+import org.freedesktop.dbus.MessageReader;
+import org.freedesktop.dbus.MessageWriter;
+import org.freedesktop.dbus.MethodCall;
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.Variant;
+
+/**
+ * Compares marshalling time of the compiled codecs and the signature
+ * interpreter for typical oFono payloads.
+ */
+public class codec_bench
+{
+   public static final int MESSAGES = 5000;
+   public static final int ROUNDS = 20;
+
+   static Object[][] payloads()
+   {
+      Map<String,Variant<?>> props = codec_test.properties();
+      List<Object[]> modems = new Vector<Object[]>();
+      for (int i = 0; i < 2; i++)
+         modems.add(new Object[] { new Path("/ril_"+i), codec_test.properties() });
+      byte[] pdu = new byte[176];
+      for (int i = 0; i < pdu.length; i++) pdu[i] = (byte) i;
+      return new Object[][] {
+         { "a{sv}", props },
+         { "a(oa{sv})", modems },
+         { "ay", pdu },
+      };
+   }
+   static Message create(String sig, Object value) throws Exception
+   {
+      return new MethodCall(":1.3", "/ril_0", "org.ofono.Modem", "GetProperties", (byte) 0, sig, value);
+   }
+   /** Best time in ns to marshall one message. */
+   static long encode(String sig, Object value) throws Exception
+   {
+      long best = Long.MAX_VALUE;
+      for (int r = 0; r < ROUNDS; r++) {
+         long t = System.nanoTime();
+         for (int i = 0; i < MESSAGES; i++)
+            create(sig, value);
+         t = System.nanoTime() - t;
+         if (t < best) best = t;
+      }
+      return best / MESSAGES;
+   }
+   /** Best time in ns to read and demarshall one message. */
+   static long decode(String sig, Object value) throws Exception
+   {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      MessageWriter out = new MessageWriter(bytes);
+      Message m = create(sig, value);
+      for (int i = 0; i < MESSAGES; i++)
+         out.writeMessage(m);
+      out.close();
+      byte[] stream = bytes.toByteArray();
+      long best = Long.MAX_VALUE;
+      for (int r = 0; r < ROUNDS; r++) {
+         MessageReader in = new MessageReader(new ByteArrayInputStream(stream));
+         long t = System.nanoTime();
+         for (int i = 0; i < MESSAGES; i++)
+            in.readMessage().getParameters();
+         t = System.nanoTime() - t;
+         if (t < best) best = t;
+      }
+      return best / MESSAGES;
+   }
+
+   public static void main(String[] args) throws Exception
+   {
+      System.out.println("payload\tencode ns (interpreted/compiled)\tdecode ns (interpreted/compiled)");
+      for (Object[] p: payloads()) {
+         String sig = (String) p[0];
+         Message.setCompiledCodecs(false);
+         long ie = encode(sig, p[1]);
+         long id = decode(sig, p[1]);
+         Message.setCompiledCodecs(true);
+         long ce = encode(sig, p[1]);
+         long cd = decode(sig, p[1]);
+         System.out.println(sig+"\t"+ie+"/"+ce+"\t"+id+"/"+cd);
+      }
+   }
+}
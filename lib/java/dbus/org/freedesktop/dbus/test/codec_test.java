@@ -0,0 +1,198 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.Message;
+import org.freedesktop.dbus.MessageReader;
+import org.freedesktop.dbus.MessageWriter;
+import org.freedesktop.dbus.MethodCall;
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.UInt16;
+import org.freedesktop.dbus.UInt32;
+import org.freedesktop.dbus.UInt64;
+import org.freedesktop.dbus.Variant;
+
+/**
+ * Checks the compiled codecs against the signature interpreter:
+ * both must produce the same wire data and demarshall it to the same values.
+ */
+public class codec_test
+{
+   static int failures = 0;
+
+   static Map<String,Variant<?>> properties()
+   {
+      Map<String,Variant<?>> props = new HashMap<String,Variant<?>>();
+      props.put("Powered", new Variant<Boolean>(true));
+      props.put("Name", new Variant<String>("Nexus"));
+      props.put("Strength", new Variant<Byte>((byte) 67));
+      props.put("Features", new Variant<String[]>(new String[] { "gprs", "sms", "net" }, "as"));
+      props.put("Interfaces", new Variant<List<String>>(Arrays.asList("org.ofono.VoiceCallManager", "org.ofono.SimManager"), "as"));
+      props.put("LocationAreaCode", new Variant<UInt16>(new UInt16(4711)));
+      props.put("CellId", new Variant<UInt32>(new UInt32(123456789L)));
+      props.put("Serial", new Variant<UInt64>(new UInt64(1L << 40)));
+      props.put("Mtu", new Variant<Integer>(1500));
+      props.put("Nested", new Variant<Variant<String>>(new Variant<String>("deep"), "v"));
+      return props;
+   }
+   static Object[][] cases()
+   {
+      Map<String,Variant<?>> props = properties();
+      Map<String,Map<String,Variant<?>>> byiface = new HashMap<String,Map<String,Variant<?>>>();
+      byiface.put("org.ofono.Modem", props);
+      List<Object[]> modems = new Vector<Object[]>();
+      modems.add(new Object[] { new Path("/ril_0"), props });
+      modems.add(new Object[] { new Path("/ril_1"), properties() });
+      byte[] pdu = new byte[176];
+      for (int i = 0; i < pdu.length; i++) pdu[i] = (byte) (i * 7);
+      return new Object[][] {
+         { "y", new Object[] { (byte) -5 } },
+         { "b", new Object[] { true } },
+         { "n", new Object[] { (short) -300 } },
+         { "q", new Object[] { new UInt16(65535) } },
+         { "i", new Object[] { -7 } },
+         { "u", new Object[] { new UInt32(4000000000L) } },
+         { "x", new Object[] { -1L << 40 } },
+         { "t", new Object[] { new UInt64(1L << 40) } },
+         { "d", new Object[] { 1.5 } },
+         { "s", new Object[] { "héllo" } },
+         { "o", new Object[] { new Path("/ril_0/context1") } },
+         { "g", new Object[] { "a{sv}" } },
+         { "ay", new Object[] { pdu } },
+         { "ay", new Object[] { new byte[0] } },
+         { "ai", new Object[] { new int[] { 1, -2, 3 } } },
+         { "an", new Object[] { new short[] { 1, -2 } } },
+         { "ax", new Object[] { new long[] { 1L << 33, -1 } } },
+         { "ab", new Object[] { new boolean[] { true, false } } },
+         { "ad", new Object[] { new double[] { 0.25, -8 } } },
+         { "as", new Object[] { new String[] { "a", "", "c" } } },
+         { "as", new Object[] { Arrays.asList("x", "y") } },
+         { "aas", new Object[] { new String[][] { { "a" }, {}, { "b", "c" } } } },
+         { "ao", new Object[] { new Path[] { new Path("/a"), new Path("/b") } } },
+         { "a{sv}", new Object[] { props } },
+         { "a{sv}", new Object[] { new HashMap<String,Variant<?>>() } },
+         { "a{sa{sv}}", new Object[] { byiface } },
+         { "a(oa{sv})", new Object[] { modems } },
+         { "(isv)", new Object[] { new Object[] { 3, "three", new Variant<Integer>(3) } } },
+         { "v", new Object[] { new Variant<Map<String,Variant<?>>>(props, "a{sv}") } },
+         { "v", new Object[] { new Variant<byte[]>(pdu, "ay") } },
+         { "sv", new Object[] { "Settings", new Variant<Map<String,Variant<?>>>(props, "a{sv}") } },
+         { "oa{sv}s", new Object[] { new Path("/ril_0/voicecall01"), props, "tail" } },
+         { "ya{sv}yvy", new Object[] { (byte) 1, props, (byte) 2, new Variant<String>("s"), (byte) 3 } },
+      };
+   }
+
+   /** Describes a value including the classes of everything in it. */
+   static String describe(Object o)
+   {
+      if (null == o) return "null";
+      if (o instanceof Variant)
+         return "Variant<"+((Variant) o).getSig()+">("+describe(((Variant) o).getValue())+")";
+      StringBuffer sb = new StringBuffer();
+      sb.append(o.getClass().getSimpleName());
+      if (o.getClass().isArray()) {
+         sb.append('[');
+         for (int i = 0; i < Array.getLength(o); i++)
+            sb.append(describe(Array.get(o, i))).append(',');
+         sb.append(']');
+      } else if (o instanceof List) {
+         sb.append('[');
+         for (Object e: (List) o)
+            sb.append(describe(e)).append(',');
+         sb.append(']');
+      } else if (o instanceof Map) {
+         sb.append('{');
+         for (Object e: ((Map) o).entrySet())
+            sb.append(describe(((Map.Entry) e).getKey())).append('=').append(describe(((Map.Entry) e).getValue())).append(',');
+         sb.append('}');
+      } else
+         sb.append('(').append(o).append(')');
+      return sb.toString();
+   }
+   static byte[] wire(Message m) throws Exception
+   {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      MessageWriter out = new MessageWriter(bytes);
+      out.writeMessage(m);
+      out.close();
+      byte[] b = bytes.toByteArray();
+      // the serial differs between messages
+      Arrays.fill(b, 8, 12, (byte) 0);
+      return b;
+   }
+   static String decode(byte[] b) throws Exception
+   {
+      MessageReader in = new MessageReader(new ByteArrayInputStream(b));
+      Message m = in.readMessage();
+      return describe(m.getParameters());
+   }
+   static void check(String what, Object a, Object b)
+   {
+      if (a.equals(b)) return;
+      failures++;
+      System.out.println("FAIL "+what);
+      System.out.println("  interpreter: "+a);
+      System.out.println("  codecs:      "+b);
+   }
+   static Message create(boolean signal, String sig, Object[] args) throws Exception
+   {
+      if (signal)
+         return new DBusSignal(":1.3", "/ril_0", "org.ofono.Test", "Test", sig, args);
+      else
+         return new MethodCall(":1.3", "/ril_0", "org.ofono.Test", "Test", (byte) 0, sig, args);
+   }
+
+   public static void main(String[] args) throws Exception
+   {
+      int count = 0;
+      for (Object[] c: cases()) {
+         String sig = (String) c[0];
+         Object[] values = (Object[]) c[1];
+         // signals decode variants lazily, method calls eagerly
+         for (boolean signal: new boolean[] { true, false }) {
+            String what = (signal ? "signal " : "call ")+sig;
+            Message.setCompiledCodecs(false);
+            byte[] reference = wire(create(signal, sig, values));
+            String refvalue = decode(reference);
+            Message.setCompiledCodecs(true);
+            byte[] compiled = wire(create(signal, sig, values));
+            check(what+" wire", Arrays.toString(reference), Arrays.toString(compiled));
+            check(what+" values", refvalue, decode(reference));
+            count++;
+         }
+      }
+      // empty containers the interpreter cannot marshall: arrays of
+      // structs, and dicts inside structs or dict entries
+      Message.setCompiledCodecs(true);
+      Object[] values = new Object[] { new Vector<Object[]>(), 5 };
+      check("empty a(oa{sv})", describe(new Object[] { new Vector<Object>(), 5 }),
+            decode(wire(create(false, "a(oa{sv})i", values))));
+      List<Object[]> modems = new Vector<Object[]>();
+      modems.add(new Object[] { new Path("/ril_1"), new HashMap<String,Variant<?>>() });
+      values = new Object[] { modems, 5 };
+      check("a(oa{sv}) with empty a{sv}", "Object[][Vector[Object[][ObjectPath(/ril_1),DBusMap{},],],Integer(5),]",
+            decode(wire(create(false, "a(oa{sv})i", values))));
+      count += 2;
+
+      System.out.println(count+" cases, "+failures+" failures");
+      if (0 != failures) System.exit(1);
+   }
+}
@@ -0,0 +1,279 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus.test;
+
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.Variant;
+import org.ofono.NetworkRegistration;
+
+/**
+ * Drives N threads making calls and M threads emitting signals against a
+ * bus, as the RIL's threads and oFono do, and reports for each N and M the
+ * throughput, the tail latency of the calls and the monitors threads were
+ * most often blocked on, so changes to the locking can be judged.
+ *
+ * One connection, the modem, exports an object and emits PropertyChanged
+ * signals; the other, the RIL, calls GetProperties on it from the caller
+ * threads while handling the signals, which each emitter sends at RATE.
+ * Failed calls, such as those timing out, are counted. A sampler looks at
+ * every thread each SAMPLE_MS and counts the lock and method of those
+ * blocked.
+ *
+ * Usage: contention_stress address [callers,... [emitters,... [seconds]]]
+ * for example contention_stress tcp:host=127.0.0.1,port=12345 1,4,16 0,1,4 5
+ */
+public class contention_stress
+{
+   public static final int SAMPLE_MS = 2;
+   public static final int HOTTEST = 5;
+   /** Signals each emitter sends a second. */
+   public static final int RATE = 2000;
+
+   private static int connections = 0;
+
+   /** Call latencies of one thread, in us. */
+   static class Latencies
+   {
+      long[] us = new long[1024];
+      int count = 0;
+      void add(long v)
+      {
+         if (count == us.length) us = Arrays.copyOf(us, count * 2);
+         us[count++] = v;
+      }
+   }
+
+   /** Counts the locks and methods threads are blocked on. */
+   static class Sampler extends Thread
+   {
+      final ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+      final Map<String, long[]> blocked = new HashMap<String, long[]>();
+      volatile boolean running = true;
+      long samples = 0;
+      Sampler()
+      {
+         super("contention sampler");
+         setDaemon(true);
+      }
+      public void run()
+      {
+         while (running) {
+            for (ThreadInfo ti: mx.getThreadInfo(mx.getAllThreadIds(), 1)) {
+               if (null == ti || ti.getThreadId() == getId()) continue;
+               LockInfo l = ti.getLockInfo();
+               if (null == l) continue;
+               // threads parked on a condition are idle, not contending
+               boolean contended = Thread.State.BLOCKED == ti.getThreadState()
+                  || (Thread.State.WAITING == ti.getThreadState() && l.getClassName().contains("Reentrant"));
+               if (!contended) continue;
+               StackTraceElement[] st = ti.getStackTrace();
+               String where = 0 == st.length ? "?" : st[0].getClassName()+"."+st[0].getMethodName();
+               String key = l.getClassName()+"@"+Integer.toHexString(l.getIdentityHashCode())+" in "+where;
+               synchronized (this) {
+                  long[] n = blocked.get(key);
+                  if (null == n) blocked.put(key, n = new long[1]);
+                  n[0]++;
+               }
+            }
+            synchronized (this) {
+               samples++;
+            }
+            try { Thread.sleep(SAMPLE_MS); } catch (InterruptedException Ie) {}
+         }
+      }
+      synchronized List<Map.Entry<String, long[]>> hottest()
+      {
+         List<Map.Entry<String, long[]>> l = new ArrayList<Map.Entry<String, long[]>>(blocked.entrySet());
+         Collections.sort(l, new Comparator<Map.Entry<String, long[]>>() {
+            public int compare(Map.Entry<String, long[]> a, Map.Entry<String, long[]> b)
+            {
+               return Long.compare(b.getValue()[0], a.getValue()[0]);
+            }
+         });
+         return l.subList(0, Math.min(HOTTEST, l.size()));
+      }
+   }
+
+   static long percentile(long[] sorted, int n, double p)
+   {
+      if (0 == n) return 0;
+      return sorted[Math.min(n - 1, (int) Math.ceil(p * n) - 1)];
+   }
+
+   static void run(String address, final int callers, final int emitters, int seconds) throws Exception
+   {
+      // new connections for each run, rather than those shared for the address
+      DBusConnection modem = DBusConnection.getConnection(address+",stress="+(connections++));
+      DBusConnection ril = DBusConnection.getConnection(address+",stress="+(connections++));
+      final Map<String,Variant<?>> props = bench_suite.properties(20);
+      modem.exportObject("/ril_0", (DBusInterface) Proxy.newProxyInstance(contention_stress.class.getClassLoader(),
+            new Class<?>[] { NetworkRegistration.class },
+            new InvocationHandler() {
+               public Object invoke(Object proxy, Method m, Object[] a)
+               {
+                  if ("isRemote".equals(m.getName())) return false;
+                  if ("GetProperties".equals(m.getName())) return props;
+                  return null;
+               }
+            }));
+      final NetworkRegistration netreg = ril.getRemoteObject(modem.getUniqueName(), "/ril_0", NetworkRegistration.class);
+      final AtomicLong handled = new AtomicLong();
+      ril.addSigHandler(NetworkRegistration.PropertyChanged.class, new DBusSigHandler<NetworkRegistration.PropertyChanged>() {
+         public void handle(NetworkRegistration.PropertyChanged s) { handled.incrementAndGet(); }
+      });
+      // warm up
+      for (int i = 0; i < 200; i++)
+         netreg.GetProperties();
+
+      final ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+      if (mx.isThreadContentionMonitoringSupported())
+         mx.setThreadContentionMonitoringEnabled(true);
+      final long[] before = blockedMs(mx);
+
+      final CountDownLatch start = new CountDownLatch(1);
+      final AtomicLong failures = new AtomicLong();
+      final AtomicLong sent = new AtomicLong();
+      final long end[] = new long[1];
+      final Latencies[] latencies = new Latencies[callers];
+      List<Thread> threads = new ArrayList<Thread>();
+      for (int i = 0; i < callers; i++) {
+         final Latencies lat = latencies[i] = new Latencies();
+         threads.add(new Thread("caller "+i) {
+            public void run()
+            {
+               try { start.await(); } catch (InterruptedException Ie) {}
+               while (System.nanoTime() < end[0]) {
+                  long t = System.nanoTime();
+                  try {
+                     netreg.GetProperties();
+                     lat.add((System.nanoTime() - t) / 1000);
+                  } catch (Exception e) {
+                     failures.incrementAndGet();
+                  }
+               }
+            }
+         });
+      }
+      final DBusConnection from = modem;
+      for (int i = 0; i < emitters; i++) {
+         final byte strength = (byte) i;
+         threads.add(new Thread("emitter "+i) {
+            public void run()
+            {
+               try {
+                  NetworkRegistration.PropertyChanged s = new NetworkRegistration.PropertyChanged("/ril_0", "Strength", new Variant<Byte>(strength));
+                  start.await();
+                  // paced, as an unpaced flood only measures the bus backlog
+                  for (long next = System.nanoTime(); next < end[0]; next += 1000000000L / RATE) {
+                     long wait = next - System.nanoTime();
+                     if (wait > 0) LockSupport.parkNanos(wait);
+                     from.sendSignal(s);
+                     sent.incrementAndGet();
+                  }
+               } catch (Exception e) {
+                  failures.incrementAndGet();
+               }
+            }
+         });
+      }
+      Sampler sampler = new Sampler();
+      for (Thread t: threads) t.start();
+      sampler.start();
+      long t = System.nanoTime();
+      end[0] = t + seconds * 1000000000L;
+      start.countDown();
+      for (Thread th: threads) th.join();
+      t = System.nanoTime() - t;
+      long signals = handled.get();
+      sampler.running = false;
+      sampler.join();
+      long[] after = blockedMs(mx);
+
+      int n = 0;
+      for (Latencies l: latencies) n += l.count;
+      long[] all = new long[n];
+      n = 0;
+      for (Latencies l: latencies) {
+         System.arraycopy(l.us, 0, all, n, l.count);
+         n += l.count;
+      }
+      Arrays.sort(all);
+      double secs = t / 1e9;
+      System.out.println("callers="+callers+" emitters="+emitters);
+      System.out.println(String.format("  calls/s %.0f  signals sent/s %.0f handled/s %.0f%s",
+            n / secs, sent.get() / secs, signals / secs, 0 == failures.get() ? "" : "  failures "+failures.get()));
+      System.out.println("  call latency us p50 "+percentile(all, n, 0.5)+" p99 "+percentile(all, n, 0.99)
+            +" p99.9 "+percentile(all, n, 0.999)+" max "+(0 == n ? 0 : all[n-1]));
+      if (null != before)
+         System.out.println("  blocked ms, all threads "+(after[0] - before[0])+" in "+(after[1] - before[1])+" blocks");
+      System.out.println("  hottest monitors, of "+sampler.samples+" samples:");
+      for (Map.Entry<String, long[]> e: sampler.hottest())
+         System.out.println("    "+e.getValue()[0]+"\t"+e.getKey());
+      ril.disconnect();
+      modem.disconnect();
+   }
+
+   /** Time in ms and times all live threads have blocked to enter a monitor, or null if not measured. */
+   static long[] blockedMs(ThreadMXBean mx)
+   {
+      if (!mx.isThreadContentionMonitoringEnabled()) return null;
+      long[] r = new long[2];
+      for (ThreadInfo ti: mx.getThreadInfo(mx.getAllThreadIds())) {
+         if (null == ti) continue;
+         r[0] += Math.max(0, ti.getBlockedTime());
+         r[1] += ti.getBlockedCount();
+      }
+      return r;
+   }
+
+   static int[] ints(String s)
+   {
+      String[] ss = s.split(",");
+      int[] is = new int[ss.length];
+      for (int i = 0; i < ss.length; i++)
+         is[i] = Integer.parseInt(ss[i]);
+      return is;
+   }
+
+   public static void main(String[] args) throws Exception
+   {
+      if (args.length < 1 || args.length > 4) {
+         System.out.println("Usage: contention_stress address [callers,... [emitters,... [seconds]]]");
+         System.exit(1);
+      }
+      int[] callers = args.length > 1 ? ints(args[1]) : new int[] { 1, 4, 16 };
+      int[] emitters = args.length > 2 ? ints(args[2]) : new int[] { 0, 1, 4 };
+      int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+      for (int m: emitters)
+         for (int n: callers)
+            run(args[0], n, m, seconds);
+   }
+}
@@ -0,0 +1,150 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.Message;
+import org.freedesktop.dbus.MessageReader;
+import org.freedesktop.dbus.MessageWriter;
+import org.freedesktop.dbus.MethodReturn;
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.StringCache;
+import org.freedesktop.dbus.Variant;
+
+/**
+ * Compares demarshalling with and without the string cache, over a
+ * stream of oFono shaped messages: mostly PropertyChanged signals, with
+ * GetProperties and GetContexts replies. Reports time and bytes allocated
+ * per message, and the distinct strings and heap held when the values of
+ * RETAINED messages are kept, as the RIL keeps properties.
+ */
+public class intern_bench
+{
+   public static final int STREAM = 1000;
+   public static final int ROUNDS = 20;
+   public static final int RETAINED = 10000;
+
+   static final String[][] CHANGES = {
+      { "org.ofono.NetworkRegistration", "Status", "registered", "searching", "roaming" },
+      { "org.ofono.NetworkRegistration", "Technology", "lte", "umts", "gsm" },
+      { "org.ofono.Modem", "Interfaces", "org.ofono.SimManager", "org.ofono.VoiceCallManager" },
+      { "org.ofono.ConnectionContext", "Active", null },
+      { "org.ofono.SimManager", "PinRequired", "none", "pin" },
+   };
+
+   static byte[] stream() throws Exception
+   {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      MessageWriter out = new MessageWriter(bytes);
+      Map<String,Variant<?>> props = bench_suite.properties(20);
+      Object[] contexts = bench_suite.contextsWire(bench_suite.contexts());
+      for (int i = 0; i < STREAM; i++) {
+         Message m;
+         if (0 == i % 10)
+            m = new MethodReturn(":1.3", i, "a{sv}", props);
+         else if (5 == i % 10)
+            m = new MethodReturn(":1.3", i, "a(oa{sv})", contexts);
+         else if (0 == i % 3)
+            m = new DBusSignal(null, "/ril_0", "org.ofono.NetworkRegistration", "PropertyChanged", "sv", "Strength", new Variant<Byte>((byte) i));
+         else {
+            String[] c = CHANGES[i % CHANGES.length];
+            String path = c[0].endsWith("Context") ? "/ril_0/context"+(1 + i % 3) : "/ril_0";
+            Variant<?> v = null == c[2] ? new Variant<Boolean>(0 == i % 2) : new Variant<String>(c[2 + i % (c.length - 2)]);
+            m = new DBusSignal(null, path, c[0], "PropertyChanged", "sv", c[1], v);
+         }
+         out.writeMessage(m);
+      }
+      out.close();
+      return bytes.toByteArray();
+   }
+
+   static long allocated()
+   {
+      return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+   }
+
+   static long used()
+   {
+      Runtime rt = Runtime.getRuntime();
+      for (int i = 0; i < 3; i++) System.gc();
+      return rt.totalMemory() - rt.freeMemory();
+   }
+
+   /** Adds the distinct strings reachable from o to strings. */
+   static void strings(Object o, IdentityHashMap<Object, Boolean> strings)
+   {
+      if (o instanceof String) strings.put(o, Boolean.TRUE);
+      else if (o instanceof Path) strings.put(((Path) o).getPath(), Boolean.TRUE);
+      else if (o instanceof Variant) strings(((Variant<?>) o).getValue(), strings);
+      else if (o instanceof Object[]) for (Object e: (Object[]) o) strings(e, strings);
+      else if (o instanceof Collection) for (Object e: (Collection<?>) o) strings(e, strings);
+      else if (o instanceof Map) for (Map.Entry<?,?> e: ((Map<?,?>) o).entrySet()) {
+         strings(e.getKey(), strings);
+         strings(e.getValue(), strings);
+      }
+   }
+
+   static void run(String name, byte[] stream) throws Exception
+   {
+      long best = Long.MAX_VALUE;
+      long bytes = 0;
+      for (int r = 0; r < ROUNDS; r++) {
+         MessageReader in = new MessageReader(new ByteArrayInputStream(stream));
+         long a = allocated();
+         long t = System.nanoTime();
+         for (int i = 0; i < STREAM; i++) {
+            Message m = in.readMessage();
+            m.getParameters();
+            m.getPath();
+            m.getInterface();
+         }
+         t = System.nanoTime() - t;
+         bytes = allocated() - a;
+         if (t < best) best = t;
+      }
+      List<Object> kept = new ArrayList<Object>();
+      long before = used();
+      MessageReader in = null;
+      for (int i = 0; i < RETAINED; i++) {
+         if (0 == i % STREAM) in = new MessageReader(new ByteArrayInputStream(stream));
+         Message m = in.readMessage();
+         kept.add(new Object[] { m.getPath(), m.getInterface(), m.getParameters() });
+      }
+      long heap = used() - before;
+      IdentityHashMap<Object, Boolean> strings = new IdentityHashMap<Object, Boolean>();
+      strings(kept, strings);
+      System.out.println(name+"\t"+(best / STREAM)+"\t"+(bytes / STREAM)+"\t"+strings.size()+"\t"+(heap / 1024));
+   }
+
+   public static void main(String[] args) throws Exception
+   {
+      byte[] stream = stream();
+      System.out.println("cache\tdecode ns/msg\tallocated bytes/msg\tlive strings\tretained heap KiB");
+      StringCache.setEnabled(false);
+      run("off", stream);
+      StringCache.setEnabled(true);
+      long h = StringCache.getHits(), m = StringCache.getMisses(), u = StringCache.getUncached();
+      run("on", stream);
+      h = StringCache.getHits() - h;
+      m = StringCache.getMisses() - m;
+      u = StringCache.getUncached() - u;
+      System.out.println("hit rate "+Math.round(1000.0 * h / (h + m)) / 10.0+"%: "+h+" hits, "+m+" misses, "+u+" uncached");
+   }
+}
@@ -0,0 +1,154 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus.test;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.freedesktop.dbus.Marshalling;
+import org.freedesktop.dbus.Message;
+
+/**
+ * Marshalls and demarshalls the codec_test cases, and converts the
+ * types of the test interfaces to signatures, from many threads at
+ * once. Every result must match the one the signature interpreter
+ * gave on a single thread. Reports throughput for each thread count.
+ */
+public class marshal_stress
+{
+   public static final int ROUNDS = 200;
+   public static final int[] THREADS = { 1, 2, 4, 8 };
+
+   static Object[][] cases;
+   static byte[][] wires;
+   static String[] values;
+   static Type[] types;
+   static String[] sigs;
+   static final AtomicInteger mismatches = new AtomicInteger();
+
+   static void mismatch(String what, Object expected, Object actual)
+   {
+      if (1 == mismatches.incrementAndGet()) {
+         System.out.println("MISMATCH "+what);
+         System.out.println("  expected: "+expected);
+         System.out.println("  actual:   "+actual);
+      }
+   }
+
+   /** Runs every case once and returns the number of operations done. */
+   static int work() throws Exception
+   {
+      int ops = 0;
+      for (int i = 0; i < cases.length; i++) {
+         String sig = (String) cases[i][0];
+         Object[] args = (Object[]) cases[i][1];
+         for (int s = 0; s < 2; s++) {
+            int k = 2*i + s;
+            byte[] b = codec_test.wire(codec_test.create(0 == s, sig, args));
+            if (!Arrays.equals(wires[k], b)) mismatch(sig+" wire", Arrays.toString(wires[k]), Arrays.toString(b));
+            String v = codec_test.decode(wires[k]);
+            if (!values[k].equals(v)) mismatch(sig+" values", values[k], v);
+            ops += 2;
+         }
+      }
+      for (int i = 0; i < types.length; i++) {
+         String sig = Arrays.toString(Marshalling.recursiveGetDBusType(types[i], false, 0));
+         if (!sigs[i].equals(sig)) mismatch(types[i]+" signature", sigs[i], sig);
+         sig = Arrays.toString(Marshalling.getDBusType(types[i]));
+         if (!sigs[i].equals(sig)) mismatch(types[i]+" cached signature", sigs[i], sig);
+         ops += 2;
+      }
+      return ops;
+   }
+
+   /** Runs the cases on a number of threads at once, returning operations per second. */
+   static long run(int threads, final int rounds) throws Exception
+   {
+      final CountDownLatch start = new CountDownLatch(1);
+      final CountDownLatch done = new CountDownLatch(threads);
+      final AtomicInteger ops = new AtomicInteger();
+      for (int t = 0; t < threads; t++)
+         new Thread("marshal_stress-"+t) {
+            public void run()
+            {
+               try {
+                  start.await();
+                  int n = 0;
+                  for (int r = 0; r < rounds; r++)
+                     n += work();
+                  ops.addAndGet(n);
+               } catch (Exception e) {
+                  mismatch("exception", "none", e);
+                  e.printStackTrace();
+               } finally {
+                  done.countDown();
+               }
+            }
+         }.start();
+      long t = System.nanoTime();
+      start.countDown();
+      done.await();
+      t = System.nanoTime() - t;
+      return ops.get() * 1000000000L / t;
+   }
+
+   public static void main(String[] args) throws Exception
+   {
+      cases = codec_test.cases();
+      wires = new byte[cases.length*2][];
+      values = new String[cases.length*2];
+      Vector<Type> ts = new Vector<Type>();
+      for (Class<?> c: new Class<?>[] { TestRemoteInterface.class, TestRemoteInterface2.class, TestSignalInterface.class })
+         for (Method m: c.getDeclaredMethods()) {
+            ts.add(m.getGenericReturnType());
+            ts.addAll(Arrays.asList(m.getGenericParameterTypes()));
+         }
+      for (int i = 0; i < ts.size(); i++)
+         try {
+            Marshalling.recursiveGetDBusType(ts.get(i), false, 0);
+         } catch (Exception e) {
+            ts.remove(i--);
+         }
+      types = ts.toArray(new Type[0]);
+      sigs = new String[types.length];
+
+      // the reference results come from the signature interpreter,
+      // which leaves the codec cache cold for the first run
+      Message.setCompiledCodecs(false);
+      for (int i = 0; i < cases.length; i++)
+         for (int s = 0; s < 2; s++) {
+            wires[2*i+s] = codec_test.wire(codec_test.create(0 == s, (String) cases[i][0], (Object[]) cases[i][1]));
+            values[2*i+s] = codec_test.decode(wires[2*i+s]);
+         }
+      for (int i = 0; i < types.length; i++)
+         sigs[i] = Arrays.toString(Marshalling.recursiveGetDBusType(types[i], false, 0));
+      Message.setCompiledCodecs(true);
+
+      int max = THREADS[THREADS.length-1];
+      run(max, 1);
+      System.out.println("cold start on "+max+" threads: "+mismatches.get()+" mismatches");
+
+      run(1, ROUNDS);
+      System.out.println("threads\tops/s\tscaling");
+      long base = 0;
+      for (int threads: THREADS) {
+         long rate = run(threads, ROUNDS);
+         if (0 == base) base = rate;
+         System.out.println(threads+"\t"+rate+"\t"+(rate*100/base)+"%");
+      }
+      System.out.println(cases.length*2+" messages and "+types.length+" types, "+mismatches.get()+" mismatches");
+      if (0 != mismatches.get()) System.exit(1);
+   }
+}
@@ -0,0 +1,111 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.Semaphore;
+
+import org.freedesktop.dbus.CallbackHandler;
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+import org.ofono.ConnectionManager;
+import org.ofono.VoiceCall;
+
+/**
+ * Measures how long a call control method takes while another thread
+ * floods the connection with background calls, as data context churn
+ * does, and how long a background call takes meanwhile. Reports the
+ * outgoing queue of the calling connection by priority, and the latencies
+ * of both ends.
+ *
+ * Usage: priority_bench address
+ */
+public class priority_bench
+{
+   public static final int CALLS = 200;
+   /** Background calls awaiting replies at once. */
+   public static final int WINDOW = 500;
+
+   static volatile boolean flooding = true;
+
+   /** Median and worst time in us of CALLS calls. */
+   static String time(Runnable call)
+   {
+      long[] ts = new long[CALLS];
+      for (int i = 0; i < CALLS; i++) {
+         long t = System.nanoTime();
+         call.run();
+         ts[i] = (System.nanoTime() - t) / 1000;
+      }
+      Arrays.sort(ts);
+      return "median "+ts[CALLS/2]+"us, worst "+ts[CALLS-1]+"us";
+   }
+
+   public static void main(String[] args) throws Exception
+   {
+      if (1 != args.length) {
+         System.out.println("Usage: priority_bench address");
+         System.exit(1);
+      }
+      // a separate connection for each end
+      DBusConnection server = DBusConnection.getConnection(args[0]+",end=server");
+      final DBusConnection client = DBusConnection.getConnection(args[0]+",end=client");
+      server.exportObject("/ril_0", (DBusInterface) Proxy.newProxyInstance(priority_bench.class.getClassLoader(),
+            new Class<?>[] { VoiceCall.class, ConnectionManager.class },
+            new InvocationHandler() {
+               public Object invoke(Object proxy, Method m, Object[] a)
+               {
+                  if ("isRemote".equals(m.getName())) return false;
+                  if ("GetProperties".equals(m.getName())) return new HashMap<String,Object>();
+                  return null;
+               }
+            }));
+      final VoiceCall call = client.getRemoteObject(server.getUniqueName(), "/ril_0", VoiceCall.class);
+      final ConnectionManager data = client.getRemoteObject(server.getUniqueName(), "/ril_0", ConnectionManager.class);
+
+      // keep a window of calls in flight, so the backlog is in the queue
+      // rather than piling up without bound in the bus and the server
+      final Semaphore window = new Semaphore(WINDOW);
+      final CallbackHandler<Object> done = new CallbackHandler<Object>() {
+         public void handle(Object r) { window.release(); }
+         public void handleError(DBusExecutionException e) { window.release(); }
+      };
+      Thread flood = new Thread("flood") {
+         public void run()
+         {
+            while (flooding) {
+               window.acquireUninterruptibly();
+               client.<Object>callAsync(data, "GetProperties").addCallback(done);
+            }
+         }
+      };
+      flood.start();
+      Thread.sleep(500);
+      System.out.println("VoiceCall.Answer: "+time(new Runnable() {
+         public void run() { call.Answer(); }
+      }));
+      System.out.println("ConnectionManager.GetProperties: "+time(new Runnable() {
+         public void run() { data.GetProperties(); }
+      }));
+      flooding = false;
+      flood.join();
+      System.out.println(client.getOutgoingStats());
+      System.out.println(client.getLatencyStats());
+      System.out.println(server.getLatencyStats());
+      client.disconnect();
+      server.disconnect();
+   }
+}
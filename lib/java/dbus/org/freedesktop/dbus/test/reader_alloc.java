@@ -0,0 +1,88 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.Message;
+import org.freedesktop.dbus.MessageReader;
+import org.freedesktop.dbus.MessageWriter;
+import org.freedesktop.dbus.Variant;
+
+/**
+ * Measures heap allocation and time per message in MessageReader,
+ * using a stream of the PropertyChanged signals oFono sends most often.
+ */
+public class reader_alloc
+{
+   public static final int MESSAGES = 10000;
+   public static final int ROUNDS = 20;
+
+   public static byte[] createStream(int count) throws Exception
+   {
+      Map<String,Variant<?>> settings = new HashMap<String,Variant<?>>();
+      settings.put("Interface", new Variant<String>("rmnet0"));
+      settings.put("Method", new Variant<String>("static"));
+      settings.put("Address", new Variant<String>("10.64.12.7"));
+      settings.put("Netmask", new Variant<String>("255.255.255.252"));
+      settings.put("Gateway", new Variant<String>("10.64.12.8"));
+      settings.put("DomainNameServers", new Variant<String[]>(new String[] { "10.177.0.34", "10.168.183.140" }, "as"));
+      Message[] ms = new Message[] {
+         new DBusSignal(":1.3", "/ril_0", "org.ofono.NetworkRegistration", "PropertyChanged", "sv", "Strength", new Variant<Byte>((byte) 67)),
+         new DBusSignal(":1.3", "/ril_0/context1", "org.ofono.ConnectionContext", "PropertyChanged", "sv", "Settings", new Variant<Map<String,Variant<?>>>(settings, "a{sv}")),
+         new DBusSignal(":1.3", "/ril_0", "org.ofono.NetworkRegistration", "PropertyChanged", "sv", "Technology", new Variant<String>("lte")),
+      };
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      MessageWriter out = new MessageWriter(bytes);
+      for (int i = 0; i < count; i++)
+         out.writeMessage(ms[i % ms.length]);
+      out.close();
+      return bytes.toByteArray();
+   }
+
+   public static void main(String[] args) throws Exception
+   {
+      byte[] stream = createStream(MESSAGES);
+      ThreadMXBean tmx = ManagementFactory.getThreadMXBean();
+      com.sun.management.ThreadMXBean atmx = null;
+      if (tmx instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) tmx).isThreadAllocatedMemorySupported()) {
+         atmx = (com.sun.management.ThreadMXBean) tmx;
+         atmx.setThreadAllocatedMemoryEnabled(true);
+      } else
+         System.out.println("Per-thread allocation counters unavailable; reporting time only.");
+
+      long tid = Thread.currentThread().getId();
+      long bestalloc = Long.MAX_VALUE;
+      long besttime = Long.MAX_VALUE;
+      for (int r = 0; r < ROUNDS; r++) {
+         MessageReader in = new MessageReader(new ByteArrayInputStream(stream));
+         long a = null == atmx ? 0 : atmx.getThreadAllocatedBytes(tid);
+         long t = System.nanoTime();
+         for (int i = 0; i < MESSAGES; i++)
+            if (null == in.readMessage()) throw new Exception("Read "+i+" of "+MESSAGES+" messages");
+         t = System.nanoTime() - t;
+         a = null == atmx ? 0 : atmx.getThreadAllocatedBytes(tid) - a;
+         if (a < bestalloc) bestalloc = a;
+         if (t < besttime) besttime = t;
+      }
+      System.out.println("Stream: "+MESSAGES+" messages, "+stream.length+" bytes");
+      if (null != atmx)
+         System.out.println("Allocated per message: "+(bestalloc/MESSAGES)+" bytes");
+      System.out.println("Time per message: "+(besttime/MESSAGES)+" ns");
+   }
+}
@@ -0,0 +1,109 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus.test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.Variant;
+import org.ofono.NetworkRegistration;
+import org.ofono.VoiceCallManager;
+
+/**
+ * Measures how long CallAdded takes to reach its handler during a storm of
+ * signal strength updates from the same modem, with one worker thread
+ * handling signals, as the RIL does, and each update taking a while to
+ * handle.
+ *
+ * Usage: signal_priority_bench address
+ * The system property work sets the time in us to handle an update.
+ */
+public class signal_priority_bench
+{
+   public static final int STORM = 5000;
+   /** Strength updates sent between calls. */
+   public static final int SPACING = 250;
+   /** Time in us to handle a strength update. */
+   public static final int WORK = Integer.getInteger("work", 100);
+
+   static void work(long us)
+   {
+      long end = System.nanoTime() + us * 1000;
+      while (System.nanoTime() < end);
+   }
+
+   public static void main(String[] args) throws Exception
+   {
+      if (1 != args.length) {
+         System.out.println("Usage: signal_priority_bench address");
+         System.exit(1);
+      }
+      // a separate connection for each end
+      DBusConnection modem = DBusConnection.getConnection(args[0]+",end=modem");
+      DBusConnection ril = DBusConnection.getConnection(args[0]+",end=ril");
+      ril.changeThreadCount((byte) 1);
+
+      final int calls = STORM / SPACING;
+      final Map<String, Long> sent = new ConcurrentHashMap<String, Long>();
+      final long[] latency = new long[calls];
+      // strength updates are timed from the first
+      final AtomicLong strengthwait = new AtomicLong();
+      final CountDownLatch done = new CountDownLatch(STORM + calls);
+      final int[] handled = new int[1];
+      ril.addSigHandler(NetworkRegistration.PropertyChanged.class, new DBusSigHandler<NetworkRegistration.PropertyChanged>() {
+         public void handle(NetworkRegistration.PropertyChanged s)
+         {
+            strengthwait.addAndGet(System.nanoTime() - sent.get(s.getPath()));
+            work(WORK);
+            done.countDown();
+         }
+      });
+      ril.addSigHandler(VoiceCallManager.CallAdded.class, new DBusSigHandler<VoiceCallManager.CallAdded>() {
+         public void handle(VoiceCallManager.CallAdded s)
+         {
+            latency[handled[0]++] = (System.nanoTime() - sent.get(s.path.getPath())) / 1000;
+            done.countDown();
+         }
+      });
+
+      Map<String, Variant<?>> props = new HashMap<String, Variant<?>>();
+      long t = System.nanoTime();
+      for (int i = 0; i < STORM; i++) {
+         if (0 == i) sent.put("/ril_0", System.nanoTime());
+         modem.sendSignal(new NetworkRegistration.PropertyChanged("/ril_0", "Strength", new Variant<Byte>((byte) (i % 100))));
+         if (SPACING - 1 == i % SPACING) {
+            String call = "/ril_0/voicecall"+(i / SPACING);
+            sent.put(call, System.nanoTime());
+            modem.sendSignal(new VoiceCallManager.CallAdded("/ril_0", new Path(call), props));
+         }
+      }
+      if (!done.await(60, TimeUnit.SECONDS))
+         System.out.println("Timed out with "+done.getCount()+" signals unhandled");
+      t = System.nanoTime() - t;
+
+      Arrays.sort(latency, 0, handled[0]);
+      System.out.println(STORM+" strength updates, "+handled[0]+" calls in "+t/1000000+"ms");
+      if (0 < handled[0])
+         System.out.println("CallAdded to handler: median "+latency[handled[0]/2]+"us, worst "+latency[handled[0]-1]+"us");
+      System.out.println("Strength update from start of storm to handler: mean "+strengthwait.get()/STORM/1000+"us");
+      System.out.println(ril.getDispatchStats());
+      ril.disconnect();
+      modem.disconnect();
+   }
+}
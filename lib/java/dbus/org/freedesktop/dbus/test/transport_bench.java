@@ -0,0 +1,142 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.freedesktop.DBus;
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusFuture;
+
+/**
+ * Compares the stream transport with the NIO transport over a bus, such
+ * as a local DBusDaemon. For the tcp address given, and the same address
+ * as nio-tcp, one connection pings another through the bus: one call at
+ * a time, in bursts of asynchronous calls, and from several connections
+ * at once, counting the threads each transport needs.
+ *
+ * Usage: transport_bench tcp:host=127.0.0.1,port=12345,guid=...
+ */
+public class transport_bench
+{
+   public static final int CALLS = 2000;
+   public static final int ROUNDS = 5;
+   public static final int CLIENTS = 4;
+
+   private static int connections = 0;
+
+   /**
+    * Opens a new connection rather than sharing one, which
+    * getConnection does for the same address.
+    */
+   static DBusConnection connect(String address) throws Exception
+   {
+      return DBusConnection.getConnection(address+",bench="+(connections++));
+   }
+
+   /** Best time in ns per ping, one at a time. */
+   static long sync(DBus.Peer peer)
+   {
+      long best = Long.MAX_VALUE;
+      for (int r = 0; r < ROUNDS; r++) {
+         long t = System.nanoTime();
+         for (int i = 0; i < CALLS; i++)
+            peer.Ping();
+         t = System.nanoTime() - t;
+         if (t < best) best = t;
+      }
+      return best / CALLS;
+   }
+
+   /** Best time in ns per ping, all sent before waiting for the replies. */
+   @SuppressWarnings("unchecked")
+   static long burst(DBusConnection conn, DBus.Peer peer) throws Exception
+   {
+      DBusFuture<Object>[] replies = new DBusFuture[CALLS];
+      long best = Long.MAX_VALUE;
+      for (int r = 0; r < ROUNDS; r++) {
+         long t = System.nanoTime();
+         for (int i = 0; i < CALLS; i++)
+            replies[i] = conn.callAsync(peer, "Ping");
+         for (int i = 0; i < CALLS; i++)
+            replies[i].get();
+         t = System.nanoTime() - t;
+         if (t < best) best = t;
+      }
+      return best / CALLS;
+   }
+
+   /** Pings per second from several connections at once, each on its own thread. */
+   static long parallel(final String address, final String target) throws Exception
+   {
+      final DBusConnection[] conns = new DBusConnection[CLIENTS];
+      for (int i = 0; i < CLIENTS; i++)
+         conns[i] = connect(address);
+      final CountDownLatch start = new CountDownLatch(1);
+      final CountDownLatch done = new CountDownLatch(CLIENTS);
+      final AtomicLong failed = new AtomicLong();
+      for (int i = 0; i < CLIENTS; i++) {
+         final DBusConnection conn = conns[i];
+         new Thread("transport_bench-"+i) {
+            public void run()
+            {
+               try {
+                  DBus.Peer peer = conn.getRemoteObject(target, "/", DBus.Peer.class);
+                  start.await();
+                  for (int j = 0; j < CALLS; j++)
+                     peer.Ping();
+               } catch (Exception e) {
+                  failed.incrementAndGet();
+                  e.printStackTrace();
+               } finally {
+                  done.countDown();
+               }
+            }
+         }.start();
+      }
+      long t = System.nanoTime();
+      start.countDown();
+      done.await();
+      t = System.nanoTime() - t;
+      System.out.println("  threads with "+(CLIENTS+1)+" connections\t"+Thread.activeCount());
+      for (DBusConnection conn: conns)
+         conn.disconnect();
+      if (0 != failed.get()) throw new Exception(failed.get()+" clients failed");
+      return CLIENTS * CALLS * 1000000000L / t;
+   }
+
+   static void run(String address) throws Exception
+   {
+      System.out.println(address);
+      DBusConnection server = connect(address);
+      DBusConnection client = connect(address);
+      DBus.Peer peer = client.getRemoteObject(server.getUniqueName(), "/", DBus.Peer.class);
+      // warm up
+      for (int i = 0; i < CALLS; i++)
+         peer.Ping();
+      System.out.println("  sync ns per call\t"+sync(peer));
+      System.out.println("  burst ns per call\t"+burst(client, peer));
+      client.disconnect();
+      System.out.println("  "+CLIENTS+" clients calls per second\t"+parallel(address, server.getUniqueName()));
+      server.disconnect();
+   }
+
+   public static void main(String[] args) throws Exception
+   {
+      if (1 != args.length || !args[0].startsWith("tcp:")) {
+         System.out.println("Usage: transport_bench tcp:host=...,port=...");
+         System.exit(1);
+      }
+      run(args[0]);
+      run("nio-"+args[0]);
+   }
+}
@@ -0,0 +1,118 @@
+/*
+   D-Bus Java Implementation
+   Copyright (c) 2005-2006 Matthew Johnson
+
+   This program is free software; you can redistribute it and/or modify it
+   under the terms of either the GNU Lesser General Public License Version 2 or the
+   Academic Free Licence Version 2.1.
+
+   Full licence texts are included in the COPYING file with this program.
+*/
+package org.freedesktop.dbus.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.Message;
+import org.freedesktop.dbus.MessageReader;
+import org.freedesktop.dbus.MessageWriter;
+import org.freedesktop.dbus.Variant;
+
+/**
+ * Measures heap allocation and time per signal for a storm of
+ * PropertyChanged signals with small values, read and then compared
+ * with the last value of each property as the RIL does, and for
+ * making the Variants the RIL sends.
+ */
+public class variant_alloc
+{
+   public static final int MESSAGES = 10000;
+   public static final int ROUNDS = 20;
+
+   static com.sun.management.ThreadMXBean atmx;
+
+   public static byte[] createStream(int count) throws Exception
+   {
+      Message[] ms = new Message[] {
+         new DBusSignal(":1.3", "/ril_0", "org.ofono.NetworkRegistration", "PropertyChanged", "sv", "Strength", new Variant<Byte>((byte) 67)),
+         new DBusSignal(":1.3", "/ril_0", "org.ofono.NetworkRegistration", "PropertyChanged", "sv", "Strength", new Variant<Byte>((byte) 64)),
+         new DBusSignal(":1.3", "/ril_0", "org.ofono.ConnectionManager", "PropertyChanged", "sv", "Attached", new Variant<Boolean>(true)),
+         new DBusSignal(":1.3", "/ril_0", "org.ofono.Modem", "PropertyChanged", "sv", "Online", new Variant<Boolean>(false)),
+         new DBusSignal(":1.3", "/ril_0", "org.ofono.CallVolume", "PropertyChanged", "sv", "MicrophoneVolume", new Variant<Byte>((byte) 100)),
+         new DBusSignal(":1.3", "/ril_0/voicecall01", "org.ofono.VoiceCall", "PropertyChanged", "sv", "State", new Variant<String>("active")),
+         new DBusSignal(":1.3", "/ril_0", "org.ofono.NetworkRegistration", "PropertyChanged", "sv", "CellId", new Variant<Integer>(3211776)),
+      };
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      MessageWriter out = new MessageWriter(bytes);
+      for (int i = 0; i < count; i++)
+         out.writeMessage(ms[i % ms.length]);
+      out.close();
+      return bytes.toByteArray();
+   }
+
+   static long allocated()
+   {
+      return null == atmx ? 0 : atmx.getThreadAllocatedBytes(Thread.currentThread().getId());
+   }
+
+   public static void main(String[] args) throws Exception
+   {
+      byte[] stream = createStream(MESSAGES);
+      ThreadMXBean tmx = ManagementFactory.getThreadMXBean();
+      if (tmx instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) tmx).isThreadAllocatedMemorySupported()) {
+         atmx = (com.sun.management.ThreadMXBean) tmx;
+         atmx.setThreadAllocatedMemoryEnabled(true);
+      } else
+         System.out.println("Per-thread allocation counters unavailable; reporting time only.");
+
+      long bestalloc = Long.MAX_VALUE;
+      long besttime = Long.MAX_VALUE;
+      int changed = 0;
+      for (int r = 0; r < ROUNDS; r++) {
+         Map<String,Variant<?>> props = new HashMap<String,Variant<?>>();
+         MessageReader in = new MessageReader(new ByteArrayInputStream(stream));
+         changed = 0;
+         long a = allocated();
+         long t = System.nanoTime();
+         for (int i = 0; i < MESSAGES; i++) {
+            Message m = in.readMessage();
+            if (null == m) throw new Exception("Read "+i+" of "+MESSAGES+" messages");
+            Object[] ps = m.getParameters();
+            Variant<?> v = (Variant<?>) ps[1];
+            if (!v.equals(props.put((String) ps[0], v))) changed++;
+         }
+         t = System.nanoTime() - t;
+         a = allocated() - a;
+         if (a < bestalloc) bestalloc = a;
+         if (t < besttime) besttime = t;
+      }
+      System.out.println("Storm: "+MESSAGES+" signals, "+stream.length+" bytes, "+changed+" changes");
+      if (null != atmx)
+         System.out.println("Allocated per signal: "+(bestalloc/MESSAGES)+" bytes");
+      System.out.println("Time per signal: "+(besttime/MESSAGES)+" ns");
+
+      Variant<?>[] sink = new Variant<?>[MESSAGES];
+      long newalloc = Long.MAX_VALUE;
+      long sharedalloc = Long.MAX_VALUE;
+      for (int r = 0; r < ROUNDS; r++) {
+         long a = allocated();
+         for (int i = 0; i < MESSAGES; i++)
+            sink[i] = new Variant<Boolean>(0 == (i & 1));
+         a = allocated() - a;
+         if (a < newalloc) newalloc = a;
+         a = allocated();
+         for (int i = 0; i < MESSAGES; i++)
+            sink[i] = Variant.valueOf(0 == (i & 1));
+         a = allocated() - a;
+         if (a < sharedalloc) sharedalloc = a;
+      }
+      if (null != atmx)
+         System.out.println("Allocated per outgoing boolean: "+(newalloc/MESSAGES)+" bytes new, "+(sharedalloc/MESSAGES)+" bytes shared");
+   }
+}
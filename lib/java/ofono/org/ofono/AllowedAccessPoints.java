@@ -1,6 +1,8 @@
 package org.ofono;
 import java.util.List;
 import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusPriority;
+@DBusPriority(DBusPriority.BACKGROUND)
 public interface AllowedAccessPoints extends DBusInterface
 {
 
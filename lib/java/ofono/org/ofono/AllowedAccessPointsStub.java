@@ -0,0 +1,19 @@
+/* Generated by CreateInterface --stubs from org.ofono.AllowedAccessPoints. Do not edit. */
+package org.ofono;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import org.freedesktop.dbus.RemoteStub;
+
+/** Calls org.ofono.AllowedAccessPoints on remote objects. */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public final class AllowedAccessPointsStub extends RemoteStub implements AllowedAccessPoints
+{
+   private static final String IFACE = "org.ofono.AllowedAccessPoints";
+   private static final Method GETALLOWEDACCESSPOINTS = method(AllowedAccessPoints.class, "GetAllowedAccessPoints");
+
+   public List<String> GetAllowedAccessPoints()
+   {
+      return (List<String>) call(GETALLOWEDACCESSPOINTS, IFACE, "GetAllowedAccessPoints", null);
+   }
+}
@@ -2,6 +2,7 @@ package org.ofono;
 import java.util.Map;
 import org.freedesktop.dbus.DBusInterface;
 import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.DBusTimeout;
 import org.freedesktop.dbus.Variant;
 import org.freedesktop.dbus.exceptions.DBusException;
 public interface CallBarring extends DBusInterface
@@ -18,6 +19,7 @@ public interface CallBarring extends DBusInterface
       }
    }
 
+  @DBusTimeout(5000)
   public Map<String,Variant> GetProperties();
   public void SetProperty(String property, Variant value, String pin2);
   public void DisableAll(String password);
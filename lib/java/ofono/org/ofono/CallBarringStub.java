@@ -0,0 +1,38 @@
+/* Generated by CreateInterface --stubs from org.ofono.CallBarring. Do not edit. */
+package org.ofono;
+
+import java.util.Map;
+import org.freedesktop.dbus.RemoteStub;
+import org.freedesktop.dbus.Variant;
+
+/** Calls org.ofono.CallBarring on remote objects. */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public final class CallBarringStub extends RemoteStub implements CallBarring
+{
+   private static final String IFACE = "org.ofono.CallBarring";
+
+   public void ChangePassword(String a0, String a1)
+   {
+      callRaw(IFACE, "ChangePassword", "ss", a0, a1);
+   }
+   public void DisableAll(String a0)
+   {
+      callRaw(IFACE, "DisableAll", "s", a0);
+   }
+   public void DisableAllIncoming(String a0)
+   {
+      callRaw(IFACE, "DisableAllIncoming", "s", a0);
+   }
+   public void DisableAllOutgoing(String a0)
+   {
+      callRaw(IFACE, "DisableAllOutgoing", "s", a0);
+   }
+   public Map<String,Variant> GetProperties()
+   {
+      return (Map<String,Variant>) call(5000, IFACE, "GetProperties", null);
+   }
+   public void SetProperty(String a0, Variant a1, String a2)
+   {
+      callRaw(IFACE, "SetProperty", "svs", a0, a1, a2);
+   }
+}
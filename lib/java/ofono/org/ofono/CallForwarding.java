@@ -2,6 +2,7 @@ package org.ofono;
 import java.util.Map;
 import org.freedesktop.dbus.DBusInterface;
 import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.DBusTimeout;
 import org.freedesktop.dbus.Variant;
 import org.freedesktop.dbus.exceptions.DBusException;
 public interface CallForwarding extends DBusInterface
@@ -18,6 +19,7 @@ public interface CallForwarding extends DBusInterface
       }
    }
 
+  @DBusTimeout(5000)
   public Map<String,Variant> GetProperties();
   public void SetProperty(String property, Variant value);
   public void DisableAll(String type);
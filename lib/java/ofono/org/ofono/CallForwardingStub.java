@@ -0,0 +1,26 @@
+/* Generated by CreateInterface --stubs from org.ofono.CallForwarding. Do not edit. */
+package org.ofono;
+
+import java.util.Map;
+import org.freedesktop.dbus.RemoteStub;
+import org.freedesktop.dbus.Variant;
+
+/** Calls org.ofono.CallForwarding on remote objects. */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public final class CallForwardingStub extends RemoteStub implements CallForwarding
+{
+   private static final String IFACE = "org.ofono.CallForwarding";
+
+   public void DisableAll(String a0)
+   {
+      callRaw(IFACE, "DisableAll", "s", a0);
+   }
+   public Map<String,Variant> GetProperties()
+   {
+      return (Map<String,Variant>) call(5000, IFACE, "GetProperties", null);
+   }
+   public void SetProperty(String a0, Variant a1)
+   {
+      callRaw(IFACE, "SetProperty", "sv", a0, a1);
+   }
+}
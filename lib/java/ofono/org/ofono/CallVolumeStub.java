@@ -0,0 +1,22 @@
+/* Generated by CreateInterface --stubs from org.ofono.CallVolume. Do not edit. */
+package org.ofono;
+
+import java.util.Map;
+import org.freedesktop.dbus.RemoteStub;
+import org.freedesktop.dbus.Variant;
+
+/** Calls org.ofono.CallVolume on remote objects. */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public final class CallVolumeStub extends RemoteStub implements CallVolume
+{
+   private static final String IFACE = "org.ofono.CallVolume";
+
+   public Map<String,Variant> GetProperties()
+   {
+      return (Map<String,Variant>) call(5000, IFACE, "GetProperties", null);
+   }
+   public void SetProperty(String a0, Variant a1)
+   {
+      callRaw(IFACE, "SetProperty", "sv", a0, a1);
+   }
+}
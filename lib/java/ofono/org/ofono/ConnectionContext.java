@@ -1,9 +1,12 @@
 package org.ofono;
 import java.util.Map;
 import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusPriority;
 import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.DBusTimeout;
 import org.freedesktop.dbus.Variant;
 import org.freedesktop.dbus.exceptions.DBusException;
+@DBusPriority(DBusPriority.BACKGROUND)
 public interface ConnectionContext extends DBusInterface
 {
    public static class PropertyChanged extends DBusSignal
@@ -18,6 +21,7 @@ public interface ConnectionContext extends DBusInterface
       }
    }
 
+  @DBusTimeout(5000)
   public Map<String,Variant<?>> GetProperties();
   public void SetProperty(String property, Variant value);
 
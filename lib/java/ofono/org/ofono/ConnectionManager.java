@@ -2,10 +2,13 @@ package org.ofono;
 import java.util.List;
 import java.util.Map;
 import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusPriority;
 import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.DBusTimeout;
 import org.freedesktop.dbus.Path;
 import org.freedesktop.dbus.Variant;
 import org.freedesktop.dbus.exceptions.DBusException;
+@DBusPriority(DBusPriority.BACKGROUND)
 public interface ConnectionManager extends DBusInterface
 {
    public static class PropertyChanged extends DBusSignal
@@ -40,6 +43,7 @@ public interface ConnectionManager extends DBusInterface
       }
    }
 
+  @DBusTimeout(5000)
   public Map<String,Variant> GetProperties();
   public void SetProperty(String property, Variant value);
   public Path AddContext(String type);
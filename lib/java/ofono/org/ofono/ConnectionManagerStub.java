@@ -0,0 +1,47 @@
+/* Generated by CreateInterface --stubs from org.ofono.ConnectionManager. Do not edit. */
+package org.ofono;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.RemoteStub;
+import org.freedesktop.dbus.Variant;
+
+/** Calls org.ofono.ConnectionManager on remote objects. */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public final class ConnectionManagerStub extends RemoteStub implements ConnectionManager
+{
+   private static final String IFACE = "org.ofono.ConnectionManager";
+   private static final Method ADDCONTEXT = method(ConnectionManager.class, "AddContext", String.class);
+   private static final Method GETCONTEXTS = method(ConnectionManager.class, "GetContexts");
+
+   public Path AddContext(String a0)
+   {
+      return (Path) call(ADDCONTEXT, IFACE, "AddContext", "s", a0);
+   }
+   public void DeactivateAll()
+   {
+      callRaw(IFACE, "DeactivateAll", null);
+   }
+   public List<StructPathAndProps> GetContexts()
+   {
+      return (List<StructPathAndProps>) call(GETCONTEXTS, IFACE, "GetContexts", null);
+   }
+   public Map<String,Variant> GetProperties()
+   {
+      return (Map<String,Variant>) call(5000, IFACE, "GetProperties", null);
+   }
+   public void RemoveContext(Path a0)
+   {
+      callRaw(IFACE, "RemoveContext", "o", a0);
+   }
+   public void ResetContexts()
+   {
+      callRaw(IFACE, "ResetContexts", null);
+   }
+   public void SetProperty(String a0, Variant a1)
+   {
+      callRaw(IFACE, "SetProperty", "sv", a0, a1);
+   }
+}
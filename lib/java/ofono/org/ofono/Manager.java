@@ -2,9 +2,12 @@ package org.ofono;
 import java.util.List;
 import java.util.Map;
 import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusPriority;
 import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.Path;
 import org.freedesktop.dbus.Variant;
 import org.freedesktop.dbus.exceptions.DBusException;
+@DBusPriority(DBusPriority.REGISTRATION)
 public interface Manager extends DBusInterface
 {
    public static class ModemAdded extends DBusSignal
@@ -20,8 +23,8 @@ public interface Manager extends DBusInterface
    }
    public static class ModemRemoved extends DBusSignal
    {
-      public final DBusInterface path;
-      public ModemRemoved(String pathStr, DBusInterface path) throws DBusException
+      public final Path path;
+      public ModemRemoved(String pathStr, Path path) throws DBusException
       {
          super(pathStr, path);
          this.path = path;
@@ -0,0 +1,19 @@
+/* Generated by CreateInterface --stubs from org.ofono.Manager. Do not edit. */
+package org.ofono;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import org.freedesktop.dbus.RemoteStub;
+
+/** Calls org.ofono.Manager on remote objects. */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public final class ManagerStub extends RemoteStub implements Manager
+{
+   private static final String IFACE = "org.ofono.Manager";
+   private static final Method GETMODEMS = method(Manager.class, "GetModems");
+
+   public List<PathAndProperties> GetModems()
+   {
+      return (List<PathAndProperties>) call(GETMODEMS, IFACE, "GetModems", null);
+   }
+}
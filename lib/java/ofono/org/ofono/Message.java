@@ -1,12 +1,15 @@
 package org.ofono;
 
 import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusPriority;
 import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.DBusTimeout;
 import org.freedesktop.dbus.Variant;
 import org.freedesktop.dbus.exceptions.DBusException;
 
 import java.util.Map;
 
+@DBusPriority(DBusPriority.MESSAGING)
 public interface Message extends DBusInterface {
     public static class PropertyChanged extends DBusSignal
     {
@@ -20,6 +23,7 @@ public interface Message extends DBusInterface {
         }
     }
 
+    @DBusTimeout(5000)
     public Map<String,Variant> GetProperties();
     public void Cancel();
 }
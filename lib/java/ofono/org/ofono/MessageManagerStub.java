@@ -0,0 +1,40 @@
+/* Generated by CreateInterface --stubs from org.ofono.MessageManager. Do not edit. */
+package org.ofono;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.RemoteStub;
+import org.freedesktop.dbus.Variant;
+
+/** Calls org.ofono.MessageManager on remote objects. */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public final class MessageManagerStub extends RemoteStub implements MessageManager
+{
+   private static final String IFACE = "org.ofono.MessageManager";
+   private static final Method GETMESSAGES = method(MessageManager.class, "GetMessages");
+   private static final Method SENDMESSAGE = method(MessageManager.class, "SendMessage", String.class, String.class);
+   private static final Method SENDPDU = method(MessageManager.class, "SendPdu", byte[].class, byte[].class);
+
+   public List<PathAndProperties> GetMessages()
+   {
+      return (List<PathAndProperties>) call(GETMESSAGES, IFACE, "GetMessages", null);
+   }
+   public Map<String,Variant> GetProperties()
+   {
+      return (Map<String,Variant>) call(5000, IFACE, "GetProperties", null);
+   }
+   public Path SendMessage(String a0, String a1)
+   {
+      return (Path) call(SENDMESSAGE, IFACE, "SendMessage", "ss", a0, a1);
+   }
+   public Path SendPdu(byte[] a0, byte[] a1)
+   {
+      return (Path) call(SENDPDU, IFACE, "SendPdu", "ayay", a0, a1);
+   }
+   public void SetProperty(String a0, Variant a1)
+   {
+      callRaw(IFACE, "SetProperty", "sv", a0, a1);
+   }
+}
@@ -0,0 +1,22 @@
+/* Generated by CreateInterface --stubs from org.ofono.Message. Do not edit. */
+package org.ofono;
+
+import java.util.Map;
+import org.freedesktop.dbus.RemoteStub;
+import org.freedesktop.dbus.Variant;
+
+/** Calls org.ofono.Message on remote objects. */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public final class MessageStub extends RemoteStub implements Message
+{
+   private static final String IFACE = "org.ofono.Message";
+
+   public void Cancel()
+   {
+      callRaw(IFACE, "Cancel", null);
+   }
+   public Map<String,Variant> GetProperties()
+   {
+      return (Map<String,Variant>) call(5000, IFACE, "GetProperties", null);
+   }
+}
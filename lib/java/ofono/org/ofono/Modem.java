@@ -1,11 +1,17 @@
 package org.ofono;
 import java.util.Map;
 import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusPriority;
 import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.DBusTimeout;
 import org.freedesktop.dbus.Variant;
 import org.freedesktop.dbus.exceptions.DBusException;
+@DBusPriority(DBusPriority.REGISTRATION)
 public interface Modem extends DBusInterface
 {
+   /* As urgent as call signals, so that no call or message signal on the
+      same path overtakes the Interfaces change which enables handling it. */
+   @DBusPriority(DBusPriority.CALL_CONTROL)
    public static class PropertyChanged extends DBusSignal
    {
       public final String name;
@@ -18,6 +24,7 @@ public interface Modem extends DBusInterface
       }
    }
 
+  @DBusTimeout(5000)
   public Map<String,Variant<?>> GetProperties();
   public void SetProperty(String property, Variant value);
 
@@ -2,9 +2,12 @@ package org.ofono;
 import java.util.List;
 import java.util.Map;
 import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusPriority;
 import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.DBusTimeout;
 import org.freedesktop.dbus.Variant;
 import org.freedesktop.dbus.exceptions.DBusException;
+@DBusPriority(DBusPriority.REGISTRATION)
 public interface NetworkRegistration extends DBusInterface
 {
    public static class PropertyChanged extends DBusSignal
@@ -19,9 +22,11 @@ public interface NetworkRegistration extends DBusInterface
       }
    }
 
+  @DBusTimeout(5000)
   public Map<String,Variant> GetProperties();
   public void Register();
   public List<PathAndProperties> GetOperators();
+  @DBusTimeout(180000)
   public List<PathAndProperties> Scan();
 
 }
@@ -0,0 +1,34 @@
+/* Generated by CreateInterface --stubs from org.ofono.NetworkRegistration. Do not edit. */
+package org.ofono;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import org.freedesktop.dbus.RemoteStub;
+import org.freedesktop.dbus.Variant;
+
+/** Calls org.ofono.NetworkRegistration on remote objects. */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public final class NetworkRegistrationStub extends RemoteStub implements NetworkRegistration
+{
+   private static final String IFACE = "org.ofono.NetworkRegistration";
+   private static final Method GETOPERATORS = method(NetworkRegistration.class, "GetOperators");
+   private static final Method SCAN = method(NetworkRegistration.class, "Scan");
+
+   public List<PathAndProperties> GetOperators()
+   {
+      return (List<PathAndProperties>) call(GETOPERATORS, IFACE, "GetOperators", null);
+   }
+   public Map<String,Variant> GetProperties()
+   {
+      return (Map<String,Variant>) call(5000, IFACE, "GetProperties", null);
+   }
+   public void Register()
+   {
+      callRaw(IFACE, "Register", null);
+   }
+   public List<PathAndProperties> Scan()
+   {
+      return (List<PathAndProperties>) call(180000, SCAN, IFACE, "Scan", null);
+   }
+}
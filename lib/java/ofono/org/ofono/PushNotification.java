@@ -1,5 +1,7 @@
 package org.ofono;
 import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusPriority;
+@DBusPriority(DBusPriority.MESSAGING)
 public interface PushNotification extends DBusInterface
 {
 
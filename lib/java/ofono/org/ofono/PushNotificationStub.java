@@ -0,0 +1,24 @@
+/* Generated by CreateInterface --stubs from org.ofono.PushNotification. Do not edit. */
+package org.ofono;
+
+import java.lang.reflect.Type;
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.RemoteStub;
+
+/** Calls org.ofono.PushNotification on remote objects. */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public final class PushNotificationStub extends RemoteStub implements PushNotification
+{
+   private static final String IFACE = "org.ofono.PushNotification";
+   private static final Type[] REGISTERAGENT_ARGS = method(PushNotification.class, "RegisterAgent", DBusInterface.class).getGenericParameterTypes();
+   private static final Type[] UNREGISTERAGENT_ARGS = method(PushNotification.class, "UnregisterAgent", DBusInterface.class).getGenericParameterTypes();
+
+   public void RegisterAgent(DBusInterface a0)
+   {
+      callRaw(IFACE, "RegisterAgent", "o", convert(REGISTERAGENT_ARGS, a0));
+   }
+   public void UnregisterAgent(DBusInterface a0)
+   {
+      callRaw(IFACE, "UnregisterAgent", "o", convert(UNREGISTERAGENT_ARGS, a0));
+   }
+}
@@ -0,0 +1,22 @@
+/* Generated by CreateInterface --stubs from org.ofono.RadioSettings. Do not edit. */
+package org.ofono;
+
+import java.util.Map;
+import org.freedesktop.dbus.RemoteStub;
+import org.freedesktop.dbus.Variant;
+
+/** Calls org.ofono.RadioSettings on remote objects. */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public final class RadioSettingsStub extends RemoteStub implements RadioSettings
+{
+   private static final String IFACE = "org.ofono.RadioSettings";
+
+   public Map<String,Variant> GetProperties()
+   {
+      return (Map<String,Variant>) call(5000, IFACE, "GetProperties", null);
+   }
+   public void SetProperty(String a0, Variant a1)
+   {
+      callRaw(IFACE, "SetProperty", "sv", a0, a1);
+   }
+}
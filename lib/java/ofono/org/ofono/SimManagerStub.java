@@ -0,0 +1,49 @@
+/* Generated by CreateInterface --stubs from org.ofono.SimManager. Do not edit. */
+package org.ofono;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import org.freedesktop.dbus.RemoteStub;
+import org.freedesktop.dbus.Variant;
+
+/** Calls org.ofono.SimManager on remote objects. */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public final class SimManagerStub extends RemoteStub implements SimManager
+{
+   private static final String IFACE = "org.ofono.SimManager";
+   private static final Method GETICON = method(SimManager.class, "GetIcon", byte.class);
+
+   public void ChangePin(String a0, String a1, String a2)
+   {
+      callRaw(IFACE, "ChangePin", "sss", a0, a1, a2);
+   }
+   public void EnterPin(String a0, String a1)
+   {
+      callRaw(IFACE, "EnterPin", "ss", a0, a1);
+   }
+   public List<Byte> GetIcon(byte a0)
+   {
+      return (List<Byte>) call(GETICON, IFACE, "GetIcon", "y", a0);
+   }
+   public Map<String,Variant> GetProperties()
+   {
+      return (Map<String,Variant>) call(5000, IFACE, "GetProperties", null);
+   }
+   public void LockPin(String a0, String a1)
+   {
+      callRaw(IFACE, "LockPin", "ss", a0, a1);
+   }
+   public void ResetPin(String a0, String a1, String a2)
+   {
+      callRaw(IFACE, "ResetPin", "sss", a0, a1, a2);
+   }
+   public void SetProperty(String a0, Variant a1)
+   {
+      callRaw(IFACE, "SetProperty", "sv", a0, a1);
+   }
+   public void UnlockPin(String a0, String a1)
+   {
+      callRaw(IFACE, "UnlockPin", "ss", a0, a1);
+   }
+}
@@ -0,0 +1,35 @@
+/* Generated by CreateInterface --stubs from org.ofono.SimToolkit. Do not edit. */
+package org.ofono;
+
+import java.lang.reflect.Type;
+import java.util.Map;
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.RemoteStub;
+import org.freedesktop.dbus.Variant;
+
+/** Calls org.ofono.SimToolkit on remote objects. */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public final class SimToolkitStub extends RemoteStub implements SimToolkit
+{
+   private static final String IFACE = "org.ofono.SimToolkit";
+   private static final Type[] REGISTERAGENT_ARGS = method(SimToolkit.class, "RegisterAgent", DBusInterface.class).getGenericParameterTypes();
+   private static final Type[] SELECTITEM_ARGS = method(SimToolkit.class, "SelectItem", byte.class, DBusInterface.class).getGenericParameterTypes();
+   private static final Type[] UNREGISTERAGENT_ARGS = method(SimToolkit.class, "UnregisterAgent", DBusInterface.class).getGenericParameterTypes();
+
+   public Map<String,Variant> GetProperties()
+   {
+      return (Map<String,Variant>) call(5000, IFACE, "GetProperties", null);
+   }
+   public void RegisterAgent(DBusInterface a0)
+   {
+      callRaw(IFACE, "RegisterAgent", "o", convert(REGISTERAGENT_ARGS, a0));
+   }
+   public void SelectItem(byte a0, DBusInterface a1)
+   {
+      callRaw(IFACE, "SelectItem", "yo", convert(SELECTITEM_ARGS, a0, a1));
+   }
+   public void UnregisterAgent(DBusInterface a0)
+   {
+      callRaw(IFACE, "UnregisterAgent", "o", convert(UNREGISTERAGENT_ARGS, a0));
+   }
+}
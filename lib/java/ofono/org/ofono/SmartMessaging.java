@@ -1,6 +1,8 @@
 package org.ofono;
 import java.util.List;
 import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusPriority;
+@DBusPriority(DBusPriority.MESSAGING)
 public interface SmartMessaging extends DBusInterface
 {
 
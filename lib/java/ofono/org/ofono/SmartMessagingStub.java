@@ -0,0 +1,36 @@
+/* Generated by CreateInterface --stubs from org.ofono.SmartMessaging. Do not edit. */
+package org.ofono;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.List;
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.RemoteStub;
+
+/** Calls org.ofono.SmartMessaging on remote objects. */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public final class SmartMessagingStub extends RemoteStub implements SmartMessaging
+{
+   private static final String IFACE = "org.ofono.SmartMessaging";
+   private static final Type[] REGISTERAGENT_ARGS = method(SmartMessaging.class, "RegisterAgent", DBusInterface.class).getGenericParameterTypes();
+   private static final Method SENDAPPOINTMENT = method(SmartMessaging.class, "SendAppointment", String.class, List.class);
+   private static final Method SENDBUSINESSCARD = method(SmartMessaging.class, "SendBusinessCard", String.class, List.class);
+   private static final Type[] UNREGISTERAGENT_ARGS = method(SmartMessaging.class, "UnregisterAgent", DBusInterface.class).getGenericParameterTypes();
+
+   public void RegisterAgent(DBusInterface a0)
+   {
+      callRaw(IFACE, "RegisterAgent", "o", convert(REGISTERAGENT_ARGS, a0));
+   }
+   public DBusInterface SendAppointment(String a0, List<Byte> a1)
+   {
+      return (DBusInterface) call(SENDAPPOINTMENT, IFACE, "SendAppointment", "say", a0, a1);
+   }
+   public DBusInterface SendBusinessCard(String a0, List<Byte> a1)
+   {
+      return (DBusInterface) call(SENDBUSINESSCARD, IFACE, "SendBusinessCard", "say", a0, a1);
+   }
+   public void UnregisterAgent(DBusInterface a0)
+   {
+      callRaw(IFACE, "UnregisterAgent", "o", convert(UNREGISTERAGENT_ARGS, a0));
+   }
+}
@@ -2,6 +2,7 @@ package org.ofono;
 import java.util.Map;
 import org.freedesktop.dbus.DBusInterface;
 import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.DBusTimeout;
 import org.freedesktop.dbus.Variant;
 import org.freedesktop.dbus.exceptions.DBusException;
 public interface SupplementaryServices extends DBusInterface
@@ -36,9 +37,11 @@ public interface SupplementaryServices extends DBusInterface
       }
    }
 
+  @DBusTimeout(120000)
   public Pair<String, Variant<?>> Initiate(String command);
   public String Respond(String reply);
   public void Cancel();
+  @DBusTimeout(5000)
   public Map<String,Variant> GetProperties();
 
 }
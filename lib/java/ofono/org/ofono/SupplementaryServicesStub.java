@@ -0,0 +1,32 @@
+/* Generated by CreateInterface --stubs from org.ofono.SupplementaryServices. Do not edit. */
+package org.ofono;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import org.freedesktop.dbus.RemoteStub;
+import org.freedesktop.dbus.Variant;
+
+/** Calls org.ofono.SupplementaryServices on remote objects. */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public final class SupplementaryServicesStub extends RemoteStub implements SupplementaryServices
+{
+   private static final String IFACE = "org.ofono.SupplementaryServices";
+   private static final Method INITIATE = method(SupplementaryServices.class, "Initiate", String.class);
+
+   public void Cancel()
+   {
+      callRaw(IFACE, "Cancel", null);
+   }
+   public Map<String,Variant> GetProperties()
+   {
+      return (Map<String,Variant>) call(5000, IFACE, "GetProperties", null);
+   }
+   public Pair<String,Variant<?>> Initiate(String a0)
+   {
+      return (Pair<String,Variant<?>>) call(120000, INITIATE, IFACE, "Initiate", "s", a0);
+   }
+   public String Respond(String a0)
+   {
+      return (String) call(IFACE, "Respond", "s", a0);
+   }
+}
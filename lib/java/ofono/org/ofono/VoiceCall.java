@@ -1,12 +1,15 @@
 package org.ofono;
 
 import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusPriority;
 import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.DBusTimeout;
 import org.freedesktop.dbus.Variant;
 import org.freedesktop.dbus.exceptions.DBusException;
 
 import java.util.Map;
 
+@DBusPriority(DBusPriority.CALL_CONTROL)
 public interface VoiceCall extends DBusInterface {
     public static class PropertyChanged extends DBusSignal {
         public final String name;
@@ -30,6 +33,7 @@ public interface VoiceCall extends DBusInterface {
         }
     }
 
+    @DBusTimeout(5000)
     public Map<String, Variant> GetProperties();
 
     public void Deflect(String number);
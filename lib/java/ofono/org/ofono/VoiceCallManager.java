@@ -2,10 +2,13 @@ package org.ofono;
 import java.util.List;
 import java.util.Map;
 import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusPriority;
 import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.DBusTimeout;
 import org.freedesktop.dbus.Path;
 import org.freedesktop.dbus.Variant;
 import org.freedesktop.dbus.exceptions.DBusException;
+@DBusPriority(DBusPriority.CALL_CONTROL)
 public interface VoiceCallManager extends DBusInterface
 {
    public static class Forwarded extends DBusSignal
@@ -58,6 +61,7 @@ public interface VoiceCallManager extends DBusInterface
       }
    }
 
+  @DBusTimeout(5000)
   public Map<String,Variant> GetProperties();
   public Path Dial(String number, String hide_callerid);
   public void Transfer();
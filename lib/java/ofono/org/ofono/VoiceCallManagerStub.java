@@ -0,0 +1,76 @@
+/* Generated by CreateInterface --stubs from org.ofono.VoiceCallManager. Do not edit. */
+package org.ofono;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.Map;
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.RemoteStub;
+import org.freedesktop.dbus.Variant;
+
+/** Calls org.ofono.VoiceCallManager on remote objects. */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public final class VoiceCallManagerStub extends RemoteStub implements VoiceCallManager
+{
+   private static final String IFACE = "org.ofono.VoiceCallManager";
+   private static final Method CREATEMULTIPARTY = method(VoiceCallManager.class, "CreateMultiparty");
+   private static final Method DIAL = method(VoiceCallManager.class, "Dial", String.class, String.class);
+   private static final Method GETCALLS = method(VoiceCallManager.class, "GetCalls");
+   private static final Type[] PRIVATECHAT_ARGS = method(VoiceCallManager.class, "PrivateChat", DBusInterface.class).getGenericParameterTypes();
+   private static final Method PRIVATECHAT = method(VoiceCallManager.class, "PrivateChat", DBusInterface.class);
+
+   public List<DBusInterface> CreateMultiparty()
+   {
+      return (List<DBusInterface>) call(CREATEMULTIPARTY, IFACE, "CreateMultiparty", null);
+   }
+   public Path Dial(String a0, String a1)
+   {
+      return (Path) call(DIAL, IFACE, "Dial", "ss", a0, a1);
+   }
+   public List<PathAndProperties> GetCalls()
+   {
+      return (List<PathAndProperties>) call(GETCALLS, IFACE, "GetCalls", null);
+   }
+   public Map<String,Variant> GetProperties()
+   {
+      return (Map<String,Variant>) call(5000, IFACE, "GetProperties", null);
+   }
+   public void HangupAll()
+   {
+      callRaw(IFACE, "HangupAll", null);
+   }
+   public void HangupMultiparty()
+   {
+      callRaw(IFACE, "HangupMultiparty", null);
+   }
+   public void HoldAndAnswer()
+   {
+      callRaw(IFACE, "HoldAndAnswer", null);
+   }
+   public List<DBusInterface> PrivateChat(DBusInterface a0)
+   {
+      return (List<DBusInterface>) call(PRIVATECHAT, IFACE, "PrivateChat", "o", convert(PRIVATECHAT_ARGS, a0));
+   }
+   public void ReleaseAndAnswer()
+   {
+      callRaw(IFACE, "ReleaseAndAnswer", null);
+   }
+   public void ReleaseAndSwap()
+   {
+      callRaw(IFACE, "ReleaseAndSwap", null);
+   }
+   public void SendTones(String a0)
+   {
+      callRaw(IFACE, "SendTones", "s", a0);
+   }
+   public void SwapCalls()
+   {
+      callRaw(IFACE, "SwapCalls", null);
+   }
+   public void Transfer()
+   {
+      callRaw(IFACE, "Transfer", null);
+   }
+}
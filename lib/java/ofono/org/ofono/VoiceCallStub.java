@@ -0,0 +1,30 @@
+/* Generated by CreateInterface --stubs from org.ofono.VoiceCall. Do not edit. */
+package org.ofono;
+
+import java.util.Map;
+import org.freedesktop.dbus.RemoteStub;
+import org.freedesktop.dbus.Variant;
+
+/** Calls org.ofono.VoiceCall on remote objects. */
+@SuppressWarnings({"unchecked", "rawtypes"})
+public final class VoiceCallStub extends RemoteStub implements VoiceCall
+{
+   private static final String IFACE = "org.ofono.VoiceCall";
+
+   public void Answer()
+   {
+      callRaw(IFACE, "Answer", null);
+   }
+   public void Deflect(String a0)
+   {
+      callRaw(IFACE, "Deflect", "s", a0);
+   }
+   public Map<String,Variant> GetProperties()
+   {
+      return (Map<String,Variant>) call(5000, IFACE, "GetProperties", null);
+   }
+   public void Hangup()
+   {
+      callRaw(IFACE, "Hangup", null);
+   }
+}
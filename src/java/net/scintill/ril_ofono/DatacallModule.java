@@ -22,6 +22,7 @@ package net.scintill.ril_ofono;
 import android.annotation.Nullable;
 import android.net.NetworkUtils;
 import android.os.INetworkManagementService;
+import android.os.Message;
 import android.os.RemoteException;
 import android.telephony.Rlog;
 import android.text.TextUtils;
@@ -35,8 +36,10 @@ import com.android.internal.telephony.dataconnection.DcFailCause;
 import net.scintill.ril_ofono.NetworkRegistrationModule.OfonoNetworkTechnology;
 import net.scintill.ril_ofono.NetworkRegistrationModule.OfonoRegistrationState;
 
+import org.freedesktop.dbus.CallbackHandler;
 import org.freedesktop.dbus.Path;
 import org.freedesktop.dbus.Variant;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
 import org.ofono.ConnectionContext;
 import org.ofono.ConnectionManager;
 import org.ofono.Error.NotAttached;
@@ -52,14 +55,18 @@ import java.util.Map;
 
 import libcore.io.Memory;
 
+import static com.android.internal.telephony.CommandException.Error.GENERIC_FAILURE;
 import static com.android.internal.telephony.CommandException.Error.MODE_NOT_SUPPORTED;
 import static com.android.internal.telephony.CommandException.Error.NO_SUCH_ELEMENT;
 import static com.android.internal.telephony.CommandException.Error.OP_NOT_ALLOWED_BEFORE_REG_NW;
 import static com.android.internal.telephony.CommandException.Error.REQUEST_NOT_SUPPORTED;
 import static net.scintill.ril_ofono.RilOfono.RegistrantList;
+import static net.scintill.ril_ofono.RilOfono.logUncaughtException;
 import static net.scintill.ril_ofono.RilOfono.notifyResultAndLog;
 import static net.scintill.ril_ofono.RilOfono.privExc;
 import static net.scintill.ril_ofono.RilOfono.privStr;
+import static net.scintill.ril_ofono.RilOfono.respondExc;
+import static net.scintill.ril_ofono.RilOfono.respondOk;
 import static net.scintill.ril_ofono.RilOfono.runOnMainThreadDebounced;
 
 /*package*/ class DatacallModule extends PropManager implements RilDatacallInterface {
@@ -162,9 +169,9 @@ import static net.scintill.ril_ofono.RilOfono.runOnMainThreadDebounced;
         ConnectionContext ctx;
         if (!isLte()) {
             mConnMan.DeactivateAll();
-            mConnMan.SetProperty("Powered", new Variant<>(false));
+            mConnMan.SetProperty("Powered", Variant.valueOf(false));
             mConnMan.ResetContexts();
-            mConnMan.SetProperty("Powered", new Variant<>(true));
+            mConnMan.SetProperty("Powered", Variant.valueOf(true));
             ctxPath = mConnMan.AddContext("internet").getPath();
             ctx = RilOfono.sInstance.getOfonoInterface(ConnectionContext.class, ctxPath);
             try {
@@ -266,8 +273,20 @@ import static net.scintill.ril_ofono.RilOfono.runOnMainThreadDebounced;
 		 * this value to off detaches the modem from the
 		 * Packet Domain network.
          */
-        mConnMan.SetProperty("Powered", new Variant<>(allowed));
-        return null;
+        final Message response = RilWrapperBase.getCurrentMessage();
+        RilOfono.callAsync(mConnMan, "SetProperty", "Powered", Variant.valueOf(allowed)).addCallback(new CallbackHandler<Object>() {
+            @Override
+            public void handle(Object r) {
+                respondOk("setDataAllowed", response, null);
+            }
+
+            @Override
+            public void handleError(DBusExecutionException e) {
+                logUncaughtException("setDataAllowed", e);
+                respondExc("setDataAllowed", response, new CommandException(GENERIC_FAILURE), null);
+            }
+        });
+        return RilWrapperBase.RETURN_LATER;
     }
 
     @Override
@@ -278,7 +297,7 @@ import static net.scintill.ril_ofono.RilOfono.runOnMainThreadDebounced;
     }
 
     private void setContextActive(ConnectionContext ctx, boolean active) {
-        ctx.SetProperty("Active", new Variant<>(active));
+        ctx.SetProperty("Active", Variant.valueOf(active));
     }
 
     /*package*/ void handle(ConnectionContext.PropertyChanged s) {
@@ -469,8 +488,8 @@ import static net.scintill.ril_ofono.RilOfono.runOnMainThreadDebounced;
                 ctx.SetProperty("Username", new Variant<>(username));
                 ctx.SetProperty("Password", new Variant<>(password));
             } else {
-                ctx.SetProperty("Username", new Variant<>(""));
-                ctx.SetProperty("Password", new Variant<>(""));
+                ctx.SetProperty("Username", Variant.valueOf(""));
+                ctx.SetProperty("Password", Variant.valueOf(""));
             }
         }
     }
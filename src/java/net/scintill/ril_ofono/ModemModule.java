@@ -68,7 +68,7 @@ import static com.android.internal.telephony.CommandsInterface.RadioState;
     public Object setRadioPower(final boolean on) {
         Rlog.v(TAG, "setRadioPower("+on+")");
 
-        mModem.SetProperty("Online", new Variant<>(on));
+        mModem.SetProperty("Online", Variant.valueOf(on));
         return null;
     }
 
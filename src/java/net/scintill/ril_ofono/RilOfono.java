@@ -28,6 +28,7 @@ import android.os.HandlerThread;
 import android.os.INetworkManagementService;
 import android.os.Message;
 import android.os.ServiceManager;
+import android.os.SystemClock;
 import android.telephony.Rlog;
 import android.text.TextUtils;
 import android.util.ArraySet;
@@ -42,9 +43,12 @@ import com.android.internal.telephony.uicc.IccUtils;
 
 import org.freedesktop.DBus;
 import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusFuture;
 import org.freedesktop.dbus.DBusInterface;
 import org.freedesktop.dbus.DBusSigHandler;
 import org.freedesktop.dbus.DBusSignal;
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.StringCache;
 import org.freedesktop.dbus.Variant;
 import org.freedesktop.dbus.exceptions.DBusException;
 import org.ofono.ConnectionContext;
@@ -76,6 +80,7 @@ import static com.android.internal.telephony.CommandsInterface.RadioState;
     /*package*/ static final boolean LOG_POTENTIALLY_SENSITIVE_INFO = true;
 
     private static final String DBUS_ADDRESS = "unix:path=/dev/socket/dbus";
+    private static final String OFONO_BUS_NAME = "org.ofono";
 
     /*package*/ RilMiscInterface mMiscModule;
     /*package*/ NetworkRegistrationModule mNetworkRegistrationModule;
@@ -95,10 +100,14 @@ import static com.android.internal.telephony.CommandsInterface.RadioState;
 
     private String mModemPath;
 
+    // for logging how long startup takes; 0 once the RIL is connected
+    private long mStartTime;
+
     /*package*/ static RilOfono sInstance;
 
     /*package*/ RilOfono(final RilWrapperBase rilWrapper, Context ctxt) {
         sInstance = this;
+        mStartTime = SystemClock.elapsedRealtime();
         Rlog.d(TAG, "RilOfono "+BUILD_NUMBER+" starting");
 
         mRilWrapper = rilWrapper;
@@ -175,6 +184,10 @@ import static com.android.internal.telephony.CommandsInterface.RadioState;
         // apparently when the icc*() methods we won't support were added.
         final int RIL_VERSION = 9;
         mRilWrapper.updateRilConnection(RIL_VERSION);
+        if (mStartTime != 0) {
+            Rlog.i(TAG, "RIL connected "+(SystemClock.elapsedRealtime() - mStartTime)+"ms after starting");
+            mStartTime = 0;
+        }
 
         // TODO call VoiceManager GetCalls() ? oFono docs on that method suggest you should at startup
 
@@ -347,11 +360,20 @@ import static com.android.internal.telephony.CommandsInterface.RadioState;
                 MessageManager.IncomingPdu.class, org.ofono.Message.PropertyChanged.class,
                 VoiceCallManager.CallAdded.class, VoiceCallManager.CallRemoved.class,
                 VoiceCall.PropertyChanged.class, ConnectionManager.ContextAdded.class,
-                ConnectionManager.ContextRemoved.class, ConnectionContext.PropertyChanged.class,
-                Modem.PropertyChanged.class, NetworkRegistration.PropertyChanged.class,
-                SimManager.PropertyChanged.class, MessageWaiting.PropertyChanged.class,
-                Manager.ModemAdded.class, Manager.ModemRemoved.class,
+                ConnectionManager.ContextRemoved.class, ConnectionManager.PropertyChanged.class,
+                ConnectionContext.PropertyChanged.class, Modem.PropertyChanged.class,
+                NetworkRegistration.PropertyChanged.class, SimManager.PropertyChanged.class,
+                MessageWaiting.PropertyChanged.class, Manager.ModemAdded.class,
+                Manager.ModemRemoved.class,
         });
+        // only the latest value of these matters when they pile up, e.g. when the radio bounces;
+        // call, message and data context changes are all handled in order
+        for (Class<? extends DBusSignal> c : Arrays.<Class<? extends DBusSignal>>asList(
+                NetworkRegistration.PropertyChanged.class, Modem.PropertyChanged.class,
+                SimManager.PropertyChanged.class, MessageWaiting.PropertyChanged.class,
+                ConnectionManager.PropertyChanged.class)) {
+            mDbus.setSignalCoalescing(c, true);
+        }
     }
 
     private void handle(DBusSignal s) {
@@ -416,11 +438,28 @@ import static com.android.internal.telephony.CommandsInterface.RadioState;
             }
         }
 
+        releaseRemovedObjects(s);
+
         if (!handled) {
             Rlog.w(TAG, "Unhandled signal " + s.getClass());
         }
     }
 
+    private void releaseRemovedObjects(DBusSignal s) {
+        // cached references to oFono objects which have gone away are no use
+        Path path = null;
+        if (s instanceof VoiceCallManager.CallRemoved) {
+            path = ((VoiceCallManager.CallRemoved) s).path;
+        } else if (s instanceof ConnectionManager.ContextRemoved) {
+            path = ((ConnectionManager.ContextRemoved) s).path;
+        } else if (s instanceof Manager.ModemRemoved) {
+            path = ((Manager.ModemRemoved) s).path;
+        }
+        if (path != null) {
+            mDbus.releaseRemoteObjects(OFONO_BUS_NAME, path.getPath());
+        }
+    }
+
     // an exception catch-all (that logs exceptions with privExc()) is provided
     @SuppressWarnings({"unchecked","rawtypes"})
     /*package*/ void registerDbusSignals(Class<?>[] signalClasses) {
@@ -436,13 +475,11 @@ import static com.android.internal.telephony.CommandsInterface.RadioState;
             }
         };
 
-        for (Class<?> signalClass : signalClasses) {
-            try {
-                //Rlog.v(TAG, "addSigHandler "+signalClass.getName()+" "+typedHandler);
-                mDbus.addSigHandler((Class<? extends DBusSignal>)signalClass, handler);
-            } catch (DBusException e) {
-                throw new RuntimeException("Unable to register dbus signal handler", e);
-            }
+        // one match rule for everything oFono sends, rather than a round trip to the bus per signal
+        try {
+            mDbus.addSigHandlers(OFONO_BUS_NAME, signalClasses, handler);
+        } catch (DBusException e) {
+            throw new RuntimeException("Unable to register dbus signal handler", e);
         }
     }
 
@@ -879,9 +916,36 @@ import static com.android.internal.telephony.CommandsInterface.RadioState;
     @Override
     @OkOnMainThread
     public Object invokeOemRilRequestStrings(String[] strings) {
+        if (strings != null && strings.length == 1 && DUMP_DBUS_STATS.equals(strings[0])) {
+            dumpDbusStats();
+            return null;
+        }
         throw new CommandException(REQUEST_NOT_SUPPORTED);
     }
 
+    /*package*/ static final String DUMP_DBUS_STATS = "ril_ofono.dumpDbusStats";
+
+    /*package*/ void dumpDbusStats() {
+        DBusConnection dbus = mDbus;
+        if (dbus == null) {
+            Rlog.i(TAG, "dbus stats: not connected");
+            return;
+        }
+        Rlog.i(TAG, "dbus dispatch: "+dbus.getDispatchStats());
+        Rlog.i(TAG, "dbus pending calls: "+dbus.getPendingCallStats());
+        dumpLines("dbus outgoing ", String.valueOf(dbus.getOutgoingStats()));
+        dumpLines("dbus latency ", dbus.getLatencyStats().toString());
+        Rlog.i(TAG, "dbus string cache: hit rate "+Math.round(StringCache.getHitRate() * 1000) / 10.0+"%, "
+                +StringCache.getHits()+" hits, "+StringCache.getMisses()+" misses, "+StringCache.getUncached()+" uncached");
+    }
+
+    private static void dumpLines(String prefix, String s) {
+        // one line per entry, logcat truncates long messages
+        for (String line : s.split("\n")) {
+            Rlog.i(TAG, prefix+line);
+        }
+    }
+
     @Override
     @OkOnMainThread
     public Object sendTerminalResponse(String contents) {
@@ -1091,7 +1155,7 @@ import static com.android.internal.telephony.CommandsInterface.RadioState;
 
     /*package*/ <T extends DBusInterface> T getOfonoInterface(Class<T> tClass, String path) {
         try {
-            return mDbus.getRemoteObject("org.ofono", path, tClass);
+            return mDbus.getRemoteObject(OFONO_BUS_NAME, path, tClass);
         } catch (DBusException e) {
             throw new RuntimeException("Exception getting "+ tClass.getSimpleName(), e);
         }
@@ -1167,6 +1231,11 @@ import static com.android.internal.telephony.CommandsInterface.RadioState;
         sInstance.mDbusHandler.post(r);
     }
 
+    // The callbacks on the result run on the dbus reader thread, so they must not block.
+    /*package*/ static <T> DBusFuture<T> callAsync(DBusInterface iface, String method, Object... args) {
+        return sInstance.mDbus.callAsync(iface, method, args);
+    }
+
     // We often won't care much what thread it runs on, but in order to use a Handler, I guess we need
     // to specify a thread.
     /*package*/ static void runOnMainThreadDebounced(DebouncedRunnable r, long delayMillis) {
@@ -28,7 +28,9 @@ import com.android.internal.telephony.IccUtils;
 import com.android.internal.telephony.SmsConstants;
 import com.android.internal.telephony.SmsResponse;
 
+import org.freedesktop.dbus.CallbackHandler;
 import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
 import org.ofono.MessageManager;
 
 import java.util.HashMap;
@@ -36,6 +38,7 @@ import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.android.internal.telephony.CommandException.Error.GENERIC_FAILURE;
+import static net.scintill.ril_ofono.RilOfono.logUncaughtException;
 import static net.scintill.ril_ofono.RilOfono.notifyResultAndLog;
 import static net.scintill.ril_ofono.RilOfono.privExc;
 import static net.scintill.ril_ofono.RilOfono.privStr;
@@ -69,12 +72,24 @@ import static net.scintill.ril_ofono.RilOfono.respondOk;
         final byte[] smscPDU = IccUtils.hexStringToBytes(smscPDUStr);
         final byte[] pdu = IccUtils.hexStringToBytes(pduStr);
 
-        synchronized (mMapSmsDbusPathToSenderCallback) {
-            // TODO timeout on this method? at least we're not on the main thread,
-            // but we could block anything else trying to get on the dbus thread
-            Path sentMessage = mMessenger.SendPdu(smscPDU, pdu);
-            mMapSmsDbusPathToSenderCallback.put(sentMessage.getPath(), RilWrapperBase.getCurrentMessage());
-        }
+        // The reply comes in ahead of the signals about the message's status, and is handled
+        // on the dbus reader thread before they are dispatched, so the callback is in the map
+        // in time for handleSendSmsComplete().
+        final Message senderCb = RilWrapperBase.getCurrentMessage();
+        RilOfono.<Path>callAsync(mMessenger, "SendPdu", smscPDU, pdu).addCallback(new CallbackHandler<Path>() {
+            @Override
+            public void handle(Path sentMessage) {
+                synchronized (mMapSmsDbusPathToSenderCallback) {
+                    mMapSmsDbusPathToSenderCallback.put(sentMessage.getPath(), senderCb);
+                }
+            }
+
+            @Override
+            public void handleError(DBusExecutionException e) {
+                logUncaughtException("sendSMS", e);
+                respondExc("sendSMS", senderCb, new CommandException(GENERIC_FAILURE), null);
+            }
+        });
         return RilWrapperBase.RETURN_LATER;
     }
 
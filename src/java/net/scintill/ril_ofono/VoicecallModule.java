@@ -138,7 +138,7 @@ import static net.scintill.ril_ofono.RilOfono.runOnMainThreadDebounced;
         String callPath = s.path.getPath();
         Rlog.d(TAG, "handle CallAdded "+ callPath);
         Map<String, Variant<?>> newCallProps = new HashMap<>(s.properties);
-        newCallProps.put(PROPNAME_CALL_INDEX, new Variant<>(mAvailableCallIndices.remove()));
+        newCallProps.put(PROPNAME_CALL_INDEX, Variant.valueOf(mAvailableCallIndices.remove()));
         putOrMerge2dProps(mCallsProps, callPath, newCallProps);
 
         notifyResultAndLog("call state - added", mCallStateRegistrants, null, false);
@@ -183,7 +183,7 @@ import static net.scintill.ril_ofono.RilOfono.runOnMainThreadDebounced;
 
         Path dialedCallPath = mCallManager.Dial(address, clirModeStr);
         Map<String, Variant<?>> dialedCallProps = new HashMap<>();
-        dialedCallProps.put(PROPNAME_CALL_MOBORIG, new Variant<>(true));
+        dialedCallProps.put(PROPNAME_CALL_MOBORIG, Variant.valueOf(true));
         putOrMerge2dProps(mCallsProps, dialedCallPath.getPath(), dialedCallProps);
         Rlog.d(TAG, "dialed "+dialedCallPath.getPath());
         return null;